@@ -41,6 +41,7 @@ import java.util.List;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceManager;
 import it.unipi.dii.covida.activityrecognition.ActivityDetectionService;
+import it.unipi.dii.covida.localdb.RetentionJobService;
 import it.unipi.dii.covida.ui.settings.SettingsActivity;
 
 import static androidx.fragment.app.FragmentManager.POP_BACK_STACK_INCLUSIVE;
@@ -67,6 +68,8 @@ public class MainActivity extends AppCompatActivity /*implements NavigationView.
         NavController navController = Navigation.findNavController(this, R.id.nav_host_fragment);
         NavigationUI.setupActionBarWithNavController(this, navController, mAppBarConfiguration);
         NavigationUI.setupWithNavController(navigationView, navController);
+        // the retention policy is enforced in background (the job survives reboots)
+        RetentionJobService.schedule(this);
         // SERVICE AND PERMISSIONS CONFIGURATION
         if(!checkMyPermissions()) {
             askPermissions();
@@ -0,0 +1,175 @@
+package it.unipi.dii.covida.executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * The executors shared by the whole app (instead of an AsyncTask or a Thread for every job):
+ * - dbWrite: a single thread for the writes of the database, so they never wait for the lock of
+ *   each other and their order is the order of submission (within a Priority);
+ * - dbRead: the reads of the database, which run beside the writes (the database uses WAL);
+ * - io: a bounded pool for the calls to the network (e.g. the geocoding);
+ * - the scheduler, for the timeouts and the delayed work.
+ * The metrics of every executor are reported by toString().
+ */
+public class AppExecutors {
+
+    /*
+     * Constants
+     */
+    private static final int DB_READ_THREADS = 2;
+    private static final int IO_THREADS = 4;
+
+    /*
+     * Data members
+     */
+    private static AppExecutors instance = null;
+    private final PriorityExecutor dbWrite = new PriorityExecutor("db-write", 1);
+    private final PriorityExecutor dbRead = new PriorityExecutor("db-read", DB_READ_THREADS);
+    private final PriorityExecutor io = new PriorityExecutor("io", IO_THREADS);
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Handler mainThread = new Handler(Looper.getMainLooper());
+
+    /*
+     * Private methods
+     */
+
+    private AppExecutors() {
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // a cancelled timeout does not stay in the queue until its delay expires
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Return true if the result of a task can be delivered: the task is not cancelled and its scope
+     * is not closed
+     */
+    private static boolean isDeliverable(Future<?> future, TaskScope scope) {
+        return (future == null || !future.isCancelled()) && (scope == null || scope.isActive());
+    }
+
+    /*
+     * Public methods
+     */
+
+    public static AppExecutors getInstance() {
+        if(instance == null) {
+            synchronized (AppExecutors.class) {
+                if(instance == null)
+                    instance = new AppExecutors();
+            }
+        }
+        return instance;
+    }
+
+    public PriorityExecutor dbWrite() {
+        return dbWrite;
+    }
+
+    public PriorityExecutor dbRead() {
+        return dbRead;
+    }
+
+    public PriorityExecutor io() {
+        return io;
+    }
+
+    /**
+     * Run a task on an executor and deliver its result on the main thread
+     * @param executor the executor (dbWrite(), dbRead() or io())
+     * @param priority the priority of the task
+     * @param task the task
+     * @param scope the scope of the task (null if the task is not bound to a screen): the result is
+     *              not delivered once the scope is closed
+     * @return the task, to cancel it (the result of a cancelled task is not delivered)
+     */
+    public <T> Future<T> submit(PriorityExecutor executor, Priority priority, final UiTask<T> task, final TaskScope scope) {
+        final AtomicReference<Future<T>> submitted = new AtomicReference<>();
+        Future<T> future = executor.submit(priority, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    final T result = task.call();
+                    mainThread.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(isDeliverable(submitted.get(), scope))
+                                task.onResult(result);
+                        }
+                    });
+                    return result;
+                } catch (final Exception e) {
+                    mainThread.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(isDeliverable(submitted.get(), scope))
+                                task.onError(e);
+                        }
+                    });
+                    throw e;
+                }
+            }
+        });
+        submitted.set(future);
+        if(scope != null)
+            scope.add(future);
+        return future;
+    }
+
+    /**
+     * Run an action on the scheduler thread after a delay
+     * @return the scheduled action, to cancel it
+     */
+    public ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+        return scheduler.schedule(action, delay, unit);
+    }
+
+    /**
+     * Run an action on the main thread after a delay: the scheduler waits, the main thread runs it
+     * @return the scheduled action, to cancel it (the action does not run if it is cancelled
+     *         before the delay expires)
+     */
+    public ScheduledFuture<?> scheduleOnMainThread(final Runnable action, long delay, TimeUnit unit) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mainThread.post(action);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Cancel a task if it has not ended within a timeout
+     * @return the timeout, to cancel it
+     */
+    public ScheduledFuture<?> cancelAfter(final Future<?> task, long timeout, TimeUnit unit) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                task.cancel(true);
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return dbWrite + "\n" + dbRead + "\n" + io + "\nscheduler: " + scheduler.getQueue().size() + " scheduled";
+    }
+
+}
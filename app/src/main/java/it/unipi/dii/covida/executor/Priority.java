@@ -0,0 +1,14 @@
+package it.unipi.dii.covida.executor;
+
+
+/**
+ * The priority of a task submitted to a PriorityExecutor, from the most urgent
+ */
+public enum Priority {
+    /** the user is waiting for the result (e.g. the content of the screen being opened) */
+    USER_VISIBLE,
+    /** work started by the app that the user does not wait for */
+    BACKGROUND,
+    /** long work on many rows (e.g. an import or the retention job) */
+    BULK
+}
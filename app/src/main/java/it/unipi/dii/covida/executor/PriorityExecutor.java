@@ -0,0 +1,212 @@
+package it.unipi.dii.covida.executor;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A fixed pool of threads that runs the queued tasks in order of Priority (and in order of
+ * submission for the same Priority), with metrics on the queue depth and on the time spent by the
+ * tasks waiting and running. A task cancelled while it is queued is removed from the queue.
+ */
+public class PriorityExecutor {
+
+    /*
+     * Data members
+     */
+    private final String name;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    // metrics (updated by the worker threads)
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * A task submitted to a PriorityExecutor: it can be cancelled and waited like any Future
+     */
+    public final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final Priority priority;
+        private final long order;
+        private final long submitTime = System.nanoTime();
+        private long startTime;
+
+        private Task(Callable<T> callable, Priority priority) {
+            super(callable);
+            this.priority = priority;
+            this.order = sequence.getAndIncrement();
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if(cancelled)
+                queue.remove(this);
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if(priority != other.priority)
+                return priority.compareTo(other.priority);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create an executor
+     * @param name the name of the executor (and the prefix of the names of its threads)
+     * @param threadCount the number of threads
+     */
+    public PriorityExecutor(final String name, int threadCount) {
+        this.name = name;
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 30L, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable runnable) {
+                super.beforeExecute(thread, runnable);
+                Task<?> task = (Task<?>) runnable;
+                task.startTime = System.nanoTime();
+                final long wait = task.startTime - task.submitTime;
+                totalWaitNanos.addAndGet(wait);
+                updateMax(maxWaitNanos, wait);
+            }
+
+            @Override
+            protected void afterExecute(Runnable runnable, Throwable throwable) {
+                super.afterExecute(runnable, throwable);
+                totalRunNanos.addAndGet(System.nanoTime() - ((Task<?>) runnable).startTime);
+                completedCount.incrementAndGet();
+            }
+        };
+        // the idle threads are released: most executors are used in bursts
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submit a task
+     * @param priority the priority of the task
+     * @param callable the work of the task
+     * @return the task, to wait for its result or to cancel it
+     */
+    public <T> Task<T> submit(Priority priority, Callable<T> callable) {
+        Task<T> task = new Task<>(callable, priority);
+        executor.execute(task);
+        final int depth = queue.size();
+        int current;
+        while(depth > (current = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(current, depth));
+        return task;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the number of tasks waiting for a thread
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Return the maximum number of tasks seen waiting for a thread
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Return the number of tasks run (completed, failed or interrupted)
+     */
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Return the average time spent by the tasks in the queue
+     * @return the average time in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        final int count = completedCount.get();
+        return count == 0 ? 0.0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Return the maximum time spent by a task in the queue
+     * @return the time in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Return the average time spent by the tasks running
+     * @return the average time in milliseconds
+     */
+    public double getAverageRunMillis() {
+        final int count = completedCount.get();
+        return count == 0 ? 0.0 : totalRunNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Stop accepting tasks; the queued ones are still run
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for the end of the tasks after shutdown()
+     * @return true if all the tasks have ended before the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: queued %d (max %d), completed %d, wait %.1f ms (max %.1f ms), run %.1f ms",
+                name, getQueueDepth(), getMaxQueueDepth(), getCompletedCount(), getAverageWaitMillis(), getMaxWaitMillis(), getAverageRunMillis());
+    }
+
+}
@@ -0,0 +1,84 @@
+package it.unipi.dii.covida.executor;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+
+/**
+ * The tasks started by a screen: they are cancelled when the lifecycle of the screen (e.g. the
+ * view of a Fragment, from getViewLifecycleOwner()) is destroyed, so a result is never delivered
+ * to a view that does not exist anymore and the queued reads of a closed screen are not run.
+ * It must be used on the main thread.
+ */
+public class TaskScope implements LifecycleEventObserver {
+
+    /*
+     * Data members
+     */
+    private final List<Future<?>> tasks = new LinkedList<>();
+    private boolean closed;
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a scope bound to a lifecycle
+     */
+    public TaskScope(LifecycleOwner owner) {
+        if(owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED)
+            closed = true;
+        else
+            owner.getLifecycle().addObserver(this);
+    }
+
+    /**
+     * Add a task to the scope (the tasks already done are forgotten)
+     * @return the task
+     */
+    public <F extends Future<?>> F add(F task) {
+        Iterator<Future<?>> iterator = tasks.iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().isDone())
+                iterator.remove();
+        }
+        if(closed)
+            task.cancel(true);
+        else
+            tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Return false if the lifecycle has been destroyed
+     */
+    public boolean isActive() {
+        return !closed;
+    }
+
+    /**
+     * Cancel all the tasks of the scope
+     */
+    public void cancelAll() {
+        for(Future<?> task : tasks)
+            task.cancel(true);
+        tasks.clear();
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if(event == Lifecycle.Event.ON_DESTROY) {
+            closed = true;
+            cancelAll();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package it.unipi.dii.covida.executor;
+
+import java.util.concurrent.Callable;
+
+
+/**
+ * The work of a task started by the UI: call() runs on a thread of an executor, then onResult()
+ * (or onError() if call() has thrown) runs on the main thread, unless the task has been cancelled.
+ * See AppExecutors.submit().
+ */
+public abstract class UiTask<T> implements Callable<T> {
+
+    /**
+     * Called on the main thread with the result of call()
+     */
+    public abstract void onResult(T result);
+
+    /**
+     * Called on the main thread with the exception thrown by call(); by default it is printed
+     */
+    public void onError(Exception e) {
+        e.printStackTrace();
+    }
+
+}
@@ -0,0 +1,72 @@
+package it.unipi.dii.covida.exposure;
+
+
+/**
+ * An interval spent inside a Hotspot during its time window: the contiguous Locations of a trace
+ * of a TracePool that are inside the Hotspot, and the time between them
+ */
+public class Exposure {
+
+    /*
+     * Data members
+     */
+    private final String tracePoolId;
+    private final Hotspot hotspot;
+    private final long fromTime;
+    private final long toTime;
+    private final double minDistance;
+    private final int locationCount;
+
+    /**
+     * Create an Exposure
+     * @param tracePoolId the TracePool ID
+     * @param hotspot the Hotspot
+     * @param fromTime the time of the first Location inside the Hotspot, or the start of the time
+     *                 window if it is entered between two Locations inside
+     * @param toTime the time of the last Location inside the Hotspot, or the end of the time
+     *               window if it is left between two Locations inside
+     * @param minDistance the minimum distance in meters from the center of the Hotspot
+     * @param locationCount the number of Locations inside the Hotspot that delimit the interval
+     */
+    public Exposure(String tracePoolId, Hotspot hotspot, long fromTime, long toTime, double minDistance, int locationCount) {
+        this.tracePoolId = tracePoolId;
+        this.hotspot = hotspot;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.minDistance = minDistance;
+        this.locationCount = locationCount;
+    }
+
+    public String getTracePoolId() {
+        return tracePoolId;
+    }
+
+    public Hotspot getHotspot() {
+        return hotspot;
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Return the time spent inside the Hotspot during its time window
+     * @return the duration in milliseconds
+     */
+    public long getDuration() {
+        return toTime - fromTime;
+    }
+
+    public double getMinDistance() {
+        return minDistance;
+    }
+
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+}
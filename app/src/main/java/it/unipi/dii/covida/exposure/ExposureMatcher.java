@@ -0,0 +1,273 @@
+package it.unipi.dii.covida.exposure;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import it.unipi.dii.covida.localdb.LocationDatabaseManager;
+import it.unipi.dii.covida.localdb.TracePoolSummary;
+import it.unipi.dii.covida.locationstore.ContinuousTrace;
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+import it.unipi.dii.covida.locationstore.TracePool;
+
+
+/**
+ * Finds the Exposures of the stored TracePools to a list of Hotspots.
+ * Every Location is compared only with the Hotspots of its cell of a HotspotIndex whose time
+ * window has already started (the time since the previous Location of the trace is matched as
+ * well, see TracePoolMatcher), and the traces whose bounds and time range do not meet any Hotspot
+ * are skipped as a whole; the Locations are streamed from the columnar traces without creating
+ * Location objects. The TracePools are matched in parallel in the common ForkJoinPool.
+ * A matcher is immutable: it can be used by many threads at the same time.
+ */
+public class ExposureMatcher {
+
+    /*
+     * Constants
+     */
+    // the Locations loaded from the database at a time by match(LocationDatabaseManager)
+    static final int CHUNK_LOCATIONS = 200000;
+
+    /*
+     * Data members
+     */
+    private final HotspotIndex index;
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * An Exposure that is still growing
+     */
+    private static final class Interval {
+        final int hotspot;
+        long fromTime;
+        long toTime;
+        double minDistance;
+        int locationCount;
+        int lastPosition;
+
+        Interval(int hotspot, long time, double distance, int position) {
+            this.hotspot = hotspot;
+            this.fromTime = time;
+            this.toTime = time;
+            this.minDistance = distance;
+            this.locationCount = 1;
+            this.lastPosition = position;
+        }
+    }
+
+    /**
+     * Matches the traces of a TracePool: the contiguous Locations inside the same Hotspot are
+     * an Exposure, which ends at the first Location outside or at the end of the trace. The time
+     * between two consecutive Locations inside a Hotspot is spent inside it: a stay is stored as
+     * two Locations at its arrival and departure time (see StayPointDetector), a Hotspot whose
+     * time window falls between them is an Exposure of both.
+     */
+    private final class TracePoolMatcher implements TracePointConsumer {
+        private final String tracePoolId;
+        private final List<Exposure> exposures;
+        private final Map<Integer, Interval> open = new HashMap<>();
+        private int position;
+        // the previous Location of the trace
+        private double previousLatitude;
+        private double previousLongitude;
+        private long previousTime;
+
+        TracePoolMatcher(String tracePoolId, List<Exposure> exposures) {
+            this.tracePoolId = tracePoolId;
+            this.exposures = exposures;
+        }
+
+        private void close(Interval interval) {
+            exposures.add(new Exposure(tracePoolId, index.hotspots[interval.hotspot], interval.fromTime, interval.toTime,
+                    interval.minDistance, interval.locationCount));
+        }
+
+        @Override
+        public void beginTrace() {
+            position = 0;
+        }
+
+        @Override
+        public void accept(TracePoint point) {
+            final int current = position++;
+            final long time = point.getTime();
+            final boolean hasPrevious = current > 0;
+            final long fromTime = hasPrevious ? previousTime : time;
+            final double latitude = point.getLatitude(), longitude = point.getLongitude();
+            final double previousLatitude = this.previousLatitude, previousLongitude = this.previousLongitude;
+            this.previousLatitude = latitude;
+            this.previousLongitude = longitude;
+            this.previousTime = time;
+            if(!index.mayContain(fromTime, time))
+                return;
+            int[] candidates = index.get(latitude, longitude);
+            if(candidates == null)
+                return;
+            for(int hotspot : candidates) {
+                if(index.fromTimes[hotspot] > time)
+                    break;
+                if(index.toTimes[hotspot] < fromTime)
+                    continue;
+                final double distance = index.distance(hotspot, latitude, longitude);
+                if(distance > index.radii[hotspot])
+                    continue;
+                // the previous Location is inside too: the time since it is spent inside
+                double previousDistance = Double.POSITIVE_INFINITY;
+                if(hasPrevious)
+                    previousDistance = index.distance(hotspot, previousLatitude, previousLongitude);
+                final boolean bridged = hasPrevious && previousDistance <= index.radii[hotspot];
+                if(!bridged && index.toTimes[hotspot] < time)
+                    continue;
+                final long start = bridged ? Math.max(index.fromTimes[hotspot], fromTime) : time;
+                final long end = Math.min(index.toTimes[hotspot], time);
+                Interval interval = open.get(hotspot);
+                if(interval != null && interval.lastPosition == current - 1) {
+                    interval.toTime = end;
+                    interval.minDistance = Math.min(interval.minDistance, distance);
+                    interval.locationCount++;
+                    interval.lastPosition = current;
+                } else {
+                    if(interval != null)
+                        close(interval);
+                    interval = new Interval(hotspot, start, distance, current);
+                    interval.toTime = end;
+                    if(bridged) {
+                        interval.minDistance = Math.min(distance, previousDistance);
+                        interval.locationCount = 2;
+                    }
+                    open.put(hotspot, interval);
+                }
+            }
+        }
+
+        @Override
+        public void endTrace() {
+            for(Interval interval : open.values())
+                close(interval);
+            open.clear();
+        }
+    }
+
+    /**
+     * Matches a range of a list of TracePools, splitting it in halves down to a single TracePool
+     */
+    private final class MatchTask extends RecursiveTask<List<Exposure>> {
+        private final List<TracePool> tracePools;
+        private final int from;
+        private final int to;
+
+        MatchTask(List<TracePool> tracePools, int from, int to) {
+            this.tracePools = tracePools;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Exposure> compute() {
+            if(to - from <= 1) {
+                List<Exposure> exposures = new ArrayList<>();
+                for(int i = from; i < to; ++i)
+                    exposures.addAll(match(tracePools.get(i)));
+                return exposures;
+            }
+            final int middle = (from + to) >>> 1;
+            MatchTask left = new MatchTask(tracePools, from, middle);
+            left.fork();
+            List<Exposure> right = new MatchTask(tracePools, middle, to).compute();
+            List<Exposure> exposures = left.join();
+            exposures.addAll(right);
+            return exposures;
+        }
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a matcher
+     * @param hotspots the Hotspots (see HotspotReader)
+     */
+    public ExposureMatcher(List<Hotspot> hotspots) {
+        index = new HotspotIndex(hotspots);
+    }
+
+    /**
+     * Find the Exposures of a TracePool
+     * @param tracePool the TracePool
+     * @return the Exposures, ordered by starting time
+     */
+    public List<Exposure> match(TracePool tracePool) {
+        List<Exposure> exposures = new ArrayList<>();
+        TracePoolMatcher matcher = new TracePoolMatcher(tracePool.getId(), exposures);
+        for(ContinuousTrace trace : tracePool.getTraces()) {
+            LatLngBounds bounds = trace.getBounds();
+            if(bounds == null || !index.intersects(bounds.southwest.latitude, bounds.southwest.longitude,
+                    bounds.northeast.latitude, bounds.northeast.longitude, trace.getFromTime(), trace.getToTime()))
+                continue;
+            trace.stream(matcher);
+        }
+        Collections.sort(exposures, new Comparator<Exposure>() {
+            @Override
+            public int compare(Exposure e1, Exposure e2) {
+                return Long.compare(e1.getFromTime(), e2.getFromTime());
+            }
+        });
+        return exposures;
+    }
+
+    /**
+     * Find the Exposures of a list of TracePools, matching the TracePools in parallel
+     * @param tracePools the TracePools
+     * @return the Exposures, grouped by TracePool in the order of the list
+     */
+    public List<Exposure> match(List<TracePool> tracePools) {
+        if(tracePools.isEmpty())
+            return new ArrayList<>();
+        return ForkJoinPool.commonPool().invoke(new MatchTask(tracePools, 0, tracePools.size()));
+    }
+
+    /**
+     * Find the Exposures of all the TracePools stored in the database. The TracePools whose
+     * summary does not meet any Hotspot are not loaded, the others are loaded and matched in
+     * chunks of about CHUNK_LOCATIONS Locations.
+     * It must not be called on the main thread.
+     * @param db the database
+     * @return the Exposures, grouped by TracePool in order of creation time
+     */
+    public List<Exposure> match(LocationDatabaseManager db) {
+        List<Exposure> exposures = new ArrayList<>();
+        List<TracePool> chunk = new ArrayList<>();
+        int chunkLocations = 0;
+        for(TracePoolSummary summary : db.getTracePoolSummariesByStartingTime(0L)) {
+            // the Locations of a TracePool are not older than its creation time
+            if(!index.intersects(summary.getMinLatitude(), summary.getMinLongitude(), summary.getMaxLatitude(),
+                    summary.getMaxLongitude(), summary.getTimestamp(), Long.MAX_VALUE))
+                continue;
+            TracePool tracePool = db.getTracePoolById(summary.getTracePoolId());
+            if(tracePool == null)
+                continue;
+            chunk.add(tracePool);
+            chunkLocations += tracePool.getLocationCount();
+            if(chunkLocations >= CHUNK_LOCATIONS) {
+                exposures.addAll(match(chunk));
+                chunk.clear();
+                chunkLocations = 0;
+            }
+        }
+        exposures.addAll(match(chunk));
+        return exposures;
+    }
+
+}
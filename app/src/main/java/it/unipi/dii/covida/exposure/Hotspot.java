@@ -0,0 +1,66 @@
+package it.unipi.dii.covida.exposure;
+
+
+/**
+ * A place where a known case has been: a circle and the time window of the presence
+ */
+public class Hotspot {
+
+    /*
+     * Constants
+     */
+    public static final double MAX_RADIUS = 50000.0; // meters, the largest radius read from a file
+
+    /*
+     * Data members
+     */
+    private final String name;
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final long fromTime;
+    private final long toTime;
+
+    /**
+     * Create a Hotspot
+     * @param name the name of the Hotspot (can be null)
+     * @param latitude the latitude of the center in degrees
+     * @param longitude the longitude of the center in degrees
+     * @param radius the radius in meters
+     * @param fromTime the start of the time window (included)
+     * @param toTime the end of the time window (included)
+     */
+    public Hotspot(String name, double latitude, double longitude, double radius, long fromTime, long toTime) {
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+}
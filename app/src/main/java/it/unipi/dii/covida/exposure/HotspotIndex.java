@@ -0,0 +1,210 @@
+package it.unipi.dii.covida.exposure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.unipi.dii.covida.locationstore.Geohash;
+
+
+/**
+ * A spatial and temporal index over a list of Hotspots: a grid of cells at least cellSize meters
+ * wide, each with the Hotspots that intersect it sorted by the start of their time window, so
+ * that a point is compared only with the Hotspots of its own cell that have already started.
+ * The cell size is twice the 90th percentile of the radii: most Hotspots are in at most 4 cells.
+ * The Hotspots with a radius larger than a cell (or not finite) are not added to the cells: they
+ * are kept apart and compared with every point, so a single huge Hotspot does not fill the grid.
+ * The Hotspots across the antimeridian are not supported.
+ */
+final class HotspotIndex {
+
+    /*
+     * Constants
+     */
+    static final double MIN_CELL_SIZE = 50.0; // meters
+    static final double MAX_CELL_SIZE = 2.0 * Hotspot.MAX_RADIUS;
+    private static final double MAX_LATITUDE = 89.0;
+
+    /*
+     * Data members
+     */
+    // the Hotspots sorted by the start of their time window, and their fields
+    final Hotspot[] hotspots;
+    final double[] latitudes;
+    final double[] longitudes;
+    final double[] radii;
+    final long[] fromTimes;
+    final long[] toTimes;
+    private final double cellLatitude;
+    private final double cellLongitude;
+    private final Map<Long, int[]> cells = new HashMap<>();
+    // the Hotspots larger than a cell, sorted by the start of their time window
+    private final int[] large;
+    // the area and the time range covered by all the Hotspots
+    private double minLatitude = Double.POSITIVE_INFINITY;
+    private double minLongitude = Double.POSITIVE_INFINITY;
+    private double maxLatitude = Double.NEGATIVE_INFINITY;
+    private double maxLongitude = Double.NEGATIVE_INFINITY;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+
+    /*
+     * Private methods
+     */
+
+    private static long key(long row, long column) {
+        return (row << 32) | (column & 0xffffffffL);
+    }
+
+    private static double longitudeDegrees(double meters, double latitude) {
+        return meters / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(Math.min(Math.abs(latitude), MAX_LATITUDE))));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; ++i)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * Merge two sorted arrays of indexes (the order of the indexes is the order of time)
+     */
+    private static int[] merge(int[] a, int[] b) {
+        if(b.length == 0)
+            return a;
+        int[] merged = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while(i < a.length && j < b.length)
+            merged[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+        while(i < a.length)
+            merged[k++] = a[i++];
+        while(j < b.length)
+            merged[k++] = b[j++];
+        return merged;
+    }
+
+    /*
+     * Package-private methods
+     */
+
+    HotspotIndex(List<Hotspot> list) {
+        hotspots = list.toArray(new Hotspot[0]);
+        Arrays.sort(hotspots, new Comparator<Hotspot>() {
+            @Override
+            public int compare(Hotspot h1, Hotspot h2) {
+                return Long.compare(h1.getFromTime(), h2.getFromTime());
+            }
+        });
+        final int count = hotspots.length;
+        latitudes = new double[count];
+        longitudes = new double[count];
+        radii = new double[count];
+        fromTimes = new long[count];
+        toTimes = new long[count];
+        double maxAbsLatitude = 0.0;
+        for(int i = 0; i < count; ++i) {
+            latitudes[i] = hotspots[i].getLatitude();
+            longitudes[i] = hotspots[i].getLongitude();
+            radii[i] = hotspots[i].getRadius();
+            fromTimes[i] = hotspots[i].getFromTime();
+            toTimes[i] = hotspots[i].getToTime();
+            final double latitudeRadius = radii[i] / Geohash.METERS_PER_DEGREE;
+            final double longitudeRadius = longitudeDegrees(radii[i], Math.abs(latitudes[i]) + latitudeRadius);
+            maxAbsLatitude = Math.max(maxAbsLatitude, Math.abs(latitudes[i]) + latitudeRadius);
+            minLatitude = Math.min(minLatitude, latitudes[i] - latitudeRadius);
+            maxLatitude = Math.max(maxLatitude, latitudes[i] + latitudeRadius);
+            minLongitude = Math.min(minLongitude, longitudes[i] - longitudeRadius);
+            maxLongitude = Math.max(maxLongitude, longitudes[i] + longitudeRadius);
+            minTime = Math.min(minTime, fromTimes[i]);
+            maxTime = Math.max(maxTime, toTimes[i]);
+        }
+
+        double cellSize = MIN_CELL_SIZE;
+        if(count > 0) {
+            double[] sortedRadii = radii.clone();
+            Arrays.sort(sortedRadii);
+            cellSize = Math.max(cellSize, 2.0 * sortedRadii[(int) (0.9 * (count - 1))]);
+            // NaN if the percentile is not finite
+            if(!(cellSize <= MAX_CELL_SIZE))
+                cellSize = MAX_CELL_SIZE;
+        }
+        // the cells are at least cellSize wide also at the highest latitude
+        cellLatitude = cellSize / Geohash.METERS_PER_DEGREE;
+        cellLongitude = longitudeDegrees(cellSize, maxAbsLatitude);
+
+        // add the Hotspots to the cells crossed by their bounding box (at most 3 x 3 cells), in
+        // order of time
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        List<Integer> largeList = new ArrayList<>();
+        for(int i = 0; i < count; ++i) {
+            if(!(radii[i] <= cellSize)) {
+                largeList.add(i);
+                continue;
+            }
+            final double latitudeRadius = radii[i] / Geohash.METERS_PER_DEGREE;
+            final double longitudeRadius = longitudeDegrees(radii[i], Math.abs(latitudes[i]) + latitudeRadius);
+            final long fromRow = (long) Math.floor((latitudes[i] - latitudeRadius) / cellLatitude);
+            final long toRow = (long) Math.floor((latitudes[i] + latitudeRadius) / cellLatitude);
+            final long fromColumn = (long) Math.floor((longitudes[i] - longitudeRadius) / cellLongitude);
+            final long toColumn = (long) Math.floor((longitudes[i] + longitudeRadius) / cellLongitude);
+            for(long row = fromRow; row <= toRow; ++row) {
+                for(long column = fromColumn; column <= toColumn; ++column) {
+                    List<Integer> cell = lists.get(key(row, column));
+                    if(cell == null) {
+                        cell = new ArrayList<>(4);
+                        lists.put(key(row, column), cell);
+                    }
+                    cell.add(i);
+                }
+            }
+        }
+        large = toArray(largeList);
+        // every cell has also the large Hotspots, merged in order of time
+        for(Map.Entry<Long, List<Integer>> entry : lists.entrySet())
+            cells.put(entry.getKey(), merge(toArray(entry.getValue()), large));
+    }
+
+    /**
+     * Return true if some Hotspot can intersect a bounding box during a time range
+     */
+    boolean intersects(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, long fromTime, long toTime) {
+        return minLatitude <= this.maxLatitude && maxLatitude >= this.minLatitude
+                && minLongitude <= this.maxLongitude && maxLongitude >= this.minLongitude
+                && fromTime <= maxTime && toTime >= minTime;
+    }
+
+    /**
+     * Return true if the time window of some Hotspot can overlap a time range
+     */
+    boolean mayContain(long fromTime, long toTime) {
+        return toTime >= minTime && fromTime <= maxTime;
+    }
+
+    /**
+     * Return the Hotspots of the cell of a point, with the ones larger than a cell
+     * @return the indexes of the Hotspots, sorted by the start of their time window, or null if
+     * there is none
+     */
+    int[] get(double latitude, double longitude) {
+        int[] cell = cells.get(key((long) Math.floor(latitude / cellLatitude), (long) Math.floor(longitude / cellLongitude)));
+        if(cell != null)
+            return cell;
+        return large.length > 0 ? large : null;
+    }
+
+    /**
+     * Return the distance in meters between a point and the center of a Hotspot (equirectangular
+     * projection, the error is negligible at the size of a Hotspot)
+     */
+    double distance(int hotspot, double latitude, double longitude) {
+        final double dy = (latitude - latitudes[hotspot]) * Geohash.METERS_PER_DEGREE;
+        final double dx = (longitude - longitudes[hotspot]) * Geohash.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians((latitude + latitudes[hotspot]) / 2.0));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+}
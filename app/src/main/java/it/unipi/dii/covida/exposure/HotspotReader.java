@@ -0,0 +1,75 @@
+package it.unipi.dii.covida.exposure;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unipi.dii.covida.history.CsvRecordReader;
+import it.unipi.dii.covida.history.TraceReader;
+
+
+/**
+ * Reads a list of Hotspots from a CSV file with the header
+ * latitude,longitude,radius,fromTime,toTime[,name]
+ * (in any order) where the radius is in meters (at most Hotspot.MAX_RADIUS) and the times are in
+ * ISO 8601 format or in milliseconds from the epoch. The rows that are not valid are skipped.
+ */
+public final class HotspotReader {
+
+    private HotspotReader() {}
+
+    /**
+     * Read the Hotspots of a CSV file
+     * @param in the file (it is not closed)
+     * @return the Hotspots
+     * @throws IOException if the file cannot be read or it has not the required columns
+     */
+    public static List<Hotspot> read(Reader in) throws IOException {
+        CsvRecordReader record = new CsvRecordReader(in);
+        List<Hotspot> hotspots = new ArrayList<>();
+        if(!record.readRecord())
+            return hotspots;
+        final int latitudeIndex = record.indexOf("latitude");
+        final int longitudeIndex = record.indexOf("longitude");
+        final int radiusIndex = record.indexOf("radius");
+        final int fromTimeIndex = record.indexOf("fromTime");
+        final int toTimeIndex = record.indexOf("toTime");
+        final int nameIndex = record.indexOf("name");
+        if(latitudeIndex == -1 || longitudeIndex == -1 || radiusIndex == -1 || fromTimeIndex == -1 || toTimeIndex == -1)
+            throw new IOException("The hotspot file has not the columns latitude, longitude, radius, fromTime and toTime");
+        while(record.readRecord()) {
+            double latitude = TraceReader.parseDegrees(record.get(latitudeIndex), 90.0);
+            double longitude = TraceReader.parseDegrees(record.get(longitudeIndex), 180.0);
+            long fromTime = TraceReader.parseTime(record.get(fromTimeIndex));
+            long toTime = TraceReader.parseTime(record.get(toTimeIndex));
+            double radius;
+            try {
+                radius = record.get(radiusIndex) != null ? Double.parseDouble(record.get(radiusIndex)) : Double.NaN;
+            } catch (NumberFormatException e) {
+                radius = Double.NaN;
+            }
+            // also NaN and infinite radii are rejected
+            if(Double.isNaN(latitude) || Double.isNaN(longitude) || !(radius >= 0.0 && radius <= Hotspot.MAX_RADIUS)
+                    || fromTime == Long.MIN_VALUE || toTime == Long.MIN_VALUE || toTime < fromTime)
+                continue;
+            hotspots.add(new Hotspot(record.get(nameIndex), latitude, longitude, radius, fromTime, toTime));
+        }
+        return hotspots;
+    }
+
+    /**
+     * Read the Hotspots of a CSV file encoded in UTF-8
+     * @param inputStream the file (it is not closed)
+     * @return the Hotspots
+     * @throws IOException if the file cannot be read or it has not the required columns
+     */
+    public static List<Hotspot> read(InputStream inputStream) throws IOException {
+        return read(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+    }
+
+}
@@ -0,0 +1,35 @@
+package it.unipi.dii.covida.geocoding;
+
+import android.content.Context;
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Geocoder backed by the geocoding service of the platform (android.location.Geocoder)
+ */
+public class AndroidGeocoder implements Geocoder {
+
+    private final android.location.Geocoder geocoder;
+
+    public AndroidGeocoder(Context context) {
+        geocoder = new android.location.Geocoder(context.getApplicationContext(), Locale.getDefault());
+    }
+
+    @Override
+    public String getLocality(double latitude, double longitude) throws IOException {
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        if(addresses == null || addresses.isEmpty())
+            return null;
+        return addresses.get(0).getLocality();
+    }
+
+    @Override
+    public List<Address> getFromLocationName(String locationName, int maxResults) throws IOException {
+        return geocoder.getFromLocationName(locationName, maxResults);
+    }
+
+}
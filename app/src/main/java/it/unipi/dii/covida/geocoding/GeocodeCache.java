@@ -0,0 +1,270 @@
+package it.unipi.dii.covida.geocoding;
+
+import android.content.Context;
+import android.location.Address;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.localdb.LocationDatabaseManager;
+import it.unipi.dii.covida.locationstore.Geohash;
+
+
+/**
+ * Process-wide cache in front of a Geocoder.
+ * Reverse lookups (point -> locality) are keyed by the geohash of the point (about 150m x 150m),
+ * kept in memory with LRU eviction and persisted on the database with an expiration time.
+ * Forward lookups (name -> Addresses) are kept in memory only.
+ * The methods that can query the Geocoder must not be called from the main thread.
+ */
+public class GeocodeCache {
+
+    /*
+     * Constants
+     */
+    private static final String TAG = GeocodeCache.class.getSimpleName();
+    private static final int CELL_PRECISION = 7;
+    private static final int LOCALITY_CAPACITY = 512;
+    private static final int ADDRESS_CAPACITY = 32;
+    private static final long DISK_TTL = 1000L * 60 * 60 * 24 * 30; // 30 days
+    private static final String NO_LOCALITY = "";
+    private static final int LOG_INTERVAL = 50;
+
+    /*
+     * Private static data members
+     */
+    private static GeocodeCache instance = null;
+
+    /*
+     * Private data members
+     */
+    private final LocalityStore store;
+    private Geocoder geocoder;
+    private final Map<String, String> localities;
+    private final Map<String, List<Address>> addresses;
+    private boolean expiredPurged;
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    /*
+     * Private methods
+     */
+
+    private static <V> Map<String, V> lruMap(final int capacity) {
+        return new LinkedHashMap<String, V>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static String toLocality(String cached) {
+        return NO_LOCALITY.equals(cached) ? null : cached;
+    }
+
+    private synchronized void countLookup(boolean memoryHit, boolean diskHit) {
+        if(memoryHit)
+            ++memoryHits;
+        else if(diskHit)
+            ++diskHits;
+        else
+            ++misses;
+        if((memoryHits + diskHits + misses) % LOG_INTERVAL == 0)
+            Log.d(TAG, "memory hits: " + memoryHits + ", disk hits: " + diskHits + ", misses: " + misses + ", hit rate: " + getHitRate());
+    }
+
+    private synchronized Geocoder getGeocoder() {
+        return geocoder;
+    }
+
+    /**
+     * Return the store of the reverse lookups backed by the database. The writes are queued on
+     * the writer of the database, so a lookup never waits for the lock held by a bulk save.
+     */
+    private static LocalityStore databaseStore(final LocationDatabaseManager db) {
+        return new LocalityStore() {
+            @Override
+            public String getLocality(String cell, long notBefore) {
+                return db.getCachedLocality(cell, notBefore);
+            }
+
+            @Override
+            public void putLocality(final String cell, final String locality, final long updated) {
+                AppExecutors.getInstance().dbWrite().submit(Priority.BACKGROUND, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return db.putCachedLocality(cell, locality, updated);
+                    }
+                });
+            }
+
+            @Override
+            public void deleteExpired(final long olderThan) {
+                AppExecutors.getInstance().dbWrite().submit(Priority.BACKGROUND, new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return db.deleteExpiredGeocodes(olderThan);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Create a cache (the application uses getInstance(), the tests their own store and Geocoder)
+     * @param store the store where the reverse lookups are persisted, null to use only memory
+     * @param geocoder the Geocoder used on cache misses
+     */
+    GeocodeCache(LocalityStore store, Geocoder geocoder) {
+        this.store = store;
+        this.geocoder = geocoder;
+        this.localities = lruMap(LOCALITY_CAPACITY);
+        this.addresses = lruMap(ADDRESS_CAPACITY);
+        this.expiredPurged = store == null;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Return the cache instance
+     * @param context the context
+     */
+    public static GeocodeCache getInstance(Context context) {
+        if(instance == null) {
+            synchronized (GeocodeCache.class) {
+                if(instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    instance = new GeocodeCache(databaseStore(LocationDatabaseManager.getInstance(appContext)), new AndroidGeocoder(appContext));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Replace the Geocoder used on cache misses
+     * @param geocoder the new Geocoder
+     */
+    public synchronized void setGeocoder(Geocoder geocoder) {
+        this.geocoder = geocoder;
+    }
+
+    /**
+     * Return the name of the locality that contains the given point, querying the Geocoder only
+     * if no point of the same cell has been resolved before
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @return the name of the locality, null if it is unknown or the Geocoder is not available
+     */
+    public String getLocality(double latitude, double longitude) {
+        final String cell = Geohash.encode(latitude, longitude, CELL_PRECISION);
+        final long now = System.currentTimeMillis();
+        String cached;
+        synchronized (this) {
+            cached = localities.get(cell);
+        }
+        if(cached != null) {
+            countLookup(true, false);
+            return toLocality(cached);
+        }
+
+        if(store != null) {
+            if(!expiredPurged) {
+                store.deleteExpired(now - DISK_TTL);
+                expiredPurged = true;
+            }
+            cached = store.getLocality(cell, now - DISK_TTL);
+            if(cached != null) {
+                synchronized (this) {
+                    localities.put(cell, cached);
+                }
+                countLookup(false, true);
+                return toLocality(cached);
+            }
+        }
+
+        countLookup(false, false);
+        String locality;
+        try {
+            locality = getGeocoder().getLocality(latitude, longitude);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.d(TAG, "Geocoder not available: " + e.getMessage());
+            return null;
+        }
+        cached = locality == null ? NO_LOCALITY : locality;
+        synchronized (this) {
+            localities.put(cell, cached);
+        }
+        if(store != null)
+            store.putLocality(cell, cached, now);
+        return locality;
+    }
+
+    /**
+     * Return the Addresses that match a description
+     * @param locationName the description of the location
+     * @param maxResults the maximum number of Addresses to return
+     * @return the matching Addresses, null if the Geocoder is not available
+     */
+    public List<Address> getFromLocationName(String locationName, int maxResults) {
+        final String key = maxResults + ":" + locationName.trim().toLowerCase(Locale.getDefault());
+        List<Address> cached;
+        synchronized (this) {
+            cached = addresses.get(key);
+        }
+        if(cached != null) {
+            countLookup(true, false);
+            return new ArrayList<>(cached);
+        }
+
+        countLookup(false, false);
+        List<Address> result;
+        try {
+            result = getGeocoder().getFromLocationName(locationName, maxResults);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.d(TAG, "Geocoder not available: " + e.getMessage());
+            return null;
+        }
+        if(result == null)
+            result = Collections.emptyList();
+        synchronized (this) {
+            addresses.put(key, new ArrayList<>(result));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Return the fraction of lookups served without querying the Geocoder
+     * @return the hit rate (0 if no lookups have been done)
+     */
+    public synchronized float getHitRate() {
+        long total = memoryHits + diskHits + misses;
+        return total == 0 ? 0.0f : (float) (memoryHits + diskHits) / total;
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return diskHits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+}
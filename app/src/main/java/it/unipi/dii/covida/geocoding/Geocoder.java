@@ -0,0 +1,33 @@
+package it.unipi.dii.covida.geocoding;
+
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * A source of geocoding results.
+ * The application uses AndroidGeocoder; tests can provide a local implementation.
+ */
+public interface Geocoder {
+
+    /**
+     * Return the name of the locality that contains the given point
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @return the name of the locality, null if the point does not belong to a known locality
+     * @throws IOException if the geocoding service is not available
+     */
+    String getLocality(double latitude, double longitude) throws IOException;
+
+    /**
+     * Return the Addresses that match a description (name, street, ...)
+     * @param locationName the description of the location
+     * @param maxResults the maximum number of Addresses to return
+     * @return the list of matching Addresses (possibly empty)
+     * @throws IOException if the geocoding service is not available
+     */
+    List<Address> getFromLocationName(String locationName, int maxResults) throws IOException;
+
+}
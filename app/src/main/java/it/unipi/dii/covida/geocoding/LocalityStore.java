@@ -0,0 +1,33 @@
+package it.unipi.dii.covida.geocoding;
+
+
+/**
+ * The persistent store of the reverse lookups of a GeocodeCache.
+ * The application uses the database (see LocationDatabaseManager); tests can provide a local
+ * implementation.
+ */
+interface LocalityStore {
+
+    /**
+     * Return the locality stored for a geohash cell
+     * @param cell the geohash of the cell
+     * @param notBefore the minimum update time of a valid entry
+     * @return the stored locality ("" if the cell has no locality), null if not stored
+     */
+    String getLocality(String cell, long notBefore);
+
+    /**
+     * Store (or refresh) the locality of a geohash cell
+     * @param cell the geohash of the cell
+     * @param locality the locality ("" if the cell has no locality)
+     * @param updated the time of the lookup
+     */
+    void putLocality(String cell, String locality, long updated);
+
+    /**
+     * Delete the localities looked up before the given time
+     * @param olderThan the minimum update time of the entries to keep
+     */
+    void deleteExpired(long olderThan);
+
+}
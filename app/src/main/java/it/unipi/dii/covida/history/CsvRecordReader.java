@@ -0,0 +1,115 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads the records of a CSV file (RFC 4180) one at a time: quoted fields can contain commas,
+ * quotes and line breaks, empty lines are skipped. An empty field is null, an empty quoted field
+ * is an empty string.
+ */
+public final class CsvRecordReader {
+
+    /*
+     * Data members
+     */
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> record = new ArrayList<>();
+
+    /*
+     * Private methods
+     */
+
+    private int read() throws IOException {
+        if(position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if(limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /*
+     * Public methods
+     */
+
+    public CsvRecordReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the fields of the next record
+     * @return false at the end of the stream
+     * @throws IOException if the stream cannot be read or a quoted field is not terminated
+     */
+    public boolean readRecord() throws IOException {
+        record.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int c = read();
+        while(c == '\r' || c == '\n')
+            c = read();
+        if(c == -1)
+            return false;
+        for(; ; c = read()) {
+            if(quoted) {
+                if(c == -1)
+                    throw new IOException("Unterminated quoted field in CSV file");
+                if(c == '"') {
+                    c = read();
+                    if(c != '"') {
+                        quoted = false;
+                        // the character after the closing quote is handled below
+                    } else {
+                        field.append('"');
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                    continue;
+                }
+            }
+            if(c == ',' || c == '\r' || c == '\n' || c == -1) {
+                record.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+                if(c != ',')
+                    return true;
+            } else if(c == '"' && field.length() == 0 && !wasQuoted) {
+                quoted = wasQuoted = true;
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Return a field of the current record
+     * @param index the position of the field
+     * @return the field, null if it is empty or missing
+     */
+    public String get(int index) {
+        return index >= 0 && index < record.size() ? record.get(index) : null;
+    }
+
+    /**
+     * Return the position of a field in the current record (e.g. of a column in the header)
+     * @param name the content of the field
+     * @return the position, -1 if missing
+     */
+    public int indexOf(String name) {
+        return record.indexOf(name);
+    }
+
+}
@@ -0,0 +1,54 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Objects;
+
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+
+
+/**
+ * Reads the traces of a CSV file (RFC 4180) with a header. The columns time, latitude and
+ * longitude are required (time in ISO 8601 format or in milliseconds from the epoch), the columns
+ * provider, tracePoolId and trace are optional: the rows with the same tracePoolId and trace
+ * are a trace. The files written by CsvTraceWriter are read back as they were written.
+ */
+class CsvTraceReader extends TraceReader {
+
+    CsvTraceReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public void read(TracePointConsumer consumer) throws IOException {
+        CsvRecordReader record = new CsvRecordReader(in);
+        if(!record.readRecord())
+            return;
+        final int timeIndex = record.indexOf("time");
+        final int latitudeIndex = record.indexOf("latitude");
+        final int longitudeIndex = record.indexOf("longitude");
+        final int providerIndex = record.indexOf("provider");
+        final int tracePoolIdIndex = record.indexOf("tracePoolId");
+        final int traceIndex = record.indexOf("trace");
+        if(timeIndex == -1 || latitudeIndex == -1 || longitudeIndex == -1)
+            throw new IOException("The CSV file has not the columns time, latitude and longitude");
+        boolean inTrace = false;
+        String tracePoolId = null;
+        String trace = null;
+        while(record.readRecord()) {
+            if(!inTrace || !Objects.equals(tracePoolId, record.get(tracePoolIdIndex)) || !Objects.equals(trace, record.get(traceIndex))) {
+                if(inTrace)
+                    consumer.endTrace();
+                consumer.beginTrace();
+                inTrace = true;
+                tracePoolId = record.get(tracePoolIdIndex);
+                trace = record.get(traceIndex);
+            }
+            accept(consumer, parseDegrees(record.get(latitudeIndex), 90.0), parseDegrees(record.get(longitudeIndex), 180.0),
+                    parseTime(record.get(timeIndex)), toProvider(record.get(providerIndex)));
+        }
+        if(inTrace)
+            consumer.endTrace();
+    }
+
+}
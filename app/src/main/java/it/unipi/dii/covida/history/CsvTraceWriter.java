@@ -0,0 +1,77 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * Writes the traces as CSV (RFC 4180) with a row for every point and the header
+ * tracePoolId,tracePoolTimestamp,trace,time,latitude,longitude,provider
+ * where trace is the position of the trace in its TracePool and time is in ISO 8601 format
+ */
+class CsvTraceWriter extends TraceWriter {
+
+    static final String HEADER = "tracePoolId,tracePoolTimestamp,trace,time,latitude,longitude,provider";
+
+    CsvTraceWriter(Writer out) {
+        super(out);
+    }
+
+    private void writeField(String text) throws IOException {
+        if(text == null)
+            return;
+        if(text.indexOf(',') == -1 && text.indexOf('"') == -1 && text.indexOf('\n') == -1 && text.indexOf('\r') == -1) {
+            out.write(text);
+            return;
+        }
+        out.write('"');
+        out.write(text.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        out.write(HEADER);
+        out.write("\r\n");
+    }
+
+    @Override
+    protected void beginTracePool(String tracePoolId, long tracePoolTimestamp) throws IOException {
+    }
+
+    @Override
+    protected int writeTrace(TracePointSource source, int traceIndex) throws IOException {
+        int count = 0;
+        while(source.moveToNextPoint()) {
+            TracePoint point = source.getPoint();
+            writeField(source.getTracePoolId());
+            out.write(',');
+            writeLong(source.getTracePoolTimestamp());
+            out.write(',');
+            writeLong(traceIndex);
+            out.write(',');
+            writeTime(point.getTime());
+            out.write(',');
+            writeDegrees(point.getLatitude());
+            out.write(',');
+            writeDegrees(point.getLongitude());
+            out.write(',');
+            writeField(point.getProvider());
+            out.write("\r\n");
+            ++count;
+        }
+        return count;
+    }
+
+    @Override
+    protected void endTracePool() throws IOException {
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+    }
+
+}
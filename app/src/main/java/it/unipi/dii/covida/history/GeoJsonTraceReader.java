@@ -0,0 +1,256 @@
+package it.unipi.dii.covida.history;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+
+
+/**
+ * Reads the traces of a GeoJSON FeatureCollection: every LineString (and every line of a
+ * MultiLineString) is a trace. The times of the points are read from the times property (as
+ * written by GeoJsonTraceWriter, in milliseconds) or from the coordTimes property (ISO 8601);
+ * the features without times are skipped. The providers are read from the providers property
+ * written by GeoJsonTraceWriter, if there is one for every point. The points of a feature are kept in memory until
+ * the feature is read, because the properties can follow the geometry.
+ */
+class GeoJsonTraceReader extends TraceReader {
+
+    /*
+     * Data members
+     */
+    // the points of the current feature
+    private double[] longitudes = new double[256];
+    private double[] latitudes = new double[256];
+    private int pointCount;
+    // the index of the first point after every line of the current feature
+    private int[] lineEnds = new int[4];
+    private int lineCount;
+    private long[] times = new long[256];
+    private int timeCount;
+    private String[] providers = new String[256];
+    private int providerCount;
+
+    /*
+     * Private methods
+     */
+
+    private void addPoint(double longitude, double latitude) {
+        if(pointCount == longitudes.length) {
+            longitudes = Arrays.copyOf(longitudes, pointCount * 2);
+            latitudes = Arrays.copyOf(latitudes, pointCount * 2);
+        }
+        longitudes[pointCount] = longitude;
+        latitudes[pointCount] = latitude;
+        ++pointCount;
+    }
+
+    private void endLine() {
+        if(lineCount == lineEnds.length)
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        lineEnds[lineCount++] = pointCount;
+    }
+
+    private void addTime(long time) {
+        if(timeCount == times.length)
+            times = Arrays.copyOf(times, timeCount * 2);
+        times[timeCount++] = time;
+    }
+
+    private void addProvider(String provider) {
+        if(providerCount == providers.length)
+            providers = Arrays.copyOf(providers, providerCount * 2);
+        providers[providerCount++] = provider;
+    }
+
+    /**
+     * Read the position [longitude, latitude, ...] the reader is on
+     */
+    private void readPosition(JsonReader reader) throws IOException {
+        reader.beginArray();
+        readCoordinates(reader);
+    }
+
+    /**
+     * Read the rest of a position after its opening bracket
+     */
+    private void readCoordinates(JsonReader reader) throws IOException {
+        double longitude = parseDegrees(reader.nextString(), 180.0);
+        double latitude = parseDegrees(reader.nextString(), 90.0);
+        while(reader.hasNext())
+            reader.skipValue();
+        reader.endArray();
+        addPoint(longitude, latitude);
+    }
+
+    private void readGeometry(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+            return;
+        }
+        // the coordinates can come before the type
+        String type = null;
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals("type")) {
+                type = reader.nextString();
+            } else if(name.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY
+                    && (type == null || type.equals("LineString") || type.equals("MultiLineString"))) {
+                readLines(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if(type != null && !type.equals("LineString") && !type.equals("MultiLineString")) {
+            pointCount = 0;
+            lineCount = 0;
+        }
+    }
+
+    /**
+     * Read the coordinates of a LineString (an array of positions) or of a MultiLineString (an
+     * array of arrays of positions): the type can follow the coordinates, so it is found from
+     * the first element of the array, a number for a position and an array for a line
+     */
+    private void readLines(JsonReader reader) throws IOException {
+        reader.beginArray();
+        boolean multiLine = false;
+        while(reader.hasNext()) {
+            if(reader.peek() != JsonToken.BEGIN_ARRAY) {
+                // the coordinates of a Point, discarded with the type
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            if(reader.hasNext() && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                multiLine = true;
+                while(reader.hasNext())
+                    readPosition(reader);
+                reader.endArray();
+                endLine();
+            } else {
+                readCoordinates(reader);
+            }
+        }
+        reader.endArray();
+        if(!multiLine)
+            endLine();
+    }
+
+    /**
+     * Read an array of times (numbers or strings), flattening the nested arrays
+     */
+    private void readTimes(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while(reader.hasNext()) {
+            if(reader.peek() == JsonToken.BEGIN_ARRAY)
+                readTimes(reader);
+            else if(reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                addTime(Long.MIN_VALUE);
+            } else
+                addTime(parseTime(reader.nextString()));
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read an array of providers (strings or nulls)
+     */
+    private void readProviders(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while(reader.hasNext()) {
+            if(reader.peek() == JsonToken.STRING) {
+                addProvider(reader.nextString());
+            } else {
+                reader.skipValue();
+                addProvider(null);
+            }
+        }
+        reader.endArray();
+    }
+
+    private void readProperties(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if((name.equals("times") || name.equals("coordTimes")) && reader.peek() == JsonToken.BEGIN_ARRAY && timeCount == 0)
+                readTimes(reader);
+            else if(name.equals("providers") && reader.peek() == JsonToken.BEGIN_ARRAY && providerCount == 0)
+                readProviders(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    private void readFeature(JsonReader reader, TracePointConsumer consumer) throws IOException {
+        pointCount = 0;
+        lineCount = 0;
+        timeCount = 0;
+        providerCount = 0;
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals("geometry"))
+                readGeometry(reader);
+            else if(name.equals("properties"))
+                readProperties(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        if(timeCount != pointCount) {
+            // without a time for every point the feature cannot be segmented
+            skip(pointCount);
+            return;
+        }
+        final boolean hasProviders = providerCount == pointCount;
+        for(int line = 0, from = 0; line < lineCount; from = lineEnds[line++]) {
+            consumer.beginTrace();
+            for(int i = from; i < lineEnds[line]; ++i)
+                accept(consumer, latitudes[i], longitudes[i], times[i], toProvider(hasProviders ? providers[i] : null));
+            consumer.endTrace();
+        }
+    }
+
+    /*
+     * Package-private methods
+     */
+
+    GeoJsonTraceReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public void read(TracePointConsumer consumer) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(reader.nextName().equals("features")) {
+                    reader.beginArray();
+                    while(reader.hasNext())
+                        readFeature(reader, consumer);
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid GeoJSON file", e);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * Writes the traces as a GeoJSON FeatureCollection with a LineString Feature for every trace.
+ * The properties of a Feature are the TracePool ID and timestamp, the position of the trace in
+ * the TracePool, the times of the points (in milliseconds, in the order of the coordinates) and
+ * their providers. The properties are written before the geometry, so every trace is read twice
+ * from the source.
+ */
+class GeoJsonTraceWriter extends TraceWriter {
+
+    private boolean firstFeature;
+    // the providers of the points of the current trace, collected with the times
+    private String[] providers = new String[256];
+
+    GeoJsonTraceWriter(Writer out) {
+        super(out);
+    }
+
+    private void writeString(String text) throws IOException {
+        out.write('"');
+        for(int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if(c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        firstFeature = true;
+    }
+
+    @Override
+    protected void beginTracePool(String tracePoolId, long tracePoolTimestamp) throws IOException {
+    }
+
+    @Override
+    protected int writeTrace(TracePointSource source, int traceIndex) throws IOException {
+        out.write(firstFeature ? "\n" : ",\n");
+        firstFeature = false;
+        out.write("{\"type\":\"Feature\",\"properties\":{\"tracePoolId\":");
+        writeString(source.getTracePoolId());
+        out.write(",\"tracePoolTimestamp\":");
+        writeLong(source.getTracePoolTimestamp());
+        out.write(",\"trace\":");
+        writeLong(traceIndex);
+        out.write(",\"times\":[");
+        int count = 0;
+        while(source.moveToNextPoint()) {
+            if(count > 0)
+                out.write(',');
+            writeLong(source.getPoint().getTime());
+            if(count == providers.length)
+                providers = Arrays.copyOf(providers, count * 2);
+            providers[count++] = source.getPoint().getProvider();
+        }
+        out.write("],\"providers\":[");
+        for(int i = 0; i < count; ++i) {
+            if(i > 0)
+                out.write(',');
+            if(providers[i] == null)
+                out.write("null");
+            else
+                writeString(providers[i]);
+        }
+        Arrays.fill(providers, 0, count, null);
+        out.write("]},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        source.rewindTrace();
+        count = 0;
+        while(source.moveToNextPoint()) {
+            TracePoint point = source.getPoint();
+            out.write(count++ > 0 ? ",[" : "[");
+            writeDegrees(point.getLongitude());
+            out.write(',');
+            writeDegrees(point.getLatitude());
+            out.write(']');
+        }
+        out.write("]}}");
+        return count;
+    }
+
+    @Override
+    protected void endTracePool() throws IOException {
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        out.write("\n]}\n");
+    }
+
+}
@@ -0,0 +1,84 @@
+package it.unipi.dii.covida.history;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+
+
+/**
+ * Reads the traces of a GPX file (1.0 or 1.1): every track segment (trkseg) and every route
+ * (rte) is a trace. The time of a point is read from the time element, the provider from the
+ * src element; the waypoints (wpt) and the points without time are skipped.
+ */
+class GpxTraceReader extends TraceReader {
+
+    GpxTraceReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public void read(TracePointConsumer consumer) throws IOException {
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            XmlPullParser parser = factory.newPullParser();
+            parser.setInput(in);
+            boolean inTrace = false;
+            boolean inPoint = false;
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            long time = Long.MIN_VALUE;
+            String source = null;
+            for(int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if(event == XmlPullParser.START_TAG) {
+                    switch (parser.getName()) {
+                        case "trkseg":
+                        case "rte":
+                            consumer.beginTrace();
+                            inTrace = true;
+                            break;
+                        case "trkpt":
+                        case "rtept":
+                            inPoint = inTrace;
+                            latitude = parseDegrees(parser.getAttributeValue(null, "lat"), 90.0);
+                            longitude = parseDegrees(parser.getAttributeValue(null, "lon"), 180.0);
+                            time = Long.MIN_VALUE;
+                            source = null;
+                            break;
+                        case "time":
+                            if(inPoint)
+                                time = parseTime(parser.nextText());
+                            break;
+                        case "src":
+                            if(inPoint)
+                                source = parser.nextText();
+                            break;
+                    }
+                } else if(event == XmlPullParser.END_TAG) {
+                    switch (parser.getName()) {
+                        case "trkpt":
+                        case "rtept":
+                            if(inPoint)
+                                accept(consumer, latitude, longitude, time, toProvider(source));
+                            inPoint = false;
+                            break;
+                        case "trkseg":
+                        case "rte":
+                            if(inTrace)
+                                consumer.endTrace();
+                            inTrace = false;
+                            break;
+                    }
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Invalid GPX file", e);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * Writes the traces in GPX 1.1: a track (trk) for every TracePool, named with the TracePool ID,
+ * and a track segment (trkseg) for every trace
+ */
+class GpxTraceWriter extends TraceWriter {
+
+    GpxTraceWriter(Writer out) {
+        super(out);
+    }
+
+    private void writeEscaped(String text) throws IOException {
+        for(int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '&': out.write("&amp;"); break;
+                case '"': out.write("&quot;"); break;
+                default: out.write(c);
+            }
+        }
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<gpx version=\"1.1\" creator=\"CovidA\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+    }
+
+    @Override
+    protected void beginTracePool(String tracePoolId, long tracePoolTimestamp) throws IOException {
+        out.write("<trk>\n<name>");
+        writeEscaped(tracePoolId);
+        out.write("</name>\n");
+    }
+
+    @Override
+    protected int writeTrace(TracePointSource source, int traceIndex) throws IOException {
+        int count = 0;
+        out.write("<trkseg>\n");
+        while(source.moveToNextPoint()) {
+            TracePoint point = source.getPoint();
+            out.write("<trkpt lat=\"");
+            writeDegrees(point.getLatitude());
+            out.write("\" lon=\"");
+            writeDegrees(point.getLongitude());
+            out.write("\"><time>");
+            writeTime(point.getTime());
+            out.write("</time>");
+            if(point.getProvider() != null) {
+                out.write("<src>");
+                writeEscaped(point.getProvider());
+                out.write("</src>");
+            }
+            out.write("</trkpt>\n");
+            ++count;
+        }
+        out.write("</trkseg>\n");
+        return count;
+    }
+
+    @Override
+    protected void endTracePool() throws IOException {
+        out.write("</trk>\n");
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        out.write("</gpx>\n");
+    }
+
+}
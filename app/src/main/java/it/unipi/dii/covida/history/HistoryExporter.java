@@ -0,0 +1,60 @@
+package it.unipi.dii.covida.history;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import it.unipi.dii.covida.localdb.LocationDatabaseManager;
+import it.unipi.dii.covida.localdb.TracePointCursor;
+
+
+/**
+ * Exports the tracking history stored in the database.
+ * The points are streamed from the database cursor to the output, one trace at a time, without
+ * building TracePools: the memory used does not depend on the size of the history.
+ */
+public final class HistoryExporter {
+
+    /*
+     * Constants
+     */
+    private static final String TAG = HistoryExporter.class.getSimpleName();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private HistoryExporter() {}
+
+    /**
+     * Export the TracePools created in a time range
+     * @param db the database
+     * @param fromTime the minimum creation time of the TracePools (excluded)
+     * @param toTime the maximum creation time of the TracePools (included)
+     * @param format the format of the output
+     * @param outputStream the output (it is flushed, not closed)
+     * @return the number of points exported
+     * @throws IOException if the database cannot be read or the output cannot be written
+     * @throws IllegalArgumentException if the format is not exportable
+     */
+    public static long export(LocationDatabaseManager db, long fromTime, long toTime, HistoryFormat format, OutputStream outputStream) throws IOException {
+        if(!format.isExportable())
+            throw new IllegalArgumentException(format + " is not exportable");
+        TracePointCursor cursor = db.openTracePointCursor(fromTime, toTime);
+        if(cursor == null)
+            throw new IOException("Unable to read the tracking history");
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+            long count = TraceWriter.create(format, out).write(cursor);
+            Log.d(TAG, "export(): " + count + " points exported as " + format);
+            return count;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The tracking history contains an invalid trace", e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
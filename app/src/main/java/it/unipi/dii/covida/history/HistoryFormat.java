@@ -0,0 +1,37 @@
+package it.unipi.dii.covida.history;
+
+
+/**
+ * The file formats supported by the export and the import of the tracking history
+ */
+public enum HistoryFormat {
+
+    GPX("application/gpx+xml", "gpx", true),
+    GEOJSON("application/geo+json", "geojson", true),
+    CSV("text/csv", "csv", true),
+    // the location history JSON dump of Google Takeout (Records.json), import only
+    LOCATION_HISTORY("application/json", "json", false);
+
+    private final String mimeType;
+    private final String extension;
+    private final boolean exportable;
+
+    HistoryFormat(String mimeType, String extension, boolean exportable) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.exportable = exportable;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public boolean isExportable() {
+        return exportable;
+    }
+
+}
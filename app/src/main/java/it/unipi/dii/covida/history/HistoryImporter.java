@@ -0,0 +1,169 @@
+package it.unipi.dii.covida.history;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unipi.dii.covida.localdb.LocationDatabaseManager;
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TraceSegmenter;
+
+
+/**
+ * Imports a tracking history recorded elsewhere (e.g. a GPX file or a location history dump).
+ * The points are read with a pull parser and grouped in TracePools by a TraceSegmenter, with the
+ * rules of the live tracking; the TracePools are written in batches of about BATCH_LOCATIONS
+ * Locations, one transaction for every batch: the memory used does not depend on the size of
+ * the history.
+ * The TracePool IDs are derived from the time of their first point and the TracePools already
+ * stored are skipped, so importing the same history twice adds nothing the second time (and an
+ * interrupted import can be run again).
+ */
+public final class HistoryImporter {
+
+    /**
+     * A receiver of the progress of an import
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every batch is written
+         * @param bytesRead the bytes read from the input (to compare with its size)
+         * @param pointsRead the points read from the input
+         * @param locationsImported the Locations stored in the database (after the simplification,
+         *                          without the TracePools that were already stored)
+         */
+        void onProgress(long bytesRead, long pointsRead, long locationsImported);
+    }
+
+    /*
+     * Constants
+     */
+    private static final String TAG = HistoryImporter.class.getSimpleName();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BATCH_LOCATIONS = 50000;
+
+    /**
+     * An InputStream that counts the bytes read
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1)
+                ++count;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Collects the TracePools built by the segmenter and writes them in batches
+     */
+    private static final class BatchWriter implements TraceSegmenter.OnTracePoolListener {
+
+        private final LocationDatabaseManager db;
+        private final CountingInputStream input;
+        private final ProgressListener listener;
+        private final List<TracePool> batch = new ArrayList<>();
+        private TraceSegmenter segmenter;
+        private int batchLocations;
+        private long locationsImported;
+        private int tracePoolsImported;
+
+        BatchWriter(LocationDatabaseManager db, CountingInputStream input, ProgressListener listener) {
+            this.db = db;
+            this.input = input;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onTracePool(TracePool tracePool) {
+            batch.add(tracePool);
+            batchLocations += tracePool.getLocationCount();
+            if(batchLocations >= BATCH_LOCATIONS)
+                flush();
+        }
+
+        void flush() {
+            if(!batch.isEmpty()) {
+                List<TracePool> added = db.addTracePools(batch);
+                if(added == null)
+                    throw new UncheckedIOException(new IOException("Unable to store the imported TracePools"));
+                for(TracePool tracePool : added)
+                    locationsImported += tracePool.getLocationCount();
+                tracePoolsImported += added.size();
+                batch.clear();
+                batchLocations = 0;
+            }
+            if(listener != null)
+                listener.onProgress(input.getCount(), segmenter.getReceivedCount(), locationsImported);
+        }
+    }
+
+    private HistoryImporter() {}
+
+    /**
+     * Import the TracePools of a history
+     * @param db the database
+     * @param format the format of the input
+     * @param inputStream the input, encoded in UTF-8 (it is not closed)
+     * @param listener the receiver of the progress, or null
+     * @return the number of Locations stored (0 if the whole history was already stored)
+     * @throws IOException if the input cannot be read or it is not valid, or the database
+     * cannot be written
+     */
+    public static long importHistory(LocationDatabaseManager db, HistoryFormat format, InputStream inputStream, ProgressListener listener) throws IOException {
+        CountingInputStream input = new CountingInputStream(inputStream);
+        Reader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+        TraceReader reader = TraceReader.create(format, in);
+        BatchWriter writer = new BatchWriter(db, input, listener);
+        TraceSegmenter segmenter = new TraceSegmenter(writer);
+        writer.segmenter = segmenter;
+        try {
+            reader.read(segmenter);
+            segmenter.flush();
+            writer.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Log.d(TAG, "importHistory(): " + segmenter.getReceivedCount() + " points read (" + reader.getSkippedCount() + " skipped), "
+                + segmenter.getAcceptedCount() + " accepted, " + writer.locationsImported + " Locations stored in "
+                + writer.tracePoolsImported + " TracePools");
+        return writer.locationsImported;
+    }
+
+}
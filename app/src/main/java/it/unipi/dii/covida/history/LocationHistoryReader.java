@@ -0,0 +1,117 @@
+package it.unipi.dii.covida.history;
+
+import android.location.LocationManager;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+
+
+/**
+ * Reads the location history JSON dump of Google Takeout (Records.json): an object with the
+ * array locations (or the array itself) of records with latitudeE7, longitudeE7, timestamp (ISO
+ * 8601) or timestampMs, accuracy and source. The dump has no segments, so all the records are
+ * a single trace: it is split by the gap rules of the live tracking. The records less accurate
+ * than MAX_ACCURACY (e.g. the ones located by the cell towers) are skipped.
+ */
+class LocationHistoryReader extends TraceReader {
+
+    /*
+     * Constants
+     */
+    private static final double MAX_ACCURACY = 100.0; // meters
+
+    LocationHistoryReader(Reader in) {
+        super(in);
+    }
+
+    private static String sourceToProvider(String source) {
+        if(source == null)
+            return "fused";
+        switch (source) {
+            case "GPS":
+                return LocationManager.GPS_PROVIDER;
+            case "WIFI":
+            case "CELL":
+                return LocationManager.NETWORK_PROVIDER;
+            default:
+                return "fused";
+        }
+    }
+
+    private void readRecord(JsonReader reader, TracePointConsumer consumer) throws IOException {
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        long time = Long.MIN_VALUE;
+        double accuracy = 0.0;
+        String source = null;
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "latitudeE7":
+                    latitude = checkDegrees(reader.nextLong() / 1e7, 90.0);
+                    break;
+                case "longitudeE7":
+                    longitude = checkDegrees(reader.nextLong() / 1e7, 180.0);
+                    break;
+                case "timestamp":
+                case "timestampMs":
+                    time = parseTime(reader.nextString());
+                    break;
+                case "accuracy":
+                    accuracy = reader.nextDouble();
+                    break;
+                case "source":
+                    source = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if(accuracy > MAX_ACCURACY) {
+            skip(1);
+            return;
+        }
+        accept(consumer, latitude, longitude, time, sourceToProvider(source));
+    }
+
+    private void readRecords(JsonReader reader, TracePointConsumer consumer) throws IOException {
+        reader.beginArray();
+        while(reader.hasNext())
+            readRecord(reader, consumer);
+        reader.endArray();
+    }
+
+    @Override
+    public void read(TracePointConsumer consumer) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        consumer.beginTrace();
+        try {
+            if(reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readRecords(reader, consumer);
+            } else {
+                reader.beginObject();
+                while(reader.hasNext()) {
+                    if(reader.nextName().equals("locations"))
+                        readRecords(reader, consumer);
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid location history file", e);
+        }
+        consumer.endTrace();
+    }
+
+}
@@ -0,0 +1,232 @@
+package it.unipi.dii.covida.history;
+
+import android.location.LocationManager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+
+
+/**
+ * Reads the traces stored in a character stream in one of the HistoryFormats with a pull
+ * parser, passing every point to a TracePointConsumer as soon as it is read: the memory used
+ * does not depend on the number of points.
+ * The points without a valid position or time are skipped.
+ */
+public abstract class TraceReader {
+
+    /*
+     * Data members
+     */
+    protected final Reader in;
+    protected final TracePoint point = new TracePoint();
+    private long skippedCount;
+
+    /*
+     * Private methods
+     */
+
+    private static int parseDigits(CharSequence text, int from, int to) {
+        int value = 0;
+        for(int i = from; i < to; ++i) {
+            char c = text.charAt(i);
+            if(c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Return the days from 1970-01-01 of a date of the proleptic Gregorian calendar
+     */
+    private static long epochDay(int year, int month, int day) {
+        // shift the year to begin in March, so that the leap day is the last one
+        year -= month <= 2 ? 1 : 0;
+        final int era = Math.floorDiv(year, 400);
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    /**
+     * Parse the common UTC format yyyy-MM-ddTHH:mm:ss[.fraction]Z without allocations
+     * @return the time in milliseconds, Long.MIN_VALUE if the text is not in that format
+     */
+    private static long parseUtcTime(CharSequence text) {
+        final int length = text.length();
+        if(length < 20 || text.charAt(length - 1) != 'Z' || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || text.charAt(10) != 'T' || text.charAt(13) != ':' || text.charAt(16) != ':')
+            return Long.MIN_VALUE;
+        final int year = parseDigits(text, 0, 4);
+        final int month = parseDigits(text, 5, 7);
+        final int day = parseDigits(text, 8, 10);
+        final int hour = parseDigits(text, 11, 13);
+        final int minute = parseDigits(text, 14, 16);
+        final int second = parseDigits(text, 17, 19);
+        if(year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59)
+            return Long.MIN_VALUE;
+        int millis = 0;
+        if(length > 20) {
+            if(text.charAt(19) != '.' || length == 21)
+                return Long.MIN_VALUE;
+            // milliseconds precision: the digits after the third are only checked
+            for(int i = 20; i < length - 1; ++i) {
+                char c = text.charAt(i);
+                if(c < '0' || c > '9')
+                    return Long.MIN_VALUE;
+                if(i < 23)
+                    millis = millis * 10 + (c - '0');
+            }
+            for(int i = length - 1; i < 23; ++i)
+                millis *= 10;
+        }
+        return ((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /*
+     * Protected methods
+     */
+
+    protected TraceReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Parse a time in ISO 8601 format (with or without offset, UTC if missing) or in
+     * milliseconds from the epoch
+     * @param text the time
+     * @return the time in milliseconds, Long.MIN_VALUE if the text is not valid
+     */
+    public static long parseTime(String text) {
+        if(text == null)
+            return Long.MIN_VALUE;
+        text = text.trim();
+        long time = parseUtcTime(text);
+        if(time != Long.MIN_VALUE)
+            return time;
+        try {
+            if(!text.isEmpty() && text.indexOf('-', 1) == -1)
+                return Long.parseLong(text);
+            if(text.endsWith("Z") || text.lastIndexOf('+') > 10 || text.lastIndexOf('-') > 10)
+                return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (NumberFormatException | DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Check an angle in degrees
+     * @param degrees the angle
+     * @param limit the maximum absolute value (90 for latitudes, 180 for longitudes)
+     * @return the angle, NaN if it is out of range
+     */
+    protected static double checkDegrees(double degrees, double limit) {
+        return Math.abs(degrees) <= limit ? degrees : Double.NaN;
+    }
+
+    /**
+     * Parse an angle in degrees
+     * @param text the angle
+     * @param limit the maximum absolute value (90 for latitudes, 180 for longitudes)
+     * @return the angle, NaN if the text is not valid
+     */
+    public static double parseDegrees(String text, double limit) {
+        if(text == null)
+            return Double.NaN;
+        try {
+            return checkDegrees(Double.parseDouble(text), limit);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Return the name of the location provider stored for a point: the providers of
+     * LocationManager are kept, any other source is stored as GPS
+     * @param source the source of the point written in the file (null if missing)
+     * @return the provider
+     */
+    protected static String toProvider(String source) {
+        if(source == null)
+            return LocationManager.GPS_PROVIDER;
+        String provider = source.trim().toLowerCase(Locale.ROOT);
+        switch (provider) {
+            case LocationManager.GPS_PROVIDER:
+            case LocationManager.NETWORK_PROVIDER:
+            case LocationManager.PASSIVE_PROVIDER:
+            case "fused":
+                return provider;
+            default:
+                return LocationManager.GPS_PROVIDER;
+        }
+    }
+
+    /**
+     * Set the current point and pass it to the consumer, or skip it if it is not valid
+     */
+    protected void accept(TracePointConsumer consumer, double latitude, double longitude, long time, String provider) {
+        if(Double.isNaN(latitude) || Double.isNaN(longitude) || time == Long.MIN_VALUE) {
+            ++skippedCount;
+            return;
+        }
+        point.set(latitude, longitude, time, provider);
+        consumer.accept(point);
+    }
+
+    /**
+     * Count points skipped by the subclass
+     */
+    protected void skip(int count) {
+        skippedCount += count;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create the reader of a format
+     * @param format the format
+     * @param in the stream where the traces are read (it should be buffered)
+     * @return the reader
+     */
+    public static TraceReader create(HistoryFormat format, Reader in) {
+        switch (format) {
+            case GPX:
+                return new GpxTraceReader(in);
+            case GEOJSON:
+                return new GeoJsonTraceReader(in);
+            case LOCATION_HISTORY:
+                return new LocationHistoryReader(in);
+            default:
+                return new CsvTraceReader(in);
+        }
+    }
+
+    /**
+     * Read all the traces of the stream (that is not closed)
+     * @param consumer the receiver of the traces
+     * @throws IOException if the stream cannot be read or it is not in the expected format
+     */
+    public abstract void read(TracePointConsumer consumer) throws IOException;
+
+    /**
+     * Return the number of points skipped because their position or time is not valid
+     * @return the number of points skipped
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+}
@@ -0,0 +1,168 @@
+package it.unipi.dii.covida.history;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * Writes the traces read from a TracePointSource to a character stream in one of the
+ * HistoryFormats. The points are written as soon as they are read: the memory used does not
+ * depend on the number of points.
+ */
+public abstract class TraceWriter {
+
+    /*
+     * Data members
+     */
+    protected final Writer out;
+    private final char[] digits = new char[20];
+
+    /*
+     * Protected methods
+     */
+
+    protected TraceWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write what comes before the first TracePool
+     */
+    protected abstract void writeHeader() throws IOException;
+
+    /**
+     * Write what comes before the first trace of a TracePool
+     */
+    protected abstract void beginTracePool(String tracePoolId, long tracePoolTimestamp) throws IOException;
+
+    /**
+     * Write the current trace of the source (reading all its points)
+     * @param source the source, positioned on the trace
+     * @param traceIndex the position of the trace in its TracePool
+     * @return the number of points written
+     */
+    protected abstract int writeTrace(TracePointSource source, int traceIndex) throws IOException;
+
+    /**
+     * Write what comes after the last trace of a TracePool
+     */
+    protected abstract void endTracePool() throws IOException;
+
+    /**
+     * Write what comes after the last TracePool
+     */
+    protected abstract void writeFooter() throws IOException;
+
+    /**
+     * Write an unsigned decimal number with at least minDigits digits
+     */
+    private void writeDigits(long value, int minDigits) throws IOException {
+        int position = digits.length;
+        do {
+            digits[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while(value > 0 || digits.length - position < minDigits);
+        out.write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Write an angle in degrees in plain decimal notation with (at most) 7 decimals, the
+     * precision of the stored points
+     */
+    protected void writeDegrees(double degrees) throws IOException {
+        long value = Math.round(degrees * 1e7);
+        if(value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        writeDigits(value / 10000000L, 1);
+        long fraction = value % 10000000L;
+        if(fraction == 0)
+            return;
+        int decimals = 7;
+        while(fraction % 10 == 0) {
+            fraction /= 10;
+            --decimals;
+        }
+        out.write('.');
+        writeDigits(fraction, decimals);
+    }
+
+    /**
+     * Write a signed decimal number
+     */
+    protected void writeLong(long value) throws IOException {
+        if(value < 0) {
+            if(value == Long.MIN_VALUE) {
+                out.write(Long.toString(value));
+                return;
+            }
+            out.write('-');
+            value = -value;
+        }
+        writeDigits(value, 1);
+    }
+
+    /**
+     * Write a time in ISO 8601 format (UTC)
+     */
+    protected void writeTime(long time) throws IOException {
+        out.write(Instant.ofEpochMilli(time).toString());
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create the writer of a format
+     * @param format the format
+     * @param out the stream where the traces are written (it should be buffered)
+     * @return the writer
+     * @throws IllegalArgumentException if the format is not exportable
+     */
+    public static TraceWriter create(HistoryFormat format, Writer out) {
+        switch (format) {
+            case GPX:
+                return new GpxTraceWriter(out);
+            case GEOJSON:
+                return new GeoJsonTraceWriter(out);
+            case CSV:
+                return new CsvTraceWriter(out);
+            default:
+                throw new IllegalArgumentException(format + " is not exportable");
+        }
+    }
+
+    /**
+     * Write all the traces of a source and flush the stream (that is not closed)
+     * @param source the source of the traces
+     * @return the number of points written
+     * @throws IOException if the stream cannot be written
+     */
+    public long write(TracePointSource source) throws IOException {
+        long pointCount = 0;
+        String tracePoolId = null;
+        int traceIndex = 0;
+        writeHeader();
+        while(source.moveToNextTrace()) {
+            if(!source.getTracePoolId().equals(tracePoolId)) {
+                if(tracePoolId != null)
+                    endTracePool();
+                tracePoolId = source.getTracePoolId();
+                traceIndex = 0;
+                beginTracePool(tracePoolId, source.getTracePoolTimestamp());
+            }
+            pointCount += writeTrace(source, traceIndex++);
+        }
+        if(tracePoolId != null)
+            endTracePool();
+        writeFooter();
+        out.flush();
+        return pointCount;
+    }
+
+}
@@ -6,19 +6,41 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
 import android.util.Log;
 
-import org.json.JSONArray;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import it.unipi.dii.covida.locationstore.ContinuousTrace;
+import it.unipi.dii.covida.locationstore.DayDigest;
+import it.unipi.dii.covida.locationstore.DwellAggregator;
+import it.unipi.dii.covida.locationstore.DwellCell;
+import it.unipi.dii.covida.locationstore.Geohash;
+import it.unipi.dii.covida.locationstore.LocationColumns;
+import it.unipi.dii.covida.locationstore.StayPoint;
+import it.unipi.dii.covida.locationstore.StayPointDetector;
+import it.unipi.dii.covida.locationstore.TraceCodec;
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
 import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TracePyramid;
+import it.unipi.dii.covida.locationstore.TrackingRules;
 
 /**
  * This class is responsible to establish a connection and manage the local SQL database
@@ -27,11 +49,30 @@ public class LocationDatabaseManager extends SQLiteOpenHelper {
 
     private final static String TAG = LocationDatabaseManager.class.getSimpleName();
     private final static String DB_NAME = "locations.db";
+    private final static int DB_VERSION = 14;
     private final static String CONTINUOUSTRACE_TABLE_NAME = "continuoustraces";
     private final static String TRACEPOOL_TABLE_NAME = "tracepools";
+    private final static String SUMMARY_TABLE_NAME = "tracepoolsummaries";
+    private final static String GEOCODE_TABLE_NAME = "geocodecache";
+    private final static String CELL_TABLE_NAME = "locationcells";
+    private final static String JOURNAL_TABLE_NAME = "journal";
+    private final static String LEVEL_TABLE_NAME = "tracelevels";
+    private final static String DIGEST_TABLE_NAME = "daydigests";
+    private final static String DWELL_TABLE_NAME = "dwellcells";
+    private final static String STAY_TABLE_NAME = "staypoints";
+    private final static int CELL_PRECISION = 7;
+    private final static int MAX_QUERY_CELLS = 32;
+    // connection tuning (applied by onConfigure)
+    private final static int PAGE_SIZE = 4096; // effective only when the database file is created
+    // the decoded TracePools are cached up to this fraction of the heap
+    private final static int CACHE_MEMORY_FRACTION = 16;
 
     private Context ctx;
     private static LocationDatabaseManager instance = null;
+    private final StatementCache statements = new StatementCache();
+    private final TracePoolCache cache = new TracePoolCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / CACHE_MEMORY_FRACTION));
+    // incremented (holding the monitor) by every write of the digests or of the traces behind them
+    private long digestGeneration = 0;
 
     /**
      * Create a new database instance
@@ -39,8 +80,19 @@ public class LocationDatabaseManager extends SQLiteOpenHelper {
      * Context appContext = context.getApplicationContext();
      */
     private LocationDatabaseManager(Context context) {
-        super(context, DB_NAME, null , 1);
+        super(context, DB_NAME, null , DB_VERSION);
         this.ctx = context;
+        // readers (e.g. the list of tracks) are not blocked while the service writes
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Execute a PRAGMA (it can return a row, so it cannot be run by execSQL)
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        cursor.moveToFirst();
+        cursor.close();
     }
 
     /**
@@ -59,227 +111,2054 @@ public class LocationDatabaseManager extends SQLiteOpenHelper {
         return instance;
     }
 
+    /**
+     * Return the cache of the decoded TracePools (for its hit, miss and eviction counters)
+     */
+    public TracePoolCache getTracePoolCache() {
+        return cache;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        pragma(db, "page_size = " + PAGE_SIZE);
+        // effective only when the database file is created, the older files are converted by reclaimSpace()
+        pragma(db, "auto_vacuum = INCREMENTAL");
+        // with WAL a commit is still atomic and consistent, only the last ones can be lost on power failure
+        pragma(db, "synchronous = NORMAL");
+        // no cache_size or mmap_size: they hold only for the connection they run on, and the
+        // connections opened later by the pool for the readers of the WAL keep the defaults
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         // called only once when database is created for the first time.
         Log.d(TAG, "onCreate()");
-        db.execSQL( " CREATE TABLE IF NOT EXISTS " + CONTINUOUSTRACE_TABLE_NAME + " (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT , " +
-                "tracePoolId TEXT REFERENCES "+ TRACEPOOL_TABLE_NAME + " ON DELETE CASCADE, " +
-                "locations TEXT NOT NULL" +
-                ") "
-        );
+        createTracePoolTable(db, TRACEPOOL_TABLE_NAME);
+        createContinuousTraceTable(db, CONTINUOUSTRACE_TABLE_NAME);
+        createTracePoolIndexes(db);
+
+        createSummaryTable(db, SUMMARY_TABLE_NAME);
+        createGeocodeTable(db);
+        createCellTable(db);
+        createJournalTable(db);
+        createLevelTable(db);
+        createDigestTable(db);
+        createDwellTable(db);
+        createStayTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // called when database needs to be upgraded.
+        Log.d(TAG, "onUpgrade from version " + oldVersion + " to version " + newVersion);
+        if(oldVersion < 2) {
+            convertLocationsToBinary(db);
+        }
+        if(oldVersion < 3) {
+            createSummaryTable(db, SUMMARY_TABLE_NAME);
+            buildSummaries(db);
+        }
+        if(oldVersion < 4) {
+            createGeocodeTable(db);
+        }
+        if(oldVersion < 5) {
+            createCellTable(db);
+            buildCellIndex(db);
+        }
+        if(oldVersion < 6) {
+            createJournalTable(db);
+        }
+        if(oldVersion < 7) {
+            migrateToIntegerKeys(db);
+        }
+        if(oldVersion < 8) {
+            // the table rebuilt by the previous step already has the column
+            if(!hasColumn(db, CONTINUOUSTRACE_TABLE_NAME, "originalCount"))
+                db.execSQL("ALTER TABLE " + CONTINUOUSTRACE_TABLE_NAME + " ADD COLUMN originalCount INTEGER");
+        }
+        if(oldVersion < 9) {
+            createLevelTable(db);
+            buildLevels(db);
+        }
+        if(oldVersion < 10) {
+            // the digests are built when they are first read
+            createDigestTable(db);
+        }
+        if(oldVersion < 11) {
+            // the pages of the list of the tracks seek on (tracePoolTimestamp, tracePoolId)
+            db.execSQL("DROP INDEX IF EXISTS index_summary_timestamp");
+            createSummaryIndexes(db);
+        }
+        if(oldVersion < 12) {
+            createDwellTable(db);
+            buildDwellCells(db);
+        }
+        if(oldVersion < 13) {
+            createStayTable(db);
+            buildStayPoints(db);
+        }
+        if(oldVersion < 14) {
+            // the digests and the dwell table look the cells up by time
+            createCellTimeIndex(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // enabled here and not in onConfigure: the migrations rebuild tables and must not cascade
+        if(!db.isReadOnly())
+            db.setForeignKeyConstraintsEnabled(true);
+    }
 
-        db.execSQL( " CREATE TABLE IF NOT EXISTS " + TRACEPOOL_TABLE_NAME + " (" +
-                "tracePoolId TEXT PRIMARY KEY, " +
+    private static void createTracePoolTable(SQLiteDatabase db, String tableName) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "id INTEGER PRIMARY KEY, " +
+                "tracePoolId TEXT NOT NULL UNIQUE, " +
                 "tracePoolName TEXT, " +
                 "tracePoolTimestamp BIGINT NOT NULL" +
                 ") "
         );
+    }
 
-        db.execSQL("CREATE UNIQUE INDEX index_timestamp ON " + TRACEPOOL_TABLE_NAME + " (tracePoolTimestamp)");
+    private static void createContinuousTraceTable(SQLiteDatabase db, String tableName) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "poolId INTEGER NOT NULL REFERENCES " + TRACEPOOL_TABLE_NAME + "(id) ON DELETE CASCADE, " +
+                "locations BLOB NOT NULL, " +
+                // number of Locations recorded before simplification (NULL if not simplified)
+                "originalCount INTEGER" +
+                ") "
+        );
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // called when database needs to be upgraded.
-        Log.d(TAG, "onUpgrade");
-        db.execSQL("DROP TABLE IF EXISTS "+ CONTINUOUSTRACE_TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS "+ TRACEPOOL_TABLE_NAME);
-        onCreate(db);
+    private static boolean hasColumn(SQLiteDatabase db, String tableName, String columnName) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while(cursor.moveToNext()) {
+                if(columnName.equals(cursor.getString(nameIndex)))
+                    return true;
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
     }
 
+    private static void createTracePoolIndexes(SQLiteDatabase db) {
+        // covering index for the queries on a time range
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_tracepool_timestamp ON " + TRACEPOOL_TABLE_NAME + " (tracePoolTimestamp, tracePoolId, tracePoolName)");
+        // the traces of a TracePool, in insertion order (used by the JOINs and by the cascade)
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_trace_pool ON " + CONTINUOUSTRACE_TABLE_NAME + " (poolId, id)");
+    }
 
-    /* ################# ADD ################### */
+    /**
+     * Version 6 -> 7: replace the TEXT primary key of tracepools with an integer surrogate key,
+     * reference it (with an index and a cascade) from continuoustraces and make the summaries
+     * reference tracepools.tracePoolId. The history is copied, the traces that reference a
+     * TracePool that does not exist are dropped.
+     * @param db the database being upgraded
+     */
+    private static void migrateToIntegerKeys(SQLiteDatabase db) {
+        final String tracePoolsNew = TRACEPOOL_TABLE_NAME + "_new";
+        final String tracesNew = CONTINUOUSTRACE_TABLE_NAME + "_new";
+        final String summariesNew = SUMMARY_TABLE_NAME + "_new";
+
+        createTracePoolTable(db, tracePoolsNew);
+        db.execSQL("INSERT INTO " + tracePoolsNew + " (tracePoolId, tracePoolName, tracePoolTimestamp) " +
+                "SELECT tracePoolId, tracePoolName, tracePoolTimestamp FROM " + TRACEPOOL_TABLE_NAME + " ORDER BY tracePoolTimestamp");
+
+        createContinuousTraceTable(db, tracesNew);
+        db.execSQL("INSERT INTO " + tracesNew + " (id, poolId, locations) " +
+                "SELECT cp.id, tp.id, cp.locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                "JOIN " + tracePoolsNew + " AS tp ON tp.tracePoolId = cp.tracePoolId ORDER BY cp.id");
+
+        createSummaryTable(db, summariesNew);
+        db.execSQL("INSERT INTO " + summariesNew + " SELECT s.* FROM " + SUMMARY_TABLE_NAME + " AS s " +
+                "JOIN " + tracePoolsNew + " AS tp ON tp.tracePoolId = s.tracePoolId");
+
+        db.execSQL("DROP INDEX IF EXISTS index_timestamp");
+        db.execSQL("DROP INDEX IF EXISTS index_summary_timestamp");
+        db.execSQL("DROP TABLE " + SUMMARY_TABLE_NAME);
+        db.execSQL("DROP TABLE " + CONTINUOUSTRACE_TABLE_NAME);
+        db.execSQL("DROP TABLE " + TRACEPOOL_TABLE_NAME);
+        db.execSQL("ALTER TABLE " + tracePoolsNew + " RENAME TO " + TRACEPOOL_TABLE_NAME);
+        db.execSQL("ALTER TABLE " + tracesNew + " RENAME TO " + CONTINUOUSTRACE_TABLE_NAME);
+        db.execSQL("ALTER TABLE " + summariesNew + " RENAME TO " + SUMMARY_TABLE_NAME);
+        createTracePoolIndexes(db);
+        createSummaryIndexes(db);
+
+        db.execSQL("DELETE FROM " + CELL_TABLE_NAME + " WHERE traceId NOT IN (SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_cell_trace ON " + CELL_TABLE_NAME + " (traceId)");
+    }
+
+    private static void createSummaryTable(SQLiteDatabase db, String tableName) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "tracePoolId TEXT PRIMARY KEY REFERENCES " + TRACEPOOL_TABLE_NAME + "(tracePoolId) ON DELETE CASCADE, " +
+                "tracePoolTimestamp BIGINT NOT NULL, " +
+                "locationCount INTEGER NOT NULL, " +
+                "lengthMeter REAL NOT NULL, " +
+                "timeDuration BIGINT NOT NULL, " +
+                "fromLatitude REAL NOT NULL, " +
+                "fromLongitude REAL NOT NULL, " +
+                "toLatitude REAL NOT NULL, " +
+                "toLongitude REAL NOT NULL, " +
+                "minLatitude REAL NOT NULL, " +
+                "minLongitude REAL NOT NULL, " +
+                "maxLatitude REAL NOT NULL, " +
+                "maxLongitude REAL NOT NULL, " +
+                "fromLocality TEXT, " +
+                "toLocality TEXT" +
+                ") "
+        );
+        if(tableName.equals(SUMMARY_TABLE_NAME))
+            createSummaryIndexes(db);
+    }
+
+    private static void createSummaryIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_summary_timestamp_id ON " + SUMMARY_TABLE_NAME + " (tracePoolTimestamp, tracePoolId)");
+    }
+
+    private static void createGeocodeTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + GEOCODE_TABLE_NAME + " (" +
+                "cell TEXT PRIMARY KEY, " +
+                "locality TEXT NOT NULL, " +
+                "updated BIGINT NOT NULL" +
+                ") "
+        );
+    }
 
     /**
-     * Add the TracePool to the database
-     * @param tracePool the TracePool
-     * @return true if the database is updated
+     * The cell table is a spatial index over the stored traces: it has one row for every geohash
+     * cell (CELL_PRECISION characters) crossed by a trace, with the time range spent in the cell
      */
-    public boolean addTracePool(TracePool tracePool) {
-        Log.d(TAG, "addTracePool() called for a TracePool with tracePoolId = " + tracePool.getId());
-        SQLiteDatabase db = null;
-        try {
-            db = this.getWritableDatabase();
-            db.beginTransaction();
+    private static void createCellTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + CELL_TABLE_NAME + " (" +
+                "cell TEXT NOT NULL, " +
+                "traceId INTEGER NOT NULL REFERENCES " + CONTINUOUSTRACE_TABLE_NAME + " ON DELETE CASCADE, " +
+                "tracePoolId TEXT NOT NULL, " +
+                "fromTime BIGINT NOT NULL, " +
+                "toTime BIGINT NOT NULL, " +
+                "PRIMARY KEY (cell, traceId)" +
+                ") "
+        );
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_cell_tracepool ON " + CELL_TABLE_NAME + " (tracePoolId)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_cell_trace ON " + CELL_TABLE_NAME + " (traceId)");
+        createCellTimeIndex(db);
+    }
+
+    /**
+     * The index of the cells by time range, for readTracePoolIds() (it covers the query)
+     */
+    private static void createCellTimeIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_cell_time ON " + CELL_TABLE_NAME + " (toTime, fromTime, tracePoolId)");
+    }
+
+    /**
+     * The journal keeps the Locations of the TracePool that is being recorded: every row is a
+     * batch of Locations of a trace (identified by the time of its first Location) encoded as
+     * one or more TraceCodec frames, so the rows of a trace can be concatenated
+     */
+    private static void createJournalTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + JOURNAL_TABLE_NAME + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "tracePoolId TEXT NOT NULL, " +
+                "tracePoolTimestamp BIGINT NOT NULL, " +
+                "traceFromTime BIGINT NOT NULL, " +
+                "locations BLOB NOT NULL" +
+                ") "
+        );
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_journal_trace ON " + JOURNAL_TABLE_NAME + " (tracePoolId, traceFromTime)");
+    }
+
+    /**
+     * The level table keeps the levels of detail (TracePyramid) above 0 of every stored trace,
+     * with the bounding box of the trace, so that a TracePool can be drawn without decoding its
+     * Locations at full resolution
+     */
+    private static void createLevelTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + LEVEL_TABLE_NAME + " (" +
+                "traceId INTEGER NOT NULL REFERENCES " + CONTINUOUSTRACE_TABLE_NAME + " ON DELETE CASCADE, " +
+                "level INTEGER NOT NULL, " +
+                "minLatitude REAL NOT NULL, " +
+                "minLongitude REAL NOT NULL, " +
+                "maxLatitude REAL NOT NULL, " +
+                "maxLongitude REAL NOT NULL, " +
+                "locations BLOB NOT NULL, " +
+                "PRIMARY KEY (traceId, level)" +
+                ") "
+        );
+    }
+
+    /**
+     * The digest table keeps the DayDigest of the days already requested by getDayDigest(): a
+     * row is updated when a TracePool with points in its day is added, and deleted (to be built
+     * again from the traces) when Locations of its day are deleted
+     */
+    private static void createDigestTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + DIGEST_TABLE_NAME + " (" +
+                "day INTEGER PRIMARY KEY, " +
+                "digest BLOB NOT NULL" +
+                ") "
+        );
+    }
+
+    /**
+     * The dwell table aggregates the stored traces: for every geohash cell of the levels of
+     * DwellAggregator and every day, the time spent in the cell and the number of visits. It is
+     * updated by every write of a TracePool, so the heatmap of any range of days is read without
+     * decoding a Location. Its size depends on the places and the days, not on the sampling rate.
+     */
+    private static void createDwellTable(SQLiteDatabase db) {
+        // without rowid: the rows are stored in the primary key, in order of level and day
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + DWELL_TABLE_NAME + " (" +
+                "level INTEGER NOT NULL, " +
+                "day INTEGER NOT NULL, " +
+                "cell TEXT NOT NULL, " +
+                "dwell BIGINT NOT NULL, " +
+                "visits INTEGER NOT NULL, " +
+                "PRIMARY KEY (level, day, cell)" +
+                ") WITHOUT ROWID"
+        );
+    }
+
+    /**
+     * The stay table keeps the stays of every TracePool (see StayPointDetector), so the places
+     * visited in a time range are read without decoding a Location. The covering index on the
+     * departure time reads the stays from the start of the range onwards: a few thousands rows
+     * for every year after it.
+     */
+    private static void createStayTable(SQLiteDatabase db) {
+        db.execSQL( " CREATE TABLE IF NOT EXISTS " + STAY_TABLE_NAME + " (" +
+                "id INTEGER PRIMARY KEY, " +
+                "poolId INTEGER NOT NULL REFERENCES " + TRACEPOOL_TABLE_NAME + "(id) ON DELETE CASCADE, " +
+                "arrivalTime BIGINT NOT NULL, " +
+                "departureTime BIGINT NOT NULL, " +
+                "latitude REAL NOT NULL, " +
+                "longitude REAL NOT NULL, " +
+                "pointCount INTEGER NOT NULL" +
+                ") "
+        );
+        // covering index for the queries on a time range
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_stay_departure ON " + STAY_TABLE_NAME + " (departureTime, arrivalTime, latitude, longitude, pointCount)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_stay_pool ON " + STAY_TABLE_NAME + " (poolId)");
+    }
 
-            ContentValues newValues_tracePool = new ContentValues();
-            newValues_tracePool.put("tracePoolId", tracePool.getId());
-            newValues_tracePool.put("tracePoolName", tracePool.getName());
-            newValues_tracePool.put("tracePoolTimestamp", tracePool.getTimestamp());
-            db.insert(TRACEPOOL_TABLE_NAME, null, newValues_tracePool);
+    private void insertStayPoints(SQLiteDatabase db, long poolId, List<StayPoint> stayPoints) {
+        SQLiteStatement statement = statements.get(db, "INSERT INTO " + STAY_TABLE_NAME +
+                " (poolId, arrivalTime, departureTime, latitude, longitude, pointCount) VALUES (?, ?, ?, ?, ?, ?)");
+        for(StayPoint stayPoint : stayPoints) {
+            statement.bindLong(1, poolId);
+            statement.bindLong(2, stayPoint.getArrivalTime());
+            statement.bindLong(3, stayPoint.getDepartureTime());
+            statement.bindDouble(4, stayPoint.getLatitude());
+            statement.bindDouble(5, stayPoint.getLongitude());
+            statement.bindLong(6, stayPoint.getPointCount());
+            statement.executeInsert();
+        }
+    }
+
+    private static List<StayPoint> readStayPoints(Cursor cursor) {
+        List<StayPoint> stayPoints = new ArrayList<>();
+        while(cursor.moveToNext()) {
+            stayPoints.add(new StayPoint(cursor.getDouble(0), cursor.getDouble(1), cursor.getLong(2), cursor.getLong(3), cursor.getInt(4)));
+        }
+        cursor.close();
+        return stayPoints;
+    }
+
+    /**
+     * Return the stored stays of a TracePool (to be kept when the TracePool is written again)
+     */
+    private static List<StayPoint> readStayPoints(SQLiteDatabase db, String tracePoolId) {
+        return readStayPoints(db.rawQuery("SELECT s.latitude, s.longitude, s.arrivalTime, s.departureTime, s.pointCount " +
+                "FROM " + STAY_TABLE_NAME + " AS s JOIN " + TRACEPOOL_TABLE_NAME + " AS tp ON tp.id = s.poolId " +
+                "WHERE tp.tracePoolId = ? ORDER BY s.arrivalTime", new String[]{tracePoolId}));
+    }
 
-            List<ContinuousTrace> list = tracePool.getTraces();
-            for (ContinuousTrace ct : list) {
-                ContentValues newValues_ct = new ContentValues();
-                newValues_ct.put("tracePoolId", tracePool.getId());
-                JSONObject j = new JSONObject(ct.toJsonString());
-                String loc_str = j.get("locations").toString();
-                newValues_ct.put("locations", loc_str);
-                db.insert(CONTINUOUSTRACE_TABLE_NAME, null, newValues_ct);
+    /**
+     * Store again the stays of a TracePool that has been deleted and written again (the caller
+     * handles the transaction). A stay is kept only if a trace still goes from its arrival to its
+     * departure: the Locations of a stay removed by the user take the stay with them.
+     */
+    private void insertRetainedStayPoints(SQLiteDatabase db, TracePool tracePool, List<StayPoint> stayPoints) {
+        List<StayPoint> retained = new ArrayList<>();
+        for(StayPoint stayPoint : stayPoints) {
+            for(ContinuousTrace trace : tracePool.getTraces()) {
+                if(trace.getFromTime() <= stayPoint.getArrivalTime() && stayPoint.getDepartureTime() <= trace.getToTime()) {
+                    retained.add(stayPoint);
+                    break;
+                }
             }
+        }
+        if(retained.isEmpty())
+            return;
+        Cursor cursor = db.rawQuery("SELECT id FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolId = ?", new String[]{tracePool.getId()});
+        if(cursor.moveToFirst())
+            insertStayPoints(db, cursor.getLong(0), retained);
+        cursor.close();
+    }
+
+    /**
+     * Version 12 -> 13: find the stays of every stored trace (one trace at a time). The traces
+     * stored before are not collapsed, their stays are only listed.
+     * @param db the database being upgraded
+     */
+    private void buildStayPoints(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME, null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        Log.d(TAG, "buildStayPoints(): " + ids.size() + " traces to scan");
 
-            db.setTransactionSuccessful();
+        final TracePointConsumer discard = new TracePointConsumer() {
+            @Override
+            public void beginTrace() {}
 
-        }catch(SQLException e) {
-            e.printStackTrace();
-            if(db != null){
-                db.close();
+            @Override
+            public void accept(TracePoint point) {}
+
+            @Override
+            public void endTrace() {}
+        };
+        for(Long id : ids) {
+            cursor = db.rawQuery("SELECT poolId, locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE id = ?",
+                    new String[]{Long.toString(id)});
+            try {
+                if(cursor.moveToFirst()) {
+                    final List<StayPoint> stayPoints = new ArrayList<>();
+                    readTrace(cursor, 1, null).stream(new StayPointDetector(TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION,
+                            discard, new StayPointDetector.OnStayPointListener() {
+                        @Override
+                        public void onStayPoint(StayPoint stayPoint) {
+                            stayPoints.add(stayPoint);
+                        }
+                    }));
+                    insertStayPoints(db, cursor.getLong(0), stayPoints);
+                }
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(TAG, "Unable to scan the trace with id = " + id, e);
+            } finally {
+                cursor.close();
             }
-            return false;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
-        }finally {
-            if(db != null) {
-                db.endTransaction();
+        }
+    }
+
+    /**
+     * Add (or subtract) the aggregates of some traces to the dwell table
+     * @param sign 1 to add the aggregates, -1 to subtract them
+     */
+    private void applyDwell(SQLiteDatabase db, DwellAggregator aggregator, int sign) {
+        applyDwell(db, aggregator, sign, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Add (or subtract) the aggregates of some traces in a range of days to the dwell table
+     * @param sign 1 to add the aggregates, -1 to subtract them
+     * @param fromDay the first day (included)
+     * @param toDay the last day (included)
+     */
+    private void applyDwell(SQLiteDatabase db, DwellAggregator aggregator, int sign, long fromDay, long toDay) {
+        SQLiteStatement update = statements.get(db, "UPDATE " + DWELL_TABLE_NAME +
+                " SET dwell = dwell + ?, visits = visits + ? WHERE level = ? AND day = ? AND cell = ?");
+        for(DwellCell cell : aggregator.getCells()) {
+            if(cell.getDwellMillis() == 0L && cell.getVisits() == 0)
+                continue;
+            if(cell.getFromDay() < fromDay || cell.getFromDay() > toDay)
+                continue;
+            update.bindLong(1, sign * cell.getDwellMillis());
+            update.bindLong(2, sign * cell.getVisits());
+            update.bindLong(3, cell.getLevel());
+            update.bindLong(4, cell.getFromDay());
+            update.bindString(5, cell.getCell());
+            if(update.executeUpdateDelete() > 0) {
+                if(sign < 0) {
+                    SQLiteStatement delete = statements.get(db, "DELETE FROM " + DWELL_TABLE_NAME +
+                            " WHERE level = ? AND day = ? AND cell = ? AND dwell <= 0 AND visits <= 0");
+                    delete.bindLong(1, cell.getLevel());
+                    delete.bindLong(2, cell.getFromDay());
+                    delete.bindString(3, cell.getCell());
+                    delete.executeUpdateDelete();
+                }
+            } else if(sign > 0) {
+                SQLiteStatement insert = statements.get(db, "INSERT INTO " + DWELL_TABLE_NAME +
+                        " (level, day, cell, dwell, visits) VALUES (?, ?, ?, ?, ?)");
+                insert.bindLong(1, cell.getLevel());
+                insert.bindLong(2, cell.getFromDay());
+                insert.bindString(3, cell.getCell());
+                insert.bindLong(4, cell.getDwellMillis());
+                insert.bindLong(5, cell.getVisits());
+                insert.executeInsert();
             }
         }
+    }
+
+    /**
+     * Subtract the aggregates of a stored TracePool from the dwell table (before it is deleted)
+     * @return false if a trace of the TracePool cannot be decoded: nothing is subtracted and the
+     * days of the TracePool must be rebuilt with rebuildDwell() once it is deleted
+     */
+    private boolean subtractDwell(SQLiteDatabase db, String tracePoolId) {
+        DwellAggregator aggregator = new DwellAggregator();
+        if(!streamTracePool(tracePoolId, aggregator))
+            return false;
+        applyDwell(db, aggregator, -1);
         return true;
     }
 
-    /* ################# GET ################### */
+    /**
+     * Return the IDs of the TracePools with Locations in a time range, through the cell table.
+     * The duplicates are removed here and not by a SELECT DISTINCT: SQLite would rather scan the
+     * index on tracePoolId for it than search the time range.
+     * @param fromTime the start of the range
+     * @param toTime the end of the range (excluded)
+     */
+    private static Set<String> readTracePoolIds(SQLiteDatabase db, long fromTime, long toTime) {
+        Set<String> tracePoolIds = new LinkedHashSet<>();
+        Cursor cursor = db.rawQuery("SELECT tracePoolId FROM " + CELL_TABLE_NAME + " WHERE toTime >= ? AND fromTime < ?",
+                new String[]{Long.toString(fromTime), Long.toString(toTime)});
+        while(cursor.moveToNext()) {
+            tracePoolIds.add(cursor.getString(0));
+        }
+        cursor.close();
+        return tracePoolIds;
+    }
 
     /**
-     * Return the TracePool by the TracePool ID
-     * @param tracePoolId_ the TracePool ID
-     * @return the TracePool
+     * Rebuild the dwell table in the days of a time range from the TracePools stored (through
+     * the cell table, only the TracePools with Locations in the range are read)
+     * @param fromTime the minimum sampling time of the range
+     * @param toTime the maximum sampling time of the range
      */
-    public TracePool getTracePoolById(String tracePoolId_) {
-        Log.d(TAG, "getTracePoolById() called with tracePoolId = " + tracePoolId_);
-        SQLiteDatabase db = null;
-        TracePool tracePool = null;
-        try {
-            db = this.getReadableDatabase();
-            String query = "SELECT * FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
-                    "ON tp.tracePoolId = cp.tracePoolId " +
-                    "WHERE tp.tracePoolId = ?";
+    private void rebuildDwell(SQLiteDatabase db, long fromTime, long toTime) {
+        final long fromDay = DayDigest.dayOf(fromTime);
+        final long toDay = DayDigest.dayOf(toTime);
+        Log.w(TAG, "rebuildDwell() called for the days from " + fromDay + " to " + toDay);
+        db.delete(DWELL_TABLE_NAME, "day BETWEEN ? AND ?", new String[]{Long.toString(fromDay), Long.toString(toDay)});
+        for(String tracePoolId : readTracePoolIds(db, fromDay * DayDigest.DAY_MILLIS, (toDay + 1) * DayDigest.DAY_MILLIS)) {
+            // every trace is aggregated whole: the visits of a day depend on the days before it
+            DwellAggregator aggregator = new DwellAggregator();
+            if(streamTracePool(tracePoolId, aggregator))
+                applyDwell(db, aggregator, 1, fromDay, toDay);
+        }
+    }
 
-            if(tracePoolId_ == null) return null;
-            Cursor cursor = db.rawQuery(query, new String[]{tracePoolId_});
+    /**
+     * Version 11 -> 12: aggregate every stored trace in the dwell table (one trace at a time)
+     * @param db the database being upgraded
+     */
+    private void buildDwellCells(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME, null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        Log.d(TAG, "buildDwellCells(): " + ids.size() + " traces to aggregate");
 
-            if (cursor.moveToFirst()) {
-                List<ContinuousTrace> continuousTraceList = new ArrayList<>();
-                Long tracePoolTimestamp;
-                String tracePoolName;
-                String tracePoolId;
-                do {
-                    tracePoolId = cursor.getString(cursor.getColumnIndex("tracePoolId"));
-                    tracePoolName = cursor.getString(cursor.getColumnIndex("tracePoolName"));
-                    tracePoolTimestamp = cursor.getLong(cursor.getColumnIndex("tracePoolTimestamp"));
-                    ContinuousTrace ct = new ContinuousTrace(cursor.getString(cursor.getColumnIndex("tracePoolId")));
-                    JSONArray arrayLocations = new JSONArray(cursor.getString(cursor.getColumnIndex("locations")));
-                    for (int i = 0; i < arrayLocations.length(); ++i) {
-                        JSONObject json_loc = (JSONObject) arrayLocations.get(i);
-                        Double longitude = json_loc.getDouble("longitude");
-                        Double latitude = json_loc.getDouble("latitude");
-                        String provider = json_loc.getString("provider");
-                        Long time = json_loc.getLong("time");
-                        Location loc = new Location(provider);
-                        loc.setLongitude(longitude);
-                        loc.setLatitude(latitude);
-                        loc.setTime(time);
-                        ct.addLocation(loc);
-                    }
-                    continuousTraceList.add(ct);
-                } while (cursor.moveToNext());
-                tracePool = new TracePool(tracePoolTimestamp, tracePoolName, tracePoolId, continuousTraceList, true);
-            }
-            cursor.close();
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return null;
-        }catch (SQLException e) {
-            e.printStackTrace();
-            if(db != null) {
-                db.close();
+        for(Long id : ids) {
+            cursor = db.rawQuery("SELECT tp.tracePoolId, cp.locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "JOIN " + TRACEPOOL_TABLE_NAME + " AS tp ON tp.id = cp.poolId WHERE cp.id = ?",
+                    new String[]{Long.toString(id)});
+            try {
+                if(cursor.moveToFirst()) {
+                    DwellAggregator aggregator = new DwellAggregator();
+                    readTrace(cursor, 1, cursor.getString(0)).stream(aggregator);
+                    applyDwell(db, aggregator, 1);
+                }
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(TAG, "Unable to aggregate the trace with id = " + id, e);
+            } finally {
+                cursor.close();
             }
-            return null;
         }
-        return tracePool;
     }
 
     /**
-     * Return the TracePool list by starting time
-     * @param startMills the starting time
-     * @return the list of TracePool
+     * Add the points of a TracePool to the stored digests of their days (the days without a
+     * stored digest are left to getDayDigest())
      */
-    public List<TracePool> getTracePoolByStartingTime(Long startMills) {
-        Log.d(TAG, "getTracePoolByStartingTime() called with startMillis = " + startMills);
-        SQLiteDatabase db = null;
-        ArrayList<TracePool> tracePoolList = new ArrayList<>();
+    private void updateDigests(SQLiteDatabase db, TracePool tracePool) {
+        ++digestGeneration;
+        long fromTime = Long.MAX_VALUE, toTime = Long.MIN_VALUE;
+        for(ContinuousTrace trace : tracePool.getTraces()) {
+            if(!trace.isEmpty()) {
+                fromTime = Math.min(fromTime, trace.getFromTime());
+                toTime = Math.max(toTime, trace.getToTime());
+            }
+        }
+        if(fromTime > toTime)
+            return;
+        final long fromDay = DayDigest.dayOf(fromTime);
+        final long toDay = DayDigest.dayOf(toTime);
+        final Map<Long, DayDigest> digests = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT digest FROM " + DIGEST_TABLE_NAME + " WHERE day BETWEEN ? AND ?",
+                new String[]{Long.toString(fromDay), Long.toString(toDay)});
         try {
-            db = this.getReadableDatabase();
-            db.beginTransaction();
-            String query = "SELECT * FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolTimestamp > ? ORDER BY tracePoolId";
-            Cursor cursor = db.rawQuery(query, new String[]{Long.toString(startMills)});
-            db.setTransactionSuccessful();
-            db.endTransaction();
-            if(cursor.moveToFirst()) {
-                do {
-                    String tracePoolId = cursor.getString(cursor.getColumnIndex("tracePoolId"));
-                    TracePool tp_tmp = getTracePoolById(tracePoolId);
-                    if(tp_tmp != null) {
-                        tracePoolList.add(tp_tmp);
-                    }
-                } while (cursor.moveToNext());
+            while(cursor.moveToNext()) {
+                DayDigest digest = DayDigest.fromByteArray(cursor.getBlob(0));
+                digests.put(digest.getDay(), digest);
             }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unable to decode a stored digest", e);
+        } finally {
             cursor.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            if(db != null){
-                db.close();
-            }
         }
-        return tracePoolList;
+        if(digests.isEmpty())
+            return;
+        // every digest sees the whole traces: the time between two points can cross midnight
+        tracePool.stream(new TracePointConsumer() {
+            @Override
+            public void beginTrace() {
+                for(DayDigest digest : digests.values())
+                    digest.beginTrace();
+            }
+
+            @Override
+            public void accept(TracePoint point) {
+                for(DayDigest digest : digests.values())
+                    digest.accept(point);
+            }
+
+            @Override
+            public void endTrace() {
+                for(DayDigest digest : digests.values())
+                    digest.endTrace();
+            }
+        });
+        for(DayDigest digest : digests.values())
+            insertDigest(db, digest);
     }
 
+    private void insertDigest(SQLiteDatabase db, DayDigest digest) {
+        SQLiteStatement statement = statements.get(db, "INSERT OR REPLACE INTO " + DIGEST_TABLE_NAME + " (day, digest) VALUES (?, ?)");
+        statement.bindLong(1, digest.getDay());
+        statement.bindBlob(2, digest.toByteArray());
+        statement.executeInsert();
+    }
 
     /**
-     * Return the TracePool list by starting date
-     * @param date the starting date
-     * @return the list of TracePool
+     * Delete the stored digests of the days between two times (both included)
      */
-    public List<TracePool> getTracePoolByStartingTime(Date date){
-        return getTracePoolByStartingTime(date.getTime());
+    private void invalidateDigests(SQLiteDatabase db, long fromTime, long toTime) {
+        ++digestGeneration;
+        SQLiteStatement statement = statements.get(db, "DELETE FROM " + DIGEST_TABLE_NAME + " WHERE day BETWEEN ? AND ?");
+        statement.bindLong(1, DayDigest.dayOf(fromTime));
+        statement.bindLong(2, DayDigest.dayOf(toTime));
+        statement.executeUpdateDelete();
     }
 
-    /* ###############  DELETE ################### */
+    /**
+     * Version 8 -> 9: compute the levels of detail of every stored trace (one trace at a time)
+     * @param db the database being upgraded
+     */
+    private void buildLevels(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME, null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        Log.d(TAG, "buildLevels(): " + ids.size() + " traces to simplify");
 
-    public boolean deleteTracePoolById(String tracePoolId) {
-        Log.d(TAG, "deleteTracePoolById() called with tracePoolId = " + tracePoolId);
-        SQLiteDatabase db = null;
-        try {
-            db = this.getWritableDatabase();
+        for(Long id : ids) {
+            cursor = db.rawQuery("SELECT locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE id = ?",
+                    new String[]{Long.toString(id)});
+            try {
+                if(cursor.moveToFirst()) {
+                    ContinuousTrace trace = readTrace(cursor, 0, null);
+                    // only the levels are stored, not the index of the trace
+                    if(!trace.isEmpty())
+                        insertLevels(db, id, TracePyramid.build(trace, -1));
+                }
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(TAG, "Unable to simplify the trace with id = " + id, e);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
 
-            String query = "DELETE FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolId = \"" + tracePoolId + "\"";
-            db.execSQL(query);
+    /**
+     * Add to the level table the levels above 0 of a trace
+     * @param db the database
+     * @param traceId the id of the row of the trace
+     * @param pyramid the levels of the trace
+     */
+    private void insertLevels(SQLiteDatabase db, long traceId, TracePyramid pyramid) {
+        SQLiteStatement statement = statements.get(db, "INSERT OR REPLACE INTO " + LEVEL_TABLE_NAME +
+                " (traceId, level, minLatitude, minLongitude, maxLatitude, maxLongitude, locations) VALUES (?, ?, ?, ?, ?, ?, ?)");
+        LatLngBounds bounds = pyramid.getBounds();
+        for(int level = 1; level < TracePyramid.LEVELS; ++level) {
+            statement.bindLong(1, traceId);
+            statement.bindLong(2, level);
+            statement.bindDouble(3, bounds.southwest.latitude);
+            statement.bindDouble(4, bounds.southwest.longitude);
+            statement.bindDouble(5, bounds.northeast.latitude);
+            statement.bindDouble(6, bounds.northeast.longitude);
+            statement.bindBlob(7, TraceCodec.encode(pyramid.getLevel(level)));
+            statement.executeInsert();
+        }
+    }
 
-            query = "DELETE FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE tracePoolId = \"" + tracePoolId + "\"";
-            db.execSQL(query);
+    /**
+     * Return the concatenation of the journal rows of every trace of a TracePool
+     * @return a list with one encoded trace for every trace of the TracePool, ordered by time
+     */
+    private static List<byte[]> readJournalTraces(SQLiteDatabase db, String tracePoolId) {
+        List<byte[]> encodedTraces = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT traceFromTime, locations FROM " + JOURNAL_TABLE_NAME + " WHERE tracePoolId = ? ORDER BY traceFromTime, id",
+                new String[]{tracePoolId});
+        ByteArrayOutputStream trace = null;
+        long traceFromTime = 0L;
+        while(cursor.moveToNext()) {
+            if(trace == null || cursor.getLong(0) != traceFromTime) {
+                if(trace != null)
+                    encodedTraces.add(trace.toByteArray());
+                trace = new ByteArrayOutputStream();
+                traceFromTime = cursor.getLong(0);
+            }
+            byte[] frames = cursor.getBlob(1);
+            trace.write(frames, 0, frames.length);
+        }
+        if(trace != null)
+            encodedTraces.add(trace.toByteArray());
+        cursor.close();
+        return encodedTraces;
+    }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            if(db != null) {
-                db.close();
+    /**
+     * Version 4 -> 5: index the cells of every stored trace (one trace at a time)
+     * @param db the database being upgraded
+     */
+    private void buildCellIndex(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME, null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        Log.d(TAG, "buildCellIndex(): " + ids.size() + " traces to index");
+
+        for(Long id : ids) {
+            cursor = db.rawQuery("SELECT tracePoolId, locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE id = ?",
+                    new String[]{Long.toString(id)});
+            try {
+                if(cursor.moveToFirst()) {
+                    String tracePoolId = cursor.getString(0);
+                    insertCells(db, id, tracePoolId, readTrace(cursor, 1, tracePoolId));
+                }
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(TAG, "Unable to index the trace with id = " + id, e);
+            } finally {
+                cursor.close();
             }
-            return false;
         }
-        return true;
     }
 
     /**
-     * Delete all the ContinuousTrace record from the database
-     * @return true if the database is updated
+     * Add to the cell table the cells crossed by a trace
+     * @param db the database
+     * @param traceId the id of the row of the trace
+     * @param tracePoolId the id of the TracePool that owns the trace
+     * @param trace the trace
      */
-    public boolean deleteAll() {
-        SQLiteDatabase db = null;
-        try {
-            db = this.getWritableDatabase();
-            String query = "DELETE FROM " + TRACEPOOL_TABLE_NAME;
-            db.execSQL(query);
-        }catch (SQLException e) {
+    private void insertCells(SQLiteDatabase db, long traceId, String tracePoolId, ContinuousTrace trace) {
+        // cell -> {fromTime, toTime}
+        Map<String, long[]> cells = new HashMap<>();
+        for(Location location : trace.getLocations()) {
+            String cell = Geohash.encode(location.getLatitude(), location.getLongitude(), CELL_PRECISION);
+            long[] range = cells.get(cell);
+            if(range == null) {
+                cells.put(cell, new long[]{location.getTime(), location.getTime()});
+            } else {
+                range[0] = Math.min(range[0], location.getTime());
+                range[1] = Math.max(range[1], location.getTime());
+            }
+        }
+        SQLiteStatement statement = statements.get(db, "INSERT OR REPLACE INTO " + CELL_TABLE_NAME +
+                " (cell, traceId, tracePoolId, fromTime, toTime) VALUES (?, ?, ?, ?, ?)");
+        for(Map.Entry<String, long[]> entry : cells.entrySet()) {
+            statement.bindString(1, entry.getKey());
+            statement.bindLong(2, traceId);
+            statement.bindString(3, tracePoolId);
+            statement.bindLong(4, entry.getValue()[0]);
+            statement.bindLong(5, entry.getValue()[1]);
+            statement.executeInsert();
+        }
+    }
+
+    /**
+     * Return the ids of the traces that cross the cells around a circle in a time range
+     * (the traces returned can still have no Locations inside the circle)
+     * @param db the database
+     * @return a map from trace id to the id of the TracePool that owns the trace
+     */
+    private static Map<Long, String> findCandidateTraces(SQLiteDatabase db, double latitude, double longitude, double radius, long fromTime, long toTime) {
+        Set<String> cells = Geohash.coverCircle(latitude, longitude, radius, CELL_PRECISION, MAX_QUERY_CELLS);
+        StringBuilder where = new StringBuilder("(");
+        String[] args = new String[cells.size() * 2 + 2];
+        int i = 0;
+        for(String cell : cells) {
+            if(i > 0)
+                where.append(" OR ");
+            // a range on the prefix: '{' follows the last character of the geohash alphabet
+            where.append("(cell >= ? AND cell < ?)");
+            args[i++] = cell;
+            args[i++] = cell + "{";
+        }
+        where.append(") AND toTime >= ? AND fromTime <= ?");
+        args[i++] = Long.toString(fromTime);
+        args[i] = Long.toString(toTime);
+
+        Map<Long, String> traces = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT traceId, tracePoolId FROM " + CELL_TABLE_NAME + " WHERE " + where, args);
+        while(cursor.moveToNext()) {
+            traces.put(cursor.getLong(0), cursor.getString(1));
+        }
+        cursor.close();
+        return traces;
+    }
+
+    /**
+     * Version 2 -> 3: compute the summary of every stored TracePool (one TracePool at a time)
+     * @param db the database being upgraded
+     */
+    private void buildSummaries(SQLiteDatabase db) {
+        List<String> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT tracePoolId FROM " + TRACEPOOL_TABLE_NAME, null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getString(0));
+        }
+        cursor.close();
+        Log.d(TAG, "buildSummaries(): " + ids.size() + " TracePools to summarize");
+
+        String query = "SELECT tp.tracePoolId, tp.tracePoolName, tp.tracePoolTimestamp, cp.locations " +
+                "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                "ON tp.tracePoolId = cp.tracePoolId " +
+                "WHERE tp.tracePoolId = ? " +
+                "ORDER BY cp.id";
+        List<TracePool> tracePools = new ArrayList<>(1);
+        for(String id : ids) {
+            tracePools.clear();
+            cursor = db.rawQuery(query, new String[]{id});
+            readTracePools(cursor, tracePools);
+            cursor.close();
+            if(!tracePools.isEmpty() && !tracePools.get(0).isEmpty()) {
+                insertSummary(db, TracePoolSummary.of(tracePools.get(0)));
+            }
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if(value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    private void insertSummary(SQLiteDatabase db, TracePoolSummary summary) {
+        SQLiteStatement statement = statements.get(db, "INSERT OR REPLACE INTO " + SUMMARY_TABLE_NAME + " (" +
+                "tracePoolId, tracePoolTimestamp, locationCount, lengthMeter, timeDuration, " +
+                "fromLatitude, fromLongitude, toLatitude, toLongitude, " +
+                "minLatitude, minLongitude, maxLatitude, maxLongitude, " +
+                "fromLocality, toLocality) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        statement.bindString(1, summary.getTracePoolId());
+        statement.bindLong(2, summary.getTimestamp());
+        statement.bindLong(3, summary.getLocationCount());
+        statement.bindDouble(4, summary.getLengthMeter());
+        statement.bindLong(5, summary.getTimeDuration());
+        statement.bindDouble(6, summary.getFromLatitude());
+        statement.bindDouble(7, summary.getFromLongitude());
+        statement.bindDouble(8, summary.getToLatitude());
+        statement.bindDouble(9, summary.getToLongitude());
+        statement.bindDouble(10, summary.getMinLatitude());
+        statement.bindDouble(11, summary.getMinLongitude());
+        statement.bindDouble(12, summary.getMaxLatitude());
+        statement.bindDouble(13, summary.getMaxLongitude());
+        bindStringOrNull(statement, 14, summary.getFromLocality());
+        bindStringOrNull(statement, 15, summary.getToLocality());
+        statement.executeInsert();
+    }
+
+    /**
+     * Version 1 -> 2: convert the JSON arrays stored in continuoustraces.locations to the binary
+     * format of TraceCodec. Rows that cannot be parsed are left untouched (the readers support
+     * both formats).
+     * @param db the database being upgraded
+     */
+    private static void convertLocationsToBinary(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE typeof(locations) = 'text'", null);
+        while(cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        Log.d(TAG, "convertLocationsToBinary(): " + ids.size() + " traces to convert");
+
+        ContentValues values = new ContentValues();
+        for(Long id : ids) {
+            String[] args = new String[]{Long.toString(id)};
+            cursor = db.rawQuery("SELECT locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE id = ?", args);
+            try {
+                if(cursor.moveToFirst()) {
+                    values.put("locations", TraceCodec.encode(TraceCodec.decodeJson(cursor.getString(0))));
+                    db.update(CONTINUOUSTRACE_TABLE_NAME, values, "id = ?", args);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to convert the trace with id = " + id, e);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Build a ContinuousTrace from the locations column of the current row of the cursor
+     * (binary or JSON, depending on the format of the row)
+     * @param cursor the cursor positioned on the row to read
+     * @param locationsIndex the index of the locations column
+     * @param tracePoolId the id of the TracePool that owns the trace
+     * @return the ContinuousTrace
+     * @throws JSONException if a JSON row is not valid
+     */
+    private static ContinuousTrace readTrace(Cursor cursor, int locationsIndex, String tracePoolId) throws JSONException {
+        if(cursor.getType(locationsIndex) == Cursor.FIELD_TYPE_BLOB) {
+            return TraceCodec.decodeTrace(tracePoolId, cursor.getBlob(locationsIndex));
+        }
+        return TraceCodec.decodeTrace(tracePoolId, cursor.getString(locationsIndex));
+    }
+
+
+    /**
+     * Insert a TracePool with its traces, stays, summary and cells (the caller handles the transaction)
+     */
+    private void insertTracePool(SQLiteDatabase db, TracePool tracePool) {
+        SQLiteStatement insertTracePool = statements.get(db, "INSERT INTO " + TRACEPOOL_TABLE_NAME +
+                " (tracePoolId, tracePoolName, tracePoolTimestamp) VALUES (?, ?, ?)");
+        insertTracePool.bindString(1, tracePool.getId());
+        bindStringOrNull(insertTracePool, 2, tracePool.getName());
+        insertTracePool.bindLong(3, tracePool.getTimestamp());
+        long poolId = insertTracePool.executeInsert();
+
+        List<ContinuousTrace> list = tracePool.getTraces();
+        for (int i = 0; i < list.size(); ++i) {
+            ContinuousTrace ct = list.get(i);
+            SQLiteStatement insertTrace = statements.get(db, "INSERT INTO " + CONTINUOUSTRACE_TABLE_NAME +
+                    " (poolId, locations, originalCount) VALUES (?, ?, ?)");
+            insertTrace.bindLong(1, poolId);
+            insertTrace.bindBlob(2, TraceCodec.encode(ct));
+            if(ct.getOriginalLocationCount() != ct.getLocationCount())
+                insertTrace.bindLong(3, ct.getOriginalLocationCount());
+            else
+                insertTrace.bindNull(3);
+            long traceId = insertTrace.executeInsert();
+            if(traceId != -1) {
+                insertCells(db, traceId, tracePool.getId(), ct);
+                if(!ct.isEmpty())
+                    insertLevels(db, traceId, TracePyramid.build(ct, i));
+            }
+        }
+
+        insertStayPoints(db, poolId, tracePool.getStayPoints());
+
+        if(!tracePool.isEmpty()) {
+            insertSummary(db, TracePoolSummary.of(tracePool));
+            updateDigests(db, tracePool);
+            DwellAggregator aggregator = new DwellAggregator();
+            tracePool.stream(aggregator);
+            applyDwell(db, aggregator, 1);
+        }
+    }
+
+    /**
+     * Delete a TracePool with its traces, summary and cells (the caller handles the transaction)
+     */
+    private void deleteTracePool(SQLiteDatabase db, String tracePoolId) {
+        Cursor cursor = db.rawQuery("SELECT MIN(fromTime), MAX(toTime) FROM " + CELL_TABLE_NAME + " WHERE tracePoolId = ?",
+                new String[]{tracePoolId});
+        Long fromTime = null, toTime = null;
+        if(cursor.moveToFirst() && !cursor.isNull(0)) {
+            fromTime = cursor.getLong(0);
+            toTime = cursor.getLong(1);
+            invalidateDigests(db, fromTime, toTime);
+        }
+        cursor.close();
+        final boolean subtracted = subtractDwell(db, tracePoolId);
+        // traces, stays, cells and summary are deleted by the cascade
+        SQLiteStatement statement = statements.get(db, "DELETE FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolId = ?");
+        statement.bindString(1, tracePoolId);
+        statement.executeUpdateDelete();
+        if(!subtracted && fromTime != null)
+            rebuildDwell(db, fromTime, toTime);
+    }
+
+
+    /* ################# ADD ################### */
+
+    /**
+     * Add the TracePool to the database
+     * @param tracePool the TracePool
+     * @return true if the database is updated
+     */
+    public synchronized boolean addTracePool(TracePool tracePool) {
+        Log.d(TAG, "addTracePool() called for a TracePool with tracePoolId = " + tracePool.getId());
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                insertTracePool(db, tracePool);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidate(tracePool.getId());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a list of TracePools to the database in a single transaction. The TracePools whose ID
+     * is already stored are skipped: the same TracePools can be added again (e.g. an imported
+     * history, see HistoryImporter) without duplicates.
+     * @param tracePools the TracePools
+     * @return the TracePools added (all the new ones or none), null on error
+     */
+    public synchronized List<TracePool> addTracePools(List<TracePool> tracePools) {
+        Log.d(TAG, "addTracePools() called for " + tracePools.size() + " TracePools");
+        SQLiteDatabase db = null;
+        List<TracePool> added = new ArrayList<>();
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for(TracePool tracePool : tracePools) {
+                    SQLiteStatement count = statements.get(db, "SELECT COUNT(*) FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolId = ?");
+                    count.bindString(1, tracePool.getId());
+                    if(count.simpleQueryForLong() > 0)
+                        continue;
+                    insertTracePool(db, tracePool);
+                    added.add(tracePool);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                for(TracePool tracePool : tracePools)
+                    cache.invalidate(tracePool.getId());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+            return null;
+        }
+        return added;
+    }
+
+    /**
+     * Replace a stored TracePool (with the same TracePool ID) in a single transaction, or
+     * delete it if the new version is empty
+     * @param tracePool the new version of the TracePool
+     * @return true if the database is updated
+     */
+    public synchronized boolean replaceTracePool(TracePool tracePool) {
+        Log.d(TAG, "replaceTracePool() called for a TracePool with tracePoolId = " + tracePool.getId());
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                List<StayPoint> stayPoints = readStayPoints(db, tracePool.getId());
+                deleteTracePool(db, tracePool.getId());
+                if(!tracePool.getTraces().isEmpty()) {
+                    insertTracePool(db, tracePool);
+                    insertRetainedStayPoints(db, tracePool, stayPoints);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidate(tracePool.getId());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append a batch of Locations of the TracePool being recorded to the journal
+     * @param tracePoolId the TracePool ID
+     * @param tracePoolTimestamp the creation timestamp of the TracePool
+     * @param traceFromTime the time of the first Location of the trace that contains the batch
+     * @param frames the batch encoded with TraceCodec
+     * @return true if the database is updated
+     */
+    public synchronized boolean appendJournal(String tracePoolId, long tracePoolTimestamp, long traceFromTime, byte[] frames) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            SQLiteStatement statement = statements.get(db, "INSERT INTO " + JOURNAL_TABLE_NAME +
+                    " (tracePoolId, tracePoolTimestamp, traceFromTime, locations) VALUES (?, ?, ?, ?)");
+            statement.bindString(1, tracePoolId);
+            statement.bindLong(2, tracePoolTimestamp);
+            statement.bindLong(3, traceFromTime);
+            statement.bindBlob(4, frames);
+            return statement.executeInsert() != -1;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Move a TracePool from the journal to the tables of the saved TracePools, in one transaction.
+     * The traces are encoded again from memory: the stays of a TracePool are collapsed and its
+     * traces simplified once it is stopped, so the Locations appended to the journal while it was
+     * recorded are not the ones stored. The journal only makes the recording survive a killed
+     * process.
+     * @param tracePool the TracePool to save
+     * @return true if the database is updated
+     */
+    public synchronized boolean commitJournal(TracePool tracePool) {
+        Log.d(TAG, "commitJournal() called for a TracePool with tracePoolId = " + tracePool.getId());
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                insertTracePool(db, tracePool);
+                db.delete(JOURNAL_TABLE_NAME, "tracePoolId = ?", new String[]{tracePool.getId()});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidate(tracePool.getId());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /* ################# GET ################### */
+
+    /**
+     * Rebuild the TracePools left in the journal (the ones that were being recorded when the
+     * process was killed)
+     * @return the list of TracePools, ordered by creation time
+     */
+    public List<TracePool> readJournal() {
+        Log.d(TAG, "readJournal() called");
+        SQLiteDatabase db = null;
+        List<TracePool> tracePools = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            List<String> ids = new ArrayList<>();
+            List<Long> timestamps = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT DISTINCT tracePoolId, tracePoolTimestamp FROM " + JOURNAL_TABLE_NAME + " ORDER BY tracePoolTimestamp", null);
+            while(cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+                timestamps.add(cursor.getLong(1));
+            }
+            cursor.close();
+            for(int i = 0; i < ids.size(); ++i) {
+                List<ContinuousTrace> traces = new ArrayList<>();
+                for(byte[] encodedTrace : readJournalTraces(db, ids.get(i))) {
+                    try {
+                        traces.add(TraceCodec.decodeTrace(ids.get(i), encodedTrace));
+                    } catch (IllegalArgumentException e) {
+                        Log.e(TAG, "Unable to decode a journaled trace of the TracePool with tracePoolId = " + ids.get(i), e);
+                    }
+                }
+                tracePools.add(new TracePool(timestamps.get(i), "", ids.get(i), traces, true));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+        }
+        return tracePools;
+    }
+
+    /**
+     * Build the TracePools from a cursor over the JOIN between tracepools and continuoustraces.
+     * The rows of the same TracePool must be contiguous: the cursor is read only once and the
+     * TracePools are created while it is scanned. A TracePool that contains a trace that cannot
+     * be decoded is skipped.
+     * @param cursor the cursor (it is not closed by this method)
+     * @param tracePools the list where the TracePools are added
+     */
+    private static void readTracePools(Cursor cursor, List<TracePool> tracePools) {
+        if(!cursor.moveToFirst())
+            return;
+        final int tracePoolIdIndex = cursor.getColumnIndexOrThrow("tracePoolId");
+        final int tracePoolNameIndex = cursor.getColumnIndexOrThrow("tracePoolName");
+        final int tracePoolTimestampIndex = cursor.getColumnIndexOrThrow("tracePoolTimestamp");
+        final int locationsIndex = cursor.getColumnIndexOrThrow("locations");
+        // optional: the queries of the migrations run before the column exists
+        final int originalCountIndex = cursor.getColumnIndex("originalCount");
+
+        String tracePoolId = null;
+        String tracePoolName = null;
+        long tracePoolTimestamp = 0L;
+        List<ContinuousTrace> continuousTraceList = new ArrayList<>();
+        boolean corrupted = false;
+        do {
+            String rowTracePoolId = cursor.getString(tracePoolIdIndex);
+            if(!rowTracePoolId.equals(tracePoolId)) {
+                if(tracePoolId != null && !corrupted)
+                    tracePools.add(new TracePool(tracePoolTimestamp, tracePoolName, tracePoolId, continuousTraceList, true));
+                tracePoolId = rowTracePoolId;
+                tracePoolName = cursor.getString(tracePoolNameIndex);
+                tracePoolTimestamp = cursor.getLong(tracePoolTimestampIndex);
+                continuousTraceList = new ArrayList<>();
+                corrupted = false;
+            }
+            if(corrupted)
+                continue;
+            try {
+                ContinuousTrace trace = readTrace(cursor, locationsIndex, tracePoolId);
+                if(originalCountIndex != -1 && !cursor.isNull(originalCountIndex))
+                    trace.setOriginalLocationCount(cursor.getInt(originalCountIndex));
+                continuousTraceList.add(trace);
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(TAG, "Unable to decode a trace of the TracePool with tracePoolId = " + tracePoolId, e);
+                corrupted = true;
+            }
+        } while (cursor.moveToNext());
+        if(!corrupted)
+            tracePools.add(new TracePool(tracePoolTimestamp, tracePoolName, tracePoolId, continuousTraceList, true));
+    }
+
+    /**
+     * Return the TracePool by the TracePool ID. The TracePools already decoded are served by the
+     * TracePoolCache (the caller receives its own copy and can change it).
+     * @param tracePoolId_ the TracePool ID
+     * @return the TracePool
+     */
+    public TracePool getTracePoolById(String tracePoolId_) {
+        Log.d(TAG, "getTracePoolById() called with tracePoolId = " + tracePoolId_);
+        if(tracePoolId_ == null) return null;
+        TracePool cached = cache.getTracePool(tracePoolId_);
+        if(cached != null)
+            return cached;
+        final long generation = cache.getGeneration();
+        SQLiteDatabase db = null;
+        List<TracePool> tracePools = new ArrayList<>(1);
+        try {
+            db = this.getReadableDatabase();
+            String query = "SELECT tp.tracePoolId, tp.tracePoolName, tp.tracePoolTimestamp, cp.locations, cp.originalCount " +
+                    "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "ON tp.id = cp.poolId " +
+                    "WHERE tp.tracePoolId = ? " +
+                    "ORDER BY cp.id";
+            Cursor cursor = db.rawQuery(query, new String[]{tracePoolId_});
+            readTracePools(cursor, tracePools);
+            cursor.close();
+        }catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return null;
+        }
+        if(tracePools.isEmpty())
+            return null;
+        cache.putTracePool(tracePools.get(0), generation);
+        return tracePools.get(0);
+    }
+
+    /**
+     * Return the TracePool list by starting time.
+     * All the TracePools are loaded with a single query ordered by starting time.
+     * @param startMills the starting time
+     * @return the list of TracePool
+     */
+    public List<TracePool> getTracePoolByStartingTime(Long startMills) {
+        Log.d(TAG, "getTracePoolByStartingTime() called with startMillis = " + startMills);
+        SQLiteDatabase db = null;
+        ArrayList<TracePool> tracePoolList = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            String query = "SELECT tp.tracePoolId, tp.tracePoolName, tp.tracePoolTimestamp, cp.locations, cp.originalCount " +
+                    "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "ON tp.id = cp.poolId " +
+                    "WHERE tp.tracePoolTimestamp > ? " +
+                    "ORDER BY tp.tracePoolTimestamp, tp.tracePoolId, cp.id";
+            Cursor cursor = db.rawQuery(query, new String[]{Long.toString(startMills)});
+            readTracePools(cursor, tracePoolList);
+            cursor.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+        }
+        return tracePoolList;
+    }
+
+
+    /**
+     * Read all the rows of a cursor over the summary table
+     */
+    private static void readSummaries(Cursor cursor, List<TracePoolSummary> summaries) {
+        if(cursor.moveToFirst()) {
+            final int tracePoolId = cursor.getColumnIndexOrThrow("tracePoolId");
+            final int tracePoolTimestamp = cursor.getColumnIndexOrThrow("tracePoolTimestamp");
+            final int locationCount = cursor.getColumnIndexOrThrow("locationCount");
+            final int lengthMeter = cursor.getColumnIndexOrThrow("lengthMeter");
+            final int timeDuration = cursor.getColumnIndexOrThrow("timeDuration");
+            final int fromLatitude = cursor.getColumnIndexOrThrow("fromLatitude");
+            final int fromLongitude = cursor.getColumnIndexOrThrow("fromLongitude");
+            final int toLatitude = cursor.getColumnIndexOrThrow("toLatitude");
+            final int toLongitude = cursor.getColumnIndexOrThrow("toLongitude");
+            final int minLatitude = cursor.getColumnIndexOrThrow("minLatitude");
+            final int minLongitude = cursor.getColumnIndexOrThrow("minLongitude");
+            final int maxLatitude = cursor.getColumnIndexOrThrow("maxLatitude");
+            final int maxLongitude = cursor.getColumnIndexOrThrow("maxLongitude");
+            final int fromLocality = cursor.getColumnIndexOrThrow("fromLocality");
+            final int toLocality = cursor.getColumnIndexOrThrow("toLocality");
+            do {
+                summaries.add(new TracePoolSummary(
+                        cursor.getString(tracePoolId),
+                        cursor.getLong(tracePoolTimestamp),
+                        cursor.getInt(locationCount),
+                        cursor.getFloat(lengthMeter),
+                        cursor.getLong(timeDuration),
+                        cursor.getDouble(fromLatitude), cursor.getDouble(fromLongitude),
+                        cursor.getDouble(toLatitude), cursor.getDouble(toLongitude),
+                        cursor.getDouble(minLatitude), cursor.getDouble(minLongitude),
+                        cursor.getDouble(maxLatitude), cursor.getDouble(maxLongitude),
+                        cursor.getString(fromLocality),
+                        cursor.getString(toLocality)));
+            } while (cursor.moveToNext());
+        }
+    }
+
+    /**
+     * Return the summaries of the TracePools created after the given time, ordered by creation
+     * time. This query reads only the summary table (no Locations are decoded).
+     * @param startMills the starting time
+     * @return the list of TracePoolSummary
+     */
+    public List<TracePoolSummary> getTracePoolSummariesByStartingTime(long startMills) {
+        Log.d(TAG, "getTracePoolSummariesByStartingTime() called with startMillis = " + startMills);
+        SQLiteDatabase db = null;
+        List<TracePoolSummary> summaries = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            String query = "SELECT * FROM " + SUMMARY_TABLE_NAME + " WHERE tracePoolTimestamp > ? ORDER BY tracePoolTimestamp";
+            Cursor cursor = db.rawQuery(query, new String[]{Long.toString(startMills)});
+            readSummaries(cursor, summaries);
+            cursor.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Return a page of the summaries of the TracePools, from the most recent: the page starts after
+     * the last summary of the previous page (keyset pagination), so its cost does not depend on
+     * the number of pages before it and a TracePool added meanwhile does not shift the pages.
+     * @param before the last summary of the previous page, null for the first page
+     * @param limit the maximum number of summaries of the page
+     * @return the list of TracePoolSummary, ordered by decreasing creation time (fewer than limit
+     *         at the end of the history)
+     */
+    public List<TracePoolSummary> getTracePoolSummaryPage(TracePoolSummary before, int limit) {
+        SQLiteDatabase db = null;
+        List<TracePoolSummary> summaries = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            Cursor cursor;
+            if(before == null) {
+                cursor = db.rawQuery("SELECT * FROM " + SUMMARY_TABLE_NAME +
+                        " ORDER BY tracePoolTimestamp DESC, tracePoolId DESC LIMIT " + limit, null);
+            } else {
+                // a range on the index (tracePoolTimestamp, tracePoolId) read backwards: no sort
+                final String timestamp = Long.toString(before.getTimestamp());
+                cursor = db.rawQuery("SELECT * FROM " + SUMMARY_TABLE_NAME +
+                        " WHERE tracePoolTimestamp <= ? AND (tracePoolTimestamp < ? OR tracePoolId < ?)" +
+                        " ORDER BY tracePoolTimestamp DESC, tracePoolId DESC LIMIT " + limit,
+                        new String[]{timestamp, timestamp, before.getTracePoolId()});
+            }
+            readSummaries(cursor, summaries);
+            cursor.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Return the TracePool list by starting date
+     * @param date the starting date
+     * @return the list of TracePool
+     */
+    public List<TracePool> getTracePoolByStartingTime(Date date){
+        return getTracePoolByStartingTime(date.getTime());
+    }
+
+    /**
+     * Return the levels of detail of the traces of a TracePool, without the full resolution.
+     * The levels already decoded are served by the TracePoolCache.
+     * @param tracePoolId the TracePool ID
+     * @param minLevel the finest level to load (1 to TracePyramid.LEVELS - 1)
+     * @return the TracePyramids in the order of the traces of the TracePool, null on error
+     */
+    public List<TracePyramid> getTracePyramids(String tracePoolId, int minLevel) {
+        Log.d(TAG, "getTracePyramids() called with tracePoolId = " + tracePoolId);
+        List<TracePyramid> pyramids = cache.getPyramids(tracePoolId, minLevel);
+        if(pyramids != null)
+            return pyramids;
+        final long generation = cache.getGeneration();
+        SQLiteDatabase db = null;
+        pyramids = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            // the empty traces have no levels: the index of a trace counts the traces before it
+            String query = "SELECT lv.traceId, lv.level, lv.minLatitude, lv.minLongitude, lv.maxLatitude, lv.maxLongitude, lv.locations, " +
+                    "(SELECT COUNT(*) FROM " + CONTINUOUSTRACE_TABLE_NAME + " AS prev WHERE prev.poolId = cp.poolId AND prev.id < cp.id) " +
+                    "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "ON tp.id = cp.poolId " +
+                    "JOIN " + LEVEL_TABLE_NAME + " AS lv ON lv.traceId = cp.id " +
+                    "WHERE tp.tracePoolId = ? AND lv.level >= ? " +
+                    "ORDER BY cp.id, lv.level";
+            Cursor cursor = db.rawQuery(query, new String[]{tracePoolId, Integer.toString(Math.max(1, minLevel))});
+            long traceId = -1L;
+            LocationColumns[] levels = null;
+            while(cursor.moveToNext()) {
+                if(levels == null || cursor.getLong(0) != traceId) {
+                    traceId = cursor.getLong(0);
+                    levels = new LocationColumns[TracePyramid.LEVELS];
+                    pyramids.add(new TracePyramid(cursor.getInt(7), new LatLngBounds(
+                            new LatLng(cursor.getDouble(2), cursor.getDouble(3)),
+                            new LatLng(cursor.getDouble(4), cursor.getDouble(5))), levels));
+                }
+                levels[cursor.getInt(1)] = TraceCodec.decode(cursor.getBlob(6));
+            }
+            cursor.close();
+        } catch (SQLException | IllegalArgumentException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return null;
+        }
+        cache.putPyramids(tracePoolId, minLevel, pyramids, generation);
+        return pyramids;
+    }
+
+    /**
+     * Open a streaming cursor over the traces of a TracePool
+     * @param tracePoolId the TracePool ID
+     * @return the cursor (to be closed by the caller), null on error
+     */
+    public TracePointCursor openTracePointCursor(String tracePoolId) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getReadableDatabase();
+            String query = "SELECT tp.tracePoolId, tp.tracePoolTimestamp, cp.locations " +
+                    "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "ON tp.id = cp.poolId " +
+                    "WHERE tp.tracePoolId = ? " +
+                    "ORDER BY cp.id";
+            return new TracePointCursor(db.rawQuery(query, new String[]{tracePoolId}));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Open a streaming cursor over the traces of all the TracePools created in a time range,
+     * ordered by TracePool creation time
+     * @param startMills the starting time (excluded)
+     * @param endMills the ending time (included)
+     * @return the cursor (to be closed by the caller), null on error
+     */
+    public TracePointCursor openTracePointCursor(long startMills, long endMills) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getReadableDatabase();
+            String query = "SELECT tp.tracePoolId, tp.tracePoolTimestamp, cp.locations " +
+                    "FROM " + TRACEPOOL_TABLE_NAME + " AS tp JOIN " + CONTINUOUSTRACE_TABLE_NAME + " AS cp " +
+                    "ON tp.id = cp.poolId " +
+                    "WHERE tp.tracePoolTimestamp > ? AND tp.tracePoolTimestamp <= ? " +
+                    "ORDER BY tp.tracePoolTimestamp, tp.tracePoolId, cp.id";
+            return new TracePointCursor(db.rawQuery(query, new String[]{Long.toString(startMills), Long.toString(endMills)}));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Send all the points of a TracePool, trace by trace, to a consumer without building the
+     * TracePool in memory
+     * @param tracePoolId the TracePool ID
+     * @param consumer the consumer (for example a TraceStatistics)
+     * @return true if all the traces have been read
+     */
+    public boolean streamTracePool(String tracePoolId, TracePointConsumer consumer) {
+        TracePointCursor cursor = openTracePointCursor(tracePoolId);
+        if(cursor == null)
+            return false;
+        try {
+            cursor.drainTo(consumer);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unable to decode a trace of the TracePool with tracePoolId = " + tracePoolId, e);
+            return false;
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
+    /**
+     * Return the DayDigest of the Locations sampled in a day. A digest is built from the traces
+     * the first time it is requested (through the cell table, only the TracePools with Locations
+     * in the day are read) and then stored and kept up to date by the writes.
+     * The digest is built on a reader connection without holding the monitor, so the writes are
+     * not blocked by it; it is stored only if no write has touched the digests in the meantime
+     * (a write could have missed it or made it stale).
+     * @param day the day (see DayDigest.dayOf())
+     * @return the digest (empty if there are no Locations in the day), null on error
+     */
+    public DayDigest getDayDigest(long day) {
+        final long generation;
+        synchronized (this) {
+            generation = digestGeneration;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT digest FROM " + DIGEST_TABLE_NAME + " WHERE day = ?", new String[]{Long.toString(day)});
+            try {
+                if(cursor.moveToFirst())
+                    return DayDigest.fromByteArray(cursor.getBlob(0));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Unable to decode the digest of day " + day + ", it is built again", e);
+            } finally {
+                cursor.close();
+            }
+
+            DayDigest digest = new DayDigest(day);
+            for(String tracePoolId : readTracePoolIds(db, day * DayDigest.DAY_MILLIS, (day + 1) * DayDigest.DAY_MILLIS)) {
+                if(!streamTracePool(tracePoolId, digest))
+                    return null;
+            }
+            storeDigest(digest, generation);
+            return digest;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Store a digest built by getDayDigest(), unless the digests have been written since
+     * @param generation the value of digestGeneration when the digest started to be built
+     */
+    private synchronized void storeDigest(DayDigest digest, long generation) {
+        if(generation != digestGeneration)
+            return;
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            insertDigest(db, digest);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+        }
+    }
+
+    /**
+     * Return the cells where most time has been spent in a time range, with the number of
+     * visits. Only the dwell table is read: the cost depends on the cells visited in the range,
+     * not on the number of Locations stored.
+     * @param level the precision of the cells (one of DwellAggregator.DEFAULT_LEVELS)
+     * @param fromTime the start of the range (the whole day that contains it is counted)
+     * @param toTime the end of the range (the whole day that contains it is counted)
+     * @param k the maximum number of cells
+     * @return the cells, from the one with the longest dwell time
+     */
+    public List<DwellCell> getTopDwellCells(int level, long fromTime, long toTime, int k) {
+        SQLiteDatabase db = null;
+        List<DwellCell> cells = new ArrayList<>();
+        final long fromDay = DayDigest.dayOf(fromTime);
+        final long toDay = DayDigest.dayOf(toTime);
+        try {
+            db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT cell, SUM(dwell) AS totalDwell, SUM(visits) FROM " + DWELL_TABLE_NAME +
+                    " WHERE level = ? AND day BETWEEN ? AND ? GROUP BY cell ORDER BY totalDwell DESC LIMIT " + k,
+                    new String[]{Integer.toString(level), Long.toString(fromDay), Long.toString(toDay)});
+            while(cursor.moveToNext()) {
+                cells.add(new DwellCell(cursor.getString(0), fromDay, toDay, cursor.getLong(1), cursor.getInt(2)));
+            }
+            cursor.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Return the places visited in a time range: the stays that overlap the range. Only the stay
+     * table is read, through its index on the departure time.
+     * @param fromTime the start of the range
+     * @param toTime the end of the range
+     * @return the stays, ordered by arrival time
+     */
+    public List<StayPoint> getStayPoints(long fromTime, long toTime) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getReadableDatabase();
+            return readStayPoints(db.rawQuery("SELECT latitude, longitude, arrivalTime, departureTime, pointCount FROM " + STAY_TABLE_NAME +
+                    " WHERE departureTime >= ? AND arrivalTime <= ? ORDER BY arrivalTime",
+                    new String[]{Long.toString(fromTime), Long.toString(toTime)}));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null){
+                db.close();
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Return the DayDigests of a range of days (see getDayDigest())
+     * @param fromDay the first day
+     * @param toDay the last day (included)
+     * @return the digests, in order of day, null on error
+     */
+    public List<DayDigest> getDayDigests(long fromDay, long toDay) {
+        List<DayDigest> digests = new ArrayList<>();
+        for(long day = fromDay; day <= toDay; ++day) {
+            DayDigest digest = getDayDigest(day);
+            if(digest == null)
+                return null;
+            digests.add(digest);
+        }
+        return digests;
+    }
+
+    /**
+     * Return the stored Locations sampled in a time range that are within a given distance from
+     * a point. The cell table is used to read only the traces that cross the area of the search.
+     * @param center the center of the search
+     * @param radius the distance in meters
+     * @param fromTime the minimum sampling time (included)
+     * @param toTime the maximum sampling time (included)
+     * @return the list of Locations found, ordered by sampling time
+     */
+    public List<Location> findPointsWithin(Location center, double radius, long fromTime, long toTime) {
+        Log.d(TAG, "findPointsWithin() called with radius = " + radius);
+        SQLiteDatabase db = null;
+        List<Location> found = new ArrayList<>();
+        try {
+            db = this.getReadableDatabase();
+            Map<Long, String> candidates = findCandidateTraces(db, center.getLatitude(), center.getLongitude(), radius, fromTime, toTime);
+            for(Map.Entry<Long, String> candidate : candidates.entrySet()) {
+                Cursor cursor = db.rawQuery("SELECT locations FROM " + CONTINUOUSTRACE_TABLE_NAME + " WHERE id = ?",
+                        new String[]{Long.toString(candidate.getKey())});
+                try {
+                    if(!cursor.moveToFirst())
+                        continue;
+                    ContinuousTrace trace = readTrace(cursor, 0, candidate.getValue());
+                    boolean[] mask = new boolean[trace.getLocationCount()];
+                    if(trace.markWithin(center.getLatitude(), center.getLongitude(), radius, fromTime, toTime, mask) == 0)
+                        continue;
+                    List<Location> locations = trace.getLocations();
+                    for(int i = 0; i < mask.length; ++i) {
+                        if(mask[i])
+                            found.add(locations.get(i));
+                    }
+                } catch (JSONException | IllegalArgumentException e) {
+                    Log.e(TAG, "Unable to decode the trace with id = " + candidate.getKey(), e);
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+        }
+        Collections.sort(found, new Comparator<Location>() {
+            @Override
+            public int compare(Location l1, Location l2) {
+                return Long.compare(l1.getTime(), l2.getTime());
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Return the locality cached for a geohash cell
+     * @param cell the geohash of the cell
+     * @param notBefore the minimum update time of a valid entry
+     * @return the cached locality ("" if the cell has no locality), null if not cached
+     */
+    public String getCachedLocality(String cell, long notBefore) {
+        SQLiteDatabase db = null;
+        String locality = null;
+        try {
+            db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT locality FROM " + GEOCODE_TABLE_NAME + " WHERE cell = ? AND updated >= ?",
+                    new String[]{cell, Long.toString(notBefore)});
+            if(cursor.moveToFirst())
+                locality = cursor.getString(0);
+            cursor.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+        }
+        return locality;
+    }
+
+    /* ################# UPDATE ################### */
+
+    /**
+     * Store (or refresh) the locality of a geohash cell
+     * @param cell the geohash of the cell
+     * @param locality the locality ("" if the cell has no locality)
+     * @param updated the time of the lookup
+     * @return true if the database is updated
+     */
+    public synchronized boolean putCachedLocality(String cell, String locality, long updated) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            SQLiteStatement statement = statements.get(db, "INSERT OR REPLACE INTO " + GEOCODE_TABLE_NAME +
+                    " (cell, locality, updated) VALUES (?, ?, ?)");
+            statement.bindString(1, cell);
+            statement.bindString(2, locality);
+            statement.bindLong(3, updated);
+            statement.executeInsert();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Store the names of the localities where a TracePool starts and ends
+     * @param tracePoolId the TracePool ID
+     * @param fromLocality the locality of the first Location (null to leave it unchanged)
+     * @param toLocality the locality of the last Location (null to leave it unchanged)
+     * @return true if the database is updated
+     */
+    public synchronized boolean updateSummaryLocalities(String tracePoolId, String fromLocality, String toLocality) {
+        if(fromLocality == null && toLocality == null)
+            return false;
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            if(fromLocality != null)
+                values.put("fromLocality", fromLocality);
+            if(toLocality != null)
+                values.put("toLocality", toLocality);
+            return db.update(SUMMARY_TABLE_NAME, values, "tracePoolId = ?", new String[]{tracePoolId}) > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+    }
+
+    /* ###############  DELETE ################### */
+
+    public synchronized boolean deleteTracePoolById(String tracePoolId) {
+        Log.d(TAG, "deleteTracePoolById() called with tracePoolId = " + tracePoolId);
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                deleteTracePool(db, tracePoolId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidate(tracePoolId);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove from the whole history the Locations sampled in a time range that are within a
+     * given distance from a point (for example the area around the house of the user).
+     * Only the TracePools found through the cell table are loaded; each of them is rewritten (or
+     * deleted, if nothing valid is left) in a single transaction.
+     * @param center the center of the area
+     * @param radius the distance in meters
+     * @param fromTime the minimum sampling time (included)
+     * @param toTime the maximum sampling time (included)
+     * @return the number of Locations removed, -1 on error
+     */
+    public synchronized int deleteLocationsWithin(Location center, double radius, long fromTime, long toTime) {
+        Log.d(TAG, "deleteLocationsWithin() called with radius = " + radius);
+        SQLiteDatabase db = null;
+        int removeCount = 0;
+        try {
+            db = this.getWritableDatabase();
+            Set<String> tracePoolIds = new HashSet<>(findCandidateTraces(db, center.getLatitude(), center.getLongitude(), radius, fromTime, toTime).values());
+            for(String tracePoolId : tracePoolIds) {
+                TracePool tracePool = getTracePoolById(tracePoolId);
+                if(tracePool == null)
+                    continue;
+                int removed = tracePool.removeLocationsInGivenRadius(center, radius, fromTime, toTime);
+                if(removed == 0)
+                    continue;
+                db.beginTransaction();
+                try {
+                    List<StayPoint> stayPoints = readStayPoints(db, tracePoolId);
+                    deleteTracePool(db, tracePoolId);
+                    if(!tracePool.isEmpty()) {
+                        insertTracePool(db, tracePool);
+                        insertRetainedStayPoints(db, tracePool, stayPoints);
+                    }
+                    db.setTransactionSuccessful();
+                }finally {
+                    db.endTransaction();
+                    cache.invalidate(tracePoolId);
+                }
+                removeCount += removed;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return -1;
+        }
+        return removeCount;
+    }
+
+    /**
+     * Delete from the journal a trace of a TracePool, or the whole TracePool
+     * @param tracePoolId the TracePool ID
+     * @param traceFromTime the time of the first Location of the trace, null to delete all the
+     *                      traces of the TracePool
+     * @return true if the database is updated
+     */
+    public synchronized boolean deleteJournal(String tracePoolId, Long traceFromTime) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            if(traceFromTime == null)
+                db.delete(JOURNAL_TABLE_NAME, "tracePoolId = ?", new String[]{tracePoolId});
+            else
+                db.delete(JOURNAL_TABLE_NAME, "tracePoolId = ? AND traceFromTime = ?", new String[]{tracePoolId, Long.toString(traceFromTime)});
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete the TracePools created before the given time, with their traces, summaries and
+     * cells. The TracePools are found through index_tracepool_timestamp, their cells and dwell
+     * through index_cell_tracepool, and the cascade reaches the other tables through their
+     * indexes, so the cost depends on the number of TracePools deleted (a day of history when the
+     * purge runs daily) and not on the size of the history. Only if the dwell of a TracePool
+     * cannot be subtracted are the days it covers aggregated again.
+     * @param olderThan the minimum creation time of the TracePools to keep
+     * @return the number of TracePools deleted, -1 on error
+     */
+    public synchronized int deleteTracePoolsBefore(long olderThan) {
+        Log.d(TAG, "deleteTracePoolsBefore() called with olderThan = " + olderThan);
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                // the TracePools deleted can have Locations sampled after olderThan
+                Cursor cursor = db.rawQuery("SELECT MIN(fromTime), MAX(toTime) FROM " + CELL_TABLE_NAME + " WHERE tracePoolId IN " +
+                        "(SELECT tracePoolId FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolTimestamp < ?)",
+                        new String[]{Long.toString(olderThan)});
+                Long fromTime = null, toTime = null;
+                if(cursor.moveToFirst() && !cursor.isNull(0)) {
+                    fromTime = cursor.getLong(0);
+                    toTime = cursor.getLong(1);
+                    invalidateDigests(db, Long.MIN_VALUE, toTime);
+                }
+                cursor.close();
+                List<String> tracePoolIds = new ArrayList<>();
+                cursor = db.rawQuery("SELECT tracePoolId FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolTimestamp < ?",
+                        new String[]{Long.toString(olderThan)});
+                while(cursor.moveToNext()) {
+                    tracePoolIds.add(cursor.getString(0));
+                }
+                cursor.close();
+                boolean subtracted = true;
+                for(String tracePoolId : tracePoolIds)
+                    subtracted &= subtractDwell(db, tracePoolId);
+                SQLiteStatement statement = statements.get(db, "DELETE FROM " + TRACEPOOL_TABLE_NAME + " WHERE tracePoolTimestamp < ?");
+                statement.bindLong(1, olderThan);
+                int deleted = statement.executeUpdateDelete();
+                if(!subtracted && fromTime != null)
+                    rebuildDwell(db, fromTime, toTime);
+                db.setTransactionSuccessful();
+                return deleted;
+            } finally {
+                db.endTransaction();
+                cache.invalidateAll();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Give back to the file system the pages freed by the deletions. A database file created
+     * before auto_vacuum was enabled is rebuilt once by a full VACUUM; afterwards only the free
+     * pages are released (incremental vacuum). Must not be called inside a transaction.
+     * @return true if the database is updated
+     */
+    public synchronized boolean reclaimSpace() {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+            int autoVacuum = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            cursor.close();
+            if(autoVacuum != 2) {
+                Log.d(TAG, "reclaimSpace(): converting the database to incremental vacuum");
+                pragma(db, "auto_vacuum = INCREMENTAL");
+                statements.clear();
+                db.execSQL("VACUUM");
+            } else {
+                // every step of the pragma releases a page: run it to completion
+                cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+                while(cursor.moveToNext());
+                cursor.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete the cached localities looked up before the given time
+     * @param olderThan the minimum update time of the entries to keep
+     * @return the number of entries deleted
+     */
+    public synchronized int deleteExpiredGeocodes(long olderThan) {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            return db.delete(GEOCODE_TABLE_NAME, "updated < ?", new String[]{Long.toString(olderThan)});
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if(db != null) {
+                db.close();
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Delete all the stored TracePools, with their traces, summaries and cells
+     * @return true if the database is updated
+     */
+    public synchronized boolean deleteAll() {
+        SQLiteDatabase db = null;
+        try {
+            db = this.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                // the tables are emptied explicitly: the rows written before the cascade existed
+                // (or with the foreign keys disabled) are not reached by it
+                db.execSQL("DELETE FROM " + CELL_TABLE_NAME);
+                db.execSQL("DELETE FROM " + LEVEL_TABLE_NAME);
+                db.execSQL("DELETE FROM " + DIGEST_TABLE_NAME);
+                ++digestGeneration;
+                db.execSQL("DELETE FROM " + DWELL_TABLE_NAME);
+                db.execSQL("DELETE FROM " + STAY_TABLE_NAME);
+                db.execSQL("DELETE FROM " + SUMMARY_TABLE_NAME);
+                db.execSQL("DELETE FROM " + CONTINUOUSTRACE_TABLE_NAME);
+                db.execSQL("DELETE FROM " + TRACEPOOL_TABLE_NAME);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                cache.invalidateAll();
+            }
+        } catch (SQLException e) {
             e.printStackTrace();
             if(db != null) {
                 db.close();
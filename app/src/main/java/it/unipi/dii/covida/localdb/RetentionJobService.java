@@ -0,0 +1,121 @@
+package it.unipi.dii.covida.localdb;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import it.unipi.dii.covida.R;
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+
+
+/**
+ * This JobService enforces the retention policy: once a day it deletes the TracePools older than
+ * the number of days chosen by the user (14 by default) and gives the freed space back to the
+ * file system.
+ */
+public class RetentionJobService extends JobService {
+
+    /*
+     * Constants
+     */
+    private static final String TAG = RetentionJobService.class.getSimpleName();
+    private static final int JOB_ID = 1013;
+    private static final long PERIOD = 24L * 60 * 60 * 1000;
+    public static final int DEFAULT_RETENTION_DAYS = 14;
+
+    /*
+     * Private data members
+     */
+    private Future<?> worker;
+
+    /**
+     * Schedule the daily purge, if it is not already scheduled
+     * @param context the context
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if(jobScheduler == null || jobScheduler.getPendingJob(JOB_ID) != null)
+            return;
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, RetentionJobService.class))
+                .setPeriodic(PERIOD)
+                .setRequiresBatteryNotLow(true)
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(jobInfo);
+        Log.d(TAG, "schedule(): daily purge scheduled");
+    }
+
+    /**
+     * Return the number of days of history to keep, as set by the user
+     * @param context the context
+     */
+    public static int getRetentionDays(Context context) {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        String days = sharedPref.getString(context.getString(R.string.retentionDays), Integer.toString(DEFAULT_RETENTION_DAYS));
+        try {
+            return Math.max(1, Integer.parseInt(days));
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETENTION_DAYS;
+        }
+    }
+
+    /**
+     * Return the start (local midnight) of the oldest day to keep: today and the retentionDays - 1
+     * days before it are kept
+     * @param now the current time
+     * @param retentionDays the number of days to keep
+     */
+    public static long getRetentionStart(long now, int retentionDays) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, -(retentionDays - 1));
+        return calendar.getTimeInMillis();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Context context = getApplicationContext();
+        // on the writer of the database, after the writes the user is waiting for
+        worker = AppExecutors.getInstance().dbWrite().submit(Priority.BULK, new Callable<Void>() {
+            @Override
+            public Void call() {
+                LocationDatabaseManager db = LocationDatabaseManager.getInstance(context);
+                long olderThan = getRetentionStart(System.currentTimeMillis(), getRetentionDays(context));
+                int deleted = db.deleteTracePoolsBefore(olderThan);
+                Log.d(TAG, "onStartJob(): " + deleted + " expired TracePools deleted");
+                // the vacuum can take a while: skip it if the job has been stopped meanwhile
+                if(Thread.currentThread().isInterrupted())
+                    return null;
+                boolean reclaimed = db.reclaimSpace();
+                jobFinished(params, deleted < 0 || !reclaimed);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if(worker != null)
+            worker.cancel(true);
+        // the next daily run does the rest
+        return false;
+    }
+
+}
@@ -0,0 +1,54 @@
+package it.unipi.dii.covida.localdb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A cache of the compiled statements used by the write path of LocationDatabaseManager.
+ * The statements belong to a database instance: when a different (or closed) instance is used
+ * the cache is emptied. It is not thread-safe, the caller must hold a lock.
+ */
+final class StatementCache {
+
+    /*
+     * Data members
+     */
+    private SQLiteDatabase db;
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    /**
+     * Return the compiled statement for a SQL string, with no values bound
+     * @param db the database where the statement is executed
+     * @param sql the SQL string
+     * @return the compiled statement
+     */
+    SQLiteStatement get(SQLiteDatabase db, String sql) {
+        if(this.db != db || !db.isOpen()) {
+            clear();
+            this.db = db;
+        }
+        SQLiteStatement statement = statements.get(sql);
+        if(statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    /**
+     * Release all the compiled statements
+     */
+    void clear() {
+        for(SQLiteStatement statement : statements.values())
+            statement.close();
+        statements.clear();
+        db = null;
+    }
+
+}
@@ -0,0 +1,154 @@
+package it.unipi.dii.covida.localdb;
+
+import android.database.Cursor;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+
+import it.unipi.dii.covida.locationstore.LocationColumns;
+import it.unipi.dii.covida.locationstore.TraceCodec;
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * A forward-only cursor over the points stored in the database, trace by trace.
+ * Only the encoded points of the current trace are kept in memory and every point is returned
+ * through the same TracePoint instance.
+ * Usage:
+ *   while(cursor.moveToNextTrace())
+ *       while(cursor.moveToNextPoint())
+ *           use(cursor.getPoint());
+ *   cursor.close();
+ */
+public class TracePointCursor implements TracePointSource, Closeable {
+
+    /*
+     * Data members
+     */
+    private final Cursor cursor;
+    private final int tracePoolIdIndex;
+    private final int tracePoolTimestampIndex;
+    private final int locationsIndex;
+    private final TracePoint point = new TracePoint();
+    private boolean started;
+    private TraceCodec.Decoder decoder;
+    private LocationColumns jsonLocations;
+    private int jsonPosition;
+
+    /**
+     * Create a TracePointCursor over a cursor that contains (at least) the columns tracePoolId,
+     * tracePoolTimestamp and locations (DB USAGE ONLY)
+     * @param cursor the cursor, it is closed by close()
+     */
+    TracePointCursor(Cursor cursor) {
+        this.cursor = cursor;
+        this.tracePoolIdIndex = cursor.getColumnIndexOrThrow("tracePoolId");
+        this.tracePoolTimestampIndex = cursor.getColumnIndexOrThrow("tracePoolTimestamp");
+        this.locationsIndex = cursor.getColumnIndexOrThrow("locations");
+        this.started = false;
+    }
+
+    /**
+     * Move to the next trace
+     * @return false if there are no more traces
+     * @throws IllegalArgumentException if the locations of the trace cannot be decoded
+     */
+    @Override
+    public boolean moveToNextTrace() {
+        boolean moved = started ? cursor.moveToNext() : cursor.moveToFirst();
+        started = true;
+        decoder = null;
+        jsonLocations = null;
+        if(!moved)
+            return false;
+        if(cursor.getType(locationsIndex) == Cursor.FIELD_TYPE_BLOB) {
+            decoder = new TraceCodec.Decoder(cursor.getBlob(locationsIndex));
+        } else {
+            try {
+                jsonLocations = TraceCodec.decodeJson(cursor.getString(locationsIndex));
+                jsonPosition = 0;
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid JSON trace", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move to the next point of the current trace
+     * @return false if there are no more points in the current trace
+     * @throws IllegalArgumentException if the locations of the trace cannot be decoded
+     */
+    @Override
+    public boolean moveToNextPoint() {
+        if(decoder != null)
+            return decoder.next(point);
+        if(jsonLocations != null && jsonPosition < jsonLocations.size()) {
+            point.set(jsonLocations.getLatitude(jsonPosition), jsonLocations.getLongitude(jsonPosition),
+                    jsonLocations.getTime(jsonPosition), jsonLocations.getProvider(jsonPosition));
+            ++jsonPosition;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move back before the first point of the current trace (the encoded points are decoded again)
+     */
+    @Override
+    public void rewindTrace() {
+        if(decoder != null)
+            decoder = new TraceCodec.Decoder(cursor.getBlob(locationsIndex));
+        jsonPosition = 0;
+    }
+
+    /**
+     * Return the current point (the same instance is updated by moveToNextPoint())
+     * @return the current point
+     */
+    @Override
+    public TracePoint getPoint() {
+        return point;
+    }
+
+    /**
+     * Return the id of the TracePool that owns the current trace
+     * @return the TracePool ID
+     */
+    @Override
+    public String getTracePoolId() {
+        return cursor.getString(tracePoolIdIndex);
+    }
+
+    /**
+     * Return the creation timestamp of the TracePool that owns the current trace
+     * @return the creation timestamp
+     */
+    @Override
+    public long getTracePoolTimestamp() {
+        return cursor.getLong(tracePoolTimestampIndex);
+    }
+
+    /**
+     * Send all the remaining traces to a consumer
+     * @param consumer the consumer
+     * @throws IllegalArgumentException if the locations of a trace cannot be decoded
+     */
+    public void drainTo(TracePointConsumer consumer) {
+        while(moveToNextTrace()) {
+            consumer.beginTrace();
+            while(moveToNextPoint())
+                consumer.accept(point);
+            consumer.endTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+}
@@ -0,0 +1,232 @@
+package it.unipi.dii.covida.localdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TracePyramid;
+
+
+/**
+ * The process-wide cache of the TracePools and of the levels of detail decoded by
+ * LocationDatabaseManager, keyed by TracePool ID and bounded by the estimated heap bytes of their
+ * Locations (the least recently used TracePools are evicted first).
+ * The cached objects are never handed out: the callers receive copies, so a TracePool edited on
+ * the map does not change the cache.
+ * Every write of a TracePool invalidates its entry after the commit, and a value read from the
+ * database is stored only if nothing was invalidated since the read started (see getGeneration()):
+ * a reader never stores a version that a writer has already replaced.
+ * The entries are kept in a LinkedHashMap in access order (plain Java, so the cache behaves in
+ * the same way in the local unit tests).
+ */
+public final class TracePoolCache {
+
+    /*
+     * Data members
+     */
+    // in access order: the least recently used entry is the first one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxBytes;
+    private long sizeBytes;
+    private long generation;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * The values cached for a TracePool (any of them can be null)
+     */
+    private static final class Entry {
+        final TracePool tracePool;
+        final List<TracePyramid> pyramids;
+        final int minLevel;
+        final int bytes;
+
+        Entry(TracePool tracePool, List<TracePyramid> pyramids, int minLevel) {
+            this.tracePool = tracePool;
+            this.pyramids = pyramids;
+            this.minLevel = minLevel;
+            long bytes = tracePool != null ? tracePool.estimateHeapBytes() : 0L;
+            if(pyramids != null) {
+                for(TracePyramid pyramid : pyramids)
+                    bytes += pyramid.estimateHeapBytes();
+            }
+            this.bytes = (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    private static List<TracePyramid> copy(List<TracePyramid> pyramids) {
+        List<TracePyramid> copies = new ArrayList<>(pyramids.size());
+        for(TracePyramid pyramid : pyramids)
+            copies.add(pyramid.copy());
+        return copies;
+    }
+
+    private void put(String tracePoolId, Entry entry) {
+        Entry previous = entries.put(tracePoolId, entry);
+        sizeBytes += entry.bytes;
+        if(previous != null)
+            sizeBytes -= previous.bytes;
+        trimToSize();
+    }
+
+    private void remove(String tracePoolId) {
+        Entry previous = entries.remove(tracePoolId);
+        if(previous != null)
+            sizeBytes -= previous.bytes;
+    }
+
+    /**
+     * Evict the least recently used entries until the size is within the maximum (an entry
+     * larger than the maximum is evicted as soon as it is stored)
+     */
+    private void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(sizeBytes > maxBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().bytes;
+            iterator.remove();
+            ++evictionCount;
+        }
+    }
+
+    /*
+     * Package-private methods
+     */
+
+    /**
+     * Create a cache
+     * @param maxBytes the maximum estimated heap bytes of the cached Locations
+     */
+    TracePoolCache(int maxBytes) {
+        if(maxBytes <= 0)
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the generation to pass to the put methods: it must be read before the database
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Return a copy of a cached TracePool
+     * @return the copy, null if the TracePool is not cached
+     */
+    synchronized TracePool getTracePool(String tracePoolId) {
+        Entry entry = entries.get(tracePoolId);
+        if(entry == null || entry.tracePool == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return entry.tracePool.copy();
+    }
+
+    /**
+     * Store a copy of a TracePool read from the database
+     * @param generation the generation read before the TracePool
+     */
+    synchronized void putTracePool(TracePool tracePool, long generation) {
+        if(generation != this.generation)
+            return;
+        Entry entry = entries.get(tracePool.getId());
+        put(tracePool.getId(), entry != null
+                ? new Entry(tracePool.copy(), entry.pyramids, entry.minLevel)
+                : new Entry(tracePool.copy(), null, 0));
+    }
+
+    /**
+     * Return a copy of the cached levels of detail of a TracePool
+     * @return the copy, null if the levels from minLevel are not cached
+     */
+    synchronized List<TracePyramid> getPyramids(String tracePoolId, int minLevel) {
+        Entry entry = entries.get(tracePoolId);
+        if(entry == null || entry.pyramids == null || entry.minLevel != minLevel) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return copy(entry.pyramids);
+    }
+
+    /**
+     * Store a copy of the levels of detail of a TracePool read from the database
+     * @param generation the generation read before the levels
+     */
+    synchronized void putPyramids(String tracePoolId, int minLevel, List<TracePyramid> pyramids, long generation) {
+        if(generation != this.generation)
+            return;
+        Entry entry = entries.get(tracePoolId);
+        put(tracePoolId, new Entry(entry != null ? entry.tracePool : null, copy(pyramids), minLevel));
+    }
+
+    /**
+     * Remove a TracePool (called after a write of the TracePool is committed)
+     */
+    synchronized void invalidate(String tracePoolId) {
+        ++generation;
+        remove(tracePoolId);
+    }
+
+    /**
+     * Remove all the TracePools (called after a write of many TracePools is committed)
+     */
+    synchronized void invalidateAll() {
+        ++generation;
+        // the invalidated TracePools are not counted as evictions
+        entries.clear();
+        sizeBytes = 0L;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Return the number of reads served by the cache
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of reads that went to the database
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the number of TracePools evicted to respect the size of the cache
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Return the estimated heap bytes of the cached Locations
+     */
+    public synchronized int getSizeBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, sizeBytes);
+    }
+
+    /**
+     * Return the maximum estimated heap bytes of the cached Locations
+     */
+    public int getMaxSizeBytes() {
+        return maxBytes;
+    }
+
+}
@@ -0,0 +1,172 @@
+package it.unipi.dii.covida.localdb;
+
+import android.location.Location;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import it.unipi.dii.covida.locationstore.TracePool;
+
+
+/**
+ * The pre-computed statistics of a TracePool stored in the database.
+ * A TracePoolSummary contains everything needed to show a TracePool in a list without decoding its
+ * Locations.
+ */
+public class TracePoolSummary {
+
+    /*
+     * Data members
+     */
+    private final String tracePoolId;
+    private final long timestamp;
+    private final int locationCount;
+    private final float lengthMeter;
+    private final long timeDuration;
+    private final double fromLatitude;
+    private final double fromLongitude;
+    private final double toLatitude;
+    private final double toLongitude;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double maxLatitude;
+    private final double maxLongitude;
+    private String fromLocality;
+    private String toLocality;
+
+    /**
+     * Create a TracePoolSummary (DB USAGE ONLY)
+     */
+    public TracePoolSummary(String tracePoolId, long timestamp, int locationCount, float lengthMeter, long timeDuration,
+                            double fromLatitude, double fromLongitude, double toLatitude, double toLongitude,
+                            double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                            String fromLocality, String toLocality) {
+        this.tracePoolId = tracePoolId;
+        this.timestamp = timestamp;
+        this.locationCount = locationCount;
+        this.lengthMeter = lengthMeter;
+        this.timeDuration = timeDuration;
+        this.fromLatitude = fromLatitude;
+        this.fromLongitude = fromLongitude;
+        this.toLatitude = toLatitude;
+        this.toLongitude = toLongitude;
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+        this.fromLocality = fromLocality;
+        this.toLocality = toLocality;
+    }
+
+    /**
+     * Compute the summary of a non-empty TracePool
+     * @param tracePool the TracePool
+     * @return the summary of the TracePool (without localities)
+     */
+    public static TracePoolSummary of(TracePool tracePool) {
+        Location from = tracePool.getFrom();
+        Location to = tracePool.getTo();
+        LatLngBounds bounds = tracePool.getBounds();
+        if(from == null || to == null || bounds == null)
+            throw new IllegalArgumentException("Impossible to summarize an empty TracePool");
+        return new TracePoolSummary(
+                tracePool.getId(),
+                tracePool.getTimestamp(),
+                tracePool.getLocationCount(),
+                tracePool.getLengthMeter(),
+                tracePool.getTimeDuration(),
+                from.getLatitude(), from.getLongitude(),
+                to.getLatitude(), to.getLongitude(),
+                bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude,
+                null, null);
+    }
+
+    public String getTracePoolId() {
+        return tracePoolId;
+    }
+
+    /**
+     * Get the creation timestamp of the TracePool
+     * @return the creation timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    /**
+     * Return the length (in meters) of the TracePool
+     * @return the length in meters of the TracePool
+     */
+    public float getLengthMeter() {
+        return lengthMeter;
+    }
+
+    /**
+     * Return how long the TracePool lasted from the first to the last Location in milliseconds
+     * @return the duration in milliseconds
+     */
+    public long getTimeDuration() {
+        return timeDuration;
+    }
+
+    public double getFromLatitude() {
+        return fromLatitude;
+    }
+
+    public double getFromLongitude() {
+        return fromLongitude;
+    }
+
+    public double getToLatitude() {
+        return toLatitude;
+    }
+
+    public double getToLongitude() {
+        return toLongitude;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Return the name of the locality of the first Location
+     * @return the locality, null if it has not been resolved yet
+     */
+    public String getFromLocality() {
+        return fromLocality;
+    }
+
+    /**
+     * Return the name of the locality of the last Location
+     * @return the locality, null if it has not been resolved yet
+     */
+    public String getToLocality() {
+        return toLocality;
+    }
+
+    public void setFromLocality(String fromLocality) {
+        this.fromLocality = fromLocality;
+    }
+
+    public void setToLocality(String toLocality) {
+        this.toLocality = toLocality;
+    }
+
+}
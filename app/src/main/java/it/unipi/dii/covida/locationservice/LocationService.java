@@ -20,14 +20,21 @@ import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.model.LatLng;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import androidx.preference.PreferenceManager;
 import it.unipi.dii.covida.R;
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.executor.UiTask;
 import it.unipi.dii.covida.localdb.LocationDatabaseManager;
 import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TrackingRules;
 import it.unipi.dii.covida.notificationsystem.NotificationSystem;
 
 
@@ -53,9 +60,12 @@ public class LocationService extends Service {
      * Constants
      */
     private static final String TAG = LocationService.class.getSimpleName();
-    private static final int THRESHOLD_LOCATIONS = 17280; // 24 hour of continuous sampling (worst case: one each 5s) at most can be store in the tracepool
-    private static final float SENSITIVITY = 7.0f; //7 meters
-    private static final long USER_TIMEOUT = 1800000L;
+    private static final int THRESHOLD_LOCATIONS = TrackingRules.THRESHOLD_LOCATIONS; // 24 hour of continuous sampling (worst case: one each 5s) at most can be store in the tracepool
+    private static final float SENSITIVITY = TrackingRules.SENSITIVITY; //7 meters
+    private static final float MAX_DEVIATION = TrackingRules.MAX_DEVIATION; // meters, maximum error of the simplified traces
+    private static final long USER_TIMEOUT = TrackingRules.USER_TIMEOUT;
+    private static final float STAY_RADIUS = TrackingRules.STAY_RADIUS; // meters, a stop within it is stored as a stay
+    private static final long STAY_DURATION = TrackingRules.STAY_DURATION;
     private static final double HOUSE_RADIUS = 15.0d;
 
     /*
@@ -68,12 +78,18 @@ public class LocationService extends Service {
      */
     private LocationRequest locationRequest;
     private int lastSpeedClassification = -1;
-    private Timer userTimeoutTimer;
+    private ScheduledFuture<?> userTimeout;
+    private int userTimeoutCount; // identifies the last user timeout started
     // Location stuff + db
     private FusedLocationProviderClient fusedLocationProviderClient; // it uses a mixture of GPS and network based localization in order to achieve max accuracy with the min power consumption for instance. https://developers.google.com/location-context/fused-location-provider
     private LocationCallback locationCallback; // callback used when a new location result is arrived from the fusedLocationProviderClient
     private LocationDatabaseManager db;
     private TracePool tracePool;
+    private TracePoolJournal journal;
+    // the Locations received while the journal is being recovered (null once it is recovered)
+    private List<Location> recoveringLocations;
+    // a save requested while the journal is being recovered
+    private boolean saveRequested;
     private Location house;
     private boolean userIsInHouse;
 
@@ -103,6 +119,12 @@ public class LocationService extends Service {
 
                 Location newLocation = locationResult.getLastLocation();
 
+                // the TracePool to continue is not known yet
+                if(recoveringLocations != null) {
+                    recoveringLocations.add(newLocation);
+                    return;
+                }
+
                 // Identify if user is at home. If so, do not store location data ...
 
                 // double check is better!
@@ -119,6 +141,7 @@ public class LocationService extends Service {
                 }
 
                 tracePool.addLocation(locationResult.getLastLocation());
+                journal.flushIfNeeded();
 
                 // set an interval and a the fastest rate for the sampling, based on the estimated speed of the user
                 setSamplingInterval();
@@ -186,9 +209,16 @@ public class LocationService extends Service {
 
     /**
      * This function is responsible for saving the TracePool in the database. Then, it creates
-     * a new one
+     * a new one.
+     * The stopped TracePool and its journal are handed over to the database thread, which
+     * collapses the stays, simplifies and saves it: the main thread never waits for the database
+     * and goes on recording in the new TracePool.
      */
     private void saveOnDatabase() {
+        if(recoveringLocations != null) {
+            saveRequested = true; // see onRecovered()
+            return;
+        }
         int locationCount = tracePool.getLocationCount();
         if(locationCount <= 1) {
             Log.d(TAG,"saveOnDatabase() called, but tracePool was not savable (locationCount: " + locationCount + ")");
@@ -196,10 +226,27 @@ public class LocationService extends Service {
         }
         Log.d(TAG,"saveOnDatabase() called and tracePool was savable");
         tracePool.stop(); // stop only if not already stopped
-        //double check
-        if(tracePool.getLocationCount() >= 2)
-            db.addTracePool(tracePool);
+        final TracePool saved = tracePool;
+        final TracePoolJournal savedJournal = journal;
+        // the journal keeps the Locations as recorded until the commit: the last batch is written
+        // by the writer before the save, which is submitted after it
+        savedJournal.flush();
         tracePool = new TracePool();
+        journal = new TracePoolJournal(db, tracePool);
+        AppExecutors.getInstance().dbWrite().submit(Priority.BACKGROUND, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                int collapsed = saved.collapseStays(STAY_RADIUS, STAY_DURATION);
+                int dropped = saved.simplify(MAX_DEVIATION);
+                Log.d(TAG, "saveOnDatabase(): " + collapsed + " Locations dropped by " + saved.getStayPoints().size() + " stays and "
+                        + dropped + " by simplification, of " + saved.getOriginalLocationCount());
+                //double check
+                if(saved.getLocationCount() >= 2)
+                    return savedJournal.commit(); // saved and removed from the journal in one transaction
+                savedJournal.discard();
+                return false;
+            }
+        });
     }
 
     /**
@@ -239,23 +286,45 @@ public class LocationService extends Service {
         fusedLocationProviderClient.requestLocationUpdates(locationRequest, locationCallback, Looper.myLooper());
     }
 
+    /**
+     * Continue the TracePool recovered from the journal, with the Locations received meanwhile
+     */
+    private void onRecovered(TracePool recovered) {
+        tracePool = recovered;
+        List<Location> locations = recoveringLocations;
+        recoveringLocations = null;
+        if(saveRequested || (!tracePool.isEmpty() && System.currentTimeMillis() - tracePool.getTo().getTime() > USER_TIMEOUT))
+            saveOnDatabase(); // ... unless the user timeout has already expired
+        saveRequested = false;
+        for(Location location : locations) {
+            if(tracePool.isEmpty() || tracePool.getTo().distanceTo(location) >= SENSITIVITY)
+                tracePool.addLocation(location);
+        }
+        journal.flush();
+    }
+
     private void stopUserTimeout() {
-        if(userTimeoutTimer != null) {
-            userTimeoutTimer.cancel();
-            userTimeoutTimer = null;
+        if(userTimeout != null) {
+            userTimeout.cancel(false);
+            userTimeout = null;
         }
     }
 
     private void startUserTimeout() {
-        if(userTimeoutTimer == null) {
-            userTimeoutTimer = new Timer(true);
-            userTimeoutTimer.schedule(new TimerTask() {
+        if(userTimeout == null) {
+            final int timeoutId = ++userTimeoutCount;
+            // the timeout runs on the main thread, like the location callbacks that fill the
+            // TracePool (the save itself runs on the database thread, see saveOnDatabase())
+            userTimeout = AppExecutors.getInstance().scheduleOnMainThread(new Runnable() {
                 @Override
                 public void run() {
+                    // stopped (or started again) after the timeout had already expired
+                    if(userTimeout == null || timeoutId != userTimeoutCount)
+                        return;
+                    userTimeout = null;
                     saveOnDatabase();
-                    userTimeoutTimer = null;
                 }
-            }, USER_TIMEOUT);
+            }, USER_TIMEOUT, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -315,7 +384,24 @@ public class LocationService extends Service {
         db = LocationDatabaseManager.getInstance(getApplicationContext());
         fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(this);
         initLocationCallback();
-        tracePool = new TracePool();
+        // a TracePool left by a killed process is continued: it is read by the writer of the
+        // database, after the saves still pending, and the Locations received meanwhile are kept
+        journal = new TracePoolJournal(db);
+        tracePool = null;
+        recoveringLocations = new ArrayList<>();
+        saveRequested = false;
+        final TracePoolJournal recovering = journal;
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbWrite(), Priority.BACKGROUND, new UiTask<TracePool>() {
+            @Override
+            public TracePool call() {
+                return recovering.recover();
+            }
+
+            @Override
+            public void onResult(TracePool recovered) {
+                onRecovered(recovered);
+            }
+        }, null);
     }
 
     /**
@@ -354,12 +440,18 @@ public class LocationService extends Service {
             startLocationUpdates();
         } else if(action.equals(ACTION_STOP) && running) {
             stopLocationUpdates();
-            tracePool.stop();
+            if(tracePool != null) {
+                tracePool.stop();
+                journal.flush();
+            }
             startUserTimeout();
         } else if(action.equals(ACTION_STOP_FOREGROUND_SERVICE)) {
             if(running) {
                 stopLocationUpdates();
-                tracePool.stop();
+                if(tracePool != null) {
+                    tracePool.stop();
+                    journal.flush();
+                }
             }
             stopUserTimeout();
             stopForegroundService();
@@ -373,6 +465,9 @@ public class LocationService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "onDestroy()");
+        // if the journal is still being recovered, onRecovered() writes the Locations received
+        if(tracePool != null)
+            journal.flush();
     }
 
 }
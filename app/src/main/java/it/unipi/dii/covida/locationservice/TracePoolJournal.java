@@ -0,0 +1,226 @@
+package it.unipi.dii.covida.locationservice;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.localdb.LocationDatabaseManager;
+import it.unipi.dii.covida.locationstore.ContinuousTrace;
+import it.unipi.dii.covida.locationstore.TraceCodec;
+import it.unipi.dii.covida.locationstore.TracePool;
+
+
+/**
+ * Append-only persistence of the TracePool that is being recorded.
+ * The Locations added to the TracePool are written to the journal of the database in small
+ * batches (every FLUSH_LOCATIONS Locations or FLUSH_INTERVAL milliseconds), so that a killed
+ * process loses at most one batch. When the service is created again the journal is replayed to
+ * rebuild the TracePool. When the TracePool is saved it is encoded again from memory (its stays
+ * are collapsed and its traces simplified first) and its journal is deleted in the same
+ * transaction.
+ * The thread that records the TracePool (the main thread) only copies the Locations of a batch
+ * (as an encoded frame, a few bytes per Location): they are written by the writer of the database, where the writes of the journal, its recovery
+ * and the save of a stopped TracePool are run in the order they are submitted. The service hands
+ * a stopped TracePool over to the writer together with its journal, and starts a new journal for
+ * the next TracePool.
+ */
+public class TracePoolJournal {
+
+    /*
+     * Constants
+     */
+    private static final String TAG = TracePoolJournal.class.getSimpleName();
+    private static final int FLUSH_LOCATIONS = 60;
+    private static final long FLUSH_INTERVAL = 60000L;
+    // the journal is written beside the saves, which must see all its batches
+    private static final Priority PRIORITY = Priority.BACKGROUND;
+
+    /*
+     * Private data members
+     */
+    private final LocationDatabaseManager db;
+    private TracePool tracePool;
+    // number of Locations of every trace already copied to a batch
+    private final Map<ContinuousTrace, Integer> flushedCounts = new IdentityHashMap<>();
+    private int flushedTotal;
+    private long lastFlushTime;
+
+    /**
+     * The Locations added to the TracePool since the last flush, copied by the recording thread
+     */
+    private static final class Batch {
+        final String tracePoolId;
+        final long tracePoolTimestamp;
+        // the first time of the traces dropped by the TracePool
+        final List<Long> droppedTraces = new ArrayList<>();
+        // the first time of the traces with new Locations, and their new Locations
+        final List<Long> traceFromTimes = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+
+        Batch(TracePool tracePool) {
+            this.tracePoolId = tracePool.getId();
+            this.tracePoolTimestamp = tracePool.getTimestamp();
+        }
+
+        boolean isEmpty() {
+            return droppedTraces.isEmpty() && traceFromTimes.isEmpty();
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    private void reset(TracePool tracePool) {
+        this.tracePool = tracePool;
+        flushedCounts.clear();
+        flushedTotal = 0;
+        lastFlushTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Copy the Locations added to the TracePool since the last batch and the traces that the
+     * TracePool has dropped (run by the thread that owns the TracePool)
+     */
+    private Batch collect() {
+        Batch batch = new Batch(tracePool);
+        List<ContinuousTrace> traces = tracePool.getTraces();
+        Iterator<Map.Entry<ContinuousTrace, Integer>> iterator = flushedCounts.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<ContinuousTrace, Integer> entry = iterator.next();
+            if(!traces.contains(entry.getKey())) {
+                batch.droppedTraces.add(entry.getKey().getFromTime());
+                iterator.remove();
+            }
+        }
+        flushedTotal = 0;
+        for(ContinuousTrace trace : traces) {
+            Integer flushed = flushedCounts.get(trace);
+            int from = flushed == null ? 0 : flushed;
+            int to = trace.getLocationCount();
+            if(to > from) {
+                batch.traceFromTimes.add(trace.getFromTime());
+                batch.frames.add(TraceCodec.encode(trace, from, to));
+                flushedCounts.put(trace, to);
+            }
+            flushedTotal += to;
+        }
+        lastFlushTime = SystemClock.elapsedRealtime();
+        return batch;
+    }
+
+    /**
+     * Write a batch to the journal (run by the writer of the database)
+     */
+    private void write(Batch batch) {
+        for(Long fromTime : batch.droppedTraces)
+            db.deleteJournal(batch.tracePoolId, fromTime);
+        for(int i = 0; i < batch.traceFromTimes.size(); ++i)
+            db.appendJournal(batch.tracePoolId, batch.tracePoolTimestamp, batch.traceFromTimes.get(i), batch.frames.get(i));
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a journal
+     * @param db the database
+     */
+    public TracePoolJournal(LocationDatabaseManager db) {
+        this(db, new TracePool());
+    }
+
+    /**
+     * Create a journal of a new TracePool
+     * @param db the database
+     * @param tracePool the TracePool to journal
+     */
+    public TracePoolJournal(LocationDatabaseManager db, TracePool tracePool) {
+        this.db = db;
+        reset(tracePool);
+    }
+
+    /**
+     * Rebuild the TracePool left in the journal by a previous instance of the service and start
+     * journaling it. If the journal contains more TracePools, all but the last one are saved.
+     * To be run by the writer of the database, after the saves already submitted to it.
+     * @return the TracePool to continue (a new one if the journal is empty)
+     */
+    public TracePool recover() {
+        List<TracePool> tracePools = db.readJournal();
+        if(tracePools.isEmpty()) {
+            reset(new TracePool());
+            return tracePool;
+        }
+        for(int i = 0; i < tracePools.size() - 1; ++i) {
+            TracePool old = tracePools.get(i);
+            if(old.getLocationCount() >= 2)
+                db.commitJournal(old);
+            else
+                db.deleteJournal(old.getId(), null);
+        }
+        reset(tracePools.get(tracePools.size() - 1));
+        for(ContinuousTrace trace : tracePool.getTraces()) {
+            flushedCounts.put(trace, trace.getLocationCount());
+            flushedTotal += trace.getLocationCount();
+        }
+        Log.d(TAG, "recover(): " + flushedTotal + " Locations recovered from the journal");
+        return tracePool;
+    }
+
+    /**
+     * Write the Locations added since the last flush if there are enough of them or if the last
+     * flush is old enough. To be called after every Location added to the TracePool.
+     */
+    public void flushIfNeeded() {
+        int pending = tracePool.getLocationCount() - flushedTotal;
+        if(pending >= FLUSH_LOCATIONS || (pending > 0 && SystemClock.elapsedRealtime() - lastFlushTime >= FLUSH_INTERVAL))
+            flush();
+    }
+
+    /**
+     * Copy all the Locations added to the TracePool since the last flush, and the traces that the
+     * TracePool has dropped, and write them to the journal on the writer of the database
+     */
+    public void flush() {
+        final Batch batch = collect();
+        if(batch.isEmpty())
+            return;
+        AppExecutors.getInstance().dbWrite().submit(PRIORITY, new Callable<Void>() {
+            @Override
+            public Void call() {
+                write(batch);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Save the TracePool on the database (run by the writer of the database, once the TracePool
+     * is no longer changed by the recording thread); the journal is not used afterwards
+     * @return true if the TracePool has been saved
+     */
+    public boolean commit() {
+        flushedCounts.clear();
+        return db.commitJournal(tracePool);
+    }
+
+    /**
+     * Delete the journal of the TracePool without saving it (run by the writer of the database);
+     * the journal is not used afterwards
+     */
+    public void discard() {
+        db.deleteJournal(tracePool.getId(), null);
+        flushedCounts.clear();
+    }
+
+}
@@ -1,44 +1,125 @@
 package it.unipi.dii.covida.locationstore;
 
 import android.location.Location;
-import android.util.Pair;
 
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
+import androidx.core.util.Pair;
 
 
 /**
  * A class that represent a list of contiguous GPS points (Location).
  * An instance of this class will represent a continuous Polyline on the map.
+ * Points are kept in a LocationColumns store: the Location(s) and LatLng(s) returned by this class
+ * are created on demand, so two calls never return the same object.
  */
 public class ContinuousTrace {
 
+    /*
+     * Constants
+     */
+    static final float GLITCH_DISTANCE_FACTOR = 100.0f;
+
     /*
      * Data members
      */
     private final String tracePoolId;
-    private final LinkedList<Location> locations;
+    private final LocationColumns locations;
+    // running statistics, kept up to date by every operation that changes the locations
+    private float lengthMeter;
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+    // Locations dropped by simplify() and collapseStays() (the operations that split the trace do not carry it)
+    private int simplifiedCount;
 
     /*
      * Private methods
      */
-    private ContinuousTrace(String tracePoolId, LinkedList<Location> locations) {
+    ContinuousTrace(String tracePoolId, LocationColumns locations) {
         this.tracePoolId = tracePoolId;
         this.locations = locations;
+        recomputeStatistics();
+    }
+
+    /**
+     * Update the running statistics with the Location stored at the given index (that must be
+     * the last one)
+     */
+    private void updateStatistics(int index) {
+        final double latitude = locations.getLatitude(index);
+        final double longitude = locations.getLongitude(index);
+        if(index == 0) {
+            lengthMeter = 0.0f;
+            minLatitude = maxLatitude = latitude;
+            minLongitude = maxLongitude = longitude;
+            return;
+        }
+        lengthMeter += distance(index-1, index);
+        minLatitude = Math.min(minLatitude, latitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+    }
+
+    /**
+     * Copy constructor: the Locations are copied, the statistics are not computed again
+     */
+    private ContinuousTrace(ContinuousTrace other) {
+        this.tracePoolId = other.tracePoolId;
+        this.locations = other.locations.copyRange(0, other.locations.size());
+        this.lengthMeter = other.lengthMeter;
+        this.minLatitude = other.minLatitude;
+        this.minLongitude = other.minLongitude;
+        this.maxLatitude = other.maxLatitude;
+        this.maxLongitude = other.maxLongitude;
+        this.simplifiedCount = other.simplifiedCount;
+    }
+
+    private void recomputeStatistics() {
+        lengthMeter = 0.0f;
+        for(int i = 0; i < locations.size(); ++i)
+            updateStatistics(i);
     }
 
-    private static boolean corresponds(@NonNull Location location, @NonNull LatLng latLng) {
-        return location.getLatitude() == latLng.latitude && location.getLongitude() == latLng.longitude;
+    LocationColumns getColumns() {
+        return locations;
+    }
+
+    private Location toLocation(int index) {
+        Location location = new Location(locations.getProvider(index));
+        location.setLatitude(locations.getLatitude(index));
+        location.setLongitude(locations.getLongitude(index));
+        location.setTime(locations.getTime(index));
+        return location;
+    }
+
+    private float distance(int from, int to) {
+        return Geodesic.distanceBetween(
+                locations.getLatitude(from), locations.getLongitude(from),
+                locations.getLatitude(to), locations.getLongitude(to));
+    }
+
+    private int indexOf(@NonNull Location location) {
+        return locations.indexOf(location.getLatitude(), location.getLongitude(), location.getTime());
+    }
+
+    private Pair<ContinuousTrace,ContinuousTrace> split(int removeFrom, int removeTo) {
+        return new Pair<>(
+                new ContinuousTrace(tracePoolId, locations.copyRange(0, removeFrom)),
+                new ContinuousTrace(tracePoolId, locations.copyRange(removeTo, locations.size()))
+        );
     }
 
     public String getTracePoolId() {
@@ -50,7 +131,7 @@ public class ContinuousTrace {
      */
     public ContinuousTrace(String tracePoolId) {
         this.tracePoolId = tracePoolId;
-        this.locations = new LinkedList<>();
+        this.locations = new LocationColumns();
     }
 
     /**
@@ -58,15 +139,34 @@ public class ContinuousTrace {
      * @param location the Location to add
      */
     public void addLocation(Location location) {
-        locations.add(location);
+        addPoint(location.getLatitude(), location.getLongitude(), location.getTime(), location.getProvider());
+    }
+
+    /**
+     * Add a point to the ContinuousTrace without creating a Location
+     */
+    void addPoint(double latitude, double longitude, long time, String provider) {
+        locations.add(latitude, longitude, time, provider);
+        updateStatistics(locations.size() - 1);
     }
 
     /**
      * Return the list of locations added
-     * @return an unmodifiableList containing all the Location(s) stored
+     * @return an unmodifiable view containing all the Location(s) stored; every access creates a
+     * new Location
      */
     public List<Location> getLocations() {
-        return Collections.unmodifiableList(locations);
+        return new AbstractList<Location>() {
+            @Override
+            public Location get(int index) {
+                return toLocation(index);
+            }
+
+            @Override
+            public int size() {
+                return locations.size();
+            }
+        };
     }
 
     /**
@@ -76,15 +176,7 @@ public class ContinuousTrace {
     public float getLengthMeter() {
         if(locations.size() <= 1)
             return 0.0f;
-        float distance = 0.0f;
-        Iterator<Location> iterator = locations.iterator();
-        Location previous = iterator.next();
-        while(iterator.hasNext()) {
-            Location current = iterator.next();
-            distance += previous.distanceTo(current);
-            previous = current;
-        }
-        return distance;
+        return lengthMeter;
     }
 
     /**
@@ -120,15 +212,11 @@ public class ContinuousTrace {
      * @return
      */
     public Pair<ContinuousTrace,ContinuousTrace> removeAndSplit(Location location) {
-        int index = locations.indexOf(location);
+        int index = indexOf(location);
         if(index == -1) {
             throw new IllegalArgumentException("Impossible to remove location");
         }
-        Pair<ContinuousTrace,ContinuousTrace> pair = new Pair<>(
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(0,index))),
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(index+1,locations.size())))
-        );
-        return pair;
+        return split(index, index+1);
     }
 
     /**
@@ -138,39 +226,132 @@ public class ContinuousTrace {
      * @return
      */
     public Pair<ContinuousTrace,ContinuousTrace> removeAndSplit(LatLng latLng) {
-        int i = 0;
-        for(Location location : locations) {
-            if(corresponds(location,latLng))
-                break;
-            ++i;
-        }
-        if(i >= locations.size())
+        int i = locations.indexOf(latLng.latitude, latLng.longitude);
+        if(i == -1)
             throw new IllegalArgumentException("Impossible to remove location");
-        return new Pair<>(
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(0,i))),
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(i+1,locations.size())))
-        );
+        return split(i, i+1);
     }
 
     /**
      * Remove a set of locations that goes from the locationFrom to the locationTo (the users has
      * selected two markers that delimit a path to be removed), and return a couple of
-     * ContinuousTrace made by the two groups of Locations formed by the operation
+     * ContinuousTrace made by the two groups of Locations formed by the operation.
+     * The markers can be selected in any order: the range goes from the first of them in the
+     * trace (included) to the other one (excluded), as in the map editor.
      * @param locationFrom the "starting point" (included)
      * @param locationTo the "end point" (excluded)
-     * @return a pair od ContinuousTrace
+     * @return a pair of ContinuousTrace
      */
     public Pair<ContinuousTrace,ContinuousTrace> removeAndSplitRange(Location locationFrom, Location locationTo) {
-        int indexFrom = locations.indexOf(locationFrom);
-        int indexTo = locations.indexOf(locationTo);
+        int indexFrom = indexOf(locationFrom);
+        int indexTo = indexOf(locationTo);
         if (indexFrom == -1 || indexTo == -1) {
             throw new IllegalArgumentException("Impossible to remove range of locations");
         }
-        Pair<ContinuousTrace,ContinuousTrace> pair = new Pair<>(
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(0,indexFrom))),
-                new ContinuousTrace(tracePoolId,new LinkedList<>(locations.subList(indexTo,locations.size())))
-        );
-        return pair;
+        return removeAndSplitRange(Math.min(indexFrom, indexTo), Math.max(indexFrom, indexTo));
+    }
+
+    /**
+     * Remove the Locations with index in the range [indexFrom, indexTo) and return a couple of
+     * ContinuousTrace made by the two groups of Locations formed by the operation (the trace is
+     * split only once, whatever the size of the range)
+     * @param indexFrom the index of the "starting point" (included)
+     * @param indexTo the index of the "end point" (excluded)
+     * @return a pair of ContinuousTrace
+     * @throws IllegalArgumentException if the range is out of the trace or indexTo < indexFrom
+     */
+    public Pair<ContinuousTrace,ContinuousTrace> removeAndSplitRange(int indexFrom, int indexTo) {
+        if(indexFrom < 0 || indexTo > locations.size() || indexFrom > indexTo) {
+            throw new IllegalArgumentException("Impossible to remove range of locations");
+        }
+        return split(indexFrom, indexTo);
+    }
+
+    /**
+     * Remove the Locations sampled in the range [fromTime, toTime) and return a couple of
+     * ContinuousTrace made by the two groups of Locations formed by the operation (nothing is
+     * removed if toTime <= fromTime)
+     * @param fromTime the "starting time" (included)
+     * @param toTime the "end time" (excluded)
+     * @return a pair of ContinuousTrace
+     */
+    public Pair<ContinuousTrace,ContinuousTrace> removeAndSplitRange(long fromTime, long toTime) {
+        int indexFrom = locations.indexOfTime(fromTime);
+        int indexTo = Math.max(indexFrom, locations.indexOfTime(toTime));
+        return split(indexFrom, indexTo);
+    }
+
+    /**
+     * Mark the Locations sampled in a time range that are within a given distance from a point
+     * @param latitude the latitude of the center in degrees
+     * @param longitude the longitude of the center in degrees
+     * @param radius the distance in meters
+     * @param fromTime the minimum sampling time (included)
+     * @param toTime the maximum sampling time (included)
+     * @param mask an array with one entry for every Location, set to true for the Locations found
+     * @return the number of Locations found
+     */
+    public int markWithin(double latitude, double longitude, double radius, long fromTime, long toTime, boolean[] mask) {
+        int count = 0;
+        for(int i = 0; i < locations.size(); ++i) {
+            final long time = locations.getTime(i);
+            if(time < fromTime || time > toTime)
+                continue;
+            if(Geodesic.distanceBetween(latitude, longitude, locations.getLatitude(i), locations.getLongitude(i)) <= radius) {
+                mask[i] = true;
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return a copy of the trace with its own Locations, so that one can be changed without
+     * changing the other
+     */
+    public ContinuousTrace copy() {
+        return new ContinuousTrace(this);
+    }
+
+    /**
+     * Return an estimation of the heap memory used by the Locations of the trace
+     * @return the estimated number of bytes
+     */
+    public long estimateHeapBytes() {
+        return locations.estimateHeapBytes();
+    }
+
+    /**
+     * Send the Locations of the trace to a consumer, as a single trace, without creating Locations
+     * @param consumer the consumer
+     */
+    public void stream(TracePointConsumer consumer) {
+        TracePoint point = new TracePoint();
+        consumer.beginTrace();
+        for(int i = 0; i < locations.size(); ++i) {
+            point.set(locations.getLatitude(i), locations.getLongitude(i), locations.getTime(i), locations.getProvider(i));
+            consumer.accept(point);
+        }
+        consumer.endTrace();
+    }
+
+    /**
+     * Remove all the Locations marked in a mask and return the ContinuousTraces made by the
+     * groups of contiguous Locations left (in order, empty groups are not returned)
+     * @param mask an array with one entry for every Location: true if the Location must be removed
+     * @return the list of ContinuousTraces formed by the operation
+     */
+    public List<ContinuousTrace> removeAndSplit(boolean[] mask) {
+        List<ContinuousTrace> groups = new ArrayList<>();
+        int from = 0;
+        for(int i = 0; i <= locations.size(); ++i) {
+            if(i == locations.size() || mask[i]) {
+                if(i > from)
+                    groups.add(new ContinuousTrace(tracePoolId, locations.copyRange(from, i)));
+                from = i + 1;
+            }
+        }
+        return groups;
     }
 
     /**
@@ -179,7 +360,9 @@ public class ContinuousTrace {
      * @return true if the trace contains location
      */
     public boolean contains(Location location) {
-        return locations.contains(location);
+        if(location == null)
+            return false;
+        return indexOf(location) != -1;
     }
 
     /**
@@ -191,11 +374,7 @@ public class ContinuousTrace {
     public boolean contains(LatLng latLng) {
         if(latLng == null)
             return false;
-        for(Location location : locations) {
-            if(corresponds(location, latLng))
-                return true;
-        }
-        return false;
+        return locations.indexOf(latLng.latitude, latLng.longitude) != -1;
     }
 
     /**
@@ -207,12 +386,12 @@ public class ContinuousTrace {
         try {
             root.put("tracePoolId",tracePoolId);
             JSONArray array = new JSONArray();
-            for (Location loc : locations) {
+            for (int i = 0; i < locations.size(); ++i) {
                 JSONObject locJson = new JSONObject();
-                locJson.put("provider", loc.getProvider());
-                locJson.put("latitude", loc.getLatitude());
-                locJson.put("longitude", loc.getLongitude());
-                locJson.put("time", loc.getTime());
+                locJson.put("provider", locations.getProvider(i));
+                locJson.put("latitude", locations.getLatitude(i));
+                locJson.put("longitude", locations.getLongitude(i));
+                locJson.put("time", locations.getTime(i));
                 array.put(locJson);
             }
             root.put("locations", array);
@@ -231,7 +410,7 @@ public class ContinuousTrace {
         if(locations.isEmpty()) {
             return null;
         }
-        return locations.getFirst();
+        return toLocation(0);
     }
 
     /**
@@ -242,7 +421,7 @@ public class ContinuousTrace {
         if(locations.isEmpty()) {
             return null;
         }
-        return locations.getLast();
+        return toLocation(locations.size() - 1);
     }
 
     /**
@@ -250,10 +429,27 @@ public class ContinuousTrace {
      * @return all Locations stored in this ContinuousTrace converted in LatLngs
      */
     public List<LatLng> getLatLngs(){
-        List<LatLng> list = new LinkedList<>();
-        for(Location location : locations)
-            list.add(new LatLng(location.getLatitude(), location.getLongitude()));
-        return list;
+        return new AbstractList<LatLng>() {
+            @Override
+            public LatLng get(int index) {
+                return new LatLng(locations.getLatitude(index), locations.getLongitude(index));
+            }
+
+            @Override
+            public int size() {
+                return locations.size();
+            }
+        };
+    }
+
+    /**
+     * Return the smallest rectangle that contains all the Locations of this ContinuousTrace
+     * @return the bounding box of the trace, null if there are no Locations stored
+     */
+    public LatLngBounds getBounds() {
+        if(locations.isEmpty())
+            return null;
+        return new LatLngBounds(new LatLng(minLatitude, minLongitude), new LatLng(maxLatitude, maxLongitude));
     }
 
     /**
@@ -264,7 +460,7 @@ public class ContinuousTrace {
         if(locations.isEmpty()) {
             return 0L;
         }
-        return locations.getFirst().getTime();
+        return locations.getTime(0);
     }
 
     /**
@@ -275,7 +471,7 @@ public class ContinuousTrace {
         if(locations.isEmpty()) {
             return 0L;
         }
-        return locations.getLast().getTime();
+        return locations.getTime(locations.size() - 1);
     }
 
     /**
@@ -286,21 +482,104 @@ public class ContinuousTrace {
         if(locations.size() < 3)
             return 0;
         int count = 0;
-        final float distanceFactor = 100.0f;
-        for(int i = 1; i < locations.size()-1; ++i) {
-            final Location left = locations.get(i-1);
-            final Location center = locations.get(i);
-            final Location right = locations.get(i+1);
-            final float referenceDistance = left.distanceTo(right);
-            if(center.distanceTo(left) > referenceDistance*distanceFactor && center.distanceTo(right) > referenceDistance*distanceFactor) {
-                locations.remove(i);
+        final float distanceFactor = GLITCH_DISTANCE_FACTOR;
+        final boolean[] removed = new boolean[locations.size()];
+        // left is the last Location kept, center the candidate glitch and right the next Location
+        int left = 0;
+        for(int center = 1; center < locations.size()-1; ++center) {
+            final int right = center + 1;
+            final float referenceDistance = distance(left, right);
+            if(distance(center, left) > referenceDistance*distanceFactor && distance(center, right) > referenceDistance*distanceFactor) {
+                removed[center] = true;
                 ++count;
-                --i;
+            } else {
+                left = center;
             }
         }
+        if(count > 0) {
+            locations.removeAll(removed);
+            recomputeStatistics();
+        }
+        return count;
+    }
+
+    /**
+     * Drop the Locations that can be interpolated, with an error of at most maxDeviation meters,
+     * from the Locations kept before and after them (see TraceSimplifier). The first and the last
+     * Location are always kept, so a valid trace stays valid.
+     * @param maxDeviation the maximum deviation in meters
+     * @return the number of Locations dropped
+     */
+    public int simplify(float maxDeviation) {
+        if(locations.size() < 3)
+            return 0;
+        final boolean[] removed = new boolean[locations.size()];
+        int count = TraceSimplifier.mark(locations, maxDeviation, removed);
+        if(count > 0) {
+            locations.removeAll(removed);
+            simplifiedCount += count;
+            recomputeStatistics();
+        }
+        return count;
+    }
+
+    /**
+     * Replace the points of every stay of this trace with two points at its centroid, at the
+     * arrival and at the departure time (see StayPointDetector)
+     * @param radius the maximum distance in meters of the points of a stay (see StayPointDetector)
+     * @param minDuration the minimum duration of a stay in milliseconds
+     * @param stayPoints the list where the stays found are added
+     * @return the number of Locations dropped
+     */
+    public int collapseStays(float radius, long minDuration, final List<StayPoint> stayPoints) {
+        final LocationColumns collapsed = new LocationColumns(locations.size());
+        StayPointDetector detector = new StayPointDetector(radius, minDuration, new TracePointConsumer() {
+            @Override
+            public void beginTrace() {}
+
+            @Override
+            public void accept(TracePoint point) {
+                collapsed.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+            }
+
+            @Override
+            public void endTrace() {}
+        }, new StayPointDetector.OnStayPointListener() {
+            @Override
+            public void onStayPoint(StayPoint stayPoint) {
+                stayPoints.add(stayPoint);
+            }
+        });
+        stream(detector);
+        final int count = locations.size() - collapsed.size();
+        // the stays of two points are forwarded as they are
+        if(count == 0)
+            return 0;
+        locations.removeRange(0, locations.size());
+        for(int i = 0; i < collapsed.size(); ++i)
+            locations.add(collapsed, i);
+        simplifiedCount += count;
+        recomputeStatistics();
         return count;
     }
 
+    /**
+     * Return the number of Locations recorded for this trace before it was simplified
+     * @return the number of Locations stored plus the ones dropped by simplify() and
+     * collapseStays()
+     */
+    public int getOriginalLocationCount() {
+        return locations.size() + simplifiedCount;
+    }
+
+    /**
+     * Set the number of Locations recorded before simplification (DB USAGE ONLY)
+     * @param originalLocationCount the original number of Locations
+     */
+    public void setOriginalLocationCount(int originalLocationCount) {
+        simplifiedCount = Math.max(0, originalLocationCount - locations.size());
+    }
+
     /**
      * Get the average speed of an entire ContinuousTrace in m/s
      * @return the average speed of an entire ContinuousTrace as a long
@@ -320,11 +599,9 @@ public class ContinuousTrace {
     public float getSpeed() {
         if(!this.isValid())
             return 0.0f;
-        Iterator<Location> reverseIterator = locations.descendingIterator();
-        Location lastLoc = reverseIterator.next();
-        Location prevLastLoc = reverseIterator.next();
-        float distance = prevLastLoc.distanceTo(lastLoc);
-        float time = (float)((lastLoc.getTime() - prevLastLoc.getTime())/1000);
+        final int last = locations.size() - 1;
+        float distance = distance(last-1, last);
+        float time = (float)((locations.getTime(last) - locations.getTime(last-1))/1000);
         return distance/time;
     }
 
@@ -0,0 +1,317 @@
+package it.unipi.dii.covida.locationstore;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * A compact digest of the places visited in a day (UTC), to be shared or matched without sharing
+ * the Locations: a Bloom filter of the tokens "geohash@bucket" of the points of the day, where
+ * the geohash has CELL_PRECISION characters (about 150m x 150m) and the bucket is the sampling
+ * time divided by BUCKET_MILLIS. As a TracePointConsumer, a digest also adds the buckets that start
+ * between two consecutive points of a trace, at the position interpolated between them: a stay is
+ * stored as two points at its arrival and departure time (see StayPointDetector), the buckets in
+ * the middle of the stay must not be missed.
+ * A token is hashed with SHA-256: the first two big-endian longs h1 and h2 of the hash give the
+ * bits h1 + i * h2 (modulo the number of bits) for i = 0 .. hashCount - 1. Digests built by
+ * different parties can be compared as long as they follow this rule; intersect() and
+ * estimateIntersection() also require the same number of bits and hashes.
+ * A digest is not thread safe.
+ */
+public class DayDigest implements TracePointConsumer {
+
+    /*
+     * Constants
+     */
+    public static final int CELL_PRECISION = 7;
+    public static final long BUCKET_MILLIS = 15 * 60 * 1000L;
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // about 0.07% false positives with 4096 tokens (a day of walking in 150m cells)
+    public static final int DEFAULT_BIT_COUNT = 65536;
+    public static final int DEFAULT_HASH_COUNT = 7;
+    private static final byte VERSION = 1;
+
+    /*
+     * Data members
+     */
+    private final long day;
+    private final int bitCount;
+    private final int hashCount;
+    private final long[] words;
+    private MessageDigest sha256;
+    // the last token added, consecutive points often have the same token
+    private String lastCell;
+    private long lastBucket;
+    // the previous point of the trace being consumed
+    private boolean hasPrevious;
+    private double previousLatitude;
+    private double previousLongitude;
+    private long previousTime;
+
+    /*
+     * Private methods
+     */
+
+    private DayDigest(long day, int bitCount, int hashCount, long[] words) {
+        this.day = day;
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.words = words;
+    }
+
+    /**
+     * Return true if a filter can have the given size (the hash count is stored in a byte)
+     */
+    private static boolean isValidSize(int bitCount, int hashCount) {
+        return bitCount > 0 && bitCount % 64 == 0 && hashCount > 0 && hashCount <= Byte.MAX_VALUE;
+    }
+
+    /**
+     * Return the words of an empty filter, checking its size before allocating them
+     */
+    private static long[] emptyWords(int bitCount, int hashCount) {
+        if(!isValidSize(bitCount, hashCount))
+            throw new IllegalArgumentException("Invalid digest size");
+        return new long[bitCount / 64];
+    }
+
+    /**
+     * Return the two longs h1, h2 of the hash of a token
+     */
+    private long[] hash(String cell, long bucket) {
+        if(sha256 == null) {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        ByteBuffer hash = ByteBuffer.wrap(sha256.digest((cell + "@" + bucket).getBytes(StandardCharsets.UTF_8)));
+        return new long[]{hash.getLong(), hash.getLong()};
+    }
+
+    private int bitIndex(long[] hash, int i) {
+        return (int) Math.floorMod(hash[0] + i * hash[1], (long) bitCount);
+    }
+
+    private int countSetBits() {
+        int count = 0;
+        for(long word : words)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    private void checkCompatible(DayDigest other) {
+        if(other.bitCount != bitCount || other.hashCount != hashCount)
+            throw new IllegalArgumentException("The digests have different sizes");
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create an empty digest with the default size
+     * @param day the day (days from the epoch, see dayOf())
+     */
+    public DayDigest(long day) {
+        this(day, DEFAULT_BIT_COUNT, DEFAULT_HASH_COUNT);
+    }
+
+    /**
+     * Create an empty digest
+     * @param day the day (days from the epoch, see dayOf())
+     * @param bitCount the number of bits of the filter (a multiple of 64)
+     * @param hashCount the number of bits set for every token
+     */
+    public DayDigest(long day, int bitCount, int hashCount) {
+        this(day, bitCount, hashCount, emptyWords(bitCount, hashCount));
+    }
+
+    /**
+     * Return the day of a time
+     * @param time the time in milliseconds from the epoch
+     * @return the days from the epoch (UTC)
+     */
+    public static long dayOf(long time) {
+        return Math.floorDiv(time, DAY_MILLIS);
+    }
+
+    public long getDay() {
+        return day;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Add the token of a point
+     * @return false if the point is not sampled in the day of the digest
+     */
+    public boolean add(double latitude, double longitude, long time) {
+        if(dayOf(time) != day)
+            return false;
+        final String cell = Geohash.encode(latitude, longitude, CELL_PRECISION);
+        final long bucket = Math.floorDiv(time, BUCKET_MILLIS);
+        if(bucket == lastBucket && cell.equals(lastCell))
+            return true;
+        lastCell = cell;
+        lastBucket = bucket;
+        long[] hash = hash(cell, bucket);
+        for(int i = 0; i < hashCount; ++i) {
+            final int bit = bitIndex(hash, i);
+            words[bit >>> 6] |= 1L << bit;
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the token of a point may have been added (false positives are possible,
+     * false negatives are not)
+     */
+    public boolean mightContain(double latitude, double longitude, long time) {
+        if(dayOf(time) != day)
+            return false;
+        long[] hash = hash(Geohash.encode(latitude, longitude, CELL_PRECISION), Math.floorDiv(time, BUCKET_MILLIS));
+        for(int i = 0; i < hashCount; ++i) {
+            final int bit = bitIndex(hash, i);
+            if((words[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void beginTrace() {
+        hasPrevious = false;
+    }
+
+    /**
+     * Add the token of a point and of the buckets of the day that start after the previous point
+     * of the trace (the points of the other days are ignored)
+     */
+    @Override
+    public void accept(TracePoint point) {
+        final long time = point.getTime();
+        if(hasPrevious && time > previousTime) {
+            final long bucketsPerDay = DAY_MILLIS / BUCKET_MILLIS;
+            final long fromBucket = Math.max(Math.floorDiv(previousTime, BUCKET_MILLIS) + 1, day * bucketsPerDay);
+            final long toBucket = Math.min(Math.floorDiv(time - 1, BUCKET_MILLIS), (day + 1) * bucketsPerDay - 1);
+            for(long bucket = fromBucket; bucket <= toBucket; ++bucket) {
+                final double fraction = (double) (bucket * BUCKET_MILLIS - previousTime) / (time - previousTime);
+                add(previousLatitude + fraction * (point.getLatitude() - previousLatitude),
+                        previousLongitude + fraction * (point.getLongitude() - previousLongitude), bucket * BUCKET_MILLIS);
+            }
+        }
+        add(point.getLatitude(), point.getLongitude(), time);
+        hasPrevious = true;
+        previousLatitude = point.getLatitude();
+        previousLongitude = point.getLongitude();
+        previousTime = time;
+    }
+
+    @Override
+    public void endTrace() {}
+
+    public boolean isEmpty() {
+        for(long word : words) {
+            if(word != 0L)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the estimated number of distinct tokens added (from the bits set)
+     */
+    public double estimateTokenCount() {
+        final int setBits = countSetBits();
+        if(setBits == bitCount)
+            return Double.POSITIVE_INFINITY;
+        return -((double) bitCount / hashCount) * Math.log(1.0 - (double) setBits / bitCount);
+    }
+
+    /**
+     * Return the probability that mightContain() is true for a token that has not been added
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow((double) countSetBits() / bitCount, hashCount);
+    }
+
+    /**
+     * Add all the tokens of another digest of the same size
+     */
+    public void merge(DayDigest other) {
+        checkCompatible(other);
+        for(int i = 0; i < words.length; ++i)
+            words[i] |= other.words[i];
+    }
+
+    /**
+     * Return a digest with the bits set in both digests: it contains the tokens of the
+     * intersection, with more false positives than the two digests
+     */
+    public DayDigest intersect(DayDigest other) {
+        checkCompatible(other);
+        long[] intersection = new long[words.length];
+        for(int i = 0; i < words.length; ++i)
+            intersection[i] = words[i] & other.words[i];
+        return new DayDigest(day, bitCount, hashCount, intersection);
+    }
+
+    /**
+     * Return the estimated number of tokens in common between two digests of the same size
+     * (|A| + |B| - |A u B|, every term estimated from the bits set)
+     */
+    public static double estimateIntersection(DayDigest a, DayDigest b) {
+        a.checkCompatible(b);
+        DayDigest union = new DayDigest(a.day, a.bitCount, a.hashCount, a.words.clone());
+        union.merge(b);
+        return Math.max(0.0, a.estimateTokenCount() + b.estimateTokenCount() - union.estimateTokenCount());
+    }
+
+    /**
+     * Return the serialized digest: version, day, number of hashes and of bits, then the bits as
+     * big-endian longs
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 1 + 4 + words.length * 8);
+        buffer.put(VERSION).putLong(day).put((byte) hashCount).putInt(bitCount);
+        for(long word : words)
+            buffer.putLong(word);
+        return buffer.array();
+    }
+
+    /**
+     * Read a digest serialized by toByteArray()
+     * @throws IllegalArgumentException if the bytes are not a valid digest
+     */
+    public static DayDigest fromByteArray(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final byte version = buffer.get();
+            if(version != VERSION)
+                throw new IllegalArgumentException("Unsupported digest version: " + version);
+            final long day = buffer.getLong();
+            final int hashCount = buffer.get();
+            final int bitCount = buffer.getInt();
+            if(!isValidSize(bitCount, hashCount) || buffer.remaining() != bitCount / 8)
+                throw new IllegalArgumentException("Malformed digest header");
+            long[] words = new long[bitCount / 64];
+            for(int i = 0; i < words.length; ++i)
+                words[i] = buffer.getLong();
+            return new DayDigest(day, bitCount, hashCount, words);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated digest");
+        }
+    }
+
+}
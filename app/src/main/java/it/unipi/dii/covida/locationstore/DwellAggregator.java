@@ -0,0 +1,135 @@
+package it.unipi.dii.covida.locationstore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Aggregates a stream of traces into the time spent (dwell) and the number of visits per geohash
+ * cell and day, at several levels (geohash precisions) at once.
+ * The time between two consecutive points of a trace is split in half between the cells of the
+ * two points (and their days), so the dwell of a trace adds up to its duration at every level;
+ * a visit is counted when a trace starts in a cell or moves into it.
+ * The coordinates are rounded as TraceCodec stores them: the aggregates of a TracePool before it
+ * is stored and after it is read back are the same, so they can be subtracted when the TracePool
+ * is deleted.
+ */
+public class DwellAggregator implements TracePointConsumer {
+
+    /*
+     * Constants
+     */
+    // about 4.9km x 4.9km, 1.2km x 0.6km and 150m x 150m
+    public static final int[] DEFAULT_LEVELS = {5, 6, 7};
+
+    /*
+     * Data members
+     */
+    private final int[] levels;
+    private final int maxLevel;
+    // (cell, day) -> aggregate, where the level is the length of the cell
+    private final Map<String, DwellCell> cells = new HashMap<>();
+    // the aggregates of the previous point of the trace, one per level
+    private final DwellCell[] previous;
+    private long previousTime;
+    private boolean inTrace;
+    private long pointCount;
+
+    /*
+     * Private methods
+     */
+
+    private DwellCell get(String cell, long day) {
+        final String key = cell + "@" + day;
+        DwellCell aggregate = cells.get(key);
+        if(aggregate == null) {
+            aggregate = new DwellCell(cell, day, day, 0L, 0);
+            cells.put(key, aggregate);
+        }
+        return aggregate;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create an aggregator for DEFAULT_LEVELS
+     */
+    public DwellAggregator() {
+        this(DEFAULT_LEVELS);
+    }
+
+    /**
+     * Create an aggregator
+     * @param levels the precisions of the geohash cells
+     */
+    public DwellAggregator(int[] levels) {
+        this.levels = levels.clone();
+        int max = 0;
+        for(int level : levels) {
+            if(level < 1 || level > Geohash.MAX_PRECISION)
+                throw new IllegalArgumentException("Invalid level: " + level);
+            max = Math.max(max, level);
+        }
+        maxLevel = max;
+        previous = new DwellCell[levels.length];
+    }
+
+    public int[] getLevels() {
+        return levels.clone();
+    }
+
+    @Override
+    public void beginTrace() {
+        inTrace = false;
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        ++pointCount;
+        final long time = point.getTime();
+        final long day = DayDigest.dayOf(time);
+        // the cells of the lower levels are prefixes of the cell of the highest level
+        final String cell = Geohash.encode(TraceCodec.quantize(point.getLatitude()), TraceCodec.quantize(point.getLongitude()), maxLevel);
+        final long half = inTrace ? (time - previousTime) / 2 : 0L;
+        for(int i = 0; i < levels.length; ++i) {
+            DwellCell current = previous[i];
+            final boolean moved = !inTrace || current.getFromDay() != day || !cell.regionMatches(0, current.getCell(), 0, levels[i]);
+            if(moved)
+                current = get(cell.substring(0, levels[i]), day);
+            if(inTrace) {
+                previous[i].add(half, 0);
+                current.add(time - previousTime - half, 0);
+            }
+            // a new day in the same cell is not a new visit, unless the trace starts there
+            if(!inTrace || (moved && !cell.regionMatches(0, previous[i].getCell(), 0, levels[i])))
+                current.add(0L, 1);
+            previous[i] = current;
+        }
+        previousTime = time;
+        inTrace = true;
+    }
+
+    @Override
+    public void endTrace() {
+        inTrace = false;
+    }
+
+    /**
+     * Return the number of points aggregated
+     */
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Return the aggregates, one per cell, level and day
+     */
+    public List<DwellCell> getCells() {
+        return new ArrayList<>(cells.values());
+    }
+
+}
@@ -0,0 +1,81 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * The time spent and the number of visits in a geohash cell during a range of days (UTC, see
+ * DayDigest.dayOf()). The level of the cell is the precision of its geohash.
+ */
+public class DwellCell {
+
+    /*
+     * Data members
+     */
+    private final String cell;
+    private final long fromDay;
+    private final long toDay;
+    private long dwellMillis;
+    private int visits;
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * @param cell the geohash of the cell
+     * @param fromDay the first day
+     * @param toDay the last day (included)
+     * @param dwellMillis the time spent in the cell in milliseconds
+     * @param visits the number of times the cell has been entered
+     */
+    public DwellCell(String cell, long fromDay, long toDay, long dwellMillis, int visits) {
+        this.cell = cell;
+        this.fromDay = fromDay;
+        this.toDay = toDay;
+        this.dwellMillis = dwellMillis;
+        this.visits = visits;
+    }
+
+    public String getCell() {
+        return cell;
+    }
+
+    public int getLevel() {
+        return cell.length();
+    }
+
+    public long getFromDay() {
+        return fromDay;
+    }
+
+    public long getToDay() {
+        return toDay;
+    }
+
+    public long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    public int getVisits() {
+        return visits;
+    }
+
+    /**
+     * Return the center of the cell
+     * @return an array {latitude, longitude}
+     */
+    public double[] getCenter() {
+        double[] bounds = Geohash.decodeBounds(cell);
+        return new double[]{(bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2};
+    }
+
+    void add(long dwellMillis, int visits) {
+        this.dwellMillis += dwellMillis;
+        this.visits += visits;
+    }
+
+    @Override
+    public String toString() {
+        return cell + " [" + fromDay + ", " + toDay + "]: " + dwellMillis + " ms, " + visits + " visits";
+    }
+
+}
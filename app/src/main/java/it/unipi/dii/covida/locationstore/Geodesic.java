@@ -0,0 +1,66 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * The distance between two points on the WGS84 ellipsoid, computed with the inverse formula of
+ * Vincenty as Location.distanceBetween() does, without the Android framework: the traces are
+ * measured and filtered in the same way on the device and in the local unit tests.
+ */
+public final class Geodesic {
+
+    /*
+     * Constants
+     */
+    private static final int MAX_ITERATIONS = 20;
+    private static final double A = 6378137.0; // semi-major axis in meters
+    private static final double B = 6356752.3142; // semi-minor axis in meters
+    private static final double F = (A - B) / A; // flattening
+
+    private Geodesic() {}
+
+    /**
+     * Return the distance between two points
+     * @param fromLatitude the latitude of the first point in degrees
+     * @param fromLongitude the longitude of the first point in degrees
+     * @param toLatitude the latitude of the second point in degrees
+     * @param toLongitude the longitude of the second point in degrees
+     * @return the distance in meters
+     */
+    public static float distanceBetween(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        final double lat1 = Math.toRadians(fromLatitude), lat2 = Math.toRadians(toLatitude);
+        final double l = Math.toRadians(toLongitude) - Math.toRadians(fromLongitude);
+        final double aSqMinusBSqOverBSq = (A * A - B * B) / (B * B);
+        final double u1 = Math.atan((1.0 - F) * Math.tan(lat1));
+        final double u2 = Math.atan((1.0 - F) * Math.tan(lat2));
+        final double cosU1 = Math.cos(u1), cosU2 = Math.cos(u2);
+        final double sinU1 = Math.sin(u1), sinU2 = Math.sin(u2);
+        final double cosU1cosU2 = cosU1 * cosU2, sinU1sinU2 = sinU1 * sinU2;
+
+        double a = 0.0, sigma = 0.0, deltaSigma = 0.0;
+        double lambda = l;
+        for(int i = 0; i < MAX_ITERATIONS; ++i) {
+            final double lambdaOrig = lambda;
+            final double cosLambda = Math.cos(lambda), sinLambda = Math.sin(lambda);
+            final double t1 = cosU2 * sinLambda;
+            final double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            final double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            final double cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            final double sinAlpha = sinSigma == 0.0 ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+            final double cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            final double cos2SM = cosSqAlpha == 0.0 ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosSqAlpha;
+            final double uSquared = cosSqAlpha * aSqMinusBSqOverBSq;
+            a = 1 + (uSquared / 16384.0) * (4096.0 + uSquared * (-768 + uSquared * (320.0 - 175.0 * uSquared)));
+            final double b = (uSquared / 1024.0) * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+            final double c = (F / 16.0) * cosSqAlpha * (4.0 + F * (4.0 - 3.0 * cosSqAlpha));
+            final double cos2SMSq = cos2SM * cos2SM;
+            deltaSigma = b * sinSigma * (cos2SM + (b / 4.0) * (cosSigma * (-1.0 + 2.0 * cos2SMSq)
+                    - (b / 6.0) * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMSq)));
+            lambda = l + (1.0 - c) * F * sinAlpha * (sigma + c * sinSigma * (cos2SM + c * cosSigma * (-1.0 + 2.0 * cos2SM * cos2SM)));
+            if(Math.abs((lambda - lambdaOrig) / lambda) < 1.0e-12)
+                break;
+        }
+        return (float) (B * a * (sigma - deltaSigma));
+    }
+
+}
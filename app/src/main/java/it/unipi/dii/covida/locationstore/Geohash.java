@@ -0,0 +1,189 @@
+package it.unipi.dii.covida.locationstore;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Geohash encoding of geographic coordinates.
+ * A geohash identifies a rectangular cell: the longer the hash, the smaller the cell (with 7
+ * characters a cell is about 150m x 150m, with 6 characters about 1.2km x 0.6km).
+ */
+public final class Geohash {
+
+    /*
+     * Constants
+     */
+    public static final int MAX_PRECISION = 12;
+    public static final double METERS_PER_DEGREE = 111320.0;
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /*
+     * Private methods
+     */
+
+    private static int indexOf(char c) {
+        for(int i = 0; i < BASE32.length; ++i) {
+            if(BASE32[i] == c)
+                return i;
+        }
+        throw new IllegalArgumentException("Invalid geohash character: " + c);
+    }
+
+    private Geohash() {}
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Return the geohash of the cell that contains the given point
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param precision the number of characters of the hash (1 to 12)
+     * @return the geohash
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if(precision < 1 || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Invalid geohash precision: " + precision);
+        double minLatitude = -90.0, maxLatitude = 90.0;
+        double minLongitude = -180.0, maxLongitude = 180.0;
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+        int bit = 0, value = 0, length = 0;
+        while(length < precision) {
+            if(evenBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if(longitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    value = value << 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if(latitude >= middle) {
+                    value = (value << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    value = value << 1;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if(++bit == 5) {
+                hash[length++] = BASE32[value];
+                bit = 0;
+                value = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Return the bounds of the cell identified by a geohash
+     * @param geohash the geohash
+     * @return an array {minLatitude, minLongitude, maxLatitude, maxLongitude}
+     */
+    public static double[] decodeBounds(String geohash) {
+        double minLatitude = -90.0, maxLatitude = 90.0;
+        double minLongitude = -180.0, maxLongitude = 180.0;
+        boolean evenBit = true;
+        for(int i = 0; i < geohash.length(); ++i) {
+            int value = indexOf(geohash.charAt(i));
+            for(int mask = 16; mask > 0; mask >>= 1) {
+                if(evenBit) {
+                    double middle = (minLongitude + maxLongitude) / 2;
+                    if((value & mask) != 0)
+                        minLongitude = middle;
+                    else
+                        maxLongitude = middle;
+                } else {
+                    double middle = (minLatitude + maxLatitude) / 2;
+                    if((value & mask) != 0)
+                        minLatitude = middle;
+                    else
+                        maxLatitude = middle;
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{minLatitude, minLongitude, maxLatitude, maxLongitude};
+    }
+
+    /**
+     * Return the height (latitude span) in degrees of the cells with the given precision
+     * @param precision the number of characters of the hash
+     * @return the height of the cells in degrees
+     */
+    public static double cellHeight(int precision) {
+        int latitudeBits = (precision * 5) / 2;
+        return 180.0 / (1L << latitudeBits);
+    }
+
+    /**
+     * Return the width (longitude span) in degrees of the cells with the given precision
+     * @param precision the number of characters of the hash
+     * @return the width of the cells in degrees
+     */
+    public static double cellWidth(int precision) {
+        int longitudeBits = (precision * 5 + 1) / 2;
+        return 360.0 / (1L << longitudeBits);
+    }
+
+    /**
+     * Return the geohashes of all the cells that intersect a rectangle (the rectangle must not
+     * cross the 180th meridian)
+     * @param minLatitude the southern edge in degrees
+     * @param minLongitude the western edge in degrees
+     * @param maxLatitude the northern edge in degrees
+     * @param maxLongitude the eastern edge in degrees
+     * @param precision the number of characters of the hashes
+     * @return the geohashes, from south-west to north-east
+     */
+    public static Set<String> cover(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int precision) {
+        minLatitude = Math.max(minLatitude, -90.0);
+        maxLatitude = Math.min(maxLatitude, 90.0);
+        minLongitude = Math.max(minLongitude, -180.0);
+        maxLongitude = Math.min(maxLongitude, 180.0);
+        final double height = cellHeight(precision), width = cellWidth(precision);
+        Set<String> cells = new LinkedHashSet<>();
+        for(double latitude = minLatitude; ; latitude += height) {
+            final double rowLatitude = Math.min(latitude, maxLatitude);
+            for(double longitude = minLongitude; ; longitude += width) {
+                final double columnLongitude = Math.min(longitude, maxLongitude);
+                cells.add(encode(rowLatitude, columnLongitude, precision));
+                if(columnLongitude >= maxLongitude)
+                    break;
+            }
+            if(rowLatitude >= maxLatitude)
+                break;
+        }
+        return cells;
+    }
+
+    /**
+     * Return the geohashes of the cells that intersect the bounding box of a circle, using the
+     * longest hashes (up to maxPrecision characters) that need at most maxCells cells
+     * @param latitude the latitude of the center in degrees
+     * @param longitude the longitude of the center in degrees
+     * @param radius the radius in meters
+     * @param maxPrecision the maximum number of characters of the hashes
+     * @param maxCells the maximum number of cells wanted (it is exceeded only with precision 1)
+     * @return the geohashes, all with the same length
+     */
+    public static Set<String> coverCircle(double latitude, double longitude, double radius, int maxPrecision, int maxCells) {
+        final double latitudeSpan = radius / METERS_PER_DEGREE;
+        final double longitudeSpan = Math.min(360.0, radius / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6)));
+        int precision = maxPrecision;
+        while(precision > 1) {
+            long rows = (long) Math.floor(2 * latitudeSpan / cellHeight(precision)) + 2;
+            long columns = (long) Math.floor(2 * longitudeSpan / cellWidth(precision)) + 2;
+            if(rows * columns <= maxCells)
+                break;
+            --precision;
+        }
+        return cover(latitude - latitudeSpan, longitude - longitudeSpan, latitude + latitudeSpan, longitude + longitudeSpan, precision);
+    }
+
+}
@@ -0,0 +1,108 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * The streaming version of TracePool::filter(): it removes the glitches from a stream of points
+ * with the same rules of ContinuousTrace::filter() and drops the traces that are no more valid,
+ * forwarding everything else to another TracePointConsumer.
+ */
+public class GlitchFilter implements TracePointConsumer {
+
+    /*
+     * Data members
+     */
+    private final TracePointConsumer downstream;
+    private final TracePoint left = new TracePoint();
+    private final TracePoint center = new TracePoint();
+    private final TracePoint firstKept = new TracePoint();
+    private int receivedCount;
+    private int keptCount;
+    private int removedCount;
+
+    /*
+     * Private methods
+     */
+
+    private float distance(TracePoint a, TracePoint b) {
+        return Geodesic.distanceBetween(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude());
+    }
+
+    /**
+     * Forward a point that passed the filter. The first point of a trace is held until a second
+     * one arrives, so that traces with a single point are never forwarded.
+     */
+    private void keep(TracePoint point) {
+        ++keptCount;
+        if(keptCount == 1) {
+            firstKept.set(point);
+            return;
+        }
+        if(keptCount == 2) {
+            downstream.beginTrace();
+            downstream.accept(firstKept);
+        }
+        downstream.accept(point);
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a filter
+     * @param downstream the consumer of the filtered points
+     */
+    public GlitchFilter(TracePointConsumer downstream) {
+        this.downstream = downstream;
+        this.removedCount = 0;
+    }
+
+    @Override
+    public void beginTrace() {
+        receivedCount = 0;
+        keptCount = 0;
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        ++receivedCount;
+        if(receivedCount == 1) {
+            left.set(point);
+            keep(left);
+            return;
+        }
+        if(receivedCount == 2) {
+            center.set(point);
+            return;
+        }
+        final float factor = ContinuousTrace.GLITCH_DISTANCE_FACTOR;
+        final float referenceDistance = distance(left, point);
+        if(distance(center, left) > referenceDistance*factor && distance(center, point) > referenceDistance*factor) {
+            ++removedCount;
+        } else {
+            keep(center);
+            left.set(center);
+        }
+        center.set(point);
+    }
+
+    @Override
+    public void endTrace() {
+        if(receivedCount >= 2)
+            keep(center);
+        if(keptCount >= 2) {
+            downstream.endTrace();
+        } else {
+            removedCount += keptCount;
+        }
+    }
+
+    /**
+     * Return the number of points removed so far (glitches and points of invalid traces)
+     * @return the number of points removed
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+}
@@ -0,0 +1,299 @@
+package it.unipi.dii.covida.locationstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A growable column store for GPS points.
+ * Every point is kept as one entry in primitive arrays (latitude, longitude, time) plus a byte
+ * that references the provider name in a process-wide dictionary. This avoids keeping one
+ * Location object (and one list node) for every sampled point.
+ */
+public final class LocationColumns {
+
+    /*
+     * Constants
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_PROVIDERS = 256;
+
+    /*
+     * Provider dictionary (shared by all the instances)
+     */
+    private static final List<String> providerDictionary = new ArrayList<>();
+
+    /*
+     * Data members
+     */
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] times;
+    private byte[] providers;
+    private int size;
+
+    /*
+     * Private methods
+     */
+
+    private void ensureCapacity(int minCapacity) {
+        if(minCapacity <= times.length)
+            return;
+        int newCapacity = Math.max(minCapacity, times.length + (times.length >> 1) + 1);
+        latitudes = Arrays.copyOf(latitudes, newCapacity);
+        longitudes = Arrays.copyOf(longitudes, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        providers = Arrays.copyOf(providers, newCapacity);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /**
+     * Return the dictionary code of a provider, adding it to the dictionary if needed
+     * @param provider the provider name
+     * @return the code of the provider
+     */
+    static synchronized byte encodeProvider(String provider) {
+        int code = providerDictionary.indexOf(provider);
+        if(code == -1) {
+            if(providerDictionary.size() >= MAX_PROVIDERS)
+                throw new IllegalStateException("Too many location providers");
+            providerDictionary.add(provider);
+            code = providerDictionary.size() - 1;
+        }
+        return (byte) code;
+    }
+
+    /**
+     * Return the provider name corresponding to a dictionary code
+     * @param code the code of the provider
+     * @return the provider name
+     */
+    static synchronized String decodeProvider(byte code) {
+        return providerDictionary.get(code & 0xFF);
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Default constructor
+     */
+    public LocationColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty store able to hold the given number of points without growing
+     * @param capacity the initial capacity
+     */
+    public LocationColumns(int capacity) {
+        capacity = Math.max(capacity, 1);
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        times = new long[capacity];
+        providers = new byte[capacity];
+        size = 0;
+    }
+
+    /**
+     * Append a point
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param time the UTC time of the sampling in milliseconds
+     * @param provider the name of the provider that generated the point
+     */
+    public void add(double latitude, double longitude, long time, String provider) {
+        ensureCapacity(size + 1);
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        times[size] = time;
+        providers[size] = encodeProvider(provider);
+        ++size;
+    }
+
+    /**
+     * Append the point stored at the given index of another store
+     * @param other the source store
+     * @param index the index of the point inside other
+     */
+    public void add(LocationColumns other, int index) {
+        other.checkIndex(index);
+        ensureCapacity(size + 1);
+        latitudes[size] = other.latitudes[index];
+        longitudes[size] = other.longitudes[index];
+        times[size] = other.times[index];
+        providers[size] = other.providers[index];
+        ++size;
+    }
+
+    /**
+     * Return the number of points stored
+     * @return the number of points stored
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return true if no points are stored
+     * @return true if no points are stored
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double getLatitude(int index) {
+        checkIndex(index);
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        checkIndex(index);
+        return longitudes[index];
+    }
+
+    public long getTime(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+
+    public String getProvider(int index) {
+        checkIndex(index);
+        return decodeProvider(providers[index]);
+    }
+
+    /**
+     * Return the index of the first point with the given coordinates and time
+     * @return the index of the point, -1 if not found
+     */
+    public int indexOf(double latitude, double longitude, long time) {
+        for(int i = 0; i < size; ++i) {
+            if(latitudes[i] == latitude && longitudes[i] == longitude && times[i] == time)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the first point with the given coordinates
+     * @return the index of the point, -1 if not found
+     */
+    public int indexOf(double latitude, double longitude) {
+        for(int i = 0; i < size; ++i) {
+            if(latitudes[i] == latitude && longitudes[i] == longitude)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the first point sampled at or after the given time (the points must be
+     * sorted by time)
+     * @param time the UTC time in milliseconds
+     * @return the index of the point, size() if all the points were sampled before time
+     */
+    public int indexOfTime(long time) {
+        int low = 0, high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(times[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Remove the point at the given index shifting the following ones
+     * @param index the index of the point to remove
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        if(moved > 0) {
+            System.arraycopy(latitudes, index + 1, latitudes, index, moved);
+            System.arraycopy(longitudes, index + 1, longitudes, index, moved);
+            System.arraycopy(times, index + 1, times, index, moved);
+            System.arraycopy(providers, index + 1, providers, index, moved);
+        }
+        --size;
+    }
+
+    /**
+     * Remove the points with index in the range [from, to) shifting the following ones
+     * @param from the first index (included)
+     * @param to the last index (excluded)
+     */
+    public void removeRange(int from, int to) {
+        if(from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), Size: " + size);
+        int moved = size - to;
+        if(moved > 0 && from < to) {
+            System.arraycopy(latitudes, to, latitudes, from, moved);
+            System.arraycopy(longitudes, to, longitudes, from, moved);
+            System.arraycopy(times, to, times, from, moved);
+            System.arraycopy(providers, to, providers, from, moved);
+        }
+        size -= to - from;
+    }
+
+    /**
+     * Remove all the points marked in a mask, keeping the order of the others
+     * @param mask an array with one entry for every point: true if the point must be removed
+     * @return the number of points removed
+     */
+    public int removeAll(boolean[] mask) {
+        if(mask.length < size)
+            throw new IllegalArgumentException("The mask is shorter than the store");
+        int kept = 0;
+        for(int i = 0; i < size; ++i) {
+            if(mask[i])
+                continue;
+            if(kept != i) {
+                latitudes[kept] = latitudes[i];
+                longitudes[kept] = longitudes[i];
+                times[kept] = times[i];
+                providers[kept] = providers[i];
+            }
+            ++kept;
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Return a new store with a copy of the points in the range [from, to)
+     * @param from the first index (included)
+     * @param to the last index (excluded)
+     * @return a new LocationColumns
+     */
+    public LocationColumns copyRange(int from, int to) {
+        if(from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), Size: " + size);
+        LocationColumns copy = new LocationColumns(to - from);
+        System.arraycopy(latitudes, from, copy.latitudes, 0, to - from);
+        System.arraycopy(longitudes, from, copy.longitudes, 0, to - from);
+        System.arraycopy(times, from, copy.times, 0, to - from);
+        System.arraycopy(providers, from, copy.providers, 0, to - from);
+        copy.size = to - from;
+        return copy;
+    }
+
+    /**
+     * Return an estimation of the heap memory used by the arrays of this store
+     * @return the estimated number of bytes
+     */
+    public long estimateHeapBytes() {
+        // 8 (lat) + 8 (lon) + 8 (time) + 1 (provider) bytes per slot, plus 4 array headers
+        return (long) times.length * 25L + 4L * 16L;
+    }
+
+}
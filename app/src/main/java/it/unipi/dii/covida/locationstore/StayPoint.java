@@ -0,0 +1,69 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A stop of the user at a place: the centroid of the points recorded there, the time of the first
+ * one (arrival) and the time of the last one (departure). When a stay is collapsed in a trace (see
+ * ContinuousTrace::collapseStays()) the trace keeps a point at the arrival and one at the departure
+ * time.
+ */
+public class StayPoint {
+
+    /*
+     * Data members
+     */
+    private final double latitude;
+    private final double longitude;
+    private final long arrivalTime;
+    private final long departureTime;
+    private final int pointCount;
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * @param latitude the latitude of the centroid
+     * @param longitude the longitude of the centroid
+     * @param arrivalTime the time of the first point of the stay
+     * @param departureTime the time of the last point of the stay
+     * @param pointCount the number of points recorded during the stay
+     */
+    public StayPoint(double latitude, double longitude, long arrivalTime, long departureTime, int pointCount) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.arrivalTime = arrivalTime;
+        this.departureTime = departureTime;
+        this.pointCount = pointCount;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public long getDepartureTime() {
+        return departureTime;
+    }
+
+    public long getDuration() {
+        return departureTime - arrivalTime;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + latitude + ", " + longitude + ") [" + arrivalTime + ", " + departureTime + "]: " + pointCount + " points";
+    }
+
+}
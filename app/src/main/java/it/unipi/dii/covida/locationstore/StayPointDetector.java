@@ -0,0 +1,239 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A streaming stay point detector. A stay starts as in the classic stay point detection (distance
+ * and time thresholds): a run of points of a trace that are all within radius meters of the first
+ * one and that lasts at least minDuration milliseconds. Then it goes on while the points are
+ * within radius meters of its centroid, and it ends at the first two consecutive points out of
+ * it: indoors the fixes are noisy, a long stop would otherwise be split by the first one that
+ * wanders away (a single point out of the radius is dropped with the stay).
+ * The points of a stay are passed to the listener as a single StayPoint and are replaced, in the
+ * stream forwarded to the downstream consumer, by two points at its centroid (at the arrival and
+ * at the departure time); the other points, and the stays of only two points, are forwarded as
+ * they are.
+ * Only the window of points that can still start a stay is kept in memory: it spans less than
+ * minDuration, and a stay that has been detected is accumulated in constant memory however long
+ * it lasts.
+ */
+public class StayPointDetector implements TracePointConsumer {
+
+    /**
+     * A receiver of the stays found by the detector
+     */
+    public interface OnStayPointListener {
+        /**
+         * Called when a stay ends (at the first two points out of its radius or at the end of the trace)
+         * @param stayPoint the stay
+         */
+        void onStayPoint(StayPoint stayPoint);
+    }
+
+    /*
+     * Data members
+     */
+    private final float radius;
+    private final long minDuration;
+    private final TracePointConsumer downstream;
+    private final OnStayPointListener listener;
+    // the candidate stay: the first point (the anchor) followed by the points within the radius
+    private final LocationColumns window = new LocationColumns();
+    private final TracePoint output = new TracePoint();
+    // the stay being accumulated, once the window lasts at least minDuration
+    private boolean inStay;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private String anchorProvider;
+    // the sums of the coordinates of the points of the stay, for its centroid
+    private double latitudeSum;
+    private double longitudeSum;
+    private int stayCount;
+    // the points of the stay dropped out of the radius, and the last one if it can still end the stay
+    private int outlierCount;
+    private boolean hasExit;
+    private final TracePoint exit = new TracePoint();
+    private long arrivalTime;
+    private long departureTime;
+    private double lastLatitude;
+    private double lastLongitude;
+    private String lastProvider;
+    private int receivedCount;
+    private int forwardedCount;
+    private int stayPointCount;
+
+    /*
+     * Private methods
+     */
+
+    private void forward(double latitude, double longitude, long time, String provider) {
+        output.set(latitude, longitude, time, provider);
+        downstream.accept(output);
+        ++forwardedCount;
+    }
+
+    /**
+     * Return the index of the first point of the window farther than radius from the anchor
+     * @return the index of the point, -1 if all the points are within the radius
+     */
+    private int firstFar() {
+        final double latitude = window.getLatitude(0), longitude = window.getLongitude(0);
+        for(int i = 1; i < window.size(); ++i) {
+            if(TraceSegmenter.distance(latitude, longitude, window.getLatitude(i), window.getLongitude(i)) > radius)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Slide the anchor until all the points of the window are within the radius of the anchor,
+     * forwarding the anchors left behind, then start the stay if the window lasts long enough.
+     * A prefix of the window that ends before a far point never lasts minDuration: the window
+     * without its last point was not a stay.
+     */
+    private void settle() {
+        while(firstFar() != -1) {
+            forward(window.getLatitude(0), window.getLongitude(0), window.getTime(0), window.getProvider(0));
+            window.remove(0);
+        }
+        final int last = window.size() - 1;
+        if(window.getTime(last) - window.getTime(0) < minDuration)
+            return;
+        inStay = true;
+        anchorLatitude = window.getLatitude(0);
+        anchorLongitude = window.getLongitude(0);
+        anchorProvider = window.getProvider(0);
+        arrivalTime = window.getTime(0);
+        departureTime = window.getTime(last);
+        lastLatitude = window.getLatitude(last);
+        lastLongitude = window.getLongitude(last);
+        lastProvider = window.getProvider(last);
+        latitudeSum = 0.0;
+        longitudeSum = 0.0;
+        for(int i = 0; i <= last; ++i) {
+            latitudeSum += window.getLatitude(i);
+            longitudeSum += window.getLongitude(i);
+        }
+        stayCount = window.size();
+        outlierCount = 0;
+        hasExit = false;
+        window.removeRange(0, window.size());
+    }
+
+    /**
+     * Close the current stay: forward its two points and pass it to the listener
+     */
+    private void endStay() {
+        // rounded as TraceCodec stores the points, so the centroid is where the stored trace stops
+        final double latitude = TraceCodec.quantize(latitudeSum / stayCount);
+        final double longitude = TraceCodec.quantize(longitudeSum / stayCount);
+        if(stayCount + outlierCount == 2) {
+            // nothing to collapse: a trace changes only if it loses points (see commitJournal())
+            forward(anchorLatitude, anchorLongitude, arrivalTime, anchorProvider);
+            forward(lastLatitude, lastLongitude, departureTime, lastProvider);
+        } else {
+            forward(latitude, longitude, arrivalTime, anchorProvider);
+            forward(latitude, longitude, departureTime, anchorProvider);
+        }
+        ++stayPointCount;
+        inStay = false;
+        if(listener != null)
+            listener.onStayPoint(new StayPoint(latitude, longitude, arrivalTime, departureTime, stayCount + outlierCount));
+        // the point that ended the stay can start the next one
+        if(hasExit) {
+            window.add(exit.getLatitude(), exit.getLongitude(), exit.getTime(), exit.getProvider());
+            hasExit = false;
+        }
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a detector
+     * @param radius the maximum distance in meters between the points of a stay and its first
+     *               point (to start it) or its centroid (to go on)
+     * @param minDuration the minimum duration of a stay in milliseconds
+     * @param downstream the consumer of the points, with every stay collapsed in two points
+     * @param listener the receiver of the stays (it can be null)
+     */
+    public StayPointDetector(float radius, long minDuration, TracePointConsumer downstream, OnStayPointListener listener) {
+        if(minDuration <= 0)
+            throw new IllegalArgumentException("Invalid minimum duration: " + minDuration);
+        this.radius = radius;
+        this.minDuration = minDuration;
+        this.downstream = downstream;
+        this.listener = listener;
+    }
+
+    @Override
+    public void beginTrace() {
+        window.removeRange(0, window.size());
+        inStay = false;
+        downstream.beginTrace();
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        ++receivedCount;
+        if(inStay) {
+            if(TraceSegmenter.distance(latitudeSum / stayCount, longitudeSum / stayCount, point.getLatitude(), point.getLongitude()) <= radius) {
+                if(hasExit) {
+                    ++outlierCount;
+                    hasExit = false;
+                }
+                latitudeSum += point.getLatitude();
+                longitudeSum += point.getLongitude();
+                ++stayCount;
+                departureTime = point.getTime();
+                lastLatitude = point.getLatitude();
+                lastLongitude = point.getLongitude();
+                lastProvider = point.getProvider();
+                return;
+            }
+            if(!hasExit) {
+                hasExit = true;
+                exit.set(point);
+                return;
+            }
+            endStay();
+        }
+        window.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+        settle();
+    }
+
+    @Override
+    public void endTrace() {
+        if(inStay)
+            endStay();
+        for(int i = 0; i < window.size(); ++i)
+            forward(window.getLatitude(i), window.getLongitude(i), window.getTime(i), window.getProvider(i));
+        window.removeRange(0, window.size());
+        downstream.endTrace();
+    }
+
+    /**
+     * Return the number of points received so far
+     * @return the number of points received
+     */
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Return the number of points forwarded so far
+     * @return the number of points forwarded, two for every stay
+     */
+    public int getForwardedCount() {
+        return forwardedCount;
+    }
+
+    /**
+     * Return the number of stays found so far
+     * @return the number of stays
+     */
+    public int getStayPointCount() {
+        return stayPointCount;
+    }
+
+}
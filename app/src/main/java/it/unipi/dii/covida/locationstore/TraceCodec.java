@@ -0,0 +1,351 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Binary codec for the points of a ContinuousTrace.
+ * An encoded trace is a sequence of one or more frames (so a valid encoding can be extended by
+ * appending new frames). Every frame has the following layout:
+ *  - version (1 byte)
+ *  - number of points (varint)
+ *  - number of providers (varint) followed by the providers names (varint length + 1, UTF-8 bytes,
+ *    a length of 0 stands for a null name)
+ *  - for every point: provider index (varint, only if the frame has more than one provider),
+ *    latitude and longitude in fixed point (1e-7 degrees) and time in milliseconds, all three
+ *    stored as zig-zag varint deltas from the previous point of the frame.
+ * The codec can also read the JSON arrays stored by the first version of the database.
+ */
+public final class TraceCodec {
+
+    /*
+     * Constants
+     */
+    public static final int VERSION = 1;
+    private static final double FIXED_POINT_SCALE = 1e7;
+
+    /*
+     * Private classes and methods
+     */
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        private Writer(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+            position = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if(position + extra > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        private Reader(byte[] buffer) {
+            this.buffer = buffer;
+            this.position = 0;
+        }
+
+        private boolean hasRemaining() {
+            return position < buffer.length;
+        }
+
+        private int readByte() {
+            if(position >= buffer.length)
+                throw new IllegalArgumentException("Truncated trace encoding");
+            return buffer[position++] & 0xFF;
+        }
+
+        private long readVarint() {
+            long value = 0L;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalArgumentException("Malformed varint in trace encoding");
+        }
+
+        private long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private String readString(int length) {
+            if(length < 0 || position + length > buffer.length)
+                throw new IllegalArgumentException("Truncated trace encoding");
+            String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+    }
+
+    private static long toFixedPoint(double degrees) {
+        return Math.round(degrees * FIXED_POINT_SCALE);
+    }
+
+    private static double fromFixedPoint(long value) {
+        return value / FIXED_POINT_SCALE;
+    }
+
+    /**
+     * Return a coordinate as it is decoded after being encoded
+     */
+    static double quantize(double degrees) {
+        return fromFixedPoint(toFixedPoint(degrees));
+    }
+
+    private static int indexOf(String[] providers, int count, String provider) {
+        for(int i = 0; i < count; ++i) {
+            if(provider == null ? providers[i] == null : provider.equals(providers[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Public classes and methods
+     */
+
+    /**
+     * Streaming decoder: it returns the points of a binary trace one at a time without
+     * allocating memory for every point.
+     */
+    public static final class Decoder {
+        private final Reader reader;
+        private String[] providers;
+        private long remaining;
+        private long latitude, longitude, time;
+
+        private void readFrameHeader() {
+            int version = reader.readByte();
+            if(version != VERSION)
+                throw new IllegalArgumentException("Unsupported trace encoding version: " + version);
+            long count = reader.readVarint();
+            int providerCount = (int) reader.readVarint();
+            if(count < 0 || count > Integer.MAX_VALUE || providerCount < 0 || (count > 0 && providerCount == 0))
+                throw new IllegalArgumentException("Malformed trace encoding header");
+            providers = new String[providerCount];
+            for(int i = 0; i < providerCount; ++i) {
+                int length = (int) reader.readVarint();
+                providers[i] = length == 0 ? null : reader.readString(length - 1);
+            }
+            remaining = count;
+            latitude = 0L;
+            longitude = 0L;
+            time = 0L;
+        }
+
+        /**
+         * Create a decoder
+         * @param data the encoded trace
+         */
+        public Decoder(byte[] data) {
+            reader = new Reader(data);
+            remaining = 0;
+        }
+
+        /**
+         * Decode the next point
+         * @param point the point where the values are stored
+         * @return false if there are no more points
+         * @throws IllegalArgumentException if the data is not a valid encoding
+         */
+        public boolean next(TracePoint point) {
+            while(remaining == 0) {
+                if(!reader.hasRemaining())
+                    return false;
+                readFrameHeader();
+            }
+            int provider = providers.length > 1 ? (int) reader.readVarint() : 0;
+            if(provider >= providers.length)
+                throw new IllegalArgumentException("Malformed provider index in trace encoding");
+            latitude += reader.readSignedVarint();
+            longitude += reader.readSignedVarint();
+            time += reader.readSignedVarint();
+            --remaining;
+            point.set(fromFixedPoint(latitude), fromFixedPoint(longitude), time, providers[provider]);
+            return true;
+        }
+    }
+
+    /**
+     * Encode a range of points as a single frame
+     * @param columns the points
+     * @param from the first point to encode (included)
+     * @param to the last point to encode (excluded)
+     * @return the encoded frame
+     */
+    public static byte[] encode(LocationColumns columns, int from, int to) {
+        if(from < 0 || to > columns.size() || from > to)
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), Size: " + columns.size());
+        String[] providers = new String[4];
+        int providerCount = 0;
+        for(int i = from; i < to; ++i) {
+            String provider = columns.getProvider(i);
+            if(indexOf(providers, providerCount, provider) == -1) {
+                if(providerCount == providers.length)
+                    providers = Arrays.copyOf(providers, providerCount * 2);
+                providers[providerCount++] = provider;
+            }
+        }
+
+        Writer writer = new Writer(16 + (to - from) * 8);
+        writer.writeByte(VERSION);
+        writer.writeVarint(to - from);
+        writer.writeVarint(providerCount);
+        for(int i = 0; i < providerCount; ++i) {
+            if(providers[i] == null) {
+                writer.writeVarint(0);
+            } else {
+                byte[] name = providers[i].getBytes(StandardCharsets.UTF_8);
+                writer.writeVarint(name.length + 1);
+                writer.writeBytes(name);
+            }
+        }
+        long latitude = 0L, longitude = 0L, time = 0L;
+        for(int i = from; i < to; ++i) {
+            if(providerCount > 1)
+                writer.writeVarint(indexOf(providers, providerCount, columns.getProvider(i)));
+            long currentLatitude = toFixedPoint(columns.getLatitude(i));
+            long currentLongitude = toFixedPoint(columns.getLongitude(i));
+            long currentTime = columns.getTime(i);
+            writer.writeSignedVarint(currentLatitude - latitude);
+            writer.writeSignedVarint(currentLongitude - longitude);
+            writer.writeSignedVarint(currentTime - time);
+            latitude = currentLatitude;
+            longitude = currentLongitude;
+            time = currentTime;
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encode all the points of a store
+     * @param columns the points
+     * @return the encoded trace
+     */
+    public static byte[] encode(LocationColumns columns) {
+        return encode(columns, 0, columns.size());
+    }
+
+    /**
+     * Encode all the points of a ContinuousTrace
+     * @param trace the trace
+     * @return the encoded trace
+     */
+    public static byte[] encode(ContinuousTrace trace) {
+        return encode(trace.getColumns());
+    }
+
+    /**
+     * Encode a range of points of a ContinuousTrace as a single frame (the frames of consecutive
+     * ranges can be concatenated to obtain the encoding of the whole trace)
+     * @param trace the trace
+     * @param from the first point to encode (included)
+     * @param to the last point to encode (excluded)
+     * @return the encoded frame
+     */
+    public static byte[] encode(ContinuousTrace trace, int from, int to) {
+        return encode(trace.getColumns(), from, to);
+    }
+
+    /**
+     * Decode a binary trace made of one or more frames
+     * @param data the encoded trace
+     * @return the decoded points
+     * @throws IllegalArgumentException if data is not a valid encoding
+     */
+    public static LocationColumns decode(byte[] data) {
+        LocationColumns columns = new LocationColumns();
+        Decoder decoder = new Decoder(data);
+        TracePoint point = new TracePoint();
+        while(decoder.next(point))
+            columns.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+        return columns;
+    }
+
+    /**
+     * Decode the JSON array of locations written by the first version of the database
+     * @param json the JSON array (as produced by ContinuousTrace::toJsonString())
+     * @return the decoded points
+     * @throws JSONException if json is not a valid array of locations
+     */
+    public static LocationColumns decodeJson(String json) throws JSONException {
+        JSONArray array = new JSONArray(json);
+        LocationColumns columns = new LocationColumns(array.length());
+        for(int i = 0; i < array.length(); ++i) {
+            JSONObject location = array.getJSONObject(i);
+            columns.add(
+                    location.getDouble("latitude"),
+                    location.getDouble("longitude"),
+                    location.getLong("time"),
+                    location.getString("provider"));
+        }
+        return columns;
+    }
+
+    /**
+     * Decode a binary trace into a new ContinuousTrace
+     * @param tracePoolId the id of the TracePool that owns the trace
+     * @param data the encoded trace
+     * @return the decoded ContinuousTrace
+     */
+    public static ContinuousTrace decodeTrace(String tracePoolId, byte[] data) {
+        return new ContinuousTrace(tracePoolId, decode(data));
+    }
+
+    /**
+     * Decode a JSON array of locations into a new ContinuousTrace
+     * @param tracePoolId the id of the TracePool that owns the trace
+     * @param json the JSON array of locations
+     * @return the decoded ContinuousTrace
+     * @throws JSONException if json is not a valid array of locations
+     */
+    public static ContinuousTrace decodeTrace(String tracePoolId, String json) throws JSONException {
+        return new ContinuousTrace(tracePoolId, decodeJson(json));
+    }
+
+    private TraceCodec() {}
+
+}
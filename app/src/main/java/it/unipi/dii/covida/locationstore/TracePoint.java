@@ -0,0 +1,50 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A mutable GPS point used by the streaming APIs.
+ * The same instance is reused for all the points of a stream: copy its values (with set()) if they
+ * must be kept after the next point is read.
+ */
+public final class TracePoint {
+
+    private double latitude;
+    private double longitude;
+    private long time;
+    private String provider;
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * Set all the values of the point
+     */
+    public void set(double latitude, double longitude, long time, String provider) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.time = time;
+        this.provider = provider;
+    }
+
+    /**
+     * Copy the values of another point
+     * @param other the point to copy
+     */
+    public void set(TracePoint other) {
+        set(other.latitude, other.longitude, other.time, other.provider);
+    }
+
+}
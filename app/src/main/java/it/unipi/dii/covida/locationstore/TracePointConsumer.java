@@ -0,0 +1,27 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A receiver of a stream of points grouped in traces (the streaming counterpart of a TracePool).
+ * For every trace beginTrace() is called first, then accept() for every point and endTrace() at the
+ * end of the trace.
+ */
+public interface TracePointConsumer {
+
+    /**
+     * Called when a new trace starts
+     */
+    void beginTrace();
+
+    /**
+     * Called for every point of the current trace
+     * @param point the point (it is reused after the call returns)
+     */
+    void accept(TracePoint point);
+
+    /**
+     * Called when the current trace ends
+     */
+    void endTrace();
+
+}
@@ -0,0 +1,49 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A forward-only source of points grouped in traces, every trace owned by a TracePool (the
+ * pulling counterpart of TracePointConsumer). The traces of the same TracePool are contiguous.
+ * Usage:
+ *   while(source.moveToNextTrace())
+ *       while(source.moveToNextPoint())
+ *           use(source.getPoint());
+ */
+public interface TracePointSource {
+
+    /**
+     * Move to the next trace
+     * @return false if there are no more traces
+     */
+    boolean moveToNextTrace();
+
+    /**
+     * Move to the next point of the current trace
+     * @return false if there are no more points in the current trace
+     */
+    boolean moveToNextPoint();
+
+    /**
+     * Move back before the first point of the current trace, so that it can be read again
+     */
+    void rewindTrace();
+
+    /**
+     * Return the current point (the same instance is updated by moveToNextPoint())
+     * @return the current point
+     */
+    TracePoint getPoint();
+
+    /**
+     * Return the id of the TracePool that owns the current trace
+     * @return the TracePool ID
+     */
+    String getTracePoolId();
+
+    /**
+     * Return the creation timestamp of the TracePool that owns the current trace
+     * @return the creation timestamp
+     */
+    long getTracePoolTimestamp();
+
+}
@@ -2,18 +2,22 @@ package it.unipi.dii.covida.locationstore;
 
 import android.location.Location;
 import android.location.LocationManager;
-import android.util.Pair;
 
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+
+import androidx.core.util.Pair;
 
 /**
  * A TracePool is a store and manager for a group of Location(s).
@@ -34,6 +38,80 @@ public class TracePool {
     private final LinkedList<ContinuousTrace> traces;
     private String name;
     private boolean stopped;
+    // the stays collapsed by collapseStays(), stored with the TracePool
+    private final List<StayPoint> stayPoints = new ArrayList<>();
+    // running statistics: the ones of the last trace are read from the trace itself (it is the
+    // only one that can grow), the others are accumulated when a new trace is started
+    private int locationCount;
+    private float closedLengthMeter;
+    private LatLngBounds closedBounds;
+
+    private static LatLngBounds union(LatLngBounds first, LatLngBounds second) {
+        if(first == null)
+            return second;
+        if(second == null)
+            return first;
+        return new LatLngBounds(
+                new LatLng(Math.min(first.southwest.latitude, second.southwest.latitude),
+                        Math.min(first.southwest.longitude, second.southwest.longitude)),
+                new LatLng(Math.max(first.northeast.latitude, second.northeast.latitude),
+                        Math.max(first.northeast.longitude, second.northeast.longitude)));
+    }
+
+    /**
+     * Close the statistics of the last trace before a new one is started
+     */
+    private void closeLastTrace() {
+        if(traces.isEmpty())
+            return;
+        ContinuousTrace last = traces.getLast();
+        closedLengthMeter += last.getLengthMeter();
+        closedBounds = union(closedBounds, last.getBounds());
+    }
+
+    /**
+     * Recompute the running statistics after a structural change of the traces (it costs O(1)
+     * for every trace, not for every Location)
+     */
+    private void recomputeStatistics() {
+        locationCount = 0;
+        closedLengthMeter = 0.0f;
+        closedBounds = null;
+        int i = 0;
+        for(ContinuousTrace trace : traces) {
+            locationCount += trace.getLocationCount();
+            if(++i < traces.size()) {
+                closedLengthMeter += trace.getLengthMeter();
+                closedBounds = union(closedBounds, trace.getBounds());
+            }
+        }
+    }
+
+    /**
+     * Generate an unique id ("timestamp-count"); TracePools can be created by different threads
+     */
+    private static synchronized String nextId(long timestamp) {
+        if(timestamp > lastIdTime) {
+            lastIdTime = timestamp;
+            lastIdCount = 0;
+        } else {
+            // same millisecond (or the clock went back): keep the last time and count
+            ++lastIdCount;
+        }
+        return lastIdTime + "-" + lastIdCount;
+    }
+
+    /**
+     * Replace the trace at the given position with the valid traces of a split
+     */
+    private void replaceTrace(int i, Pair<ContinuousTrace, ContinuousTrace> pair) {
+        traces.remove(i);
+        if(pair.second.isValid())
+            traces.add(i,pair.second);
+        if(pair.first.isValid())
+            traces.add(i,pair.first);
+        recomputeStatistics();
+    }
 
     /**
      * Create a TracePool
@@ -41,15 +119,31 @@ public class TracePool {
     public TracePool() {
         //Generate an unique id
         timestamp = System.currentTimeMillis();
-        long count = (timestamp != lastIdTime ? 0 : lastIdCount+1);
-        id = timestamp + "-" + count;
-        lastIdTime = timestamp;
-        lastIdCount = count;
+        id = nextId(timestamp);
 
         name = "";
 
         traces = new LinkedList<>();
         stopped = true;
+        recomputeStatistics();
+    }
+
+    /**
+     * Create a stopped TracePool with Locations recorded elsewhere (e.g. imported from a file).
+     * Its ID depends only on the time of the first Location, so that the same Locations imported
+     * twice have the same ID.
+     * @param timestamp the time of the first Location
+     * @param traces the Locations of every trace, ordered by time
+     */
+    TracePool(long timestamp, List<LocationColumns> traces) {
+        this.timestamp = timestamp;
+        id = timestamp + "-0";
+        name = "";
+        this.traces = new LinkedList<>();
+        for(LocationColumns columns : traces)
+            this.traces.add(new ContinuousTrace(id, columns));
+        stopped = true;
+        recomputeStatistics();
     }
 
     /**
@@ -74,6 +168,7 @@ public class TracePool {
         }
         this.stopped = stopped;
         this.name = name;
+        recomputeStatistics();
     }
 
     /**
@@ -89,14 +184,23 @@ public class TracePool {
      * @param location the location to add
      */
     public void addLocation(Location location) {
+        addPoint(location.getLatitude(), location.getLongitude(), location.getTime(), location.getProvider());
+    }
+
+    /**
+     * Add a new point to the pool without creating a Location
+     */
+    void addPoint(double latitude, double longitude, long time, String provider) {
         if(traces.isEmpty() || traces.getLast().isEmpty()) {
             timestamp = getTimestamp();
         }
         if(stopped) {
+            closeLastTrace();
             traces.add(new ContinuousTrace(id));
             stopped = false;
         }
-        traces.getLast().addLocation(location);
+        traces.getLast().addPoint(latitude, longitude, time, provider);
+        ++locationCount;
     }
 
     /**
@@ -127,6 +231,7 @@ public class TracePool {
         ContinuousTrace lastCt = traces.getLast();
         if(lastCt != null && !lastCt.isValid()) {
             traces.removeLast();
+            recomputeStatistics();
         }
         stopped = true;
     }
@@ -149,12 +254,7 @@ public class TracePool {
         int i = 0;
         for(ContinuousTrace trace : traces) {
             if(trace.contains(location)) {
-                Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplit(location);
-                if(pair.second.isValid())
-                    traces.add(i,pair.second);
-                if(pair.first.isValid())
-                    traces.add(i,pair.first);
-                traces.remove(trace);
+                replaceTrace(i, trace.removeAndSplit(location));
                 return;
             }
             ++i;
@@ -170,45 +270,74 @@ public class TracePool {
         int i = 0;
         for (ContinuousTrace trace : traces) {
             if (trace.contains(latLng)) {
-                Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplit(latLng);
-                if(pair.second.isValid())
-                    traces.add(i,pair.second);
-                if(pair.first.isValid())
-                    traces.add(i,pair.first);
-                traces.remove(trace);
+                replaceTrace(i, trace.removeAndSplit(latLng));
                 return;
             }
             ++i;
         }
     }
 
-    ///**
-    // * Remove the Locations passed as parameter and the Locations between them from the pool.
-    // * If the Locations are both part of the same ContinuousTrace, the trace is splitted in two
-    // * distinct ContinuousTraces.
-    // * @param locationFrom the "starting point" (included)
-    // * @param locationTo the "end point" (excluded)
-    // */
-    /*public void removeLocation(Location locationFrom, Location locationTo) {
-        ContinuousTrace toRemove = null;
+    /**
+     * Remove the Locations passed as parameter and the Locations between them from the pool.
+     * If the Locations are both part of the same ContinuousTrace, the trace is splitted in two
+     * distinct ContinuousTraces. The Locations can be passed in any order (see
+     * ContinuousTrace::removeAndSplitRange()).
+     * @param locationFrom the "starting point" (included)
+     * @param locationTo the "end point" (excluded)
+     */
+    public void removeLocation(Location locationFrom, Location locationTo) {
         int i = 0;
         for(ContinuousTrace trace : traces) {
-            if(trace.contains(locationFrom) && trace.contains((locationTo))) {
-                Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplitRange(locationFrom,locationTo);
-                if(!pair.second.isEmpty())
-                    traces.add(i,pair.second);
-                if(!pair.first.isEmpty())
-                    traces.add(i,pair.first);
-                toRemove = trace;
-                break;
+            if(trace.contains(locationFrom) && trace.contains(locationTo)) {
+                replaceTrace(i, trace.removeAndSplitRange(locationFrom, locationTo));
+                return;
             }
             ++i;
         }
-        if(toRemove == null) {
-            throw new IllegalArgumentException("Location to remove not found");
+        throw new IllegalArgumentException("Location to remove not found");
+    }
+
+    /**
+     * Remove a range of Locations of a ContinuousTrace, splitting the trace only once.
+     * @param traceIndex the position of the trace in getTraces()
+     * @param indexFrom the index of the "starting point" inside the trace (included)
+     * @param indexTo the index of the "end point" inside the trace (excluded)
+     * @return the number of Locations removed (including the ones left in groups too short to
+     * form a ContinuousTrace)
+     */
+    public int removeLocations(int traceIndex, int indexFrom, int indexTo) {
+        if(traceIndex < 0 || traceIndex >= traces.size())
+            throw new IllegalArgumentException("ContinuousTrace to edit not found");
+        int before = locationCount;
+        replaceTrace(traceIndex, traces.get(traceIndex).removeAndSplitRange(indexFrom, indexTo));
+        return before - locationCount;
+    }
+
+    /**
+     * Remove all the Locations sampled in the range [fromTime, toTime), splitting every trace
+     * involved only once.
+     * @param fromTime the "starting time" (included)
+     * @param toTime the "end time" (excluded)
+     * @return the number of Locations removed (including the ones left in groups too short to
+     * form a ContinuousTrace)
+     */
+    public int removeLocations(long fromTime, long toTime) {
+        int before = locationCount;
+        ListIterator<ContinuousTrace> iterator = traces.listIterator();
+        while(iterator.hasNext()) {
+            ContinuousTrace trace = iterator.next();
+            if(trace.getToTime() < fromTime || trace.getFromTime() >= toTime)
+                continue;
+            Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplitRange(fromTime, toTime);
+            iterator.remove();
+            if(pair.first.isValid())
+                iterator.add(pair.first);
+            if(pair.second.isValid())
+                iterator.add(pair.second);
         }
-        traces.remove(toRemove);
-    }*/
+        recomputeStatistics();
+        return before - locationCount;
+    }
 
     /**
      * Remove all locations in a given radius starting from a given center
@@ -217,14 +346,36 @@ public class TracePool {
      * @return The number of locations removed
      */
     public int removeLocationsInGivenRadius(Location center, double radius) {
-        List<Location> constantLocationList = getLocations();
+        return removeLocationsInGivenRadius(center, radius, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Remove all locations sampled in a time range that are in a given radius starting from a
+     * given center. Every ContinuousTrace is scanned once and split around the removed Locations.
+     * @param center The center of the search
+     * @param radius The radius of the search
+     * @param fromTime The minimum sampling time (included)
+     * @param toTime The maximum sampling time (included)
+     * @return The number of locations removed
+     */
+    public int removeLocationsInGivenRadius(Location center, double radius, long fromTime, long toTime) {
         int removeCount = 0;
-        for(Location loc : constantLocationList) {
-            if(loc.distanceTo(center) <= radius) {
-                removeLocation(loc);
-                ++removeCount;
+        ListIterator<ContinuousTrace> iterator = traces.listIterator();
+        while(iterator.hasNext()) {
+            ContinuousTrace trace = iterator.next();
+            boolean[] mask = new boolean[trace.getLocationCount()];
+            int found = trace.markWithin(center.getLatitude(), center.getLongitude(), radius, fromTime, toTime, mask);
+            if(found == 0)
+                continue;
+            removeCount += found;
+            iterator.remove();
+            for(ContinuousTrace group : trace.removeAndSplit(mask)) {
+                if(group.isValid())
+                    iterator.add(group);
             }
         }
+        if(removeCount > 0)
+            recomputeStatistics();
         return removeCount;
     }
 
@@ -247,6 +398,37 @@ public class TracePool {
         return Collections.unmodifiableList(traces);
     }
 
+    /**
+     * Return a copy of the TracePool (same ID) with copies of its traces, so that one can be
+     * changed without changing the other
+     */
+    public TracePool copy() {
+        List<ContinuousTrace> copies = new LinkedList<>();
+        for(ContinuousTrace trace : traces)
+            copies.add(trace.copy());
+        return new TracePool(timestamp, name, id, copies, stopped);
+    }
+
+    /**
+     * Return an estimation of the heap memory used by the Locations of the TracePool
+     * @return the estimated number of bytes
+     */
+    public long estimateHeapBytes() {
+        long bytes = 0L;
+        for(ContinuousTrace trace : traces)
+            bytes += trace.estimateHeapBytes();
+        return bytes;
+    }
+
+    /**
+     * Send the traces of the TracePool to a consumer, in order (see ContinuousTrace::stream())
+     * @param consumer the consumer
+     */
+    public void stream(TracePointConsumer consumer) {
+        for(ContinuousTrace trace : traces)
+            trace.stream(consumer);
+    }
+
     /**
      * It returns an unmodifiable list of all Locations stored inside the TracePool without any
      * information about continuity.
@@ -274,10 +456,7 @@ public class TracePool {
      * @return the number of Location(s) stored inside the TracePool
      */
     public int getLocationCount() {
-        int count = 0;
-        for(ContinuousTrace trace : traces)
-            count += trace.getLocationCount();
-        return count;
+        return locationCount;
     }
 
     /**
@@ -285,7 +464,7 @@ public class TracePool {
      * @return true if there are no Locations stored in this ThreadPool
      */
     public boolean isEmpty() {
-        return getLocationCount() == 0;
+        return locationCount == 0;
     }
 
     /**
@@ -342,11 +521,7 @@ public class TracePool {
     public float getLengthMeter() {
         if(traces.isEmpty())
             return 0.0f;
-        float distance = 0.0f;
-        for(ContinuousTrace continuousTrace : traces) {
-            distance += continuousTrace.getLengthMeter();
-        }
-        return distance;
+        return closedLengthMeter + traces.getLast().getLengthMeter();
     }
 
     /**
@@ -356,8 +531,7 @@ public class TracePool {
     public long getTimeDuration() {
         if(traces.isEmpty())
             return 0L;
-        return traces.getLast().getLocations().get(traces.getLast().getLocations().size() - 1).getTime() -
-                traces.getFirst().getLocations().get(0).getTime();
+        return traces.getLast().getToTime() - traces.getFirst().getFromTime();
     }
 
     /**
@@ -380,6 +554,16 @@ public class TracePool {
         return traces.getLast().getTo();
     }
 
+    /**
+     * Return the smallest rectangle that contains all the Locations of the TracePool
+     * @return the bounding box of the TracePool, null if there are no Locations stored
+     */
+    public LatLngBounds getBounds() {
+        if(traces.isEmpty())
+            return closedBounds;
+        return union(closedBounds, traces.getLast().getBounds());
+    }
+
     /**
      * Filter this TracePool in search of glitches to remove and remove all ContinuousTraces that
      * are no more valid after this operation.
@@ -398,6 +582,57 @@ public class TracePool {
             }
         }
         traces.removeAll(toRemove);
+        recomputeStatistics();
+        return count;
+    }
+
+    /**
+     * Simplify every ContinuousTrace of this TracePool (see ContinuousTrace::simplify())
+     * @param maxDeviation the maximum deviation in meters of a dropped Location
+     * @return the number of Locations dropped
+     */
+    public int simplify(float maxDeviation) {
+        int count = 0;
+        for(ContinuousTrace continuousTrace : traces)
+            count += continuousTrace.simplify(maxDeviation);
+        if(count > 0)
+            recomputeStatistics();
+        return count;
+    }
+
+    /**
+     * Collapse the stays of every ContinuousTrace of this TracePool (see
+     * ContinuousTrace::collapseStays()) and keep them to be stored with the TracePool
+     * @param radius the maximum distance in meters of the points of a stay (see StayPointDetector)
+     * @param minDuration the minimum duration of a stay in milliseconds
+     * @return the number of Locations dropped
+     */
+    public int collapseStays(float radius, long minDuration) {
+        int count = 0;
+        for(ContinuousTrace continuousTrace : traces)
+            count += continuousTrace.collapseStays(radius, minDuration, stayPoints);
+        if(count > 0)
+            recomputeStatistics();
+        return count;
+    }
+
+    /**
+     * Return the stays collapsed by collapseStays(), ordered by time
+     * @return an unmodifiable list of the stays
+     */
+    public List<StayPoint> getStayPoints() {
+        return Collections.unmodifiableList(stayPoints);
+    }
+
+    /**
+     * Return the number of Locations recorded before the TracePool was simplified
+     * @return the number of Locations stored plus the ones dropped by simplify() and
+     * collapseStays()
+     */
+    public int getOriginalLocationCount() {
+        int count = 0;
+        for(ContinuousTrace continuousTrace : traces)
+            count += continuousTrace.getOriginalLocationCount();
         return count;
     }
 
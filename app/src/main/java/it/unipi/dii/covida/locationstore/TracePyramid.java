@@ -0,0 +1,234 @@
+package it.unipi.dii.covida.locationstore;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.AbstractList;
+import java.util.List;
+
+
+/**
+ * The levels of detail of a ContinuousTrace used to draw it on a map.
+ * Level 0 is the trace at full resolution; every other level is the trace simplified (with
+ * Douglas-Peucker) so that no point is farther than TOLERANCES[level] meters from it. The levels
+ * above 0 are small and stored in the database, level 0 is attached only when it is needed.
+ * An empty trace has no TracePyramid: a pyramid keeps the index of its trace in the TracePool.
+ */
+public class TracePyramid {
+
+    /*
+     * Constants
+     */
+    public static final int LEVELS = 5;
+    static final double[] TOLERANCES = {0.0, 2.0, 8.0, 32.0, 128.0};
+
+    /*
+     * Data members
+     */
+    private final int traceIndex;
+    private final LatLngBounds bounds;
+    private final LocationColumns[] levels;
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Return the distance in meters between the point at index i and the segment between the
+     * points at index from and to (equirectangular projection around the point)
+     */
+    private static double segmentDistance(LocationColumns columns, int i, int from, int to) {
+        final double metersPerDegreeLongitude = Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(columns.getLatitude(i)));
+        final double ax = (columns.getLongitude(from) - columns.getLongitude(i)) * metersPerDegreeLongitude;
+        final double ay = (columns.getLatitude(from) - columns.getLatitude(i)) * Geohash.METERS_PER_DEGREE;
+        final double bx = (columns.getLongitude(to) - columns.getLongitude(i)) * metersPerDegreeLongitude;
+        final double by = (columns.getLatitude(to) - columns.getLatitude(i)) * Geohash.METERS_PER_DEGREE;
+        final double dx = bx - ax, dy = by - ay;
+        final double lengthSquared = dx * dx + dy * dy;
+        // projection of the point (the origin) on the segment, clamped to its ends
+        final double t = lengthSquared > 0.0 ? Math.max(0.0, Math.min(1.0, -(ax * dx + ay * dy) / lengthSquared)) : 0.0;
+        final double x = ax + t * dx, y = ay + t * dy;
+        return Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Mark the points kept by Douglas-Peucker with the given tolerance (iterative, O(n log n) on
+     * average)
+     */
+    private static void markKept(LocationColumns columns, double tolerance, boolean[] kept) {
+        final int size = columns.size();
+        kept[0] = true;
+        kept[size - 1] = true;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while(top > 0) {
+            final int to = stack[--top];
+            final int from = stack[--top];
+            double maxDistance = -1.0;
+            int farthest = -1;
+            for(int i = from + 1; i < to; ++i) {
+                final double distance = segmentDistance(columns, i, from, to);
+                if(distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if(farthest == -1 || maxDistance <= tolerance)
+                continue;
+            kept[farthest] = true;
+            if(top + 4 > stack.length) {
+                int[] larger = new int[stack.length * 2];
+                System.arraycopy(stack, 0, larger, 0, top);
+                stack = larger;
+            }
+            stack[top++] = from;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = to;
+        }
+    }
+
+    static LocationColumns simplify(LocationColumns columns, double tolerance) {
+        if(columns.size() <= 2)
+            return columns.copyRange(0, columns.size());
+        final boolean[] kept = new boolean[columns.size()];
+        markKept(columns, tolerance, kept);
+        LocationColumns simplified = new LocationColumns();
+        for(int i = 0; i < columns.size(); ++i) {
+            if(kept[i])
+                simplified.add(columns, i);
+        }
+        return simplified;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a TracePyramid (DB USAGE ONLY)
+     * @param traceIndex the index of the trace in its TracePool
+     * @param bounds the bounding box of the trace at full resolution
+     * @param levels an array of LEVELS entries, null for the levels not loaded
+     */
+    public TracePyramid(int traceIndex, LatLngBounds bounds, LocationColumns[] levels) {
+        if(levels.length != LEVELS)
+            throw new IllegalArgumentException("A TracePyramid has " + LEVELS + " levels");
+        this.traceIndex = traceIndex;
+        this.bounds = bounds;
+        this.levels = levels;
+    }
+
+    /**
+     * Compute all the levels of a non-empty ContinuousTrace (level 0 is the trace itself, not a copy)
+     * @param trace the trace
+     * @param traceIndex the index of the trace in its TracePool
+     * @return the TracePyramid of the trace
+     */
+    public static TracePyramid build(ContinuousTrace trace, int traceIndex) {
+        LocationColumns[] levels = new LocationColumns[LEVELS];
+        levels[0] = trace.getColumns();
+        for(int level = 1; level < LEVELS; ++level)
+            levels[level] = simplify(levels[0], TOLERANCES[level]);
+        return new TracePyramid(traceIndex, trace.getBounds(), levels);
+    }
+
+    /**
+     * Return the coarsest level whose error is not visible at the given scale
+     * @param metersPerPixel the meters covered by a pixel of the map
+     * @return the level to draw
+     */
+    public static int levelFor(double metersPerPixel) {
+        int level = 0;
+        while(level + 1 < LEVELS && TOLERANCES[level + 1] <= metersPerPixel)
+            ++level;
+        return level;
+    }
+
+    /**
+     * Attach the trace at full resolution as level 0
+     * @param trace the trace, with the same Locations used to build the other levels
+     */
+    public void setFullResolution(ContinuousTrace trace) {
+        levels[0] = trace.getColumns();
+    }
+
+    /**
+     * Return true if the given level is loaded
+     * @param level the level
+     * @return true if the points of the level are available
+     */
+    public boolean hasLevel(int level) {
+        return levels[level] != null;
+    }
+
+    /**
+     * Return the points of a level
+     * @param level the level (0 is the full resolution)
+     * @return the points, null if the level is not loaded
+     */
+    public LocationColumns getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Return the points of a level converted in LatLngs
+     * @param level the level, that must be loaded
+     * @return a view of the points of the level; every access creates a new LatLng
+     */
+    public List<LatLng> getLatLngs(int level) {
+        final LocationColumns columns = levels[level];
+        return new AbstractList<LatLng>() {
+            @Override
+            public LatLng get(int index) {
+                return new LatLng(columns.getLatitude(index), columns.getLongitude(index));
+            }
+
+            @Override
+            public int size() {
+                return columns.size();
+            }
+        };
+    }
+
+    /**
+     * Return a TracePyramid with the same levels: the levels are shared (they are never changed),
+     * only the attachment of the full resolution is independent
+     */
+    public TracePyramid copy() {
+        return new TracePyramid(traceIndex, bounds, levels.clone());
+    }
+
+    /**
+     * Return an estimation of the heap memory used by the levels loaded
+     * @return the estimated number of bytes
+     */
+    public long estimateHeapBytes() {
+        long bytes = 0L;
+        for(LocationColumns level : levels) {
+            if(level != null)
+                bytes += level.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the index of the trace in its TracePool (the empty traces have no TracePyramid, so
+     * it can be larger than the index of the pyramid in a list)
+     * @return the index of the trace
+     */
+    public int getTraceIndex() {
+        return traceIndex;
+    }
+
+    /**
+     * Return the bounding box of the trace at full resolution
+     * @return the bounding box of the trace
+     */
+    public LatLngBounds getBounds() {
+        return bounds;
+    }
+
+}
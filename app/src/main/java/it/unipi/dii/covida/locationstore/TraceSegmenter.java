@@ -0,0 +1,167 @@
+package it.unipi.dii.covida.locationstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Groups a stream of points recorded elsewhere (e.g. read from a file) in TracePools and
+ * ContinuousTraces with the TrackingRules of the live tracking, and a gap in time in place of the
+ * stops of the tracking:
+ * - a point closer than SENSITIVITY to the previous one is dropped
+ * - a point older than the previous one is dropped (the stream must be ordered by time)
+ * - a gap longer than TRACE_GAP, or the end of a trace of the stream, starts a new trace
+ * - a gap longer than USER_TIMEOUT, or more than THRESHOLD_LOCATIONS points, starts a new TracePool
+ * Every TracePool has its stays collapsed (STAY_RADIUS, STAY_DURATION), is simplified with
+ * MAX_DEVIATION and is passed to the listener as soon as it is complete, so only the points of the
+ * current TracePool are kept in memory.
+ * The ID of a TracePool is derived from the time of its first point: segmenting the same stream
+ * again gives the same IDs.
+ */
+public class TraceSegmenter implements TracePointConsumer {
+
+    /**
+     * A receiver of the TracePools built by the segmenter
+     */
+    public interface OnTracePoolListener {
+        /**
+         * Called when a TracePool is complete
+         * @param tracePool the TracePool (stopped, with its stays collapsed, and simplified)
+         */
+        void onTracePool(TracePool tracePool);
+    }
+
+    /*
+     * Data members
+     */
+    private final OnTracePoolListener listener;
+    private final List<LocationColumns> traces = new ArrayList<>();
+    private LocationColumns trace;
+    private int locationCount;
+    private boolean hasLast;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTime;
+    private long receivedCount;
+    private long acceptedCount;
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Return the distance in meters between two points (equirectangular projection, the error
+     * is negligible at the distances compared with SENSITIVITY)
+     */
+    static double distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        final double dy = (toLatitude - fromLatitude) * Geohash.METERS_PER_DEGREE;
+        final double dx = (toLongitude - fromLongitude) * Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(toLatitude));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Close the current trace: the next point starts a new one
+     */
+    private void stopTrace() {
+        if(trace == null)
+            return;
+        if(trace.size() < 2) {
+            // as TracePool::stop(), a trace of a single point is not valid
+            locationCount -= trace.size();
+            traces.remove(traces.size() - 1);
+        }
+        trace = null;
+    }
+
+    /**
+     * Close the current TracePool and pass it to the listener if it is savable
+     */
+    private void stopTracePool() {
+        stopTrace();
+        if(locationCount >= 2) {
+            TracePool tracePool = new TracePool(traces.get(0).getTime(0), traces);
+            tracePool.collapseStays(TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION);
+            tracePool.simplify(TrackingRules.MAX_DEVIATION);
+            listener.onTracePool(tracePool);
+        }
+        traces.clear();
+        locationCount = 0;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a segmenter
+     * @param listener the receiver of the TracePools
+     */
+    public TraceSegmenter(OnTracePoolListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void beginTrace() {
+        stopTrace();
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        ++receivedCount;
+        final double latitude = point.getLatitude();
+        final double longitude = point.getLongitude();
+        final long time = point.getTime();
+        if(hasLast) {
+            if(time < lastTime)
+                return;
+            if(time - lastTime > TrackingRules.USER_TIMEOUT)
+                stopTracePool();
+            else if(distance(lastLatitude, lastLongitude, latitude, longitude) < TrackingRules.SENSITIVITY)
+                return;
+            else if(time - lastTime > TrackingRules.TRACE_GAP)
+                stopTrace();
+        }
+        if(trace == null) {
+            trace = new LocationColumns();
+            traces.add(trace);
+        }
+        trace.add(latitude, longitude, time, point.getProvider());
+        ++locationCount;
+        ++acceptedCount;
+        hasLast = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTime = time;
+        if(locationCount > TrackingRules.THRESHOLD_LOCATIONS)
+            stopTracePool();
+    }
+
+    @Override
+    public void endTrace() {
+        stopTrace();
+    }
+
+    /**
+     * Pass the last TracePool to the listener; call it at the end of the stream
+     */
+    public void flush() {
+        stopTracePool();
+    }
+
+    /**
+     * Return the number of points received
+     * @return the number of points received
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Return the number of points added to the TracePools (before the simplification)
+     * @return the number of points not dropped by the rules
+     */
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+}
@@ -0,0 +1,159 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * An error-bounded simplifier for a stream of points (an opening window variant of
+ * Douglas-Peucker). A point is dropped only if the position interpolated at its time between the
+ * points kept before and after it is at most maxDeviation meters away from the point itself, so
+ * both the path and the time spent along it are preserved within the bound. The first and the
+ * last point of every trace are always kept.
+ * The window of pending points is limited to MAX_WINDOW points, so every point costs O(MAX_WINDOW)
+ * in the worst case.
+ */
+public class TraceSimplifier implements TracePointConsumer {
+
+    /*
+     * Constants
+     */
+    static final int MAX_WINDOW = 64;
+
+    /*
+     * Data members
+     */
+    private final float maxDeviation;
+    private final TracePointConsumer downstream;
+    // the last point kept (index 0) followed by the pending points
+    private final LocationColumns window = new LocationColumns(MAX_WINDOW + 1);
+    private final TracePoint output = new TracePoint();
+    private int receivedCount;
+    private int forwardedCount;
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Return the distance in meters between a point and the position interpolated at the time of
+     * the point on the segment from (fromLatitude, fromLongitude, fromTime) to (toLatitude,
+     * toLongitude, toTime). An equirectangular projection is used: the error is negligible at the
+     * distances between two GPS fixes.
+     */
+    static double synchronizedDistance(double latitude, double longitude, long time,
+                                       double fromLatitude, double fromLongitude, long fromTime,
+                                       double toLatitude, double toLongitude, long toTime) {
+        final double ratio = toTime > fromTime ? (double) (time - fromTime) / (toTime - fromTime) : 0.0;
+        final double expectedLatitude = fromLatitude + ratio * (toLatitude - fromLatitude);
+        final double expectedLongitude = fromLongitude + ratio * (toLongitude - fromLongitude);
+        final double dy = (latitude - expectedLatitude) * Geohash.METERS_PER_DEGREE;
+        final double dx = (longitude - expectedLongitude) * Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Return true if all the points of columns with index in (anchor, end) can be replaced by the
+     * segment from the point at index anchor to the given point
+     */
+    static boolean fits(LocationColumns columns, int anchor, int end, double latitude, double longitude, long time, float maxDeviation) {
+        final double anchorLatitude = columns.getLatitude(anchor);
+        final double anchorLongitude = columns.getLongitude(anchor);
+        final long anchorTime = columns.getTime(anchor);
+        for(int i = anchor + 1; i < end; ++i) {
+            if(synchronizedDistance(columns.getLatitude(i), columns.getLongitude(i), columns.getTime(i),
+                    anchorLatitude, anchorLongitude, anchorTime, latitude, longitude, time) > maxDeviation)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mark the points of columns that the simplifier drops
+     * @param columns the points of a trace
+     * @param maxDeviation the maximum deviation in meters
+     * @param removed an array with one entry for every point, set to true for the points dropped
+     * @return the number of points dropped
+     */
+    static int mark(LocationColumns columns, float maxDeviation, boolean[] removed) {
+        int count = 0;
+        int anchor = 0;
+        for(int i = 2; i < columns.size(); ++i) {
+            if(i - anchor - 1 >= MAX_WINDOW
+                    || !fits(columns, anchor, i, columns.getLatitude(i), columns.getLongitude(i), columns.getTime(i), maxDeviation)) {
+                // the previous point is kept and becomes the new anchor
+                anchor = i - 1;
+            } else {
+                removed[i - 1] = true;
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private void forward(int index) {
+        output.set(window.getLatitude(index), window.getLongitude(index), window.getTime(index), window.getProvider(index));
+        downstream.accept(output);
+        ++forwardedCount;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Create a simplifier
+     * @param maxDeviation the maximum distance in meters between a dropped point and the
+     *                     simplified trace
+     * @param downstream the consumer of the points kept
+     */
+    public TraceSimplifier(float maxDeviation, TracePointConsumer downstream) {
+        this.maxDeviation = maxDeviation;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void beginTrace() {
+        window.removeRange(0, window.size());
+        downstream.beginTrace();
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        ++receivedCount;
+        final int size = window.size();
+        if(size == 0) {
+            window.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+            forward(0);
+            return;
+        }
+        if(size - 1 >= MAX_WINDOW
+                || !fits(window, 0, size, point.getLatitude(), point.getLongitude(), point.getTime(), maxDeviation)) {
+            // the last pending point is kept and becomes the new anchor
+            forward(size - 1);
+            window.removeRange(0, size - 1);
+        }
+        window.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+    }
+
+    @Override
+    public void endTrace() {
+        if(window.size() >= 2)
+            forward(window.size() - 1);
+        downstream.endTrace();
+    }
+
+    /**
+     * Return the number of points received so far
+     * @return the number of points received
+     */
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Return the number of points forwarded so far
+     * @return the number of points kept
+     */
+    public int getForwardedCount() {
+        return forwardedCount;
+    }
+
+}
@@ -0,0 +1,106 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * Computes the statistics of a TracePool (number of Locations, length and duration) from a stream
+ * of points, giving the same results of the corresponding methods of TracePool without keeping
+ * the points in memory.
+ */
+public class TraceStatistics implements TracePointConsumer {
+
+    /*
+     * Data members
+     */
+    private final TracePoint previous = new TracePoint();
+    private boolean hasPrevious;
+    private int locationCount;
+    private int traceCount;
+    private float lengthMeter;
+    private float traceLengthMeter;
+    private int tracePointCount;
+    private long fromTime;
+    private long toTime;
+
+    /**
+     * Default constructor
+     */
+    public TraceStatistics() {
+        reset();
+    }
+
+    /**
+     * Discard all the points received so far
+     */
+    public void reset() {
+        hasPrevious = false;
+        locationCount = 0;
+        traceCount = 0;
+        lengthMeter = 0.0f;
+        traceLengthMeter = 0.0f;
+        tracePointCount = 0;
+        fromTime = 0L;
+        toTime = 0L;
+    }
+
+    @Override
+    public void beginTrace() {
+        hasPrevious = false;
+        traceLengthMeter = 0.0f;
+        tracePointCount = 0;
+        ++traceCount;
+    }
+
+    @Override
+    public void accept(TracePoint point) {
+        if(hasPrevious) {
+            traceLengthMeter += Geodesic.distanceBetween(previous.getLatitude(), previous.getLongitude(),
+                    point.getLatitude(), point.getLongitude());
+        }
+        if(traceCount == 1 && tracePointCount == 0)
+            fromTime = point.getTime();
+        previous.set(point);
+        hasPrevious = true;
+        ++tracePointCount;
+        ++locationCount;
+    }
+
+    @Override
+    public void endTrace() {
+        lengthMeter += traceLengthMeter;
+        toTime = tracePointCount > 0 ? previous.getTime() : 0L;
+    }
+
+    /**
+     * Get the number of points received
+     * @return the number of points
+     */
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    /**
+     * Get the number of traces received
+     * @return the number of traces
+     */
+    public int getContinuousTraceCount() {
+        return traceCount;
+    }
+
+    /**
+     * Return the length (in meters) of the received traces
+     * @return the length in meters
+     */
+    public float getLengthMeter() {
+        return lengthMeter;
+    }
+
+    /**
+     * Return the time elapsed from the first point of the first trace to the last point of the
+     * last trace in milliseconds
+     * @return the duration in milliseconds
+     */
+    public long getTimeDuration() {
+        return toTime - fromTime;
+    }
+
+}
@@ -0,0 +1,54 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * The rules used to group the tracked Locations in TracePools and ContinuousTraces, shared by the
+ * live tracking (LocationService) and by the import of external histories (TraceSegmenter), except
+ * TRACE_GAP that only the import needs
+ */
+public final class TrackingRules {
+
+    /**
+     * A Location closer than this (meters) to the previous one is not stored
+     */
+    public static final float SENSITIVITY = 7.0f;
+
+    /**
+     * Maximum error (meters) of the simplified traces
+     */
+    public static final float MAX_DEVIATION = 5.0f;
+
+    /**
+     * A TracePool is saved when no Location is added for this time (ms)
+     */
+    public static final long USER_TIMEOUT = 1800000L;
+
+    /**
+     * A TracePool is saved when it holds more Locations than this: 24 hours of continuous
+     * sampling in the worst case (one each 5s)
+     */
+    public static final int THRESHOLD_LOCATIONS = 17280;
+
+    /**
+     * Two imported Locations farther apart in time than this (ms) are not contiguous: the slowest
+     * sampling of the live tracking is one Location each 15s, so a longer gap means that the
+     * tracking was stopped in the meantime. Only the import applies it (see TraceSegmenter): the
+     * live tracking knows when it is stopped (see TracePool::stop()).
+     */
+    public static final long TRACE_GAP = 120000L;
+
+    /**
+     * The Locations of a stop that stay within this distance (meters) of the first one are stored
+     * as a stay (see StayPointDetector): indoors the fixes wander farther than SENSITIVITY, so
+     * without it a stop in a shop or station is stored as a cluster of noise
+     */
+    public static final float STAY_RADIUS = 50.0f;
+
+    /**
+     * Minimum duration (ms) of a stay
+     */
+    public static final long STAY_DURATION = 300000L;
+
+    private TrackingRules() {}
+
+}
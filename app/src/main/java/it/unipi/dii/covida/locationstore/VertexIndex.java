@@ -0,0 +1,246 @@
+package it.unipi.dii.covida.locationstore;
+
+
+/**
+ * A static k-d tree over the vertices of a trace, to find the vertices near a point in
+ * logarithmic time instead of scanning the whole trace.
+ * The vertices are projected on a plane tangent to the Earth at the center of their bounds
+ * (x towards east and y towards north, in meters): the distances are accurate for the area of a
+ * trace. The tree is stored as a permutation of the vertex indexes, where the median of every
+ * range [from, to) is its root, so it needs no node objects.
+ */
+public class VertexIndex {
+
+    /*
+     * Data members
+     */
+    private final double centerLatitude;
+    private final double centerLongitude;
+    private final double metersPerDegreeLongitude;
+    private final double[] x;
+    private final double[] y;
+    // the k-d tree: tree[(from + to) / 2] is the root of the range [from, to)
+    private final int[] tree;
+
+    /*
+     * Private methods
+     */
+
+    private double projectX(double longitude) {
+        return (longitude - centerLongitude) * metersPerDegreeLongitude;
+    }
+
+    private double projectY(double latitude) {
+        return (latitude - centerLatitude) * Geohash.METERS_PER_DEGREE;
+    }
+
+    private double coordinate(int vertex, boolean splitOnX) {
+        return splitOnX ? x[vertex] : y[vertex];
+    }
+
+    /**
+     * Build the subtree of [from, to): the median is moved to the middle, the smaller vertices
+     * before it and the larger ones after it (quickselect)
+     */
+    private void build(int from, int to, boolean splitOnX) {
+        if(to - from <= 1)
+            return;
+        final int median = (from + to) >>> 1;
+        int left = from, right = to - 1;
+        while(left < right) {
+            final double pivot = coordinate(tree[(left + right) >>> 1], splitOnX);
+            int i = left, j = right;
+            while(i <= j) {
+                while(coordinate(tree[i], splitOnX) < pivot) ++i;
+                while(coordinate(tree[j], splitOnX) > pivot) --j;
+                if(i <= j) {
+                    final int swap = tree[i];
+                    tree[i++] = tree[j];
+                    tree[j--] = swap;
+                }
+            }
+            if(median <= j)
+                right = j;
+            else if(median >= i)
+                left = i;
+            else
+                break;
+        }
+        build(from, median, !splitOnX);
+        build(median + 1, to, !splitOnX);
+    }
+
+    /**
+     * The k nearest vertices found so far, sorted by distance
+     */
+    private static final class Neighbors {
+        final int[] vertices;
+        final double[] squaredDistances;
+        int count;
+
+        Neighbors(int k, double maxDistance) {
+            vertices = new int[k];
+            squaredDistances = new double[k];
+            // a full list with the radius as its farthest element: farther vertices are pruned
+            squaredDistances[k - 1] = maxDistance * maxDistance;
+        }
+
+        double bound() {
+            return squaredDistances[vertices.length - 1];
+        }
+
+        void offer(int vertex, double squaredDistance) {
+            if(squaredDistance > bound())
+                return;
+            int i = Math.min(count, vertices.length - 1);
+            while(i > 0 && squaredDistances[i - 1] > squaredDistance) {
+                vertices[i] = vertices[i - 1];
+                squaredDistances[i] = squaredDistances[i - 1];
+                --i;
+            }
+            vertices[i] = vertex;
+            squaredDistances[i] = squaredDistance;
+            if(count < vertices.length)
+                ++count;
+        }
+    }
+
+    private void nearest(double px, double py, int from, int to, boolean splitOnX, Neighbors neighbors) {
+        if(from >= to)
+            return;
+        final int median = (from + to) >>> 1;
+        final int vertex = tree[median];
+        final double dx = x[vertex] - px, dy = y[vertex] - py;
+        neighbors.offer(vertex, dx * dx + dy * dy);
+        final double delta = splitOnX ? px - x[vertex] : py - y[vertex];
+        // the side of the point first, the other side only if it can be closer than the farthest neighbor
+        if(delta < 0) {
+            nearest(px, py, from, median, !splitOnX, neighbors);
+            if(delta * delta <= neighbors.bound())
+                nearest(px, py, median + 1, to, !splitOnX, neighbors);
+        } else {
+            nearest(px, py, median + 1, to, !splitOnX, neighbors);
+            if(delta * delta <= neighbors.bound())
+                nearest(px, py, from, median, !splitOnX, neighbors);
+        }
+    }
+
+    private int within(double minX, double minY, double maxX, double maxY, int from, int to, boolean splitOnX, int[] found, int count) {
+        if(from >= to || count == found.length)
+            return count;
+        final int median = (from + to) >>> 1;
+        final int vertex = tree[median];
+        final double value = coordinate(vertex, splitOnX);
+        if(x[vertex] >= minX && x[vertex] <= maxX && y[vertex] >= minY && y[vertex] <= maxY)
+            found[count++] = vertex;
+        if(value >= (splitOnX ? minX : minY))
+            count = within(minX, minY, maxX, maxY, from, median, !splitOnX, found, count);
+        if(value <= (splitOnX ? maxX : maxY))
+            count = within(minX, minY, maxX, maxY, median + 1, to, !splitOnX, found, count);
+        return count;
+    }
+
+    /*
+     * Public methods
+     */
+
+    /**
+     * Build the index of a list of vertices
+     * @param latitudes the latitudes of the vertices
+     * @param longitudes the longitudes of the vertices (as many as the latitudes)
+     */
+    public VertexIndex(double[] latitudes, double[] longitudes) {
+        if(latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("The vertices have " + latitudes.length + " latitudes and " + longitudes.length + " longitudes");
+        double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < latitudes.length; ++i) {
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+        }
+        centerLatitude = latitudes.length == 0 ? 0.0 : (minLatitude + maxLatitude) / 2;
+        centerLongitude = latitudes.length == 0 ? 0.0 : (minLongitude + maxLongitude) / 2;
+        metersPerDegreeLongitude = Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(centerLatitude));
+        x = new double[latitudes.length];
+        y = new double[latitudes.length];
+        tree = new int[latitudes.length];
+        for(int i = 0; i < latitudes.length; ++i) {
+            x[i] = projectX(longitudes[i]);
+            y[i] = projectY(latitudes[i]);
+            tree[i] = i;
+        }
+        build(0, tree.length, true);
+    }
+
+    /**
+     * Build the index of the Locations of a trace (the indexes of the vertices are the indexes
+     * of the Locations), reading the columns of the trace without creating Location objects
+     */
+    public static VertexIndex of(ContinuousTrace trace) {
+        LocationColumns columns = trace.getColumns();
+        double[] latitudes = new double[columns.size()];
+        double[] longitudes = new double[columns.size()];
+        for(int i = 0; i < latitudes.length; ++i) {
+            latitudes[i] = columns.getLatitude(i);
+            longitudes[i] = columns.getLongitude(i);
+        }
+        return new VertexIndex(latitudes, longitudes);
+    }
+
+    public int size() {
+        return tree.length;
+    }
+
+    /**
+     * Return the vertex nearest to a point
+     * @return the index of the vertex, -1 if the index is empty
+     */
+    public int nearest(double latitude, double longitude) {
+        int[] nearest = nearest(latitude, longitude, 1, Double.POSITIVE_INFINITY);
+        return nearest.length == 0 ? -1 : nearest[0];
+    }
+
+    /**
+     * Return the vertices nearest to a point
+     * @param k the maximum number of vertices
+     * @param maxDistance the maximum distance of the vertices in meters
+     * @return the indexes of the vertices, from the nearest
+     */
+    public int[] nearest(double latitude, double longitude, int k, double maxDistance) {
+        if(k <= 0 || tree.length == 0)
+            return new int[0];
+        Neighbors neighbors = new Neighbors(k, maxDistance);
+        nearest(projectX(longitude), projectY(latitude), 0, tree.length, true, neighbors);
+        int[] vertices = new int[neighbors.count];
+        System.arraycopy(neighbors.vertices, 0, vertices, 0, neighbors.count);
+        return vertices;
+    }
+
+    /**
+     * Return the vertices within a rectangle (e.g. the visible region of a map)
+     * @param limit the maximum number of vertices
+     * @return the indexes of the vertices, in no particular order
+     */
+    public int[] within(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int limit) {
+        int[] found = new int[Math.min(limit, tree.length)];
+        final int count = within(projectX(minLongitude), projectY(minLatitude), projectX(maxLongitude), projectY(maxLatitude),
+                0, tree.length, true, found, 0);
+        if(count == found.length)
+            return found;
+        int[] vertices = new int[count];
+        System.arraycopy(found, 0, vertices, 0, count);
+        return vertices;
+    }
+
+    /**
+     * Return the distance between a point and a vertex
+     * @return the distance in meters
+     */
+    public double distance(double latitude, double longitude, int vertex) {
+        final double dx = x[vertex] - projectX(longitude), dy = y[vertex] - projectY(latitude);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+}
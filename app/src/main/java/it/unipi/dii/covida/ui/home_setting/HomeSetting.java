@@ -15,8 +15,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.location.Address;
-import android.location.Geocoder;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.text.Editable;
@@ -31,23 +29,32 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
-import java.io.IOException;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import it.unipi.dii.covida.R;
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.executor.TaskScope;
+import it.unipi.dii.covida.executor.UiTask;
+import it.unipi.dii.covida.geocoding.GeocodeCache;
 
 /**
  * This Activity is responsible to show the user the menu to change his house
  */
 public class HomeSetting extends AppCompatActivity {
 
+    // a lookup still running after this time is abandoned (the user has to type again)
+    private static final long GEOCODING_TIMEOUT_SECONDS = 10;
+
     private EditText editText;
     private ListView listView;
     private List<Address> listAddress;
-    private Geocoder geocoder;
+    private GeocodeCache geocodeCache;
     private Context context;
-    private AsyncGet asyncGet;
+    private Future<List<Address>> asyncGet;
+    private TaskScope tasks;
     private Button removeCurrentHomeButton;
     private Long lastClickButton = 0L;
     private Long lastClickListItem = 0L;
@@ -57,6 +64,7 @@ public class HomeSetting extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_home_setting);
         context = this;
+        tasks = new TaskScope(this);
 
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
@@ -134,8 +142,9 @@ public class HomeSetting extends AppCompatActivity {
                     if (asyncGet != null) {
                         asyncGet.cancel(true);
                     }
-                    asyncGet = new AsyncGet();
-                    asyncGet.execute(s.toString());
+                    AppExecutors executors = AppExecutors.getInstance();
+                    asyncGet = executors.submit(executors.io(), Priority.USER_VISIBLE, new AsyncGet(s.toString()), tasks);
+                    executors.cancelAfter(asyncGet, GEOCODING_TIMEOUT_SECONDS, TimeUnit.SECONDS);
                 }
 
                 @Override
@@ -175,18 +184,23 @@ public class HomeSetting extends AppCompatActivity {
             editText.setText(savedInstanceState.getString("address_tmp"));
     }
 
-    private final class AsyncGet extends AsyncTask<String, Void, List<Address>> {
+    private final class AsyncGet extends UiTask<List<Address>> {
+
+        private final String addressString;
+
+        AsyncGet(String addressString) {
+            this.addressString = addressString;
+            geocodeCache = GeocodeCache.getInstance(getApplicationContext());
+        }
 
         @Override
-        protected List<Address> doInBackground(String... params) {
-            geocoder = new Geocoder(getApplicationContext(), Locale.getDefault());
-            String addressString = params[0];
+        public List<Address> call() {
             List<Address> list = createAddressList(addressString);
             return list;
         }
 
         @Override
-        protected void onPostExecute(final List<Address> addressList) {
+        public void onResult(final List<Address> addressList) {
             updateListView(addressList);
         }
 
@@ -194,12 +208,7 @@ public class HomeSetting extends AppCompatActivity {
 
 
     public List<Address> createAddressList(String addressString) {
-        try {
-            return geocoder.getFromLocationName(addressString, 5);
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-        return null;
+        return geocodeCache.getFromLocationName(addressString, 5);
     }
 
     public void updateListView(List<Address> addressList) {
@@ -8,7 +8,7 @@ import androidx.fragment.app.Fragment;
 
 import android.content.Context;
 import android.content.DialogInterface;
-import android.os.AsyncTask;
+import android.location.Location;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.SystemClock;
@@ -32,38 +32,57 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
-import com.google.android.gms.maps.model.PolylineOptions;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import it.unipi.dii.covida.R;
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.executor.TaskScope;
+import it.unipi.dii.covida.executor.UiTask;
 import it.unipi.dii.covida.localdb.LocationDatabaseManager;
 import it.unipi.dii.covida.locationstore.ContinuousTrace;
 import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TracePyramid;
+import it.unipi.dii.covida.locationstore.VertexIndex;
 import it.unipi.dii.covida.ui.tracks.TrackFragment;
 
 
 /**
  * This Fragment is responsible to offer the user a Google Map view to edit his sessions
  */
-public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, GoogleMap.OnPolylineClickListener, GoogleMap.OnMarkerClickListener, GoogleMap.OnMapLoadedCallback {
+public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, GoogleMap.OnPolylineClickListener, GoogleMap.OnMarkerClickListener, GoogleMap.OnMapClickListener, GoogleMap.OnMapLoadedCallback, TraceRenderer.OnLevelMissingListener {
 
     /*
      * Constants
      */
     private static final String TAG = EditOnMapFragment.class.getSimpleName();
+    // the maximum number of markers shown around a tap
+    private static final int MARKER_COUNT = 30;
 
     /*
      * Private data members
      */
     private String tracePoolId;
     private GoogleMap googleMap;
-    private List<Polyline> lines;
+    private TraceRenderer renderer;
+    private List<TracePyramid> pyramids;
     private Polyline selectedLine;
+    private int selectedIndex = -1;
+    // index in the TracePool of the trace clicked while the full resolution was loading
+    private int pendingIndex = -1;
+    private boolean loadingFullResolution = false;
+    private long drawStartTime;
+    // incremented at every draw of the TracePool in memory, to drop the levels of detail of an older version
+    private int drawGeneration = 0;
     private int status = 0;
-    private LatLng start;
-    private LatLng end;
+    // the vertices of the selected trace, to show markers only near the taps
+    private VertexIndex vertexIndex;
+    private List<LatLng> vertexPositions;
+    private final List<Marker> vertexMarkers = new ArrayList<>();
+    private int startVertex = -1;
+    private int endVertex = -1;
     private Marker markerStart;
     private Marker markerEnd;
     private TracePool tracePool;
@@ -99,6 +118,8 @@ public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, G
     }
 
     private Context context;
+    // the reads started by the view, cancelled when the view is destroyed
+    private TaskScope viewTasks;
 
     public EditOnMapFragment(String tracePoolId){
         this.tracePoolId = tracePoolId;
@@ -116,6 +137,7 @@ public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, G
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View v = inflater.inflate(R.layout.fragment_map, container, false);
+        viewTasks = new TaskScope(getViewLifecycleOwner());
         return v;
     }
 
@@ -148,40 +170,41 @@ public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, G
         this.googleMap = googleMap;
         googleMap.setOnMarkerClickListener(this);
         googleMap.setOnPolylineClickListener(this);
+        googleMap.setOnMapClickListener(this);
         googleMap.setOnMapLoadedCallback(this);
+        renderer = new TraceRenderer(googleMap, context.getColor(R.color.colorAccent), 15, this);
+        googleMap.setOnCameraIdleListener(renderer);
     }
 
-    private void zoomToFitEverythingOnMap(List<LatLng> list){
-        if(list == null || list.isEmpty()) return;
-        LatLngBounds.Builder builder = new LatLngBounds.Builder();
-        for (LatLng latLng : list)
-            builder.include(latLng);
+    private void zoomToFitEverythingOnMap(LatLngBounds latLngBounds){
+        if(latLngBounds == null) return;
         int padding = 100;
-        LatLngBounds latLngBounds = builder.build();
         try {
             final CameraUpdate cameraUpdate = CameraUpdateFactory.newLatLngBounds(latLngBounds, padding);
             googleMap.animateCamera(cameraUpdate);
         } catch(Exception e) {
             Log.d(TAG, "Detected change needing for editing the map; function moveCamera() is used");
-            googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(list.get(0), 17));
+            googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(latLngBounds.getCenter(), 17));
         }
     }
 
     @Override
     public boolean onMarkerClick(Marker marker) {
+        if(!(marker.getTag() instanceof Integer))
+            return true;
         marker.showInfoWindow();
         if (status == 0) {
             handler.removeCallbacks(markerAnimation);
             markerAnimation = new BounceAnimation(SystemClock.uptimeMillis(), 800L, marker, handler);
             handler.post(markerAnimation);
             marker.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN));
-            start = marker.getPosition();
+            startVertex = (Integer) marker.getTag();
             markerStart = marker;
             status = 1;
             Log.d(TAG, "status: " + status);
         } else {
             marker.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED));
-            end = marker.getPosition();
+            endVertex = (Integer) marker.getTag();
             markerEnd = marker;
             showDialog();
             status = 0;
@@ -191,32 +214,99 @@ public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, G
 
     @Override
     public void onPolylineClick(Polyline polyline) {
-        List<LatLng> list = polyline.getPoints();
-        for (LatLng latLng : list)
-            googleMap.addMarker(new MarkerOptions().position(latLng)
-                     .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE)));
-        for(Polyline p : lines)
-            p.setClickable(false);
-        selectedLine = polyline;
+        int index = renderer.indexOf(polyline);
+        if(index == -1)
+            return;
+        if(tracePool == null) {
+            // the Locations at full resolution are needed to edit the trace
+            pendingIndex = index;
+            loadFullResolution();
+            return;
+        }
+        startEditing(index);
+    }
+
+    @Override
+    public void onLevelMissing(int level) {
+        loadFullResolution();
+    }
+
+    /**
+     * Draw a trace at full resolution with a marker on its first and last Location: the markers
+     * of the other Locations are shown around the taps on the map
+     * @param index the index of the trace in the TracePool
+     */
+    private void startEditing(int index) {
+        selectedIndex = index;
+        selectedLine = renderer.pin(index);
+        renderer.setClickable(false);
+        ContinuousTrace trace = tracePool.getTraces().get(index);
+        vertexIndex = VertexIndex.of(trace);
+        // not selectedLine.getPoints(): it copies all the points at every call
+        vertexPositions = trace.getLatLngs();
+        addVertexMarker(0);
+        if(trace.getLocationCount() > 1)
+            addVertexMarker(trace.getLocationCount() - 1);
+    }
+
+    private void addVertexMarker(int vertex) {
+        Marker marker = googleMap.addMarker(new MarkerOptions().position(vertexPositions.get(vertex))
+                .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE)));
+        marker.setTag(vertex);
+        vertexMarkers.add(marker);
     }
 
-    private List<LatLng> getSubList(Polyline line, LatLng start, LatLng end){
-        List<LatLng> list = line.getPoints();
-        List<LatLng> toDelete;
-        int s = list.indexOf(start);
-        int e = list.indexOf(end);
+    /**
+     * Snap a tap to the nearest Location of the trace being edited and show the markers of the
+     * Locations around it (at most MARKER_COUNT, within a quarter of the visible region)
+     */
+    @Override
+    public void onMapClick(LatLng latLng) {
+        if(vertexIndex == null || vertexIndex.size() == 0)
+            return;
+        LatLngBounds visible = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        float[] diagonal = new float[1];
+        Location.distanceBetween(visible.southwest.latitude, visible.southwest.longitude,
+                visible.northeast.latitude, visible.northeast.longitude, diagonal);
+        final int snapped = vertexIndex.nearest(latLng.latitude, latLng.longitude);
+        LatLng center = vertexPositions.get(snapped);
+        int[] vertices = vertexIndex.nearest(center.latitude, center.longitude, MARKER_COUNT, diagonal[0] / 4);
+
+        // the markers of the previous tap are replaced (the start of the range is kept)
+        for(Marker marker : vertexMarkers) {
+            if(status == 0 || marker != markerStart)
+                marker.remove();
+        }
+        vertexMarkers.clear();
+        if(status == 1)
+            vertexMarkers.add(markerStart);
+        for(int vertex : vertices) {
+            if((status == 0 || vertex != startVertex) && (vertex == snapped || visible.contains(vertexPositions.get(vertex))))
+                addVertexMarker(vertex);
+        }
+    }
+
+    private void loadFullResolution() {
+        if(tracePool != null || loadingFullResolution)
+            return;
+        loadingFullResolution = true;
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbRead(), Priority.USER_VISIBLE,
+                new LoadFullResolution(tracePoolId), viewTasks);
+    }
+
+    /**
+     * Return the range [from, to) of the indexes of the points between two markers of a line
+     * @return the range as {from, to}, null if a marker is not on the line
+     */
+    private int[] getRange(int s, int e){
+        if(s == -1 || e == -1)
+            return null;
         if(e <= s){
             int tmp = e;
             e = s;
             s = tmp;
         }
-        /*if(s == 0)
-            s = s - 1;
-        if(e == list.size() - 1)
-            e = e + 1;
-        toDelete = list.subList(s + 1, e);*/
-        toDelete = list.subList(s,e);
-        return toDelete;
+        return new int[]{s, e};
     }
 
     private void showDialog(){
@@ -243,75 +333,194 @@ public class EditOnMapFragment extends Fragment implements OnMapReadyCallback, G
     }
 
     private void deletePartOfTrack(){
-        List<LatLng> listOfPointToDelete;
-        if(start.equals(end)) {
-            listOfPointToDelete = new LinkedList<>();
-            listOfPointToDelete.add(start);
-        } else {
-            listOfPointToDelete = getSubList(selectedLine, start, end);
-            if (listOfPointToDelete.isEmpty()) {
-                status = 0;
-                markerStart.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
-                markerEnd.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
-                return;
-            }
+        int traceIndex = selectedIndex;
+        int[] range = traceIndex == -1 ? null : getRange(startVertex, endVertex);
+        if(range != null && startVertex == endVertex)
+            range[1] = range[0] + 1;
+        if (range == null || range[0] == range[1]) {
+            status = 0;
+            markerStart.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
+            markerEnd.setIcon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
+            return;
         }
 
-        LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
-        tracePool.removeLocations(listOfPointToDelete);
-        locationDatabaseManager.deleteTracePoolById(tracePoolId);
-        if(tracePool.getTraces() != null && !tracePool.getTraces().isEmpty()) {
-            locationDatabaseManager.addTracePool(tracePool);
-        }
-        TrackFragment parentFrag = ((TrackFragment)this.getParentFragment());
-        parentFrag.refreshListView();
+        tracePool.removeLocations(traceIndex, range[0], range[1]);
+        // the edit is saved even if the map is closed meanwhile: the list is refreshed only if it is still shown
+        final TrackFragment parentFrag = ((TrackFragment)this.getParentFragment());
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbWrite(), Priority.USER_VISIBLE,
+                new ReplaceTracePool(LocationDatabaseManager.getInstance(context), tracePool.copy(), parentFrag), null);
 
         drawAll();
-
-        for(Polyline p : lines)
-            p.setClickable(true);
     }
 
+    /**
+     * Draw again all the traces of the TracePool loaded at full resolution (after an edit)
+     */
     private void drawAll() {
         selectedLine = null;
+        selectedIndex = -1;
+        vertexIndex = null;
+        vertexPositions = null;
+        vertexMarkers.clear();
+        renderer.clear();
         googleMap.clear();
-        LinkedList<LatLng> allLatLngs = new LinkedList<>();
-        lines = new LinkedList<>();
-        for(ContinuousTrace continuousTrace : tracePool.getTraces()){
-            List<LatLng> tmp = continuousTrace.getLatLngs();
-            allLatLngs.addAll(tmp);
-            Polyline line = googleMap.addPolyline(new PolylineOptions()
-                    .clickable(true)
-                    .color(context.getColor(R.color.colorAccent))
-                    .width(15)
-                    .addAll(tmp));
-            lines.add(line);
-        }
-        zoomToFitEverythingOnMap(allLatLngs);
+        pyramids = null;
+        drawStartTime = SystemClock.elapsedRealtime();
+        // the levels of detail are computed on a copy, the edits go on meanwhile on the UI thread
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbRead(), Priority.USER_VISIBLE,
+                new BuildPyramids(tracePool.copy(), ++drawGeneration), viewTasks);
     }
 
     @Override
     public void onMapLoaded() {
         if(googleMap == null) return;
-        AsyncDraw asyncDraw = new AsyncDraw();
-        asyncDraw.execute(tracePoolId);
+        drawStartTime = SystemClock.elapsedRealtime();
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbRead(), Priority.USER_VISIBLE,
+                new Draw(tracePoolId), viewTasks);
     }
 
 
-    private final class AsyncDraw extends AsyncTask<String, Void, TracePool> {
+    /**
+     * Load the levels of detail of the traces (the full resolution is loaded on demand)
+     */
+    private final class Draw extends UiTask<List<TracePyramid>> {
+
+        private final String tracePoolId;
+        private final LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
+
+        Draw(String tracePoolId) {
+            this.tracePoolId = tracePoolId;
+        }
 
         @Override
-        protected TracePool doInBackground(String... params) {
-            String tracePoolId = params[0];
-            LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
-            tracePool = locationDatabaseManager.getTracePoolById(tracePoolId);
-            return tracePool;
+        public List<TracePyramid> call() {
+            return locationDatabaseManager.getTracePyramids(tracePoolId, 1);
         }
 
         @Override
-        protected void onPostExecute(final TracePool tracePool_) {
+        public void onResult(final List<TracePyramid> pyramids_) {
+            // the TracePool in memory is already drawn
+            if(pyramids_ == null || drawGeneration != 0) return;
+            pyramids = pyramids_;
+            renderer.setTraces(pyramids);
+            zoomToFitEverythingOnMap(renderer.getBounds());
+            Log.d(TAG, "Time to first draw: " + (SystemClock.elapsedRealtime() - drawStartTime) + " ms");
+        }
+    }
+
+    /**
+     * Compute the levels of detail of the traces of a TracePool edited in memory
+     */
+    private final class BuildPyramids extends UiTask<List<TracePyramid>> {
+
+        private final TracePool tracePool;
+        private final int generation;
+
+        BuildPyramids(TracePool tracePool, int generation) {
+            this.tracePool = tracePool;
+            this.generation = generation;
+        }
+
+        @Override
+        public List<TracePyramid> call() {
+            List<TracePyramid> pyramids = new ArrayList<>();
+            List<ContinuousTrace> traces = tracePool.getTraces();
+            for(int i = 0; i < traces.size(); ++i) {
+                if(!traces.get(i).isEmpty())
+                    pyramids.add(TracePyramid.build(traces.get(i), i));
+            }
+            return pyramids;
+        }
+
+        @Override
+        public void onResult(final List<TracePyramid> pyramids_) {
+            // a later edit has already started another draw
+            if(pyramids_ == null || generation != drawGeneration) return;
+            pyramids = pyramids_;
+            renderer.setTraces(pyramids);
+            renderer.setClickable(true);
+            zoomToFitEverythingOnMap(renderer.getBounds());
+            Log.d(TAG, "Time to draw after an edit: " + (SystemClock.elapsedRealtime() - drawStartTime) + " ms");
+            // a trace clicked while the full resolution was loading, now that it is drawn
+            if(pendingIndex != -1 && pendingIndex < tracePool.getTraces().size())
+                startEditing(pendingIndex);
+            pendingIndex = -1;
+        }
+    }
+
+    private final class LoadFullResolution extends UiTask<TracePool> {
+
+        private final String tracePoolId;
+        private final LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
+
+        LoadFullResolution(String tracePoolId) {
+            this.tracePoolId = tracePoolId;
+        }
+
+        @Override
+        public TracePool call() {
+            return locationDatabaseManager.getTracePoolById(tracePoolId);
+        }
+
+        @Override
+        public void onResult(final TracePool tracePool_) {
+            loadingFullResolution = false;
+            if(tracePool_ == null) return;
             tracePool = tracePool_;
-            drawAll();
+            List<ContinuousTrace> traces = tracePool.getTraces();
+            if(pyramids == null || !matches(pyramids, traces)) {
+                // the pending edit starts once the traces are drawn again (see BuildPyramids)
+                drawAll();
+                return;
+            }
+            for(TracePyramid pyramid : pyramids)
+                pyramid.setFullResolution(traces.get(pyramid.getTraceIndex()));
+            renderer.update();
+            if(pendingIndex != -1 && pendingIndex < traces.size())
+                startEditing(pendingIndex);
+            pendingIndex = -1;
+        }
+
+        /**
+         * Return true if the levels of detail drawn are those of the non-empty traces loaded
+         */
+        private boolean matches(List<TracePyramid> pyramids, List<ContinuousTrace> traces) {
+            int position = 0;
+            for(int i = 0; i < traces.size(); ++i) {
+                if(traces.get(i).isEmpty())
+                    continue;
+                if(position == pyramids.size() || pyramids.get(position).getTraceIndex() != i)
+                    return false;
+                ++position;
+            }
+            return position == pyramids.size();
+        }
+    }
+
+    /**
+     * Save an edited TracePool, then refresh the list of the tracks
+     */
+    private static final class ReplaceTracePool extends UiTask<Boolean> {
+
+        private final LocationDatabaseManager locationDatabaseManager;
+        private final TracePool tracePool;
+        private final TrackFragment parentFrag;
+
+        ReplaceTracePool(LocationDatabaseManager locationDatabaseManager, TracePool tracePool, TrackFragment parentFrag) {
+            this.locationDatabaseManager = locationDatabaseManager;
+            this.tracePool = tracePool;
+            this.parentFrag = parentFrag;
+        }
+
+        @Override
+        public Boolean call() {
+            return locationDatabaseManager.replaceTracePool(tracePool);
+        }
+
+        @Override
+        public void onResult(Boolean replaced) {
+            if(parentFrag != null)
+                parentFrag.refreshListView();
         }
     }
 
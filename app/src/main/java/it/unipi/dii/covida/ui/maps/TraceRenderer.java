@@ -0,0 +1,233 @@
+package it.unipi.dii.covida.ui.maps;
+
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unipi.dii.covida.locationstore.TracePyramid;
+
+
+/**
+ * Draws the traces of a TracePool on a GoogleMap using their levels of detail.
+ * Every time the camera stops the level is chosen from the zoom, and the traces outside the
+ * visible region are hidden (their polylines are created only when they become visible).
+ * A trace can be pinned at full resolution, for example while it is edited.
+ * The traces are identified by their index in the TracePool (see TracePyramid.getTraceIndex()).
+ */
+class TraceRenderer implements GoogleMap.OnCameraIdleListener {
+
+    /*
+     * Constants
+     */
+    private static final String TAG = TraceRenderer.class.getSimpleName();
+    // meters per pixel at zoom 0 on the equator (256 pixels for 40075 km)
+    private static final double EQUATOR_METERS_PER_PIXEL = 156543.03392;
+
+    /*
+     * Interfaces
+     */
+
+    /**
+     * Receives the requests of levels that are not loaded (level 0, when the user zooms in)
+     */
+    interface OnLevelMissingListener {
+        void onLevelMissing(int level);
+    }
+
+    /*
+     * Private data members
+     */
+    private final GoogleMap googleMap;
+    private final int color;
+    private final float width;
+    private final OnLevelMissingListener listener;
+    private List<TracePyramid> pyramids = new ArrayList<>();
+    private List<Polyline> lines = new ArrayList<>();
+    private int[] drawnLevels = new int[0];
+    // the position in pyramids of the trace pinned
+    private int pinned = -1;
+    private boolean clickable = true;
+
+    /*
+     * Private methods
+     */
+
+    private static boolean intersects(LatLngBounds a, LatLngBounds b) {
+        return a.southwest.latitude <= b.northeast.latitude && b.southwest.latitude <= a.northeast.latitude
+                && a.southwest.longitude <= b.northeast.longitude && b.southwest.longitude <= a.northeast.longitude;
+    }
+
+    /**
+     * Return the finest loaded level not finer than the wanted one, or a coarser one if none
+     */
+    private static int availableLevel(TracePyramid pyramid, int wanted) {
+        for(int level = wanted; level < TracePyramid.LEVELS; ++level) {
+            if(pyramid.hasLevel(level))
+                return level;
+        }
+        for(int level = wanted - 1; level >= 0; --level) {
+            if(pyramid.hasLevel(level))
+                return level;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the position in pyramids of the trace with the given index in the TracePool, -1 if
+     * it is not drawn
+     */
+    private int positionOf(int traceIndex) {
+        for(int i = 0; i < pyramids.size(); ++i) {
+            if(pyramids.get(i).getTraceIndex() == traceIndex)
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Package methods
+     */
+
+    TraceRenderer(GoogleMap googleMap, int color, float width, OnLevelMissingListener listener) {
+        this.googleMap = googleMap;
+        this.color = color;
+        this.width = width;
+        this.listener = listener;
+    }
+
+    /**
+     * Replace the traces drawn
+     * @param pyramids the levels of detail of the non-empty traces, in the order of the TracePool
+     */
+    void setTraces(List<TracePyramid> pyramids) {
+        clear();
+        this.pyramids = pyramids;
+        lines = new ArrayList<>(pyramids.size());
+        for(int i = 0; i < pyramids.size(); ++i)
+            lines.add(null);
+        drawnLevels = new int[pyramids.size()];
+        pinned = -1;
+        update();
+    }
+
+    /**
+     * Remove all the polylines from the map
+     */
+    void clear() {
+        for(Polyline line : lines) {
+            if(line != null)
+                line.remove();
+        }
+        lines = new ArrayList<>();
+        pyramids = new ArrayList<>();
+        drawnLevels = new int[0];
+    }
+
+    /**
+     * Return the bounding box of all the traces
+     * @return the bounding box, null if there are no traces
+     */
+    LatLngBounds getBounds() {
+        LatLngBounds.Builder builder = null;
+        for(TracePyramid pyramid : pyramids) {
+            if(builder == null)
+                builder = LatLngBounds.builder();
+            builder.include(pyramid.getBounds().southwest);
+            builder.include(pyramid.getBounds().northeast);
+        }
+        return builder == null ? null : builder.build();
+    }
+
+    /**
+     * Return the index of the trace drawn by a polyline
+     * @param polyline the polyline
+     * @return the index of the trace in the TracePool, -1 if the polyline is not drawn by this renderer
+     */
+    int indexOf(Polyline polyline) {
+        final int position = lines.indexOf(polyline);
+        return position == -1 ? -1 : pyramids.get(position).getTraceIndex();
+    }
+
+    /**
+     * Draw a trace at full resolution whatever the zoom (level 0 must be loaded), or release the
+     * trace pinned before
+     * @param index the index of the trace in the TracePool, -1 to release it
+     * @return the polyline of the trace, null if index is -1 or the trace is not drawn
+     */
+    Polyline pin(int index) {
+        pinned = index == -1 ? -1 : positionOf(index);
+        update();
+        return pinned == -1 ? null : lines.get(pinned);
+    }
+
+    /**
+     * Enable or disable the clicks on all the polylines
+     */
+    void setClickable(boolean clickable) {
+        this.clickable = clickable;
+        for(Polyline line : lines) {
+            if(line != null)
+                line.setClickable(clickable);
+        }
+    }
+
+    /**
+     * Draw the traces visible in the current camera position at the level of the current zoom
+     */
+    void update() {
+        if(pyramids.isEmpty())
+            return;
+        CameraPosition camera = googleMap.getCameraPosition();
+        LatLngBounds visible = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        double metersPerPixel = EQUATOR_METERS_PER_PIXEL * Math.cos(Math.toRadians(camera.target.latitude)) / Math.pow(2.0, camera.zoom);
+        int wanted = TracePyramid.levelFor(metersPerPixel);
+
+        boolean missing = false;
+        int drawnPoints = 0;
+        for(int i = 0; i < pyramids.size(); ++i) {
+            TracePyramid pyramid = pyramids.get(i);
+            Polyline line = lines.get(i);
+            boolean inside = i == pinned || intersects(visible, pyramid.getBounds());
+            if(!inside) {
+                if(line != null)
+                    line.setVisible(false);
+                continue;
+            }
+            int level = availableLevel(pyramid, i == pinned ? 0 : wanted);
+            if(level == -1)
+                continue;
+            missing |= level > wanted;
+            drawnPoints += pyramid.getLevel(level).size();
+            if(line == null) {
+                line = googleMap.addPolyline(new PolylineOptions()
+                        .clickable(clickable)
+                        .color(color)
+                        .width(width)
+                        .addAll(pyramid.getLatLngs(level)));
+                lines.set(i, line);
+            } else {
+                // the points are converted only when the level changes
+                if(drawnLevels[i] != level)
+                    line.setPoints(pyramid.getLatLngs(level));
+                line.setVisible(true);
+            }
+            drawnLevels[i] = level;
+        }
+        Log.d(TAG, "update(): level " + wanted + ", " + drawnPoints + " points drawn");
+        if(missing && listener != null)
+            listener.onLevelMissing(wanted);
+    }
+
+    @Override
+    public void onCameraIdle() {
+        update();
+    }
+
+}
@@ -0,0 +1,154 @@
+package it.unipi.dii.covida.ui.tracks;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.cardview.widget.CardView;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+import it.unipi.dii.covida.R;
+
+
+/**
+ * The adapter of the list of the tracks shown by TrackFragment: the cards are recycled while
+ * scrolling, and a new list is compared with the current one (off the main thread) so only the
+ * tracks added, removed or changed are bound again.
+ */
+public class TrackAdapter extends ListAdapter<Track, TrackAdapter.ViewHolder> {
+
+    /*
+     * Constants
+     */
+    // payload of the rebinding of a card that has only changed position (see onCurrentListChanged())
+    private static final Object PAYLOAD_STRIPE = new Object();
+    private static final int EVEN_COLOR = Color.parseColor("#f5f5f5");
+    private static final int ODD_COLOR = Color.parseColor("#FFFFFF");
+
+    private static final DiffUtil.ItemCallback<Track> DIFF_CALLBACK = new DiffUtil.ItemCallback<Track>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Track oldTrack, @NonNull Track newTrack) {
+            return oldTrack.getTracePoolId().equals(newTrack.getTracePoolId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Track oldTrack, @NonNull Track newTrack) {
+            return oldTrack.getTime().equals(newTrack.getTime())
+                    && oldTrack.getDistance().equals(newTrack.getDistance())
+                    && oldTrack.getFromTo().equals(newTrack.getFromTo())
+                    && oldTrack.getDate().equals(newTrack.getDate());
+        }
+    };
+
+    /*
+     * Data members
+     */
+    private final OnTrackClickListener listener;
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * The listener of the clicks on the cards
+     */
+    public interface OnTrackClickListener {
+        void onTrackClick(Track track);
+        void onTrackLongClick(Track track);
+    }
+
+    final class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
+        private final CardView cardView;
+        private final TextView time;
+        private final TextView distance;
+        private final TextView fromTo;
+        private final TextView date;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            cardView = itemView.findViewById(R.id.cardView);
+            time = itemView.findViewById(R.id.time);
+            distance = itemView.findViewById(R.id.distance);
+            fromTo = itemView.findViewById(R.id.fromTo);
+            date = itemView.findViewById(R.id.dateTrack);
+            itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
+        }
+
+        void bind(Track track, int position) {
+            time.setText(track.getTime());
+            distance.setText(track.getDistance());
+            fromTo.setText(track.getFromTo());
+            date.setText(track.getDate());
+            bindStripe(position);
+        }
+
+        void bindStripe(int position) {
+            cardView.setBackgroundColor(position % 2 == 1 ? ODD_COLOR : EVEN_COLOR);
+        }
+
+        @Override
+        public void onClick(View view) {
+            final int position = getAdapterPosition();
+            if(position != RecyclerView.NO_POSITION)
+                listener.onTrackClick(getItem(position));
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            final int position = getAdapterPosition();
+            if(position != RecyclerView.NO_POSITION)
+                listener.onTrackLongClick(getItem(position));
+            return true;
+        }
+    }
+
+    /*
+     * Public methods
+     */
+
+    public TrackAdapter(OnTrackClickListener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.track_card, parent, false);
+        return new ViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bind(getItem(position), position);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if(payloads.contains(PAYLOAD_STRIPE) && payloads.size() == 1)
+            holder.bindStripe(position);
+        else
+            onBindViewHolder(holder, position);
+    }
+
+    /**
+     * The cards moved by an insertion or a removal keep their content but can change stripe:
+     * only their background is bound again (an appended page moves nothing)
+     */
+    @Override
+    public void onCurrentListChanged(@NonNull List<Track> previousList, @NonNull List<Track> currentList) {
+        final boolean appended = currentList.size() >= previousList.size()
+                && currentList.subList(0, previousList.size()).equals(previousList);
+        if(!appended)
+            notifyItemRangeChanged(0, currentList.size(), PAYLOAD_STRIPE);
+    }
+
+}
@@ -1,64 +1,81 @@
 package it.unipi.dii.covida.ui.tracks;
 
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.graphics.Color;
-import android.location.Address;
-import android.location.Geocoder;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
 import android.widget.ProgressBar;
-import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.cardview.widget.CardView;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentTransaction;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProviders;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import it.unipi.dii.covida.R;
+import it.unipi.dii.covida.executor.AppExecutors;
+import it.unipi.dii.covida.executor.Priority;
+import it.unipi.dii.covida.executor.TaskScope;
+import it.unipi.dii.covida.executor.UiTask;
+import it.unipi.dii.covida.geocoding.GeocodeCache;
 import it.unipi.dii.covida.localdb.LocationDatabaseManager;
-import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.localdb.TracePoolSummary;
 import it.unipi.dii.covida.ui.maps.EditOnMapFragment;
 
 
 /**
  * This fragment is the fragment responsible to show the list of track (TracePool) stored on the DB.
  * It is used by the MainActivity.
+ * The tracks are shown from the most recent and are read one page at a time: the next page of
+ * older tracks is read when the user scrolls near the end of the list.
  */
-public class TrackFragment extends Fragment {
+public class TrackFragment extends Fragment implements TrackAdapter.OnTrackClickListener {
 
     /*
      * Constants
      */
     private static final String TAG = TrackFragment.class.getSimpleName();
+    private static final int PAGE_SIZE = 30;
+    // the next page is read when one of the last PREFETCH_DISTANCE tracks becomes visible
+    private static final int PREFETCH_DISTANCE = 10;
 
     /*
      * Private data members
      */
-    private ArrayAdapter adapter;
-    private ListView listView;
+    private TrackAdapter adapter;
+    private RecyclerView recyclerView;
+    private LinearLayoutManager layoutManager;
     private View root;
     private Long LastClickTimeFast = 0L;
     private Long LastClickTimeLong = 0L;
+    // the reads started by the view, cancelled when the view is destroyed
+    private TaskScope viewTasks;
+    // the tracks shown (never changed after being submitted to the adapter)
+    private List<Track> tracks = new ArrayList<>();
+    // the last summary read, where the next page starts
+    private TracePoolSummary lastSummary;
+    private boolean loading;
+    private boolean endReached;
+    // incremented by every refresh: the pages read before it are discarded
+    private int generation;
 
 
 
@@ -67,14 +84,22 @@ public class TrackFragment extends Fragment {
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         Log.d(TAG, "onCreateView");
 
-        AsyncGetFromDb asyncGetFromDb = new AsyncGetFromDb();
-
         TrackViewModel trackViewModel = ViewModelProviders.of(this).get(TrackViewModel.class);
         root = inflater.inflate(R.layout.fragment_track, container, false);
         root.setClickable(true);
 
-        listView = root.findViewById(R.id.fragment_list_view);
-        listView.setDivider(null);
+        adapter = new TrackAdapter(this);
+        layoutManager = new LinearLayoutManager(getContext());
+        recyclerView = root.findViewById(R.id.fragment_list_view);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if(dy > 0)
+                    loadMoreIfNeeded();
+            }
+        });
         trackViewModel.getText().observe(getViewLifecycleOwner(), new Observer<String>() {
             @Override
             public void onChanged(@Nullable String s) {
@@ -82,176 +107,301 @@ public class TrackFragment extends Fragment {
             }
         });
 
-        asyncGetFromDb.execute();
+        viewTasks = new TaskScope(getViewLifecycleOwner());
+        tracks = new ArrayList<>();
+        lastSummary = null;
+        endReached = false;
+        refreshListView();
 
         return root;
     }
 
     /**
-     * This function is needed to let the execution of the AsyncTask from other classes (EditOnMapFragment)
+     * This function is needed to let the execution of the GetPage task from other classes (EditOnMapFragment).
+     * The tracks already shown are read again (in one page), so the position of the list is kept.
      */
     public void refreshListView() {
-        AsyncGetFromDb asyncGetFromDb = new AsyncGetFromDb();
-        asyncGetFromDb.execute();
+        if(viewTasks == null)
+            return;
+        ++generation;
+        loading = true;
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbRead(), Priority.USER_VISIBLE,
+                new GetPage(getContext().getApplicationContext(), null, Math.max(PAGE_SIZE, tracks.size()), generation), viewTasks);
     }
 
-    private void updateListView(final List<Track> tracks) {
-        if(adapter != null ) adapter.clear();
-        adapter = new ArrayAdapter<Track>(getContext(), R.layout.track_card, tracks){
-            @Override
-            public View getView(int position, View convertView, ViewGroup parent){
-                // Get the view
-                LayoutInflater inflater = getLayoutInflater();
-                View itemView = inflater.inflate(R.layout.track_card,null,true);
-
-                // Get current package name
-                Track t = tracks.get(position);
-
-                TextView time = itemView.findViewById(R.id.time);
-                TextView distance = itemView.findViewById(R.id.distance);
-                TextView fromTo = itemView.findViewById(R.id.fromTo);
-                TextView date = itemView.findViewById(R.id.dateTrack);
-                time.setText(t.getTime());
-                distance.setText(t.getDistance());
-                fromTo.setText(t.getFromTo());
-                date.setText(t.getDate());
-                CardView cardView = itemView.findViewById(R.id.cardView);
-                if (position % 2 == 1) {
-                    cardView.setBackgroundColor(Color.parseColor("#FFFFFF"));
-                } else {
-                    cardView.setBackgroundColor(Color.parseColor("#f5f5f5"));
-                }
-                return itemView;
-            }
-        };
-        listView.setAdapter(adapter);
+    /**
+     * Read the next page of older tracks if the end of the list is (nearly) visible
+     */
+    private void loadMoreIfNeeded() {
+        if(loading || endReached || viewTasks == null)
+            return;
+        if(layoutManager.findLastVisibleItemPosition() < adapter.getItemCount() - PREFETCH_DISTANCE)
+            return;
+        loading = true;
+        AppExecutors.getInstance().submit(AppExecutors.getInstance().dbRead(), Priority.USER_VISIBLE,
+                new GetPage(getContext().getApplicationContext(), lastSummary, PAGE_SIZE, generation), viewTasks);
+    }
 
-        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+    private void updateListView(List<Track> tracks) {
+        this.tracks = tracks;
+        // the list is compared with the previous one off the main thread, then the next page is
+        // read if the list does not fill the screen yet
+        adapter.submitList(tracks, new Runnable() {
             @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View view, final int positionToRemove, long id) {
-                if (SystemClock.elapsedRealtime() - LastClickTimeLong < 1000) {
-                    return true;
-                }
-                LastClickTimeLong = SystemClock.elapsedRealtime();
-
-                if(getChildFragmentManager().findFragmentByTag("mapfragment") != null){
-                    return true;
-                }
-                AlertDialog.Builder alertDialog=new AlertDialog.Builder(getContext());
-                alertDialog.setTitle("Delete?");
-                alertDialog.setMessage("Are you sure you want to delete this element ?");
-                alertDialog.setNegativeButton("Cancel", null);
-                alertDialog.setPositiveButton("Ok", new AlertDialog.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int which) {
-                        Track track = tracks.get(positionToRemove);
-                        tracks.remove(positionToRemove);
-                        adapter.notifyDataSetChanged();
-                        // delete also on DB
-                        LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(getContext());
-                        locationDatabaseManager.deleteTracePoolById(track.getTracePoolId());
-                    }});
-                alertDialog.show();
-                return true;
+            public void run() {
+                loadMoreIfNeeded();
             }
         });
+    }
 
-        // Set an item click listener for list view
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                LastClickTimeLong = SystemClock.elapsedRealtime();
-                if (SystemClock.elapsedRealtime() - LastClickTimeFast < 1000) {
-                    return;
-                }
-                LastClickTimeFast = SystemClock.elapsedRealtime();
-                LastClickTimeLong = SystemClock.elapsedRealtime();
-
-                if(getChildFragmentManager().findFragmentByTag("mapfragment") != null){
-                    return;
-                }
-
-                String tracePoolId = tracks.get(i).getTracePoolId();
-                FragmentManager fragmentManager = getChildFragmentManager();
-                FragmentTransaction transaction = fragmentManager.beginTransaction();
-                EditOnMapFragment editOnMapFragment = new EditOnMapFragment(tracePoolId);
-                transaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN);
-
-                transaction.replace(R.id.relativeLayoutTrackList, editOnMapFragment, "mapfragment");
-                transaction.addToBackStack(null);
-                transaction.commit();
-            }
-        });
+    @Override
+    public void onTrackLongClick(final Track track) {
+        if (SystemClock.elapsedRealtime() - LastClickTimeLong < 1000) {
+            return;
+        }
+        LastClickTimeLong = SystemClock.elapsedRealtime();
+
+        if(getChildFragmentManager().findFragmentByTag("mapfragment") != null){
+            return;
+        }
+        AlertDialog.Builder alertDialog=new AlertDialog.Builder(getContext());
+        alertDialog.setTitle("Delete?");
+        alertDialog.setMessage("Are you sure you want to delete this element ?");
+        alertDialog.setNegativeButton("Cancel", null);
+        alertDialog.setPositiveButton("Ok", new AlertDialog.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                List<Track> remaining = new ArrayList<>(tracks);
+                remaining.remove(track);
+                updateListView(remaining);
+                // delete also on DB (not bound to the view: the delete must complete)
+                final LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(getContext());
+                final String tracePoolId = track.getTracePoolId();
+                AppExecutors.getInstance().dbWrite().submit(Priority.USER_VISIBLE, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return locationDatabaseManager.deleteTracePoolById(tracePoolId);
+                    }
+                });
+            }});
+        alertDialog.show();
+    }
+
+    @Override
+    public void onTrackClick(Track track) {
+        LastClickTimeLong = SystemClock.elapsedRealtime();
+        if (SystemClock.elapsedRealtime() - LastClickTimeFast < 1000) {
+            return;
+        }
+        LastClickTimeFast = SystemClock.elapsedRealtime();
+        LastClickTimeLong = SystemClock.elapsedRealtime();
+
+        if(getChildFragmentManager().findFragmentByTag("mapfragment") != null){
+            return;
+        }
+
+        String tracePoolId = track.getTracePoolId();
+        FragmentManager fragmentManager = getChildFragmentManager();
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        EditOnMapFragment editOnMapFragment = new EditOnMapFragment(tracePoolId);
+        transaction.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN);
+
+        transaction.replace(R.id.relativeLayoutTrackList, editOnMapFragment, "mapfragment");
+        transaction.addToBackStack(null);
+        transaction.commit();
     }
 
 
     /**
-     * This class extends AsyncTask to retrieve data from the DB asynchronously
+     * A page of tracks read by GetPage
      */
-    private final class AsyncGetFromDb extends AsyncTask<Void, Void, List<Track>> {
+    private static final class Page {
+        final List<Track> tracks = new ArrayList<>();
+        // the summaries whose localities have never been resolved
+        final List<TracePoolSummary> unresolved = new ArrayList<>();
+        TracePoolSummary last;
+        boolean end;
+    }
+
+    /**
+     * The localities resolved for a track by ResolveLocalities (null if still unknown)
+     */
+    private static final class Localities {
+        final String tracePoolId;
+        final String from;
+        final String to;
+
+        Localities(String tracePoolId, String from, String to) {
+            this.tracePoolId = tracePoolId;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static String formatFromTo(String from, String to) {
+        return String.format("From %s\nTo %s", from != null ? from : "Unknown", to != null ? to : "Unknown");
+    }
+
+    /**
+     * Replace the tracks whose localities have been resolved (the adapter redraws only their rows)
+     */
+    private void updateLocalities(List<Localities> resolved) {
+        Map<String, Localities> byId = new HashMap<>();
+        for(Localities localities : resolved)
+            byId.put(localities.tracePoolId, localities);
+        List<Track> updated = new ArrayList<>(tracks.size());
+        for(Track track : tracks) {
+            Localities localities = byId.get(track.getTracePoolId());
+            updated.add(localities == null ? track : new Track(track.getTracePoolId(), track.getTime(), track.getDistance(),
+                    formatFromTo(localities.from, localities.to), track.getDate()));
+        }
+        updateListView(updated);
+    }
+
+    /**
+     * This class extends UiTask to retrieve a page of tracks from the DB asynchronously
+     */
+    private final class GetPage extends UiTask<Page> {
+
+        private final Context context;
+        private final TracePoolSummary before;
+        private final int limit;
+        private final int pageGeneration;
+
+        /**
+         * @param before the last summary already shown, null to read again from the most recent
+         */
+        GetPage(Context context, TracePoolSummary before, int limit, int pageGeneration) {
+            this.context = context;
+            this.before = before;
+            this.limit = limit;
+            this.pageGeneration = pageGeneration;
+        }
 
         @Override
-        protected List<Track> doInBackground(Void... params) {
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            return createTrackList();
+        public Page call() {
+            return createPage();
         }
 
         @Override
-        protected void onPostExecute(final List<Track> tracks) {
+        public void onResult(final Page page) {
+            if(pageGeneration != generation)
+                return; // a refresh has started meanwhile
+            loading = false;
             ProgressBar progressBar = root.findViewById(R.id.progressBar);
             progressBar.setVisibility(View.GONE);
-            updateListView(tracks);
+            endReached = page.end;
+            if(page.last != null || before == null)
+                lastSummary = page.last;
+            List<Track> newTracks;
+            if(before == null) {
+                newTracks = page.tracks;
+            } else {
+                newTracks = new ArrayList<>(tracks.size() + page.tracks.size());
+                newTracks.addAll(tracks);
+                newTracks.addAll(page.tracks);
+            }
+            updateListView(newTracks);
+            // the Geocoder is queried on the io executor, so the page is never waiting for the network
+            if(!page.unresolved.isEmpty())
+                AppExecutors.getInstance().submit(AppExecutors.getInstance().io(), Priority.USER_VISIBLE,
+                        new ResolveLocalities(context, page.unresolved), viewTasks);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            super.onError(e);
+            if(pageGeneration == generation)
+                loading = false;
         }
 
-        private List<Track> createTrackList() {
-            List<Track> tracks = new LinkedList<>();
+        private Page createPage() {
+            Page page = new Page();
 
-            LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(getContext());
-            List<TracePool> tracePools = locationDatabaseManager.getTracePoolByStartingTime(System.currentTimeMillis() - 1000 * 60 * 60 * 24 * 7); // one week ago
+            LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
+            List<TracePoolSummary> summaries = locationDatabaseManager.getTracePoolSummaryPage(before, limit);
+            page.end = summaries.size() < limit;
+            if(!summaries.isEmpty())
+                page.last = summaries.get(summaries.size() - 1);
 
             SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
 
-            Geocoder geocoder = new Geocoder(getContext(), Locale.getDefault());
-
-            for(TracePool tracePool : tracePools) {
+            for(TracePoolSummary summary : summaries) {
                 // retrieve the date
-                Date date = new Date(tracePool.getTimestamp());
+                Date date = new Date(summary.getTimestamp());
                 String dateString = sdf.format(date);
 
                 // retrieve the distance
-                String distance = tracePool.getLengthMeter() > 1000.0f ?
-                        String.format(Locale.getDefault(), "%.3f Km", tracePool.getLengthMeter() / 1000.0f) :
-                        String.format(Locale.getDefault(), "%.2f m", tracePool.getLengthMeter());
+                String distance = summary.getLengthMeter() > 1000.0f ?
+                        String.format(Locale.getDefault(), "%.3f Km", summary.getLengthMeter() / 1000.0f) :
+                        String.format(Locale.getDefault(), "%.2f m", summary.getLengthMeter());
 
                 // retrieve duration
-                String duration = String.format(Locale.getDefault(), "%.2f min", ((float) tracePool.getTimeDuration()) / 60000.0f);
-
-                // retrieve fromTo
-                String to, from;
-                try {
-                    List<Address> addresses = geocoder.getFromLocation(tracePool.getFrom().getLatitude(), tracePool.getFrom().getLongitude(), 1);
-                    from = addresses.get(0).getLocality();
-                } catch (IndexOutOfBoundsException | IOException ex) {
-                    from = "Unknown";
-                }
-                try {
-                    List<Address> addresses = geocoder.getFromLocation(tracePool.getTo().getLatitude(), tracePool.getTo().getLongitude(), 1);
-                    to = addresses.get(0).getLocality();
-                } catch (IndexOutOfBoundsException | IOException ex) {
-                    to = "Unknown";
-                }
-                String fromTo = String.format("From %s\nTo %s", from, to);
-
-                Track trackToAdd = new Track(tracePool.getId(), duration, distance, fromTo, dateString);
-                tracks.add(trackToAdd);
+                String duration = String.format(Locale.getDefault(), "%.2f min", ((float) summary.getTimeDuration()) / 60000.0f);
+
+                // retrieve fromTo (the localities are resolved only once, after the page is shown, and
+                // then cached in the summary)
+                if(summary.getFromLocality() == null || summary.getToLocality() == null)
+                    page.unresolved.add(summary);
+                String fromTo = formatFromTo(summary.getFromLocality(), summary.getToLocality());
+
+                Track trackToAdd = new Track(summary.getTracePoolId(), duration, distance, fromTo, dateString);
+                page.tracks.add(trackToAdd);
             }
 
-            return tracks;
+            return page;
+        }
+
+    }
+
+    /**
+     * This class extends UiTask to resolve the localities of the tracks of a page with the
+     * Geocoder (on the io executor) and to store them in the summaries (on the writer of the DB)
+     */
+    private final class ResolveLocalities extends UiTask<List<Localities>> {
+
+        private final Context context;
+        private final List<TracePoolSummary> summaries;
+
+        ResolveLocalities(Context context, List<TracePoolSummary> summaries) {
+            this.context = context;
+            this.summaries = summaries;
+        }
+
+        @Override
+        public List<Localities> call() {
+            GeocodeCache geocodeCache = GeocodeCache.getInstance(context);
+            final List<Localities> resolved = new ArrayList<>();
+            for(TracePoolSummary summary : summaries) {
+                String from = summary.getFromLocality();
+                String to = summary.getToLocality();
+                String resolvedFrom = null, resolvedTo = null;
+                if(from == null)
+                    from = resolvedFrom = geocodeCache.getLocality(summary.getFromLatitude(), summary.getFromLongitude());
+                if(to == null)
+                    to = resolvedTo = geocodeCache.getLocality(summary.getToLatitude(), summary.getToLongitude());
+                if(resolvedFrom != null || resolvedTo != null)
+                    resolved.add(new Localities(summary.getTracePoolId(), from, to));
+            }
+            if(!resolved.isEmpty()) {
+                // not bound to the view: the localities are stored even if the list is closed meanwhile
+                final LocationDatabaseManager locationDatabaseManager = LocationDatabaseManager.getInstance(context);
+                AppExecutors.getInstance().dbWrite().submit(Priority.BACKGROUND, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for(Localities localities : resolved)
+                            locationDatabaseManager.updateSummaryLocalities(localities.tracePoolId, localities.from, localities.to);
+                        return null;
+                    }
+                });
+            }
+            return resolved;
         }
 
+        @Override
+        public void onResult(final List<Localities> resolved) {
+            if(!resolved.isEmpty())
+                updateLocalities(resolved);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package it.unipi.dii.covida.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for PriorityExecutor.
+ */
+public class PriorityExecutorTest {
+
+    /**
+     * A task that blocks the thread of the executor until the latch is released
+     */
+    private static Callable<Void> blocker(final CountDownLatch latch) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                latch.await();
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Void> recorder(final List<String> order, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                order.add(name);
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void submit_runsByPriorityThenBySubmission() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.submit(Priority.USER_VISIBLE, blocker(latch));
+        executor.submit(Priority.BULK, recorder(order, "bulk"));
+        executor.submit(Priority.BACKGROUND, recorder(order, "background1"));
+        executor.submit(Priority.USER_VISIBLE, recorder(order, "visible1"));
+        executor.submit(Priority.BACKGROUND, recorder(order, "background2"));
+        PriorityExecutor.Task<Void> last = executor.submit(Priority.USER_VISIBLE, recorder(order, "visible2"));
+        assertEquals(5, executor.getQueueDepth());
+        assertEquals(Priority.USER_VISIBLE, last.getPriority());
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("visible1", "visible2", "background1", "background2", "bulk"), order);
+    }
+
+    @Test
+    public void cancel_removesTheTaskFromTheQueue() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.submit(Priority.USER_VISIBLE, blocker(latch));
+        PriorityExecutor.Task<Void> cancelled = executor.submit(Priority.BACKGROUND, recorder(order, "cancelled"));
+        executor.submit(Priority.BACKGROUND, recorder(order, "kept"));
+        assertEquals(2, executor.getQueueDepth());
+        assertTrue(cancelled.cancel(true));
+        assertEquals(1, executor.getQueueDepth());
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("kept"), order);
+        try {
+            cancelled.get();
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void metrics_measureTheQueueAndTheTimes() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit(Priority.USER_VISIBLE, blocker(latch));
+        for(int i = 0; i < 10; ++i) {
+            executor.submit(Priority.BACKGROUND, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(2);
+                    return 0;
+                }
+            });
+        }
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(11, executor.getCompletedCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMaxQueueDepth() >= 10);
+        // the tasks behind the blocker have waited for it (no bound on the times: they depend on the machine)
+        assertTrue(executor.getAverageWaitMillis() > 0.0);
+        assertTrue(executor.getMaxWaitMillis() >= executor.getAverageWaitMillis());
+        assertTrue(executor.getAverageRunMillis() > 0.0);
+        assertTrue(executor.toString().startsWith("test: queued 0 (max "));
+        assertTrue(executor.toString().contains("completed 11"));
+    }
+
+}
@@ -0,0 +1,315 @@
+package it.unipi.dii.covida.exposure;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import it.unipi.dii.covida.locationstore.Geohash;
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TraceSegmenter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ExposureMatcher and HotspotReader.
+ */
+public class ExposureMatcherTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+    private static final long TIME = 1590000000000L;
+    private static final long HOUR = 3600000L;
+
+    /**
+     * Walk randomly around LATITUDE, LONGITUDE for the given points (one every 5 seconds, with
+     * a pause every 1000 points) and return the TracePools made by a TraceSegmenter. The walk is
+     * a zigzag, so that the simplification keeps almost every point.
+     */
+    private static List<TracePool> walk(int points, long seed) {
+        final List<TracePool> tracePools = new ArrayList<>();
+        TraceSegmenter segmenter = new TraceSegmenter(new TraceSegmenter.OnTracePoolListener() {
+            @Override
+            public void onTracePool(TracePool tracePool) {
+                tracePools.add(tracePool);
+            }
+        });
+        Random random = new Random(seed);
+        TracePoint point = new TracePoint();
+        double x = 0.0, y = 0.0, heading = 0.0;
+        long time = TIME;
+        segmenter.beginTrace();
+        for(int i = 0; i < points; ++i) {
+            heading += random.nextGaussian() * 0.5;
+            x = Math.max(-5000.0, Math.min(5000.0, x + 12.0 * Math.cos(heading)));
+            y = Math.max(-5000.0, Math.min(5000.0, y + 12.0 * Math.sin(heading)));
+            time += i % 1000 == 999 ? HOUR : 5000L;
+            final double side = i % 2 == 0 ? 10.0 : -10.0;
+            point.set(LATITUDE + (y + side * Math.cos(heading)) / Geohash.METERS_PER_DEGREE,
+                    LONGITUDE + (x - side * Math.sin(heading)) / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE))), time, "gps");
+            segmenter.accept(point);
+        }
+        segmenter.endTrace();
+        segmenter.flush();
+        return tracePools;
+    }
+
+    private static List<Hotspot> hotspots(int count, long days, long seed) {
+        Random random = new Random(seed);
+        List<Hotspot> hotspots = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i) {
+            double y = (random.nextDouble() - 0.5) * 10000.0;
+            double x = (random.nextDouble() - 0.5) * 10000.0;
+            long fromTime = TIME + (long) (random.nextDouble() * days * 24 * HOUR);
+            hotspots.add(new Hotspot("h" + i, LATITUDE + y / Geohash.METERS_PER_DEGREE,
+                    LONGITUDE + x / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE))),
+                    20.0 + random.nextDouble() * 180.0, fromTime, fromTime + HOUR + (long) (random.nextDouble() * 6 * HOUR)));
+        }
+        return hotspots;
+    }
+
+    private static double distance(Hotspot hotspot, double latitude, double longitude) {
+        double dy = (latitude - hotspot.getLatitude()) * Geohash.METERS_PER_DEGREE;
+        double dx = (longitude - hotspot.getLongitude()) * Geohash.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians((latitude + hotspot.getLatitude()) / 2.0));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * The Exposures found comparing every point, and the time since the previous point of the
+     * trace, with every Hotspot
+     */
+    private static List<Exposure> bruteForce(final List<Hotspot> hotspots, List<TracePool> tracePools) {
+        final List<Exposure> exposures = new ArrayList<>();
+        for(final TracePool tracePool : tracePools) {
+            tracePool.stream(new TracePointConsumer() {
+                private final Map<Hotspot, Exposure> open = new HashMap<>();
+                private final Map<Hotspot, Integer> last = new HashMap<>();
+                private final TracePoint previous = new TracePoint();
+                private int position;
+
+                @Override
+                public void beginTrace() {
+                    position = 0;
+                }
+
+                @Override
+                public void accept(TracePoint point) {
+                    for(Hotspot hotspot : hotspots) {
+                        double distance = distance(hotspot, point.getLatitude(), point.getLongitude());
+                        double previousDistance = position == 0 ? Double.POSITIVE_INFINITY
+                                : distance(hotspot, previous.getLatitude(), previous.getLongitude());
+                        boolean inside = distance <= hotspot.getRadius();
+                        boolean bridged = inside && position > 0 && previousDistance <= hotspot.getRadius()
+                                && previous.getTime() <= hotspot.getToTime() && point.getTime() >= hotspot.getFromTime();
+                        boolean inWindow = inside && point.getTime() >= hotspot.getFromTime() && point.getTime() <= hotspot.getToTime();
+                        if(!bridged && !inWindow)
+                            continue;
+                        long end = Math.min(point.getTime(), hotspot.getToTime());
+                        Exposure exposure = open.get(hotspot);
+                        if(exposure != null && last.get(hotspot) == position - 1)
+                            open.put(hotspot, new Exposure(tracePool.getId(), hotspot, exposure.getFromTime(), end,
+                                    Math.min(exposure.getMinDistance(), distance), exposure.getLocationCount() + 1));
+                        else {
+                            if(exposure != null)
+                                exposures.add(exposure);
+                            if(bridged)
+                                open.put(hotspot, new Exposure(tracePool.getId(), hotspot, Math.max(previous.getTime(), hotspot.getFromTime()),
+                                        end, Math.min(distance, previousDistance), 2));
+                            else
+                                open.put(hotspot, new Exposure(tracePool.getId(), hotspot, point.getTime(), end, distance, 1));
+                        }
+                        last.put(hotspot, position);
+                    }
+                    previous.set(point);
+                    ++position;
+                }
+
+                @Override
+                public void endTrace() {
+                    exposures.addAll(open.values());
+                    open.clear();
+                    last.clear();
+                }
+            });
+        }
+        return exposures;
+    }
+
+    private static String key(Exposure exposure) {
+        return exposure.getTracePoolId() + "/" + exposure.getHotspot().getName() + "/" + exposure.getFromTime() + "/"
+                + exposure.getToTime() + "/" + exposure.getLocationCount() + "/" + Math.round(exposure.getMinDistance() * 1000.0);
+    }
+
+    private static Map<String, Integer> count(List<Exposure> exposures) {
+        Map<String, Integer> counts = new HashMap<>();
+        for(Exposure exposure : exposures) {
+            Integer count = counts.get(key(exposure));
+            counts.put(key(exposure), count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    @Test
+    public void match_findsTheExposuresOfTheBruteForce() {
+        List<TracePool> tracePools = walk(50000, 1L);
+        List<Hotspot> hotspots = hotspots(2000, 3, 2L);
+        List<Exposure> expected = bruteForce(hotspots, tracePools);
+        List<Exposure> exposures = new ExposureMatcher(hotspots).match(tracePools);
+        assertTrue(expected.size() > 10);
+        assertEquals(count(expected), count(exposures));
+    }
+
+    @Test
+    public void match_splitsTheExposureWhenTheTraceLeavesTheHotspot() {
+        List<TracePool> tracePools = walk(50000, 3L);
+        TracePool tracePool = tracePools.get(0);
+        // a Hotspot around the first point of the TracePool, for the whole time of the walk
+        TracePoint first = new TracePoint();
+        tracePool.getTraces().get(0).stream(new TracePointConsumer() {
+            private boolean set;
+            @Override public void beginTrace() {}
+            @Override public void accept(TracePoint point) {
+                if(!set) first.set(point);
+                set = true;
+            }
+            @Override public void endTrace() {}
+        });
+        List<Hotspot> hotspots = new ArrayList<>();
+        hotspots.add(new Hotspot("first", first.getLatitude(), first.getLongitude(), 100.0, TIME, TIME + 1000 * HOUR));
+        List<Exposure> exposures = new ExposureMatcher(hotspots).match(tracePool);
+        assertEquals(count(bruteForce(hotspots, tracePools.subList(0, 1))), count(exposures));
+        assertEquals(first.getTime(), exposures.get(0).getFromTime());
+        assertEquals(0.0, exposures.get(0).getMinDistance(), 1e-9);
+        for(int i = 1; i < exposures.size(); ++i)
+            assertTrue(exposures.get(i).getFromTime() > exposures.get(i - 1).getToTime());
+    }
+
+    @Test
+    public void match_findsTheHotspotsInsideACollapsedStay() {
+        // a walk of 300 meters, a stop of two hours (the fixes wander 10 meters around the place)
+        // and a walk away, through the segmenter that collapses the stays
+        final double longitudeMeter = 1.0 / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        final List<TracePool> tracePools = new ArrayList<>();
+        TraceSegmenter segmenter = new TraceSegmenter(new TraceSegmenter.OnTracePoolListener() {
+            @Override
+            public void onTracePool(TracePool tracePool) {
+                tracePools.add(tracePool);
+            }
+        });
+        TracePoint point = new TracePoint();
+        long time = TIME;
+        segmenter.beginTrace();
+        for(int i = 0; i < 40; ++i) {
+            point.set(LATITUDE, LONGITUDE + i * 7.5 * longitudeMeter, time += 5000L, "gps");
+            segmenter.accept(point);
+        }
+        final long arrival = time;
+        for(int i = 0; time < arrival + 2 * HOUR; ++i) {
+            point.set(LATITUDE, LONGITUDE + (300.0 + (i % 2 == 0 ? 10.0 : -10.0)) * longitudeMeter, time += 10000L, "gps");
+            segmenter.accept(point);
+        }
+        for(int i = 1; i <= 40; ++i) {
+            point.set(LATITUDE, LONGITUDE + (300.0 + i * 7.5) * longitudeMeter, time += 5000L, "gps");
+            segmenter.accept(point);
+        }
+        segmenter.endTrace();
+        segmenter.flush();
+        assertEquals(1, tracePools.size());
+        TracePool tracePool = tracePools.get(0);
+        assertEquals(1, tracePool.getStayPoints().size());
+        assertTrue(tracePool.getLocationCount() < 100);
+
+        // a Hotspot at the place of the stay, for an hour in the middle of it: no Location of the
+        // collapsed trace is sampled during its time window
+        List<Hotspot> hotspots = new ArrayList<>();
+        hotspots.add(new Hotspot("inside", LATITUDE, LONGITUDE + 300.0 * longitudeMeter, 30.0, arrival + HOUR / 2, arrival + 3 * HOUR / 2));
+        List<Exposure> exposures = new ExposureMatcher(hotspots).match(tracePool);
+        assertEquals(1, exposures.size());
+        assertEquals(arrival + HOUR / 2, exposures.get(0).getFromTime());
+        assertEquals(arrival + 3 * HOUR / 2, exposures.get(0).getToTime());
+        assertEquals(2, exposures.get(0).getLocationCount());
+        assertEquals(count(bruteForce(hotspots, tracePools)), count(exposures));
+    }
+
+    @Test
+    public void match_ignoresTheHotspotsOutsideTheirTimeWindow() {
+        List<TracePool> tracePools = walk(20000, 4L);
+        List<Hotspot> hotspots = hotspots(500, 3, 5L);
+        List<Hotspot> late = new ArrayList<>();
+        for(Hotspot hotspot : hotspots)
+            late.add(new Hotspot(hotspot.getName(), hotspot.getLatitude(), hotspot.getLongitude(), hotspot.getRadius(),
+                    hotspot.getFromTime() + 365 * 24 * HOUR, hotspot.getToTime() + 365 * 24 * HOUR));
+        assertFalse(new ExposureMatcher(hotspots).match(tracePools).isEmpty());
+        assertTrue(new ExposureMatcher(late).match(tracePools).isEmpty());
+    }
+
+    @Test
+    public void match_keepsTheLargeHotspotsOutOfTheGrid() {
+        List<TracePool> tracePools = walk(20000, 8L);
+        List<Hotspot> hotspots = hotspots(1000, 3, 9L);
+        // a Hotspot as large as a region and one without a finite radius, among ones of 20-200 m:
+        // they must not fill the cells of the grid
+        hotspots.add(new Hotspot("region", LATITUDE + 0.2, LONGITUDE, Hotspot.MAX_RADIUS, TIME + 2 * HOUR, TIME + 5 * HOUR));
+        hotspots.add(new Hotspot("everywhere", 0.0, 0.0, Double.POSITIVE_INFINITY, TIME + 10 * HOUR, TIME + 11 * HOUR));
+        List<Exposure> expected = bruteForce(hotspots, tracePools);
+        List<Exposure> exposures = new ExposureMatcher(hotspots).match(tracePools);
+        Map<String, Integer> counts = count(exposures);
+        assertEquals(count(expected), counts);
+        boolean region = false, everywhere = false;
+        for(Exposure exposure : exposures) {
+            region |= "region".equals(exposure.getHotspot().getName());
+            everywhere |= "everywhere".equals(exposure.getHotspot().getName());
+        }
+        assertTrue(region);
+        assertTrue(everywhere);
+    }
+
+    /**
+     * The match of ten thousand Hotspots against a million points, to be run by hand (it
+     * reports the time; the results are checked against the brute force by the other tests)
+     */
+    @Ignore("benchmark")
+    @Test
+    public void match_tenThousandHotspotsAgainstAMillionPoints() {
+        List<TracePool> tracePools = walk(1000000, 6L);
+        List<Hotspot> hotspots = hotspots(10000, 60, 7L);
+        int locations = 0;
+        for(TracePool tracePool : tracePools)
+            locations += tracePool.getLocationCount();
+        long start = System.nanoTime();
+        List<Exposure> exposures = new ExposureMatcher(hotspots).match(tracePools);
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        System.out.println("ExposureMatcher: " + hotspots.size() + " hotspots, " + locations + " locations, "
+                + exposures.size() + " exposures in " + elapsed + " ms");
+        assertTrue(locations > 900000);
+        assertFalse(exposures.isEmpty());
+    }
+
+    @Test
+    public void read_skipsTheInvalidRows() throws IOException {
+        List<Hotspot> hotspots = HotspotReader.read(new StringReader(
+                "name,latitude,longitude,radius,fromTime,toTime\r\n" +
+                "\"Bar, Piazza\",43.7228,10.4017,50,2020-05-20T10:00:00Z,2020-05-20T12:00:00Z\r\n" +
+                "late,43.7228,10.4017,50,2020-05-20T12:00:00Z,2020-05-20T10:00:00Z\r\n" +
+                "far,93.0,10.4017,50,2020-05-20T10:00:00Z,2020-05-20T12:00:00Z\r\n" +
+                ",43.7,10.4,x,1590000000000,1590000000001\r\n" +
+                ",43.7,10.4,10,1590000000000,1590000000001\r\n" +
+                "infinite,43.7,10.4,Infinity,1590000000000,1590000000001\r\n" +
+                "huge,43.7,10.4,1000000,1590000000000,1590000000001\r\n"));
+        assertEquals(2, hotspots.size());
+        assertEquals("Bar, Piazza", hotspots.get(0).getName());
+        assertEquals(2 * HOUR, hotspots.get(0).getToTime() - hotspots.get(0).getFromTime());
+        assertNull(hotspots.get(1).getName());
+        assertEquals(10.0, hotspots.get(1).getRadius(), 0.0);
+    }
+
+}
@@ -0,0 +1,168 @@
+package it.unipi.dii.covida.geocoding;
+
+import android.location.Address;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import it.unipi.dii.covida.locationstore.Geohash;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for GeocodeCache, with a Geocoder and a store that live in memory.
+ */
+public class GeocodeCacheTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * A Geocoder that counts its queries: every point north of LATITUDE + 0.1 has no locality
+     */
+    private static class FakeGeocoder implements Geocoder {
+        int localityQueries;
+        int nameQueries;
+        boolean available = true;
+
+        @Override
+        public String getLocality(double latitude, double longitude) throws IOException {
+            ++localityQueries;
+            if(!available)
+                throw new IOException("offline");
+            return latitude > LATITUDE + 0.1 ? null : "Pisa";
+        }
+
+        @Override
+        public List<Address> getFromLocationName(String locationName, int maxResults) throws IOException {
+            ++nameQueries;
+            if(!available)
+                throw new IOException("offline");
+            List<Address> addresses = new ArrayList<>();
+            for(int i = 0; i < maxResults; ++i)
+                addresses.add(new Address(Locale.ROOT));
+            return addresses;
+        }
+    }
+
+    /**
+     * A store that keeps the localities with their update time, as the geocode table does
+     */
+    private static class FakeStore implements LocalityStore {
+        final Map<String, String> localities = new HashMap<>();
+        final Map<String, Long> updates = new HashMap<>();
+        int deletions;
+
+        @Override
+        public String getLocality(String cell, long notBefore) {
+            Long updated = updates.get(cell);
+            return updated != null && updated >= notBefore ? localities.get(cell) : null;
+        }
+
+        @Override
+        public void putLocality(String cell, String locality, long updated) {
+            localities.put(cell, locality);
+            updates.put(cell, updated);
+        }
+
+        @Override
+        public void deleteExpired(long olderThan) {
+            ++deletions;
+        }
+    }
+
+    private static String cellOf(double latitude, double longitude) {
+        return Geohash.encode(latitude, longitude, 7);
+    }
+
+    @Test
+    public void getLocality_queriesTheGeocoderOncePerCell() {
+        FakeGeocoder geocoder = new FakeGeocoder();
+        GeocodeCache cache = new GeocodeCache(null, geocoder);
+        assertEquals("Pisa", cache.getLocality(LATITUDE, LONGITUDE));
+        // a few meters away, in the same cell
+        assertEquals("Pisa", cache.getLocality(LATITUDE + 1e-5, LONGITUDE + 1e-5));
+        assertEquals(1, geocoder.localityQueries);
+        // another cell
+        assertEquals("Pisa", cache.getLocality(LATITUDE + 0.01, LONGITUDE));
+        assertEquals(2, geocoder.localityQueries);
+        // a point without a locality is cached too
+        assertNull(cache.getLocality(LATITUDE + 0.2, LONGITUDE));
+        assertNull(cache.getLocality(LATITUDE + 0.2, LONGITUDE));
+        assertEquals(3, geocoder.localityQueries);
+
+        assertEquals(2, cache.getMemoryHitCount());
+        assertEquals(0, cache.getDiskHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0.4f, cache.getHitRate(), 1e-6f);
+    }
+
+    @Test
+    public void getLocality_doesNotCacheTheFailures() {
+        FakeGeocoder geocoder = new FakeGeocoder();
+        FakeStore store = new FakeStore();
+        GeocodeCache cache = new GeocodeCache(store, geocoder);
+        geocoder.available = false;
+        assertNull(cache.getLocality(LATITUDE, LONGITUDE));
+        assertTrue(store.localities.isEmpty());
+        geocoder.available = true;
+        assertEquals("Pisa", cache.getLocality(LATITUDE, LONGITUDE));
+        assertEquals(2, geocoder.localityQueries);
+        assertEquals("Pisa", store.localities.get(cellOf(LATITUDE, LONGITUDE)));
+    }
+
+    @Test
+    public void getLocality_readsTheStoreUntilTheEntriesExpire() {
+        FakeGeocoder geocoder = new FakeGeocoder();
+        FakeStore store = new FakeStore();
+        final long now = System.currentTimeMillis();
+        final String fresh = cellOf(LATITUDE, LONGITUDE), expired = cellOf(LATITUDE + 0.01, LONGITUDE);
+        store.putLocality(fresh, "Stored", now - 29 * DAY);
+        store.putLocality(expired, "Expired", now - 31 * DAY);
+        GeocodeCache cache = new GeocodeCache(store, geocoder);
+
+        // an entry of the last 30 days is read from the store (and then from memory)
+        assertEquals("Stored", cache.getLocality(LATITUDE, LONGITUDE));
+        assertEquals("Stored", cache.getLocality(LATITUDE, LONGITUDE));
+        assertEquals(0, geocoder.localityQueries);
+        assertEquals(1, cache.getDiskHitCount());
+        assertEquals(1, cache.getMemoryHitCount());
+
+        // an older one is looked up again and refreshed
+        assertEquals("Pisa", cache.getLocality(LATITUDE + 0.01, LONGITUDE));
+        assertEquals(1, geocoder.localityQueries);
+        assertEquals("Pisa", store.localities.get(expired));
+        assertTrue(store.updates.get(expired) >= now);
+
+        // the expired entries are deleted once per process
+        assertEquals(1, store.deletions);
+    }
+
+    @Test
+    public void getFromLocationName_cachesTheNormalizedName() {
+        FakeGeocoder geocoder = new FakeGeocoder();
+        GeocodeCache cache = new GeocodeCache(null, geocoder);
+        List<Address> addresses = cache.getFromLocationName("Piazza dei Miracoli", 3);
+        assertEquals(3, addresses.size());
+        // the callers receive copies of the cached list
+        addresses.clear();
+        assertEquals(3, cache.getFromLocationName("  piazza dei miracoli ", 3).size());
+        assertEquals(1, geocoder.nameQueries);
+        // the number of results is part of the key
+        assertEquals(1, cache.getFromLocationName("Piazza dei Miracoli", 1).size());
+        assertEquals(2, geocoder.nameQueries);
+
+        geocoder.available = false;
+        assertNull(cache.getFromLocationName("Lucca", 1));
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+}
@@ -0,0 +1,70 @@
+package it.unipi.dii.covida.history;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+
+/**
+ * A source that generates tracePools x traces x points points on the fly
+ */
+class GeneratedSource implements TracePointSource {
+
+    private final int tracePools, traces, points;
+    private final TracePoint point = new TracePoint();
+    private int trace = -1;
+    private int position;
+
+    GeneratedSource(int tracePools, int traces, int points) {
+        this.tracePools = tracePools;
+        this.traces = traces;
+        this.points = points;
+    }
+
+    static double latitude(int trace, int position) {
+        return 43.7 + trace * 0.001 + position * 0.0000123;
+    }
+
+    static double longitude(int trace, int position) {
+        return -10.4 - position * 0.0000071;
+    }
+
+    static long time(int trace, int position) {
+        return 1590000000000L + trace * 3600000L + position * 5000L;
+    }
+
+    @Override
+    public boolean moveToNextTrace() {
+        position = 0;
+        return ++trace < tracePools * traces;
+    }
+
+    @Override
+    public boolean moveToNextPoint() {
+        if(position == points)
+            return false;
+        point.set(latitude(trace, position), longitude(trace, position), time(trace, position), position % 2 == 0 ? "gps" : "fused");
+        ++position;
+        return true;
+    }
+
+    @Override
+    public void rewindTrace() {
+        position = 0;
+    }
+
+    @Override
+    public TracePoint getPoint() {
+        return point;
+    }
+
+    @Override
+    public String getTracePoolId() {
+        return (trace / traces) + "-0";
+    }
+
+    @Override
+    public long getTracePoolTimestamp() {
+        return time(trace - trace % traces, 0);
+    }
+
+}
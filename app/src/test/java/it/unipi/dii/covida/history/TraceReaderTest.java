@@ -0,0 +1,284 @@
+package it.unipi.dii.covida.history;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+import it.unipi.dii.covida.locationstore.TracePointSource;
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TraceSegmenter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the TraceReaders.
+ */
+public class TraceReaderTest {
+
+    /**
+     * A consumer that keeps the points of every trace
+     */
+    private static class CollectingConsumer implements TracePointConsumer {
+
+        final List<List<TracePoint>> traces = new ArrayList<>();
+
+        @Override
+        public void beginTrace() {
+            traces.add(new ArrayList<TracePoint>());
+        }
+
+        @Override
+        public void accept(TracePoint point) {
+            TracePoint copy = new TracePoint();
+            copy.set(point);
+            traces.get(traces.size() - 1).add(copy);
+        }
+
+        @Override
+        public void endTrace() {
+        }
+    }
+
+    /**
+     * Days of walks: every day four walks of 1000 points, one each 5s, three hours apart
+     */
+    private static class WalkSource implements TracePointSource {
+
+        private static final int WALKS = 4, POINTS = 1000;
+        private final int days;
+        private final Random random = new Random(17L);
+        private final TracePoint point = new TracePoint();
+        private int walk = -1;
+        private int position;
+        private double latitude, longitude, heading;
+
+        WalkSource(int days) {
+            this.days = days;
+        }
+
+        @Override
+        public boolean moveToNextTrace() {
+            position = 0;
+            latitude = 43.7228;
+            longitude = 10.4017;
+            return ++walk < days * WALKS;
+        }
+
+        @Override
+        public boolean moveToNextPoint() {
+            if(position == POINTS)
+                return false;
+            heading += random.nextGaussian() * 0.2;
+            latitude += Math.cos(heading) * 8.0 / 111320.0;
+            longitude += Math.sin(heading) * 8.0 / (111320.0 * Math.cos(Math.toRadians(latitude)));
+            long time = 1577836800000L + (walk / WALKS) * 86400000L + (walk % WALKS) * 10800000L + position * 5000L;
+            point.set(latitude, longitude, time, "gps");
+            ++position;
+            return true;
+        }
+
+        @Override
+        public void rewindTrace() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public TracePoint getPoint() {
+            return point;
+        }
+
+        @Override
+        public String getTracePoolId() {
+            return walk + "-0";
+        }
+
+        @Override
+        public long getTracePoolTimestamp() {
+            return 0L;
+        }
+    }
+
+    /**
+     * A GPX file of a WalkSource, written one walk at a time while it is read, so that it is
+     * never in memory
+     */
+    private static class GpxGenerator extends Reader {
+
+        private final WalkSource source;
+        private final StringWriter chunk = new StringWriter();
+        private final TraceWriter writer = TraceWriter.create(HistoryFormat.GPX, chunk);
+        private int position;
+        private boolean done;
+
+        GpxGenerator(int days) throws IOException {
+            source = new WalkSource(days);
+            writer.writeHeader();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            StringBuffer text = chunk.getBuffer();
+            if(position == text.length()) {
+                text.setLength(0);
+                position = 0;
+                if(done)
+                    return -1;
+                if(source.moveToNextTrace()) {
+                    writer.beginTracePool(source.getTracePoolId(), source.getTracePoolTimestamp());
+                    writer.writeTrace(source, 0);
+                    writer.endTracePool();
+                } else {
+                    writer.writeFooter();
+                    done = true;
+                }
+            }
+            int count = Math.min(length, text.length() - position);
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static CollectingConsumer roundTrip(HistoryFormat format, TracePointSource source) throws IOException {
+        StringWriter out = new StringWriter();
+        TraceWriter.create(format, out).write(source);
+        CollectingConsumer consumer = new CollectingConsumer();
+        TraceReader.create(format, new StringReader(out.toString())).read(consumer);
+        return consumer;
+    }
+
+    private static void assertGenerated(CollectingConsumer consumer, int traces, int points) {
+        assertEquals(traces, consumer.traces.size());
+        for(int trace = 0; trace < traces; ++trace) {
+            List<TracePoint> list = consumer.traces.get(trace);
+            assertEquals(points, list.size());
+            for(int position = 0; position < points; ++position) {
+                TracePoint point = list.get(position);
+                assertEquals(GeneratedSource.latitude(trace, position), point.getLatitude(), 1e-7);
+                assertEquals(GeneratedSource.longitude(trace, position), point.getLongitude(), 1e-7);
+                assertEquals(GeneratedSource.time(trace, position), point.getTime());
+                assertEquals(position % 2 == 0 ? "gps" : "fused", point.getProvider());
+            }
+        }
+    }
+
+    @Test
+    public void parseTime_formats() {
+        assertEquals(1590000000000L, TraceReader.parseTime("2020-05-20T18:40:00Z"));
+        assertEquals(1590000000500L, TraceReader.parseTime("2020-05-20T18:40:00.5Z"));
+        assertEquals(1590000000123L, TraceReader.parseTime("2020-05-20T18:40:00.123456Z"));
+        assertEquals(1590000000000L, TraceReader.parseTime("2020-05-20T20:40:00+02:00"));
+        assertEquals(1590000000000L, TraceReader.parseTime("2020-05-20T18:40:00"));
+        assertEquals(1590000000000L, TraceReader.parseTime("1590000000000"));
+        assertEquals(951782400000L, TraceReader.parseTime("2000-02-29T00:00:00Z"));
+        assertEquals(Long.MIN_VALUE, TraceReader.parseTime("2020-05-20T18:40:60Z"));
+        assertEquals(Long.MIN_VALUE, TraceReader.parseTime("yesterday"));
+        assertEquals(Long.MIN_VALUE, TraceReader.parseTime(null));
+    }
+
+    @Test
+    public void gpx_roundTrip() throws IOException {
+        assertGenerated(roundTrip(HistoryFormat.GPX, new GeneratedSource(3, 2, 40)), 6, 40);
+    }
+
+    @Test
+    public void geoJson_roundTrip() throws IOException {
+        assertGenerated(roundTrip(HistoryFormat.GEOJSON, new GeneratedSource(3, 2, 40)), 6, 40);
+    }
+
+    @Test
+    public void csv_roundTrip() throws IOException {
+        assertGenerated(roundTrip(HistoryFormat.CSV, new GeneratedSource(3, 2, 40)), 6, 40);
+    }
+
+    @Test
+    public void gpx_skipsWaypointsAndPointsWithoutTime() throws IOException {
+        String gpx = "<?xml version=\"1.0\"?><gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">"
+                + "<wpt lat=\"1\" lon=\"2\"><time>2020-05-20T18:40:00Z</time></wpt>"
+                + "<trk><trkseg>"
+                + "<trkpt lat=\"43.7\" lon=\"10.4\"><ele>3</ele><time>2020-05-20T18:40:00Z</time></trkpt>"
+                + "<trkpt lat=\"43.8\" lon=\"10.4\"></trkpt>"
+                + "<trkpt lat=\"95\" lon=\"10.4\"><time>2020-05-20T18:40:10Z</time></trkpt>"
+                + "<trkpt lat=\"43.9\" lon=\"10.4\"><time>2020-05-20T18:40:20Z</time><src>Garmin</src></trkpt>"
+                + "</trkseg></trk></gpx>";
+        CollectingConsumer consumer = new CollectingConsumer();
+        TraceReader reader = TraceReader.create(HistoryFormat.GPX, new StringReader(gpx));
+        reader.read(consumer);
+        assertEquals(1, consumer.traces.size());
+        assertEquals(2, consumer.traces.get(0).size());
+        assertEquals(2, reader.getSkippedCount());
+        assertEquals("gps", consumer.traces.get(0).get(1).getProvider());
+    }
+
+    @Test
+    public void csv_quotedFieldsAndMissingColumns() throws IOException {
+        String csv = "latitude,longitude,time,note\r\n"
+                + "43.7,10.4,2020-05-20T18:40:00Z,\"a, \"\"quoted\"\"\r\nnote\"\r\n"
+                + "43.8,10.4,1590000005000,\n";
+        CollectingConsumer consumer = new CollectingConsumer();
+        TraceReader.create(HistoryFormat.CSV, new StringReader(csv)).read(consumer);
+        assertEquals(1, consumer.traces.size());
+        assertEquals(2, consumer.traces.get(0).size());
+        assertEquals(1590000005000L, consumer.traces.get(0).get(1).getTime());
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_withoutPositions() throws IOException {
+        TraceReader.create(HistoryFormat.CSV, new StringReader("a,b\r\n1,2\r\n")).read(new CollectingConsumer());
+    }
+
+    /**
+     * Import the GPX file of some days of walks through a TraceSegmenter
+     * @return the number of TracePools and of Locations
+     */
+    private static long[] importGpx(int days, boolean report) throws IOException {
+        final long[] counts = new long[2];
+        TraceSegmenter segmenter = new TraceSegmenter(new TraceSegmenter.OnTracePoolListener() {
+            @Override
+            public void onTracePool(TracePool tracePool) {
+                ++counts[0];
+                counts[1] += tracePool.getLocationCount();
+            }
+        });
+        long start = System.nanoTime();
+        TraceReader.create(HistoryFormat.GPX, new GpxGenerator(days)).read(segmenter);
+        segmenter.flush();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertEquals((long) days * 4 * 1000, segmenter.getReceivedCount());
+        assertTrue(counts[1] < segmenter.getAcceptedCount());
+        if(report)
+            System.out.println("importGpx: " + segmenter.getReceivedCount() + " points read, " + counts[1]
+                    + " Locations in " + counts[0] + " TracePools in " + elapsed + " ms (GPX generation included)");
+        return counts;
+    }
+
+    @Test
+    public void import_weekOfGpx() throws IOException {
+        long[] counts = importGpx(7, false);
+        // every walk is longer than the user timeout apart from the next one
+        assertEquals(7 * 4, counts[0]);
+    }
+
+    /**
+     * The import of a year of walks, to be run by hand (it reports the time)
+     */
+    @Ignore("benchmark")
+    @Test
+    public void import_yearOfGpx() throws IOException {
+        assertEquals(365 * 4, importGpx(365, true)[0]);
+    }
+
+}
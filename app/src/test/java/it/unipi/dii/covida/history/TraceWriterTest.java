@@ -0,0 +1,142 @@
+package it.unipi.dii.covida.history;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import it.unipi.dii.covida.locationstore.TracePointSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the TraceWriters.
+ */
+public class TraceWriterTest {
+
+    private static String write(HistoryFormat format, TracePointSource source) throws IOException {
+        StringWriter out = new StringWriter();
+        TraceWriter.create(format, out).write(source);
+        return out.toString();
+    }
+
+    private static int occurrences(String text, String pattern) {
+        int count = 0;
+        for(int i = text.indexOf(pattern); i != -1; i = text.indexOf(pattern, i + 1))
+            ++count;
+        return count;
+    }
+
+    @Test
+    public void writeDegrees_plainDecimals() throws IOException {
+        StringWriter out = new StringWriter();
+        TraceWriter writer = TraceWriter.create(HistoryFormat.CSV, out);
+        writer.writeDegrees(43.7228);
+        out.write(' ');
+        writer.writeDegrees(-0.00001);
+        out.write(' ');
+        writer.writeDegrees(10.0);
+        out.write(' ');
+        writer.writeDegrees(-179.1234567);
+        assertEquals("43.7228 -0.00001 10 -179.1234567", out.toString());
+    }
+
+    @Test
+    public void gpx_hasATrackForEveryTracePool() throws IOException {
+        String gpx = write(HistoryFormat.GPX, new GeneratedSource(3, 2, 10));
+        assertTrue(gpx.startsWith("<?xml"));
+        assertEquals(3, occurrences(gpx, "<trk>"));
+        assertEquals(6, occurrences(gpx, "<trkseg>"));
+        assertEquals(60, occurrences(gpx, "<trkpt "));
+        assertTrue(gpx.contains("<trkpt lat=\"43.7\" lon=\"-10.4\"><time>2020-05-20T18:40:00Z</time><src>gps</src></trkpt>"));
+        assertTrue(gpx.trim().endsWith("</gpx>"));
+    }
+
+    @Test
+    public void geoJson_timesMatchTheCoordinates() throws IOException {
+        String json = write(HistoryFormat.GEOJSON, new GeneratedSource(2, 2, 3));
+        assertEquals(4, occurrences(json, "\"type\":\"Feature\""));
+        assertTrue(json.contains("\"times\":[1590000000000,1590000005000,1590000010000]"));
+        assertTrue(json.contains("\"coordinates\":[[-10.4,43.7],[-10.4000071,43.7000123],[-10.4000142,43.7000246]]"));
+    }
+
+    @Test
+    public void csv_roundTrip() throws IOException {
+        final int tracePools = 2, traces = 3, points = 50;
+        String csv = write(HistoryFormat.CSV, new GeneratedSource(tracePools, traces, points));
+        String[] lines = csv.split("\r\n");
+        assertEquals(CsvTraceWriter.HEADER, lines[0]);
+        assertEquals(1 + tracePools * traces * points, lines.length);
+        for(int i = 1; i < lines.length; ++i) {
+            String[] fields = lines[i].split(",");
+            int trace = (i - 1) / points, position = (i - 1) % points;
+            assertEquals((trace / traces) + "-0", fields[0]);
+            assertEquals(trace % traces, Integer.parseInt(fields[2]));
+            assertEquals(GeneratedSource.time(trace, position), Instant.parse(fields[3]).toEpochMilli());
+            assertEquals(GeneratedSource.latitude(trace, position), Double.parseDouble(fields[4]), 1e-7);
+            assertEquals(GeneratedSource.longitude(trace, position), Double.parseDouble(fields[5]), 1e-7);
+            assertEquals(position % 2 == 0 ? "gps" : "fused", fields[6]);
+        }
+    }
+
+    /**
+     * Write a GeneratedSource in every exportable format to a stream that only counts the bytes
+     * @return the number of bytes written for every format
+     */
+    private static long[] export(int tracePools, int traces, int points, boolean report) throws IOException {
+        final long[] bytes = new long[1];
+        OutputStream counter = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ++bytes[0];
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes[0] += len;
+            }
+        };
+        long[] sizes = new long[HistoryFormat.values().length];
+        for(HistoryFormat format : HistoryFormat.values()) {
+            if(!format.isExportable())
+                continue;
+            bytes[0] = 0;
+            long start = System.nanoTime();
+            Writer out = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8), 64 * 1024);
+            long count = TraceWriter.create(format, out).write(new GeneratedSource(tracePools, traces, points));
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            assertEquals((long) tracePools * traces * points, count);
+            sizes[format.ordinal()] = bytes[0];
+            if(report)
+                System.out.println("export: " + format + " " + bytes[0] / 1024 + " KiB in " + elapsed + " ms");
+        }
+        return sizes;
+    }
+
+    @Test
+    public void export_writesEveryPoint() throws IOException {
+        long[] sizes = export(10, 10, 100, false);
+        for(HistoryFormat format : HistoryFormat.values()) {
+            if(format.isExportable())
+                assertTrue(format.toString(), sizes[format.ordinal()] > 10000L * 20);
+        }
+    }
+
+    /**
+     * The export of a million points, to be run by hand (it reports the size and the time of
+     * every format)
+     */
+    @Ignore("benchmark")
+    @Test
+    public void export_millionPoints() throws IOException {
+        export(100, 10, 1000, true);
+    }
+
+}
@@ -0,0 +1,75 @@
+package it.unipi.dii.covida.localdb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the start of the retention window, in a time zone with daylight saving
+ * time.
+ */
+public class RetentionJobServiceTest {
+
+    private static final TimeZone ROME = TimeZone.getTimeZone("Europe/Rome");
+    private static final long HOUR = 60L * 60 * 1000;
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(ROME);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    private static long time(String localTime) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT);
+        format.setTimeZone(ROME);
+        return format.parse(localTime).getTime();
+    }
+
+    @Test
+    public void getRetentionStart_isTheLocalMidnight() throws ParseException {
+        // today only
+        assertEquals(time("2020-05-20 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-05-20 10:30:00.000"), 1));
+        // at midnight and just before it
+        assertEquals(time("2020-05-07 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-05-20 00:00:00.000"), 14));
+        assertEquals(time("2020-05-07 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-05-20 23:59:59.999"), 14));
+        assertEquals(time("2020-05-06 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-05-19 23:59:59.999"), 14));
+        // across the end of a month and of a year
+        assertEquals(time("2020-12-19 00:00:00.000"), RetentionJobService.getRetentionStart(time("2021-01-01 08:00:00.000"), 14));
+    }
+
+    @Test
+    public void getRetentionStart_countsCalendarDaysAcrossDaylightSavingTime() throws ParseException {
+        // clocks go forward on 2020-03-29: the window is an hour shorter than 14 * 24 h
+        long now = time("2020-04-05 12:00:00.000");
+        long start = RetentionJobService.getRetentionStart(now, 14);
+        assertEquals(time("2020-03-23 00:00:00.000"), start);
+        assertEquals(14 * 24 * HOUR - HOUR, time("2020-04-06 00:00:00.000") - start);
+
+        // clocks go back on 2020-10-25: an hour longer
+        now = time("2020-10-31 12:00:00.000");
+        start = RetentionJobService.getRetentionStart(now, 14);
+        assertEquals(time("2020-10-18 00:00:00.000"), start);
+        assertEquals(14 * 24 * HOUR + HOUR, time("2020-11-01 00:00:00.000") - start);
+
+        // on the days of the change, just after midnight and after the change
+        assertEquals(time("2020-03-29 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-03-29 00:30:00.000"), 1));
+        assertEquals(time("2020-03-29 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-03-29 03:30:00.000"), 1));
+        assertEquals(time("2020-10-25 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-10-25 02:30:00.000"), 1));
+        assertEquals(time("2020-10-24 00:00:00.000"), RetentionJobService.getRetentionStart(time("2020-10-25 23:59:59.999"), 2));
+    }
+
+}
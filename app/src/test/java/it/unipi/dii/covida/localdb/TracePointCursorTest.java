@@ -0,0 +1,225 @@
+package it.unipi.dii.covida.localdb;
+
+import android.database.Cursor;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import it.unipi.dii.covida.locationstore.ContinuousTrace;
+import it.unipi.dii.covida.locationstore.Geohash;
+import it.unipi.dii.covida.locationstore.GlitchFilter;
+import it.unipi.dii.covida.locationstore.LocationColumns;
+import it.unipi.dii.covida.locationstore.TraceCodec;
+import it.unipi.dii.covida.locationstore.TracePoint;
+import it.unipi.dii.covida.locationstore.TracePointConsumer;
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TraceStatistics;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TracePointCursor: the streaming path (cursor, GlitchFilter and
+ * TraceStatistics) against the materialized one (TracePool::filter() and its statistics).
+ */
+public class TracePointCursorTest {
+
+    private static final String TRACE_POOL_ID = "1590000000000-0";
+    private static final long TIME = 1590000000000L;
+    private static final String[] COLUMNS = {"tracePoolId", "tracePoolTimestamp", "locations"};
+
+    /**
+     * A cursor over the rows of the query of openTracePointCursor(): only the methods used by
+     * TracePointCursor are implemented
+     */
+    private static Cursor cursorOf(final List<byte[]> traces) {
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class<?>[]{Cursor.class}, new InvocationHandler() {
+            private int position = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "moveToFirst":
+                        position = 0;
+                        return !traces.isEmpty();
+                    case "moveToNext":
+                        return ++position < traces.size();
+                    case "getColumnIndexOrThrow":
+                        for(int i = 0; i < COLUMNS.length; ++i) {
+                            if(COLUMNS[i].equals(args[0]))
+                                return i;
+                        }
+                        throw new IllegalArgumentException("No column " + args[0]);
+                    case "getType":
+                        return (Integer) args[0] == 2 ? Cursor.FIELD_TYPE_BLOB : Cursor.FIELD_TYPE_STRING;
+                    case "getString":
+                        return TRACE_POOL_ID;
+                    case "getLong":
+                        return TIME;
+                    case "getBlob":
+                        return traces.get(position);
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Traces of a walk with glitches (a point hundreds of meters away from its neighbours) and a
+     * trace with a single point, that no path keeps
+     */
+    private static List<ContinuousTrace> traces(long seed) {
+        Random random = new Random(seed);
+        List<ContinuousTrace> traces = new ArrayList<>();
+        long time = TIME;
+        double x = 0.0, y = 0.0;
+        for(int t = 0; t < 8; ++t) {
+            LocationColumns columns = new LocationColumns();
+            final int size = t == 3 ? 1 : 50 + random.nextInt(200);
+            for(int i = 0; i < size; ++i) {
+                x += random.nextGaussian() * 10.0;
+                y += random.nextGaussian() * 10.0;
+                double glitch = random.nextInt(20) == 0 ? 300.0 + random.nextDouble() * 500.0 : 0.0;
+                columns.add(43.7228 + (y + glitch) / Geohash.METERS_PER_DEGREE, 10.4017 + x / Geohash.METERS_PER_DEGREE,
+                        time += 5000L, "gps");
+            }
+            time += 600000L;
+            traces.add(TraceCodec.decodeTrace(TRACE_POOL_ID, TraceCodec.encode(columns)));
+        }
+        return traces;
+    }
+
+    private static List<LocationColumns> pointsOf(TracePool tracePool) {
+        final List<LocationColumns> traces = new ArrayList<>();
+        tracePool.stream(collector(traces));
+        return traces;
+    }
+
+    private static TracePointConsumer collector(final List<LocationColumns> traces) {
+        return new TracePointConsumer() {
+            @Override
+            public void beginTrace() {
+                traces.add(new LocationColumns());
+            }
+
+            @Override
+            public void accept(TracePoint point) {
+                traces.get(traces.size() - 1).add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+            }
+
+            @Override
+            public void endTrace() {}
+        };
+    }
+
+    @Test
+    public void streamingPath_matchesTheMaterializedPath() {
+        for(long seed = 1; seed <= 10; ++seed) {
+            List<ContinuousTrace> traces = traces(seed);
+            List<byte[]> rows = new ArrayList<>();
+            for(ContinuousTrace trace : traces)
+                rows.add(TraceCodec.encode(trace));
+
+            // streaming: the rows, decoded one at a time, through the filter
+            final TraceStatistics statistics = new TraceStatistics();
+            final List<LocationColumns> streamed = new ArrayList<>();
+            final TracePointConsumer collector = collector(streamed);
+            GlitchFilter filter = new GlitchFilter(new TracePointConsumer() {
+                @Override
+                public void beginTrace() {
+                    statistics.beginTrace();
+                    collector.beginTrace();
+                }
+
+                @Override
+                public void accept(TracePoint point) {
+                    statistics.accept(point);
+                    collector.accept(point);
+                }
+
+                @Override
+                public void endTrace() {
+                    statistics.endTrace();
+                    collector.endTrace();
+                }
+            });
+            TracePointCursor cursor = new TracePointCursor(cursorOf(rows));
+            cursor.drainTo(filter);
+            cursor.close();
+
+            // materialized: the TracePool, filtered in place
+            TracePool tracePool = new TracePool(TIME, "", TRACE_POOL_ID, traces, true);
+            final int removed = tracePool.filter();
+
+            assertTrue(removed > 1);
+            assertEquals(removed, filter.getRemovedCount());
+            assertEquals(tracePool.getLocationCount(), statistics.getLocationCount());
+            assertEquals(tracePool.getLocations().size(), statistics.getLocationCount());
+            assertEquals(tracePool.getContinuousTraceCount(), statistics.getContinuousTraceCount());
+            assertEquals(tracePool.getLengthMeter(), statistics.getLengthMeter(), 0.0f);
+            assertEquals(tracePool.getTimeDuration(), statistics.getTimeDuration());
+
+            // the same points are kept, in the same traces
+            List<LocationColumns> expected = pointsOf(tracePool);
+            assertEquals(expected.size(), streamed.size());
+            double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+            double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+            for(int t = 0; t < expected.size(); ++t) {
+                LocationColumns e = expected.get(t), s = streamed.get(t);
+                assertEquals(e.size(), s.size());
+                for(int i = 0; i < e.size(); ++i) {
+                    assertEquals(e.getTime(i), s.getTime(i));
+                    assertEquals(e.getLatitude(i), s.getLatitude(i), 0.0);
+                    assertEquals(e.getLongitude(i), s.getLongitude(i), 0.0);
+                    minLatitude = Math.min(minLatitude, s.getLatitude(i));
+                    maxLatitude = Math.max(maxLatitude, s.getLatitude(i));
+                    minLongitude = Math.min(minLongitude, s.getLongitude(i));
+                    maxLongitude = Math.max(maxLongitude, s.getLongitude(i));
+                }
+                assertEquals(tracePool.getTraces().get(t).getFromTime(), s.getTime(0));
+                assertEquals(tracePool.getTraces().get(t).getToTime(), s.getTime(s.size() - 1));
+            }
+            LatLngBounds bounds = tracePool.getBounds();
+            assertEquals(bounds.southwest.latitude, minLatitude, 0.0);
+            assertEquals(bounds.southwest.longitude, minLongitude, 0.0);
+            assertEquals(bounds.northeast.latitude, maxLatitude, 0.0);
+            assertEquals(bounds.northeast.longitude, maxLongitude, 0.0);
+        }
+    }
+
+    @Test
+    public void rewindTrace_readsTheTraceAgain() {
+        List<byte[]> rows = new ArrayList<>();
+        for(ContinuousTrace trace : traces(11L))
+            rows.add(TraceCodec.encode(trace));
+        TracePointCursor cursor = new TracePointCursor(cursorOf(rows));
+        assertTrue(cursor.moveToNextTrace());
+        assertEquals(TRACE_POOL_ID, cursor.getTracePoolId());
+        assertEquals(TIME, cursor.getTracePoolTimestamp());
+        List<Long> times = new ArrayList<>();
+        while(cursor.moveToNextPoint())
+            times.add(cursor.getPoint().getTime());
+        cursor.rewindTrace();
+        for(Long time : times) {
+            assertTrue(cursor.moveToNextPoint());
+            assertEquals(time.longValue(), cursor.getPoint().getTime());
+        }
+        assertFalse(cursor.moveToNextPoint());
+        int traceCount = 1;
+        while(cursor.moveToNextTrace())
+            ++traceCount;
+        assertEquals(rows.size(), traceCount);
+        cursor.close();
+    }
+
+}
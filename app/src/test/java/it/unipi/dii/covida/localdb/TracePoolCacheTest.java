@@ -0,0 +1,145 @@
+package it.unipi.dii.covida.localdb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.unipi.dii.covida.locationstore.ContinuousTrace;
+import it.unipi.dii.covida.locationstore.LocationColumns;
+import it.unipi.dii.covida.locationstore.TraceCodec;
+import it.unipi.dii.covida.locationstore.TracePool;
+import it.unipi.dii.covida.locationstore.TracePyramid;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TracePoolCache.
+ */
+public class TracePoolCacheTest {
+
+    private static final long TIME = 1590000000000L;
+
+    /**
+     * A stopped TracePool with a single trace of the given number of points
+     */
+    private static TracePool tracePool(String tracePoolId, int size) {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < size; ++i)
+            columns.add(43.7228 + i * 1.0e-4, 10.4017, TIME + i * 5000L, "gps");
+        ContinuousTrace trace = TraceCodec.decodeTrace(tracePoolId, TraceCodec.encode(columns));
+        return new TracePool(TIME, "", tracePoolId, Collections.singletonList(trace), true);
+    }
+
+    private static List<TracePyramid> pyramids(TracePool tracePool) {
+        List<TracePyramid> pyramids = new ArrayList<>();
+        for(ContinuousTrace trace : tracePool.getTraces())
+            pyramids.add(TracePyramid.build(trace, pyramids.size()));
+        return pyramids;
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        TracePoolCache cache = new TracePoolCache(Integer.MAX_VALUE);
+        assertNull(cache.getTracePool("1-0"));
+        assertEquals(1, cache.getMissCount());
+
+        TracePool tracePool = tracePool("1-0", 10);
+        cache.putTracePool(tracePool, cache.getGeneration());
+        TracePool cached = cache.getTracePool("1-0");
+        assertNotNull(cached);
+        assertNotSame(tracePool, cached);
+        assertEquals(tracePool.getLocationCount(), cached.getLocationCount());
+        assertEquals(1, cache.getHitCount());
+
+        // the levels of detail are cached apart from the TracePool, for a given minimum level
+        assertNull(cache.getPyramids("1-0", 0));
+        cache.putPyramids("1-0", 0, pyramids(tracePool), cache.getGeneration());
+        assertNotNull(cache.getPyramids("1-0", 0));
+        assertNull(cache.getPyramids("1-0", 1));
+        assertNotNull(cache.getTracePool("1-0"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void get_returnsACopy() {
+        TracePoolCache cache = new TracePoolCache(Integer.MAX_VALUE);
+        cache.putTracePool(tracePool("1-0", 10), cache.getGeneration());
+        TracePool edited = cache.getTracePool("1-0");
+        edited.removeLocations(0, 0, 5);
+        assertEquals(5, edited.getLocationCount());
+        assertEquals(10, cache.getTracePool("1-0").getLocationCount());
+    }
+
+    @Test
+    public void invalidate_removesTheEntry() {
+        TracePoolCache cache = new TracePoolCache(Integer.MAX_VALUE);
+        cache.putTracePool(tracePool("1-0", 10), cache.getGeneration());
+        cache.putTracePool(tracePool("2-0", 10), cache.getGeneration());
+        final long generation = cache.getGeneration();
+        cache.invalidate("1-0");
+        assertTrue(cache.getGeneration() > generation);
+        assertNull(cache.getTracePool("1-0"));
+        assertNotNull(cache.getTracePool("2-0"));
+
+        cache.invalidateAll();
+        assertNull(cache.getTracePool("2-0"));
+        assertEquals(0, cache.getSizeBytes());
+        // invalidated, not evicted
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_dropsTheValuesReadBeforeAnInvalidation() {
+        TracePoolCache cache = new TracePoolCache(Integer.MAX_VALUE);
+        // a reader reads the generation, then the database...
+        final long generation = cache.getGeneration();
+        TracePool stale = tracePool("1-0", 10);
+        // ...while a writer commits and invalidates (any TracePool)...
+        cache.invalidate("2-0");
+        // ...so the version read can be the replaced one and it is not stored
+        cache.putTracePool(stale, generation);
+        cache.putPyramids("1-0", 0, pyramids(stale), generation);
+        assertNull(cache.getTracePool("1-0"));
+        assertNull(cache.getPyramids("1-0", 0));
+        assertEquals(0, cache.getSizeBytes());
+
+        cache.putTracePool(tracePool("1-0", 10), cache.getGeneration());
+        assertNotNull(cache.getTracePool("1-0"));
+    }
+
+    @Test
+    public void put_evictsTheLeastRecentlyUsed() {
+        // the cache stores copies: their size is measured on a cache large enough
+        TracePoolCache sizer = new TracePoolCache(Integer.MAX_VALUE);
+        sizer.putTracePool(tracePool("1-0", 100), sizer.getGeneration());
+        final int bytes = sizer.getSizeBytes();
+        TracePoolCache cache = new TracePoolCache(bytes * 2 + bytes / 2);
+        cache.putTracePool(tracePool("1-0", 100), cache.getGeneration());
+        cache.putTracePool(tracePool("2-0", 100), cache.getGeneration());
+        assertEquals(2 * bytes, cache.getSizeBytes());
+        // 1-0 is used again, so 2-0 is the least recently used
+        assertNotNull(cache.getTracePool("1-0"));
+        cache.putTracePool(tracePool("3-0", 100), cache.getGeneration());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.getTracePool("2-0"));
+        assertNotNull(cache.getTracePool("1-0"));
+        assertNotNull(cache.getTracePool("3-0"));
+        assertEquals(2 * bytes, cache.getSizeBytes());
+        assertTrue(cache.getSizeBytes() <= cache.getMaxSizeBytes());
+
+        // replacing an entry does not count its old size
+        cache.putTracePool(tracePool("3-0", 100), cache.getGeneration());
+        assertEquals(2 * bytes, cache.getSizeBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+        // an entry larger than the cache is not kept
+        cache.putTracePool(tracePool("4-0", 1000), cache.getGeneration());
+        assertNull(cache.getTracePool("4-0"));
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(4, cache.getEvictionCount());
+    }
+
+}
@@ -0,0 +1,103 @@
+package it.unipi.dii.covida.locationstore;
+
+import androidx.core.util.Pair;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the range removals of ContinuousTrace.
+ */
+public class ContinuousTraceTest {
+
+    private static final long TIME = 1590000000000L;
+
+    /**
+     * A trace of n points, one every 5 s
+     */
+    private static ContinuousTrace trace(int n) {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < n; ++i)
+            columns.add(43.7228 + i * 1.0e-4, 10.4017, TIME + i * 5000L, "gps");
+        return new ContinuousTrace("pool", columns);
+    }
+
+    private static void assertTimes(ContinuousTrace trace, int from, int to) {
+        assertEquals(to - from, trace.getLocationCount());
+        for(int i = 0; i < trace.getLocationCount(); ++i)
+            assertEquals(TIME + (from + i) * 5000L, trace.getColumns().getTime(i));
+    }
+
+    @Test
+    public void indexOfTime_returnsTheFirstPointAtOrAfterTheTime() {
+        LocationColumns columns = trace(10).getColumns();
+        assertEquals(0, columns.indexOfTime(Long.MIN_VALUE));
+        assertEquals(0, columns.indexOfTime(TIME));
+        assertEquals(1, columns.indexOfTime(TIME + 1));
+        assertEquals(3, columns.indexOfTime(TIME + 15000L));
+        assertEquals(9, columns.indexOfTime(TIME + 45000L));
+        assertEquals(10, columns.indexOfTime(TIME + 45001L));
+        assertEquals(0, new LocationColumns().indexOfTime(TIME));
+
+        // equal times: the first of them
+        LocationColumns repeated = new LocationColumns();
+        for(int i = 0; i < 6; ++i)
+            repeated.add(43.7228, 10.4017, TIME + (i / 2) * 1000L, "gps");
+        assertEquals(2, repeated.indexOfTime(TIME + 1000L));
+        assertEquals(4, repeated.indexOfTime(TIME + 1500L));
+    }
+
+    @Test
+    public void removeAndSplitRange_splitsAroundTheRange() {
+        ContinuousTrace trace = trace(10);
+        Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplitRange(3, 6);
+        assertTimes(pair.first, 0, 3);
+        assertTimes(pair.second, 6, 10);
+        // the trace itself is not changed
+        assertTimes(trace, 0, 10);
+
+        pair = trace.removeAndSplitRange(0, 10);
+        assertTrue(pair.first.isEmpty());
+        assertTrue(pair.second.isEmpty());
+
+        // an empty range removes nothing
+        pair = trace.removeAndSplitRange(4, 4);
+        assertTimes(pair.first, 0, 4);
+        assertTimes(pair.second, 4, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeAndSplitRange_rejectsAnInvertedRange() {
+        trace(10).removeAndSplitRange(6, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeAndSplitRange_rejectsARangeOutOfTheTrace() {
+        trace(10).removeAndSplitRange(5, 11);
+    }
+
+    @Test
+    public void removeAndSplitRange_byTime() {
+        ContinuousTrace trace = trace(10);
+        // [15 s, 30 s): the points 3, 4 and 5
+        Pair<ContinuousTrace, ContinuousTrace> pair = trace.removeAndSplitRange(TIME + 15000L, TIME + 30000L);
+        assertTimes(pair.first, 0, 3);
+        assertTimes(pair.second, 6, 10);
+
+        // between two points: nothing is removed
+        pair = trace.removeAndSplitRange(TIME + 16000L, TIME + 19000L);
+        assertTimes(pair.first, 0, 4);
+        assertTimes(pair.second, 4, 10);
+
+        // an inverted range removes nothing
+        pair = trace.removeAndSplitRange(TIME + 30000L, TIME + 15000L);
+        assertEquals(10, pair.first.getLocationCount() + pair.second.getLocationCount());
+
+        // a range that covers the end of the trace
+        pair = trace.removeAndSplitRange(TIME + 40000L, Long.MAX_VALUE);
+        assertTimes(pair.first, 0, 8);
+        assertTrue(pair.second.isEmpty());
+    }
+
+}
@@ -0,0 +1,190 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for DayDigest.
+ */
+public class DayDigestTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+    private static final long DAY = 18400L;
+
+    /**
+     * A day of points, one every 5 seconds between 8:00 and 20:00, walking randomly at 1.5 m/s
+     * around LATITUDE, LONGITUDE
+     */
+    private static List<TracePoint> walk(long day, long seed) {
+        Random random = new Random(seed);
+        List<TracePoint> points = new ArrayList<>();
+        double x = 0.0, y = 0.0, heading = 0.0;
+        for(long time = day * DayDigest.DAY_MILLIS + 8 * 3600000L; time < day * DayDigest.DAY_MILLIS + 20 * 3600000L; time += 5000L) {
+            heading += random.nextGaussian() * 0.3;
+            x = Math.max(-8000.0, Math.min(8000.0, x + 7.5 * Math.cos(heading)));
+            y = Math.max(-8000.0, Math.min(8000.0, y + 7.5 * Math.sin(heading)));
+            TracePoint point = new TracePoint();
+            point.set(LATITUDE + y / Geohash.METERS_PER_DEGREE,
+                    LONGITUDE + x / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE))), time, "gps");
+            points.add(point);
+        }
+        return points;
+    }
+
+    private static DayDigest digest(long day, List<TracePoint> points) {
+        DayDigest digest = new DayDigest(day);
+        digest.beginTrace();
+        for(TracePoint point : points)
+            digest.accept(point);
+        digest.endTrace();
+        return digest;
+    }
+
+    @Test
+    public void mightContain_hasNoFalseNegatives() {
+        List<TracePoint> points = walk(DAY, 1L);
+        DayDigest digest = digest(DAY, points);
+        for(TracePoint point : points)
+            assertTrue(digest.mightContain(point.getLatitude(), point.getLongitude(), point.getTime()));
+        assertFalse(digest.mightContain(LATITUDE, LONGITUDE, (DAY + 1) * DayDigest.DAY_MILLIS));
+        assertFalse(digest.add(LATITUDE, LONGITUDE, (DAY + 1) * DayDigest.DAY_MILLIS));
+        assertTrue(new DayDigest(DAY).isEmpty());
+    }
+
+    @Test
+    public void accept_addsTheBucketsOfACollapsedStay() {
+        // a stop of three hours across midnight, collapsed in two points at its centroid
+        final long arrival = (DAY + 1) * DayDigest.DAY_MILLIS - 90 * 60000L;
+        final long departure = arrival + 3 * 3600000L;
+        Random random = new Random(6L);
+        LocationColumns columns = new LocationColumns();
+        for(long time = arrival; time <= departure; time += 15000L)
+            columns.add(LATITUDE + random.nextGaussian() * 5.0 / Geohash.METERS_PER_DEGREE,
+                    LONGITUDE + random.nextGaussian() * 5.0 / Geohash.METERS_PER_DEGREE, time, "gps");
+        List<LocationColumns> traces = new ArrayList<>();
+        traces.add(columns);
+        TracePool tracePool = new TracePool(arrival, traces);
+        tracePool.collapseStays(TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION);
+        assertEquals(2, tracePool.getLocationCount());
+        final StayPoint stayPoint = tracePool.getStayPoints().get(0);
+
+        for(long day = DAY; day <= DAY + 1; ++day) {
+            DayDigest digest = new DayDigest(day);
+            tracePool.stream(digest);
+            for(long time = arrival; time <= departure; time += 60000L) {
+                if(DayDigest.dayOf(time) == day)
+                    assertTrue(digest.mightContain(stayPoint.getLatitude(), stayPoint.getLongitude(), time));
+            }
+        }
+    }
+
+    @Test
+    public void toByteArray_roundTrip() {
+        DayDigest digest = digest(DAY, walk(DAY, 2L));
+        DayDigest read = DayDigest.fromByteArray(digest.toByteArray());
+        assertEquals(DAY, read.getDay());
+        assertEquals(digest.getBitCount(), read.getBitCount());
+        assertEquals(digest.getHashCount(), read.getHashCount());
+        assertArrayEquals(digest.toByteArray(), read.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromByteArray_rejectsATruncatedDigest() {
+        byte[] bytes = new DayDigest(DAY).toByteArray();
+        byte[] truncated = new byte[bytes.length - 8];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        DayDigest.fromByteArray(truncated);
+    }
+
+    @Test
+    public void constructor_rejectsAnInvalidSize() {
+        final int[][] sizes = {{-64, 3}, {0, 3}, {100, 3}, {DayDigest.DEFAULT_BIT_COUNT, 0}, {DayDigest.DEFAULT_BIT_COUNT, 128}};
+        for(int[] size : sizes) {
+            try {
+                new DayDigest(DAY, size[0], size[1]);
+                fail("accepted " + size[0] + " bits and " + size[1] + " hashes");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void estimateIntersection_countsTheSharedTokens() {
+        List<TracePoint> mine = walk(DAY, 3L);
+        List<TracePoint> theirs = walk(DAY, 4L);
+        // two hours spent together
+        List<TracePoint> shared = mine.subList(1440, 2880);
+        theirs.addAll(shared);
+        DayDigest sharedDigest = digest(DAY, shared);
+        DayDigest a = digest(DAY, mine);
+        DayDigest b = digest(DAY, theirs);
+        final double expected = sharedDigest.estimateTokenCount();
+        assertEquals(expected, DayDigest.estimateIntersection(a, b), expected * 0.2);
+        DayDigest intersection = a.intersect(b);
+        for(TracePoint point : shared)
+            assertTrue(intersection.mightContain(point.getLatitude(), point.getLongitude(), point.getTime()));
+    }
+
+    @Test
+    public void fourteenDays_sizeFalsePositivesAndMatches() {
+        List<List<TracePoint>> days = new ArrayList<>();
+        List<DayDigest> mine = new ArrayList<>();
+        List<DayDigest> infected = new ArrayList<>();
+        for(int i = 0; i < 14; ++i) {
+            List<TracePoint> points = walk(DAY + i, 10L + i);
+            days.add(points);
+            mine.add(digest(DAY + i, points));
+            // a downloaded digest has the cells of many people: 20 walks, and one hour with the
+            // user on odd days, in a larger filter
+            DayDigest digest = new DayDigest(DAY + i, 8 * DayDigest.DEFAULT_BIT_COUNT, DayDigest.DEFAULT_HASH_COUNT);
+            for(int person = 0; person < 20; ++person) {
+                for(TracePoint point : walk(DAY + i, 1000L * i + person))
+                    digest.accept(point);
+            }
+            if(i % 2 == 1) {
+                for(TracePoint point : points.subList(2000, 2720))
+                    digest.accept(point);
+            }
+            infected.add(digest);
+        }
+
+        int bytes = 0;
+        for(int i = 0; i < 14; ++i)
+            bytes += mine.get(i).toByteArray().length;
+        // measured false positives: points far away from every walk
+        Random random = new Random(5L);
+        int falsePositives = 0, infectedFalsePositives = 0;
+        final int probes = 100000;
+        for(int i = 0; i < probes; ++i) {
+            final double latitude = LATITUDE + 1.0 + random.nextDouble(), longitude = LONGITUDE + random.nextDouble();
+            final long time = (DAY + i % 14) * DayDigest.DAY_MILLIS + (long) (random.nextDouble() * DayDigest.DAY_MILLIS);
+            if(mine.get(i % 14).mightContain(latitude, longitude, time))
+                ++falsePositives;
+            if(infected.get(i % 14).mightContain(latitude, longitude, time))
+                ++infectedFalsePositives;
+        }
+
+        // matching: every stored point against the downloaded digest of its day
+        int[] matches = new int[14];
+        for(int i = 0; i < 14; ++i) {
+            for(TracePoint point : days.get(i)) {
+                if(infected.get(i).mightContain(point.getLatitude(), point.getLongitude(), point.getTime()))
+                    ++matches[i];
+            }
+        }
+
+        assertEquals(14 * (DayDigest.DEFAULT_BIT_COUNT / 8 + 14), bytes);
+        assertTrue((double) falsePositives / probes < 0.001);
+        assertTrue((double) infectedFalsePositives / probes < 0.01);
+        for(int i = 1; i < 14; i += 2)
+            assertTrue(matches[i] >= 720);
+    }
+
+}
@@ -0,0 +1,156 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for DwellAggregator.
+ */
+public class DwellAggregatorTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+    private static final long DAY = 86400000L;
+    // 10:00 UTC
+    private static final long TIME = 18400L * DAY + 10 * 3600000L;
+
+    private static double latitudeOf(double y) {
+        return LATITUDE + y / Geohash.METERS_PER_DEGREE;
+    }
+
+    private static double longitudeOf(double x) {
+        return LONGITUDE + x / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    /**
+     * A round trip of 10 km towards east at 5 m/s with a stop of an hour at the far end, sampled
+     * every period milliseconds
+     */
+    private static void roundTrip(TracePointConsumer consumer, long start, long period) {
+        final long leg = 2000000L, stop = 3600000L;
+        TracePoint point = new TracePoint();
+        consumer.beginTrace();
+        for(long t = 0; t <= 2 * leg + stop; t += period) {
+            final long moving = t < leg ? t : t < leg + stop ? leg : 2 * leg + stop - t;
+            point.set(latitudeOf(0.0), longitudeOf(moving * 0.005), start + t, "gps");
+            consumer.accept(point);
+        }
+        consumer.endTrace();
+    }
+
+    private static Map<String, DwellCell> byCell(DwellAggregator aggregator) {
+        Map<String, DwellCell> cells = new HashMap<>();
+        for(DwellCell cell : aggregator.getCells())
+            cells.put(cell.getCell() + "@" + cell.getFromDay(), cell);
+        return cells;
+    }
+
+    @Test
+    public void dwell_addsUpToTheDurationAtEveryLevel() {
+        DwellAggregator aggregator = new DwellAggregator();
+        roundTrip(aggregator, TIME, 1000L);
+        long[] dwell = new long[Geohash.MAX_PRECISION + 1];
+        for(DwellCell cell : aggregator.getCells())
+            dwell[cell.getLevel()] += cell.getDwellMillis();
+        for(int level : DwellAggregator.DEFAULT_LEVELS)
+            assertEquals(2 * 2000000L + 3600000L, dwell[level]);
+        assertEquals(7601, aggregator.getPointCount());
+    }
+
+    @Test
+    public void visits_areCountedWhenACellIsEntered() {
+        DwellAggregator aggregator = new DwellAggregator(new int[]{7});
+        TracePoint point = new TracePoint();
+        final String home = Geohash.encode(latitudeOf(0.0), longitudeOf(0.0), 7);
+        aggregator.beginTrace();
+        // home, away, home again: two visits at home
+        for(int i = 0; i < 30; ++i) {
+            final double x = i >= 10 && i < 20 ? 2000.0 : 0.0;
+            point.set(latitudeOf(0.0), longitudeOf(x), TIME + i * 60000L, "gps");
+            aggregator.accept(point);
+        }
+        aggregator.endTrace();
+        // a second trace that starts at home is a third visit
+        aggregator.beginTrace();
+        point.set(latitudeOf(0.0), longitudeOf(0.0), TIME + DAY / 2, "gps");
+        aggregator.accept(point);
+        aggregator.endTrace();
+
+        int visits = 0;
+        long dwell = 0L;
+        for(DwellCell cell : aggregator.getCells()) {
+            if(cell.getCell().equals(home)) {
+                visits += cell.getVisits();
+                dwell += cell.getDwellMillis();
+            }
+        }
+        assertEquals(3, visits);
+        // 9 minutes, then half a minute on leaving, half a minute on coming back and 9 minutes more
+        assertEquals(19 * 60000L, dwell);
+    }
+
+    @Test
+    public void midnight_splitsTheDwellWithoutAVisit() {
+        DwellAggregator aggregator = new DwellAggregator(new int[]{6});
+        TracePoint point = new TracePoint();
+        final long midnight = 18401L * DAY;
+        aggregator.beginTrace();
+        for(long t = midnight - 3600000L; t <= midnight + 1800000L; t += 600000L) {
+            point.set(LATITUDE, LONGITUDE, t, "gps");
+            aggregator.accept(point);
+        }
+        aggregator.endTrace();
+        Map<String, DwellCell> cells = byCell(aggregator);
+        final String cell = Geohash.encode(LATITUDE, LONGITUDE, 6);
+        assertEquals(2, cells.size());
+        // the fix at midnight belongs to the new day
+        assertEquals(3300000L, cells.get(cell + "@18400").getDwellMillis());
+        assertEquals(1, cells.get(cell + "@18400").getVisits());
+        assertEquals(2100000L, cells.get(cell + "@18401").getDwellMillis());
+        assertEquals(0, cells.get(cell + "@18401").getVisits());
+    }
+
+    @Test
+    public void storedTracePool_hasTheSameAggregates() {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < 2000; ++i)
+            columns.add(latitudeOf(i * 0.37) + 3e-8, longitudeOf(i * 1.13) - 4e-8, TIME + i * 5000L, "gps");
+        ContinuousTrace trace = new ContinuousTrace("pool", columns);
+
+        DwellAggregator before = new DwellAggregator();
+        trace.stream(before);
+        DwellAggregator after = new DwellAggregator();
+        TraceCodec.decodeTrace("pool", TraceCodec.encode(trace)).stream(after);
+
+        Map<String, DwellCell> expected = byCell(before), actual = byCell(after);
+        assertEquals(expected.keySet(), actual.keySet());
+        for(Map.Entry<String, DwellCell> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().getDwellMillis(), actual.get(entry.getKey()).getDwellMillis());
+            assertEquals(entry.getValue().getVisits(), actual.get(entry.getKey()).getVisits());
+        }
+    }
+
+    @Test
+    public void aggregates_doNotGrowWithTheSamplingRate() {
+        // one row per cell crossed and day: 10 times the points give the same rows (a fix every
+        // minute is 300 m apart and skips some cells of the highest level)
+        int rows = -1;
+        for(long period : new long[]{1000L, 10000L, 60000L}) {
+            DwellAggregator aggregator = new DwellAggregator();
+            // a month of the same commute
+            for(int day = 0; day < 30; ++day)
+                roundTrip(aggregator, TIME + day * DAY, period);
+            if(rows == -1)
+                rows = aggregator.getCells().size();
+            else if(period == 10000L)
+                assertEquals(rows, aggregator.getCells().size());
+            else
+                assertTrue(aggregator.getCells().size() <= rows);
+        }
+    }
+
+}
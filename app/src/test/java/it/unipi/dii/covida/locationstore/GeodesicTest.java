@@ -0,0 +1,30 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for Geodesic.
+ */
+public class GeodesicTest {
+
+    @Test
+    public void distanceBetween_matchesTheReferenceDistances() {
+        // the example of Vincenty's paper: Flinders Peak to Buninyong, 54972.271 m
+        assertEquals(54972.271, Geodesic.distanceBetween(-37.95103342, 144.42486789, -37.65282114, 143.92649554), 0.01);
+        // a degree of latitude at the equator and at the pole
+        assertEquals(110574.4, Geodesic.distanceBetween(0.0, 10.0, 1.0, 10.0), 0.1);
+        assertEquals(111693.9, Geodesic.distanceBetween(89.0, 10.0, 90.0, 10.0), 0.1);
+    }
+
+    @Test
+    public void distanceBetween_isSymmetricAndZeroOnTheSamePoint() {
+        assertEquals(0.0f, Geodesic.distanceBetween(43.7228, 10.4017, 43.7228, 10.4017), 0.0f);
+        assertEquals(Geodesic.distanceBetween(43.7228, 10.4017, 43.7696, 11.2558),
+                Geodesic.distanceBetween(43.7696, 11.2558, 43.7228, 10.4017), 0.01f);
+        // about 10 meters northward, as the short steps of a trace
+        assertEquals(10.0, Geodesic.distanceBetween(43.7228, 10.4017, 43.7228 + 10.0 / 111132.0, 10.4017), 0.05);
+    }
+
+}
@@ -0,0 +1,64 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for Geohash.
+ */
+public class GeohashTest {
+
+    @Test
+    public void encode_knownValues() {
+        assertEquals("ezs42", Geohash.encode(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+        assertEquals("spz2", Geohash.encode(43.7228, 10.4017, 4));
+    }
+
+    @Test
+    public void decodeBounds_containsEncodedPoint() {
+        double latitude = 43.7228, longitude = 10.4017;
+        for(int precision = 1; precision <= Geohash.MAX_PRECISION; ++precision) {
+            String hash = Geohash.encode(latitude, longitude, precision);
+            double[] bounds = Geohash.decodeBounds(hash);
+            assertTrue(bounds[0] <= latitude && latitude < bounds[2]);
+            assertTrue(bounds[1] <= longitude && longitude < bounds[3]);
+            assertEquals(Geohash.cellHeight(precision), bounds[2] - bounds[0], 1e-12);
+            assertEquals(Geohash.cellWidth(precision), bounds[3] - bounds[1], 1e-12);
+        }
+    }
+
+    @Test
+    public void encode_nearbyPointsShareCell() {
+        String hash = Geohash.encode(43.7228, 10.4017, 7);
+        double[] bounds = Geohash.decodeBounds(hash);
+        double centerLatitude = (bounds[0] + bounds[2]) / 2, centerLongitude = (bounds[1] + bounds[3]) / 2;
+        assertEquals(hash, Geohash.encode(centerLatitude, centerLongitude, 7));
+        assertEquals(hash, Geohash.encode(centerLatitude + 0.0003, centerLongitude - 0.0003, 7));
+    }
+
+    @Test
+    public void cover_containsEveryPointOfTheRectangle() {
+        double minLatitude = 43.70, minLongitude = 10.38, maxLatitude = 43.73, maxLongitude = 10.42;
+        Set<String> cells = Geohash.cover(minLatitude, minLongitude, maxLatitude, maxLongitude, 6);
+        for(double latitude = minLatitude; latitude <= maxLatitude; latitude += 0.001) {
+            for(double longitude = minLongitude; longitude <= maxLongitude; longitude += 0.001)
+                assertTrue(cells.contains(Geohash.encode(latitude, longitude, 6)));
+        }
+        assertTrue(cells.contains(Geohash.encode(maxLatitude, maxLongitude, 6)));
+    }
+
+    @Test
+    public void coverCircle_respectsMaxCells() {
+        Set<String> cells = Geohash.coverCircle(43.7228, 10.4017, 50.0, 7, 16);
+        assertTrue(cells.size() <= 16);
+        assertTrue(cells.contains(Geohash.encode(43.7228, 10.4017, 7)));
+        cells = Geohash.coverCircle(43.7228, 10.4017, 20000.0, 7, 16);
+        assertTrue(cells.size() <= 16);
+        assertTrue(cells.iterator().next().length() < 7);
+    }
+
+}
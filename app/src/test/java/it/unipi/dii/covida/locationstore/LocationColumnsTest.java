@@ -0,0 +1,205 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LocationColumns.
+ */
+public class LocationColumnsTest {
+
+    private static final long TIME = 1590000000000L;
+    // a day sampled every 5 seconds
+    private static final int DAY_FIXES = 17280;
+
+    /**
+     * A store of n points: the point i is i * 1e-5 degrees north-west of (43, 10), sampled at TIME + i s
+     */
+    private static LocationColumns points(int n, String provider) {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < n; ++i)
+            columns.add(43.0 + i * 1e-5, 10.0 - i * 1e-5, TIME + i * 1000L, provider);
+        return columns;
+    }
+
+    private static void assertPoint(LocationColumns columns, int index, int point) {
+        assertEquals(43.0 + point * 1e-5, columns.getLatitude(index), 0.0);
+        assertEquals(10.0 - point * 1e-5, columns.getLongitude(index), 0.0);
+        assertEquals(TIME + point * 1000L, columns.getTime(index));
+    }
+
+    @Test
+    public void add_growsPastTheCapacity() {
+        LocationColumns columns = new LocationColumns(1);
+        final long emptyBytes = columns.estimateHeapBytes();
+        assertTrue(columns.isEmpty());
+        for(int i = 0; i < 1000; ++i)
+            columns.add(43.0 + i * 1e-5, 10.0 - i * 1e-5, TIME + i * 1000L, "gps");
+        assertEquals(1000, columns.size());
+        assertFalse(columns.isEmpty());
+        for(int i = 0; i < 1000; ++i)
+            assertPoint(columns, i, i);
+        assertTrue(columns.estimateHeapBytes() >= emptyBytes + 999L * 25L);
+
+        LocationColumns other = new LocationColumns(1);
+        other.add(columns, 500);
+        other.add(columns, 999);
+        assertEquals(2, other.size());
+        assertPoint(other, 0, 500);
+        assertPoint(other, 1, 999);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsAnIndexPastTheSize() {
+        // the capacity is larger than the size: the slots past the size are not points
+        LocationColumns columns = points(3, "gps");
+        columns.getTime(3);
+    }
+
+    @Test
+    public void remove_shiftsTheFollowingPoints() {
+        LocationColumns columns = points(10, "gps");
+        columns.remove(0);
+        columns.remove(4);
+        columns.remove(columns.size() - 1);
+        assertEquals(7, columns.size());
+        int[] left = {1, 2, 3, 4, 6, 7, 8};
+        for(int i = 0; i < left.length; ++i)
+            assertPoint(columns, i, left[i]);
+        try {
+            columns.remove(7);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+            assertEquals(7, columns.size());
+        }
+    }
+
+    @Test
+    public void removeRange_shiftsTheFollowingPoints() {
+        LocationColumns columns = points(10, "gps");
+        columns.removeRange(2, 5);
+        assertEquals(7, columns.size());
+        int[] left = {0, 1, 5, 6, 7, 8, 9};
+        for(int i = 0; i < left.length; ++i)
+            assertPoint(columns, i, left[i]);
+        // an empty range, then the tail
+        columns.removeRange(3, 3);
+        assertEquals(7, columns.size());
+        columns.removeRange(5, 7);
+        assertEquals(5, columns.size());
+        assertPoint(columns, 4, 7);
+        columns.removeRange(0, 5);
+        assertTrue(columns.isEmpty());
+        try {
+            columns.removeRange(0, 1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+            assertTrue(columns.isEmpty());
+        }
+    }
+
+    @Test
+    public void removeAll_keepsTheOrderOfTheOthers() {
+        LocationColumns columns = points(6, "gps");
+        assertEquals(3, columns.removeAll(new boolean[]{true, false, true, false, false, true}));
+        assertEquals(3, columns.size());
+        assertPoint(columns, 0, 1);
+        assertPoint(columns, 1, 3);
+        assertPoint(columns, 2, 4);
+    }
+
+    @Test
+    public void copyRange_andIndexOfTime() {
+        LocationColumns columns = points(10, "gps");
+        LocationColumns copy = columns.copyRange(3, 6);
+        assertEquals(3, copy.size());
+        assertPoint(copy, 0, 3);
+        assertPoint(copy, 2, 5);
+        // the copy is independent
+        columns.removeRange(0, 10);
+        assertPoint(copy, 1, 4);
+
+        columns = points(10, "gps");
+        assertEquals(0, columns.indexOfTime(TIME - 1L));
+        assertEquals(4, columns.indexOfTime(TIME + 4000L));
+        assertEquals(5, columns.indexOfTime(TIME + 4001L));
+        assertEquals(10, columns.indexOfTime(TIME + 10000L));
+    }
+
+    @Test
+    public void providers_areSharedThroughTheDictionary() {
+        LocationColumns columns = new LocationColumns();
+        columns.add(43.0, 10.0, TIME, "gps");
+        columns.add(43.0, 10.0, TIME + 1000L, "network");
+        columns.add(43.0, 10.0, TIME + 2000L, "gps");
+        columns.add(43.0, 10.0, TIME + 3000L, "LocationColumnsTest");
+        assertEquals("gps", columns.getProvider(0));
+        assertEquals("network", columns.getProvider(1));
+        assertEquals("gps", columns.getProvider(2));
+        assertEquals("LocationColumnsTest", columns.getProvider(3));
+
+        // the codes are process-wide: the same name has the same code in every store
+        final byte gps = LocationColumns.encodeProvider("gps");
+        assertEquals(gps, LocationColumns.encodeProvider("gps"));
+        assertNotEquals(gps, LocationColumns.encodeProvider("network"));
+        assertEquals("network", LocationColumns.decodeProvider(LocationColumns.encodeProvider("network")));
+        assertEquals("gps", points(1, "gps").getProvider(0));
+        // the provider is kept by add(other, index) and by the removals
+        LocationColumns other = new LocationColumns();
+        other.add(columns, 3);
+        columns.remove(0);
+        assertEquals("LocationColumnsTest", other.getProvider(0));
+        assertEquals("network", columns.getProvider(0));
+    }
+
+    /**
+     * A sampled point as an object, the representation replaced by LocationColumns
+     */
+    private static final class Fix {
+        final double latitude;
+        final double longitude;
+        final long time;
+        final String provider;
+
+        Fix(double latitude, double longitude, long time, String provider) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.time = time;
+            this.provider = provider;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; ++i)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void heapPerFix_dayOfFixes() {
+        long before = usedHeap();
+        LocationColumns columns = points(DAY_FIXES, "gps");
+        final double columnsBytes = (double) (usedHeap() - before) / DAY_FIXES;
+
+        before = usedHeap();
+        List<Fix> fixes = new ArrayList<>();
+        for(int i = 0; i < DAY_FIXES; ++i)
+            fixes.add(new Fix(43.0 + i * 1e-5, 10.0 - i * 1e-5, TIME + i * 1000L, "gps"));
+        final double objectBytes = (double) (usedHeap() - before) / DAY_FIXES;
+
+        System.out.println("LocationColumns: " + DAY_FIXES + " fixes, " + String.format("%.1f", columnsBytes)
+                + " bytes per fix (estimated " + String.format("%.1f", (double) columns.estimateHeapBytes() / DAY_FIXES)
+                + "); one object per fix: " + String.format("%.1f", objectBytes) + " bytes per fix");
+        assertEquals(DAY_FIXES, columns.size());
+        assertEquals(DAY_FIXES, fixes.size());
+        assertTrue(columnsBytes < objectBytes);
+    }
+
+}
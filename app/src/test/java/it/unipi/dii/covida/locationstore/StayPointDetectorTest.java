@@ -0,0 +1,280 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for StayPointDetector.
+ */
+public class StayPointDetectorTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+    private static final long TIME = 1590000000000L;
+    private static final long MINUTE = 60000L;
+
+    private final List<StayPoint> stayPoints = new ArrayList<>();
+    private final LocationColumns forwarded = new LocationColumns();
+    private final StayPointDetector detector = new StayPointDetector(TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION,
+            new TracePointConsumer() {
+                @Override
+                public void beginTrace() {}
+
+                @Override
+                public void accept(TracePoint point) {
+                    forwarded.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+                }
+
+                @Override
+                public void endTrace() {}
+            }, new StayPointDetector.OnStayPointListener() {
+                @Override
+                public void onStayPoint(StayPoint stayPoint) {
+                    stayPoints.add(stayPoint);
+                }
+            });
+
+    private static double latitudeOf(double y) {
+        return LATITUDE + y / Geohash.METERS_PER_DEGREE;
+    }
+
+    private static double longitudeOf(double x) {
+        return LONGITUDE + x / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    /**
+     * A simulated recording: walks along x and stops with the fixes wandering around the place,
+     * as they do indoors
+     */
+    private static final class Recorder {
+        final LocationColumns columns = new LocationColumns();
+        final Random random;
+        double x = 0.0;
+        long time = TIME;
+
+        Recorder(long seed) {
+            random = new Random(seed);
+        }
+
+        void walk(double meters, long period) {
+            for(double walked = 0.0; walked < meters; walked += 1.4 * period / 1000.0) {
+                x += 1.4 * period / 1000.0;
+                time += period;
+                columns.add(latitudeOf(random.nextGaussian()), longitudeOf(x), time, "gps");
+            }
+        }
+
+        void stop(long duration, long period, double jitter) {
+            for(long stopped = 0; stopped < duration; stopped += period) {
+                time += period;
+                columns.add(latitudeOf(random.nextGaussian() * jitter), longitudeOf(x + random.nextGaussian() * jitter), time, "gps");
+            }
+        }
+    }
+
+    private void detect(LocationColumns columns) {
+        TracePoint point = new TracePoint();
+        detector.beginTrace();
+        for(int i = 0; i < columns.size(); ++i) {
+            point.set(columns.getLatitude(i), columns.getLongitude(i), columns.getTime(i), columns.getProvider(i));
+            detector.accept(point);
+        }
+        detector.endTrace();
+    }
+
+    /**
+     * The same detection in batch: the classic stay point detection (every point within the radius
+     * of the first one), with the stays extended until two consecutive points are out of the
+     * radius of their centroid
+     * @return the arrival and the departure time of every stay
+     */
+    private static List<long[]> batchStays(LocationColumns columns, double radius, long minDuration) {
+        List<long[]> stays = new ArrayList<>();
+        int i = 0;
+        while(i < columns.size()) {
+            // the stay starts as soon as the points within the radius of the first one last minDuration
+            int j = i + 1;
+            boolean stay = false;
+            while(!stay && j < columns.size() && TraceSegmenter.distance(columns.getLatitude(i), columns.getLongitude(i),
+                    columns.getLatitude(j), columns.getLongitude(j)) <= radius)
+                stay = columns.getTime(j++) - columns.getTime(i) >= minDuration;
+            if(stay) {
+                double latitudeSum = 0.0, longitudeSum = 0.0;
+                int count = 0, last = j - 1;
+                for(int k = i; k < j; ++k) {
+                    latitudeSum += columns.getLatitude(k);
+                    longitudeSum += columns.getLongitude(k);
+                    ++count;
+                }
+                // a single point out of the radius does not end the stay
+                for(int k = j; k < columns.size(); ++k) {
+                    if(TraceSegmenter.distance(latitudeSum / count, longitudeSum / count, columns.getLatitude(k), columns.getLongitude(k)) <= radius) {
+                        latitudeSum += columns.getLatitude(k);
+                        longitudeSum += columns.getLongitude(k);
+                        ++count;
+                        last = k;
+                    } else if(k > last + 1) {
+                        break;
+                    }
+                }
+                j = last + 1;
+                stays.add(new long[]{columns.getTime(i), columns.getTime(last)});
+                i = j;
+            } else {
+                ++i;
+            }
+        }
+        return stays;
+    }
+
+    @Test
+    public void stop_isCollapsedInTwoPoints() {
+        Recorder recorder = new Recorder(1L);
+        recorder.walk(500.0, 5000L);
+        final long arrival = recorder.time;
+        final double place = recorder.x;
+        recorder.stop(20 * MINUTE, 5000L, 8.0);
+        final long departure = recorder.time;
+        recorder.walk(500.0, 5000L);
+        detect(recorder.columns);
+
+        assertEquals(1, stayPoints.size());
+        StayPoint stayPoint = stayPoints.get(0);
+        // the stay starts and ends with the points of the walk within the radius of the place
+        assertTrue(stayPoint.getArrivalTime() <= arrival && stayPoint.getArrivalTime() > arrival - MINUTE);
+        assertTrue(stayPoint.getDepartureTime() >= departure && stayPoint.getDepartureTime() < departure + MINUTE);
+        assertTrue(TraceSegmenter.distance(stayPoint.getLatitude(), stayPoint.getLongitude(), LATITUDE, longitudeOf(place)) < 10.0);
+        assertEquals(recorder.columns.size(), detector.getReceivedCount());
+        assertEquals(recorder.columns.size() - stayPoint.getPointCount() + 2, forwarded.size());
+        // the forwarded points are in order and the stay is at its centroid
+        for(int i = 1; i < forwarded.size(); ++i)
+            assertTrue(forwarded.getTime(i) > forwarded.getTime(i - 1));
+        final int stay = forwarded.indexOfTime(stayPoint.getArrivalTime());
+        assertEquals(stayPoint.getLatitude(), forwarded.getLatitude(stay), 0.0);
+        assertEquals(stayPoint.getDepartureTime(), forwarded.getTime(stay + 1));
+        assertEquals(stayPoint.getLongitude(), forwarded.getLongitude(stay + 1), 0.0);
+    }
+
+    @Test
+    public void shortStopsAndTwoPointStays_areForwardedAsTheyAre() {
+        LocationColumns columns = new LocationColumns();
+        long time = TIME;
+        // a car, 100 meters every 5 seconds
+        for(int i = 0; i < 20; ++i)
+            columns.add(LATITUDE, longitudeOf(i * 100.0), time += 5000L, "gps");
+        // a stop shorter than STAY_DURATION
+        for(int i = 0; i < 20; ++i)
+            columns.add(LATITUDE, longitudeOf(2000.0 + (i % 2) * 20.0), time += 10000L, "gps");
+        for(int i = 0; i < 20; ++i)
+            columns.add(LATITUDE, longitudeOf(2100.0 + i * 100.0), time += 5000L, "gps");
+        // no fix while the phone does not move (the smallest displacement of the live tracking)
+        columns.add(LATITUDE, longitudeOf(4000.0), time += 10 * MINUTE, "gps");
+        for(int i = 0; i < 20; ++i)
+            columns.add(LATITUDE, longitudeOf(4100.0 + i * 100.0), time += 5000L, "gps");
+        detect(columns);
+
+        assertEquals(1, stayPoints.size());
+        assertEquals(2, stayPoints.get(0).getPointCount());
+        assertEquals(10 * MINUTE, stayPoints.get(0).getDuration());
+        assertEquals(columns.size(), forwarded.size());
+        for(int i = 0; i < forwarded.size(); ++i) {
+            assertEquals(columns.getLongitude(i), forwarded.getLongitude(i), 0.0);
+            assertEquals(columns.getTime(i), forwarded.getTime(i));
+        }
+    }
+
+    @Test
+    public void stays_matchTheBatchDetection() {
+        for(long seed = 10; seed < 30; ++seed) {
+            Recorder recorder = new Recorder(seed);
+            for(int i = 0; i < 20; ++i) {
+                recorder.walk(50.0 + recorder.random.nextInt(400), 5000L);
+                recorder.stop(recorder.random.nextInt(15) * MINUTE, 5000L + recorder.random.nextInt(10000), 5.0 + recorder.random.nextInt(25));
+            }
+            stayPoints.clear();
+            forwarded.removeRange(0, forwarded.size());
+            detect(recorder.columns);
+
+            List<long[]> expected = batchStays(recorder.columns, TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION);
+            assertEquals(expected.size(), stayPoints.size());
+            for(int i = 0; i < expected.size(); ++i) {
+                assertEquals(expected.get(i)[0], stayPoints.get(i).getArrivalTime());
+                assertEquals(expected.get(i)[1], stayPoints.get(i).getDepartureTime());
+            }
+        }
+    }
+
+    @Test
+    public void tracePool_keepsItsStaysAndOriginalCount() {
+        Recorder recorder = new Recorder(3L);
+        recorder.walk(500.0, 5000L);
+        recorder.stop(30 * MINUTE, 5000L, 10.0);
+        recorder.walk(500.0, 5000L);
+        List<LocationColumns> traces = new ArrayList<>();
+        traces.add(recorder.columns);
+        TracePool tracePool = new TracePool(TIME, traces);
+        final int recorded = tracePool.getLocationCount();
+
+        final int collapsed = tracePool.collapseStays(TrackingRules.STAY_RADIUS, TrackingRules.STAY_DURATION);
+        assertEquals(1, tracePool.getStayPoints().size());
+        assertEquals(recorded - collapsed, tracePool.getLocationCount());
+        assertEquals(recorded, tracePool.getOriginalLocationCount());
+        tracePool.simplify(TrackingRules.MAX_DEVIATION);
+        assertEquals(recorded, tracePool.getOriginalLocationCount());
+        // the trace still goes from the arrival to the departure
+        StayPoint stayPoint = tracePool.getStayPoints().get(0);
+        ContinuousTrace trace = tracePool.getTraces().get(0);
+        assertTrue(trace.getFromTime() <= stayPoint.getArrivalTime() && stayPoint.getDepartureTime() <= trace.getToTime());
+    }
+
+    @Test
+    public void replayedDay_storesFewerPoints() {
+        // a day of nine stops, from 8 minutes to 4 hours, joined by walks, with the sampling of
+        // the live tracking (1 s on the long walks, 5 s on the short ones, 10-15 s when still)
+        // and the indoor jitter of the stops
+        Recorder recorder = new Recorder(4L);
+        final double[] stops = {20, 12, 8, 240, 60, 25, 180, 15, 30};
+        final double[] jitters = {10, 15, 15, 12, 10, 15, 12, 15, 10};
+        for(int i = 0; i < stops.length; ++i) {
+            recorder.walk(i % 3 == 1 ? 6000.0 : 800.0, i % 3 == 1 ? 1000L : 5000L);
+            recorder.stop((long) stops[i] * MINUTE, 10000L + (i % 2) * 5000L, jitters[i]);
+        }
+        final LocationColumns day = recorder.columns;
+
+        // before: the day simplified as it is
+        List<LocationColumns> traces = new ArrayList<>();
+        traces.add(day.copyRange(0, day.size()));
+        TracePool simplified = new TracePool(TIME, traces);
+        simplified.simplify(TrackingRules.MAX_DEVIATION);
+
+        // after: the day replayed through the import path, that collapses the stays
+        final List<TracePool> tracePools = new ArrayList<>();
+        TraceSegmenter segmenter = new TraceSegmenter(new TraceSegmenter.OnTracePoolListener() {
+            @Override
+            public void onTracePool(TracePool tracePool) {
+                tracePools.add(tracePool);
+            }
+        });
+        TracePoint point = new TracePoint();
+        segmenter.beginTrace();
+        for(int i = 0; i < day.size(); ++i) {
+            point.set(day.getLatitude(i), day.getLongitude(i), day.getTime(i), day.getProvider(i));
+            segmenter.accept(point);
+        }
+        segmenter.endTrace();
+        segmenter.flush();
+        int stored = 0, stays = 0;
+        for(TracePool tracePool : tracePools) {
+            stored += tracePool.getLocationCount();
+            stays += tracePool.getStayPoints().size();
+        }
+        assertEquals(stops.length, stays);
+        assertTrue(stored * 2 < simplified.getLocationCount());
+    }
+
+}
@@ -0,0 +1,86 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the binary trace format (TraceCodec).
+ */
+public class TraceCodecTest {
+
+    private static final double TOLERANCE = 0.5e-7;
+
+    /**
+     * Build a synthetic walk: one fix every 5 seconds, a few meters apart
+     */
+    private static LocationColumns walk(int points, long seed) {
+        Random random = new Random(seed);
+        LocationColumns columns = new LocationColumns(points);
+        double latitude = 43.7228, longitude = 10.4017;
+        long time = 1588000000000L;
+        for(int i = 0; i < points; ++i) {
+            columns.add(latitude, longitude, time, i % 100 == 99 ? "network" : "fused");
+            latitude += (random.nextDouble() - 0.5) * 2e-4;
+            longitude += (random.nextDouble() - 0.5) * 2e-4;
+            time += 5000 + random.nextInt(1000);
+        }
+        return columns;
+    }
+
+    private static void assertSamePoints(LocationColumns expected, LocationColumns actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), TOLERANCE);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), TOLERANCE);
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getProvider(i), actual.getProvider(i));
+        }
+    }
+
+    @Test
+    public void roundTrip_preservesPoints() {
+        for(int points : new int[]{1000, 17280, 100000}) {
+            LocationColumns original = walk(points, points);
+            byte[] encoded = TraceCodec.encode(original);
+            assertSamePoints(original, TraceCodec.decode(encoded));
+            // the JSON format used ~90 bytes per point
+            assertTrue("bytes per point: " + (double) encoded.length / points, encoded.length < points * 12);
+        }
+    }
+
+    @Test
+    public void roundTrip_emptyTrace() {
+        LocationColumns empty = new LocationColumns();
+        assertEquals(0, TraceCodec.decode(TraceCodec.encode(empty)).size());
+    }
+
+    @Test
+    public void roundTrip_extremeValues() {
+        LocationColumns columns = new LocationColumns();
+        columns.add(-90.0, -180.0, 0L, null);
+        columns.add(90.0, 180.0, Long.MAX_VALUE / 2, "gps");
+        columns.add(0.0, 0.0, 1L, "");
+        assertSamePoints(columns, TraceCodec.decode(TraceCodec.encode(columns)));
+    }
+
+    @Test
+    public void concatenatedFrames_decodeAsOneTrace() {
+        LocationColumns original = walk(500, 42L);
+        byte[] first = TraceCodec.encode(original, 0, 200);
+        byte[] second = TraceCodec.encode(original, 200, 500);
+        byte[] concatenated = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, concatenated, first.length, second.length);
+        assertSamePoints(original, TraceCodec.decode(concatenated));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedData() {
+        byte[] encoded = TraceCodec.encode(walk(10, 7L));
+        TraceCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+}
@@ -0,0 +1,173 @@
+package it.unipi.dii.covida.locationstore;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the running statistics of TracePool and ContinuousTrace: after random
+ * sequences of additions, removals and splits they must match the statistics recomputed from
+ * scratch on the points stored.
+ */
+public class TracePoolTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+
+    /**
+     * The statistics of a list of traces, recomputed from the points
+     */
+    private static class Naive {
+        int count;
+        double length;
+        double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+
+        void add(LocationColumns points) {
+            for(int i = 0; i < points.size(); ++i) {
+                minLatitude = Math.min(minLatitude, points.getLatitude(i));
+                maxLatitude = Math.max(maxLatitude, points.getLatitude(i));
+                minLongitude = Math.min(minLongitude, points.getLongitude(i));
+                maxLongitude = Math.max(maxLongitude, points.getLongitude(i));
+                if(i > 0)
+                    length += Geodesic.distanceBetween(points.getLatitude(i-1), points.getLongitude(i-1),
+                            points.getLatitude(i), points.getLongitude(i));
+            }
+            count += points.size();
+        }
+
+        void assertMatches(String message, int count, float length, LatLngBounds bounds) {
+            assertEquals(message, this.count, count);
+            // the running length is accumulated in float
+            assertEquals(message, this.length, length, 1.0e-3 + this.length * 1.0e-4);
+            if(this.count == 0) {
+                assertNull(message, bounds);
+                return;
+            }
+            assertEquals(message, minLatitude, bounds.southwest.latitude, 0.0);
+            assertEquals(message, minLongitude, bounds.southwest.longitude, 0.0);
+            assertEquals(message, maxLatitude, bounds.northeast.latitude, 0.0);
+            assertEquals(message, maxLongitude, bounds.northeast.longitude, 0.0);
+        }
+    }
+
+    private static void assertStatistics(String message, TracePool tracePool) {
+        Naive pool = new Naive();
+        List<ContinuousTrace> traces = tracePool.getTraces();
+        for(ContinuousTrace trace : traces) {
+            Naive naive = new Naive();
+            naive.add(trace.getColumns());
+            naive.assertMatches(message, trace.getLocationCount(), trace.getLengthMeter(), trace.getBounds());
+            pool.add(trace.getColumns());
+        }
+        pool.assertMatches(message, tracePool.getLocationCount(), tracePool.getLengthMeter(), tracePool.getBounds());
+        assertEquals(message, pool.count == 0, tracePool.isEmpty());
+        if(!traces.isEmpty())
+            assertEquals(message, traces.get(traces.size() - 1).getToTime() - traces.get(0).getFromTime(), tracePool.getTimeDuration());
+    }
+
+    /**
+     * A walk that stops for a while now and then (so there are stays to collapse) and with a
+     * glitch now and then (so there are points to filter)
+     */
+    private static class Walk {
+        final Random random;
+        double x, y;
+        long time = 1590000000000L;
+        boolean staying;
+
+        Walk(Random random) {
+            this.random = random;
+        }
+
+        void next(TracePool tracePool) {
+            if(random.nextInt(20) == 0)
+                staying = !staying;
+            double dx, dy;
+            if(staying) {
+                dx = random.nextGaussian() * 3.0;
+                dy = random.nextGaussian() * 3.0;
+            } else {
+                x += random.nextGaussian() * 10.0;
+                y += random.nextGaussian() * 10.0;
+                dx = dy = 0.0;
+            }
+            if(random.nextInt(30) == 0)
+                dy += 500.0 + random.nextDouble() * 500.0;
+            time += 5000L;
+            tracePool.addPoint(LATITUDE + (y + dy) / Geohash.METERS_PER_DEGREE, LONGITUDE + (x + dx) / Geohash.METERS_PER_DEGREE,
+                    time, "gps");
+        }
+    }
+
+    @Test
+    public void runningStatistics_matchTheRecomputedOnes() {
+        for(long seed = 1; seed <= 20; ++seed) {
+            Random random = new Random(seed);
+            Walk walk = new Walk(random);
+            TracePool tracePool = new TracePool();
+            for(int step = 0; step < 400; ++step) {
+                final int operation = random.nextInt(100);
+                String message = "seed " + seed + ", step " + step + ", operation " + operation;
+                if(operation < 70) {
+                    walk.next(tracePool);
+                } else if(operation < 75) {
+                    tracePool.stop();
+                } else if(operation < 83) {
+                    // the edits are done on stopped TracePools
+                    tracePool.stop();
+                    if(tracePool.getTraces().isEmpty())
+                        continue;
+                    int traceIndex = random.nextInt(tracePool.getContinuousTraceCount());
+                    int size = tracePool.getTraces().get(traceIndex).getLocationCount();
+                    int indexFrom = random.nextInt(size + 1);
+                    int indexTo = indexFrom + random.nextInt(size - indexFrom + 1);
+                    int before = tracePool.getLocationCount();
+                    int removed = tracePool.removeLocations(traceIndex, indexFrom, indexTo);
+                    assertEquals(message, before - tracePool.getLocationCount(), removed);
+                    assertTrue(message, removed >= indexTo - indexFrom);
+                } else if(operation < 88) {
+                    tracePool.stop();
+                    if(tracePool.isEmpty())
+                        continue;
+                    long fromTime = tracePool.getTraces().get(0).getFromTime();
+                    long duration = tracePool.getTimeDuration() + 1;
+                    long removeFrom = fromTime + (long) (random.nextDouble() * duration);
+                    long removeTo = removeFrom + (long) (random.nextDouble() * duration / 4);
+                    tracePool.removeLocations(removeFrom, removeTo);
+                    for(ContinuousTrace trace : tracePool.getTraces())
+                        assertTrue(message, trace.getToTime() < removeFrom || trace.getFromTime() >= removeTo);
+                } else if(operation < 92) {
+                    tracePool.stop();
+                    tracePool.filter();
+                } else if(operation < 95) {
+                    tracePool.stop();
+                    tracePool.simplify(5.0f);
+                } else if(operation < 98) {
+                    tracePool.stop();
+                    tracePool.collapseStays(20.0f, 60000L);
+                } else {
+                    tracePool = tracePool.copy();
+                }
+                assertStatistics(message, tracePool);
+            }
+        }
+    }
+
+    @Test
+    public void runningStatistics_ofAnEmptyTracePool() {
+        TracePool tracePool = new TracePool();
+        assertStatistics("new", tracePool);
+        tracePool.addPoint(LATITUDE, LONGITUDE, 1590000000000L, "gps");
+        tracePool.stop();
+        // a trace of a single point is dropped when the TracePool stops
+        assertStatistics("stopped", tracePool);
+        assertEquals(0, tracePool.getContinuousTraceCount());
+    }
+
+}
@@ -0,0 +1,102 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TracePyramid.
+ */
+public class TracePyramidTest {
+
+    private static ContinuousTrace randomWalk(int size, long seed) {
+        Random random = new Random(seed);
+        LocationColumns columns = new LocationColumns();
+        double latitude = 43.7228, longitude = 10.4017, heading = 0.0;
+        for(int i = 0; i < size; ++i) {
+            heading += random.nextGaussian() * 0.3;
+            latitude += Math.cos(heading) * 5.0 / Geohash.METERS_PER_DEGREE;
+            longitude += Math.sin(heading) * 5.0 / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            columns.add(latitude, longitude, 1590000000000L + i * 5000L, "gps");
+        }
+        return new ContinuousTrace("test", columns);
+    }
+
+    @Test
+    public void build_levelsGetSmaller() {
+        ContinuousTrace trace = randomWalk(17280, 3L);
+        TracePyramid pyramid = TracePyramid.build(trace, 2);
+        assertSame(trace.getColumns(), pyramid.getLevel(0));
+        assertEquals(2, pyramid.getTraceIndex());
+        assertEquals(2, pyramid.copy().getTraceIndex());
+        for(int level = 1; level < TracePyramid.LEVELS; ++level) {
+            LocationColumns columns = pyramid.getLevel(level);
+            assertTrue(columns.size() <= pyramid.getLevel(level - 1).size());
+            assertEquals(trace.getFromTime(), columns.getTime(0));
+            assertEquals(trace.getToTime(), columns.getTime(columns.size() - 1));
+        }
+        assertTrue(pyramid.getLevel(TracePyramid.LEVELS - 1).size() * 20 < trace.getLocationCount());
+    }
+
+    /**
+     * The distance in meters between a point and a segment, on a plane tangent at the point
+     */
+    private static double distanceToSegment(double latitude, double longitude, double fromLatitude, double fromLongitude,
+                                            double toLatitude, double toLongitude) {
+        final double metersPerDegreeLongitude = Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        final double ax = (fromLongitude - longitude) * metersPerDegreeLongitude, ay = (fromLatitude - latitude) * Geohash.METERS_PER_DEGREE;
+        final double bx = (toLongitude - longitude) * metersPerDegreeLongitude, by = (toLatitude - latitude) * Geohash.METERS_PER_DEGREE;
+        final double dx = bx - ax, dy = by - ay;
+        final double lengthSquared = dx * dx + dy * dy;
+        final double t = lengthSquared > 0.0 ? Math.max(0.0, Math.min(1.0, -(ax * dx + ay * dy) / lengthSquared)) : 0.0;
+        return Math.hypot(ax + t * dx, ay + t * dy);
+    }
+
+    @Test
+    public void build_everyLevelRespectsItsTolerance() {
+        for(long seed = 1L; seed <= 5L; ++seed) {
+            ContinuousTrace trace = randomWalk(5000, seed);
+            LocationColumns points = trace.getColumns();
+            TracePyramid pyramid = TracePyramid.build(trace, 0);
+            for(int level = 1; level < TracePyramid.LEVELS; ++level) {
+                LocationColumns kept = pyramid.getLevel(level);
+                // the kept points are a subsequence of the trace: walk both by time
+                int segment = 0;
+                for(int i = 0; i < points.size(); ++i) {
+                    while(segment + 2 < kept.size() && kept.getTime(segment + 1) <= points.getTime(i))
+                        ++segment;
+                    final double distance = distanceToSegment(points.getLatitude(i), points.getLongitude(i),
+                            kept.getLatitude(segment), kept.getLongitude(segment),
+                            kept.getLatitude(segment + 1), kept.getLongitude(segment + 1));
+                    assertTrue("seed " + seed + ", level " + level + ", point " + i + ": " + distance + " m",
+                            distance <= TracePyramid.TOLERANCES[level] + 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void build_keepsTheStraightLineEnds() {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < 100; ++i)
+            columns.add(43.0 + i * 1e-5, 10.0, i * 1000L, "gps");
+        TracePyramid pyramid = TracePyramid.build(new ContinuousTrace("test", columns), 0);
+        assertEquals(2, pyramid.getLevel(1).size());
+    }
+
+    @Test
+    public void levelFor_growsWithTheScale() {
+        assertEquals(0, TracePyramid.levelFor(0.5));
+        assertEquals(1, TracePyramid.levelFor(2.0));
+        assertEquals(TracePyramid.LEVELS - 1, TracePyramid.levelFor(10000.0));
+        int previous = 0;
+        for(double metersPerPixel = 0.1; metersPerPixel < 1000.0; metersPerPixel *= 1.5) {
+            int level = TracePyramid.levelFor(metersPerPixel);
+            assertTrue(level >= previous);
+            previous = level;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TraceSegmenter.
+ */
+public class TraceSegmenterTest {
+
+    private static final double METERS = 1.0 / Geohash.METERS_PER_DEGREE;
+
+    private final List<TracePool> tracePools = new ArrayList<>();
+    private final TraceSegmenter segmenter = new TraceSegmenter(new TraceSegmenter.OnTracePoolListener() {
+        @Override
+        public void onTracePool(TracePool tracePool) {
+            tracePools.add(tracePool);
+        }
+    });
+    private final TracePoint point = new TracePoint();
+    private double latitude = 43.7228;
+    private long time = 1590000000000L;
+
+    /**
+     * Send a point moved northward by the given meters after the given milliseconds
+     */
+    private void move(double meters, long millis) {
+        latitude += meters * METERS;
+        time += millis;
+        point.set(latitude, point.getLongitude(), time, "gps");
+        segmenter.accept(point);
+    }
+
+    private void walk(int points) {
+        // a zigzag, so that the simplification keeps every point
+        for(int i = 0; i < points; ++i) {
+            latitude += 10.0 * METERS;
+            time += 5000L;
+            point.set(latitude, 10.4017 + (i % 2) * 20.0 * METERS, time, "gps");
+            segmenter.accept(point);
+        }
+    }
+
+    @Test
+    public void accept_dropsClosePointsAndPointsBackInTime() {
+        segmenter.beginTrace();
+        walk(10);
+        move(TrackingRules.SENSITIVITY / 2, 5000L);
+        move(0.0, -60000L);
+        segmenter.endTrace();
+        segmenter.flush();
+        assertEquals(12, segmenter.getReceivedCount());
+        assertEquals(10, segmenter.getAcceptedCount());
+        assertEquals(1, tracePools.size());
+        assertEquals(10, tracePools.get(0).getOriginalLocationCount());
+    }
+
+    @Test
+    public void accept_gapsSplitTracesAndTracePools() {
+        segmenter.beginTrace();
+        walk(10);
+        time += TrackingRules.TRACE_GAP + 1;
+        walk(10);
+        time += TrackingRules.USER_TIMEOUT + 1;
+        walk(10);
+        segmenter.endTrace();
+        segmenter.flush();
+        assertEquals(2, tracePools.size());
+        assertEquals(2, tracePools.get(0).getContinuousTraceCount());
+        assertEquals(1, tracePools.get(1).getContinuousTraceCount());
+        assertEquals(tracePools.get(1).getTraces().get(0).getFromTime(), tracePools.get(1).getTimestamp());
+        assertNotEquals(tracePools.get(0).getId(), tracePools.get(1).getId());
+    }
+
+    /**
+     * Segment two TracePools and return their IDs
+     */
+    private List<String> segmentTwoTracePools() {
+        segmenter.beginTrace();
+        walk(10);
+        time += TrackingRules.USER_TIMEOUT + 1;
+        walk(10);
+        segmenter.endTrace();
+        segmenter.flush();
+        List<String> ids = new ArrayList<>();
+        for(TracePool tracePool : tracePools) {
+            assertEquals(tracePool.getTimestamp() + "-0", tracePool.getId());
+            ids.add(tracePool.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void tracePoolIds_dependOnlyOnTheFirstPoint() {
+        List<String> ids = segmentTwoTracePools();
+        // a live TracePool created in the meantime does not change the IDs of the import
+        new TracePool();
+        assertEquals(2, ids.size());
+        assertEquals(ids, new TraceSegmenterTest().segmentTwoTracePools());
+    }
+
+    @Test
+    public void endTrace_dropsSinglePointTraces() {
+        segmenter.beginTrace();
+        walk(1);
+        segmenter.endTrace();
+        segmenter.beginTrace();
+        walk(5);
+        segmenter.endTrace();
+        segmenter.beginTrace();
+        walk(1);
+        segmenter.endTrace();
+        segmenter.flush();
+        assertEquals(1, tracePools.size());
+        assertEquals(1, tracePools.get(0).getContinuousTraceCount());
+        assertEquals(5, tracePools.get(0).getOriginalLocationCount());
+    }
+
+    @Test
+    public void accept_splitsLargeTracePools() {
+        segmenter.beginTrace();
+        walk(TrackingRules.THRESHOLD_LOCATIONS + 100);
+        segmenter.endTrace();
+        segmenter.flush();
+        assertEquals(2, tracePools.size());
+        assertEquals(TrackingRules.THRESHOLD_LOCATIONS + 1, tracePools.get(0).getOriginalLocationCount());
+        assertEquals(99, tracePools.get(1).getOriginalLocationCount());
+    }
+
+}
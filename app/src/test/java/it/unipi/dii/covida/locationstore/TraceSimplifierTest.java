@@ -0,0 +1,143 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TraceSimplifier and ContinuousTrace::simplify().
+ */
+public class TraceSimplifierTest {
+
+    private static final float MAX_DEVIATION = 5.0f;
+
+    /**
+     * Build a trace moving at a constant speed along a polyline of legs with the given headings,
+     * with gaussian GPS noise
+     */
+    private static LocationColumns record(double speed, long interval, double legLength, double[] headings, double noise, long seed) {
+        Random random = new Random(seed);
+        LocationColumns columns = new LocationColumns();
+        double latitude = 43.7228, longitude = 10.4017;
+        long time = 1590000000000L;
+        final double metersPerDegreeLongitude = Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        for(double heading : headings) {
+            final double step = speed * interval / 1000.0;
+            for(double walked = 0.0; walked < legLength; walked += step) {
+                latitude += step * Math.cos(Math.toRadians(heading)) / Geohash.METERS_PER_DEGREE;
+                longitude += step * Math.sin(Math.toRadians(heading)) / metersPerDegreeLongitude;
+                time += interval;
+                columns.add(latitude + random.nextGaussian() * noise / Geohash.METERS_PER_DEGREE,
+                        longitude + random.nextGaussian() * noise / metersPerDegreeLongitude, time, "gps");
+            }
+        }
+        return columns;
+    }
+
+    private static LocationColumns walking() {
+        // 1.4 m/s, a fix every 5 seconds, a turn every 120 meters
+        return record(1.4, 5000L, 120.0, new double[]{0, 90, 0, 90, 180, 90, 45, 0, 270, 0}, 1.5, 1L);
+    }
+
+    private static LocationColumns driving() {
+        // 14 m/s, a fix every second, a turn every 800 meters
+        return record(14.0, 1000L, 800.0, new double[]{30, 35, 90, 95, 180, 120, 60}, 1.5, 2L);
+    }
+
+    /**
+     * Return the largest synchronized distance between the original points and the simplified trace
+     */
+    private static double maxError(LocationColumns original, LocationColumns simplified) {
+        double max = 0.0;
+        int segment = 0;
+        for(int i = 0; i < original.size(); ++i) {
+            final long time = original.getTime(i);
+            while(segment < simplified.size() - 2 && simplified.getTime(segment + 1) < time)
+                ++segment;
+            max = Math.max(max, TraceSimplifier.synchronizedDistance(
+                    original.getLatitude(i), original.getLongitude(i), time,
+                    simplified.getLatitude(segment), simplified.getLongitude(segment), simplified.getTime(segment),
+                    simplified.getLatitude(segment + 1), simplified.getLongitude(segment + 1), simplified.getTime(segment + 1)));
+        }
+        return max;
+    }
+
+    private static LocationColumns stream(LocationColumns original, float maxDeviation) {
+        final LocationColumns kept = new LocationColumns();
+        TraceSimplifier simplifier = new TraceSimplifier(maxDeviation, new TracePointConsumer() {
+            @Override
+            public void beginTrace() {}
+
+            @Override
+            public void accept(TracePoint point) {
+                kept.add(point.getLatitude(), point.getLongitude(), point.getTime(), point.getProvider());
+            }
+
+            @Override
+            public void endTrace() {}
+        });
+        TracePoint point = new TracePoint();
+        simplifier.beginTrace();
+        for(int i = 0; i < original.size(); ++i) {
+            point.set(original.getLatitude(i), original.getLongitude(i), original.getTime(i), original.getProvider(i));
+            simplifier.accept(point);
+        }
+        simplifier.endTrace();
+        assertEquals(original.size(), simplifier.getReceivedCount());
+        assertEquals(kept.size(), simplifier.getForwardedCount());
+        return kept;
+    }
+
+    @Test
+    public void simplify_walkingRespectsTheBound() {
+        LocationColumns original = walking();
+        ContinuousTrace trace = new ContinuousTrace("test", original.copyRange(0, original.size()));
+        int dropped = trace.simplify(MAX_DEVIATION);
+        LocationColumns simplified = trace.getColumns();
+
+        assertTrue(maxError(original, simplified) <= MAX_DEVIATION);
+        assertEquals(original.size(), trace.getOriginalLocationCount());
+        assertEquals(original.size() - dropped, trace.getLocationCount());
+        assertTrue("walking kept " + simplified.size() + " of " + original.size(), simplified.size() * 2 < original.size());
+    }
+
+    @Test
+    public void simplify_drivingRespectsTheBound() {
+        LocationColumns original = driving();
+        ContinuousTrace trace = new ContinuousTrace("test", original.copyRange(0, original.size()));
+        trace.simplify(MAX_DEVIATION);
+        LocationColumns simplified = trace.getColumns();
+
+        assertTrue(maxError(original, simplified) <= MAX_DEVIATION);
+        assertTrue("driving kept " + simplified.size() + " of " + original.size(), simplified.size() * 5 < original.size());
+    }
+
+    @Test
+    public void simplify_keepsTheEndpoints() {
+        LocationColumns original = driving();
+        ContinuousTrace trace = new ContinuousTrace("test", original.copyRange(0, original.size()));
+        trace.simplify(MAX_DEVIATION);
+        assertEquals(original.getTime(0), trace.getFromTime());
+        assertEquals(original.getTime(original.size() - 1), trace.getToTime());
+
+        ContinuousTrace shortTrace = new ContinuousTrace("test", original.copyRange(0, 2));
+        assertEquals(0, shortTrace.simplify(MAX_DEVIATION));
+        assertEquals(2, shortTrace.getLocationCount());
+    }
+
+    @Test
+    public void stream_matchesTheInMemorySimplification() {
+        LocationColumns original = walking();
+        ContinuousTrace trace = new ContinuousTrace("test", original.copyRange(0, original.size()));
+        trace.simplify(MAX_DEVIATION);
+        LocationColumns streamed = stream(original, MAX_DEVIATION);
+        LocationColumns simplified = trace.getColumns();
+
+        assertEquals(simplified.size(), streamed.size());
+        for(int i = 0; i < streamed.size(); ++i)
+            assertEquals(simplified.getTime(i), streamed.getTime(i));
+    }
+
+}
@@ -0,0 +1,161 @@
+package it.unipi.dii.covida.locationstore;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for VertexIndex.
+ */
+public class VertexIndexTest {
+
+    private static final double LATITUDE = 43.7228;
+    private static final double LONGITUDE = 10.4017;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final VertexIndex index;
+
+    /**
+     * A random walk of n vertices, 5 meters apart, around LATITUDE, LONGITUDE
+     */
+    public VertexIndexTest() {
+        this(20000);
+    }
+
+    private VertexIndexTest(int n) {
+        Random random = new Random(1L);
+        latitudes = new double[n];
+        longitudes = new double[n];
+        double x = 0.0, y = 0.0, heading = 0.0;
+        for(int i = 0; i < n; ++i) {
+            heading += random.nextGaussian() * 0.3;
+            x += 5.0 * Math.cos(heading);
+            y += 5.0 * Math.sin(heading);
+            latitudes[i] = LATITUDE + y / Geohash.METERS_PER_DEGREE;
+            longitudes[i] = LONGITUDE + x / (Geohash.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        }
+        index = new VertexIndex(latitudes, longitudes);
+    }
+
+    /**
+     * The distances of all the vertices from a point, sorted
+     */
+    private double[] sortedDistances(double latitude, double longitude) {
+        double[] distances = new double[latitudes.length];
+        for(int i = 0; i < latitudes.length; ++i)
+            distances[i] = index.distance(latitude, longitude, i);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    private double[] randomPoint(Random random) {
+        final int vertex = random.nextInt(latitudes.length);
+        return new double[]{latitudes[vertex] + (random.nextDouble() - 0.5) * 0.002,
+                longitudes[vertex] + (random.nextDouble() - 0.5) * 0.002};
+    }
+
+    @Test
+    public void nearest_matchesTheBruteForce() {
+        Random random = new Random(2L);
+        for(int probe = 0; probe < 200; ++probe) {
+            double[] point = randomPoint(random);
+            final int nearest = index.nearest(point[0], point[1]);
+            assertEquals(sortedDistances(point[0], point[1])[0], index.distance(point[0], point[1], nearest), 1e-9);
+        }
+        // a vertex is its own nearest vertex
+        assertEquals(1234, index.nearest(latitudes[1234], longitudes[1234]));
+        assertEquals(-1, new VertexIndex(new double[0], new double[0]).nearest(LATITUDE, LONGITUDE));
+    }
+
+    @Test
+    public void nearestK_returnsTheKNearestWithinTheRadius() {
+        Random random = new Random(3L);
+        for(int probe = 0; probe < 100; ++probe) {
+            double[] point = randomPoint(random);
+            double[] expected = sortedDistances(point[0], point[1]);
+            int[] nearest = index.nearest(point[0], point[1], 30, 50.0);
+            int expectedCount = 0;
+            while(expectedCount < 30 && expected[expectedCount] <= 50.0)
+                ++expectedCount;
+            assertEquals(expectedCount, nearest.length);
+            for(int i = 0; i < nearest.length; ++i)
+                assertEquals(expected[i], index.distance(point[0], point[1], nearest[i]), 1e-9);
+        }
+    }
+
+    @Test
+    public void of_indexesTheColumnsOfTheTrace() {
+        LocationColumns columns = new LocationColumns();
+        for(int i = 0; i < latitudes.length; ++i)
+            columns.add(latitudes[i], longitudes[i], 1590000000000L + i * 5000L, "gps");
+        VertexIndex traceIndex = VertexIndex.of(new ContinuousTrace("test", columns));
+        assertEquals(latitudes.length, traceIndex.size());
+        Random random = new Random(5L);
+        for(int probe = 0; probe < 100; ++probe) {
+            double[] point = randomPoint(random);
+            assertEquals(index.nearest(point[0], point[1]), traceIndex.nearest(point[0], point[1]));
+        }
+    }
+
+    @Test
+    public void within_returnsTheVerticesOfTheRectangle() {
+        final double minLatitude = LATITUDE - 0.002, maxLatitude = LATITUDE + 0.001;
+        final double minLongitude = LONGITUDE - 0.001, maxLongitude = LONGITUDE + 0.003;
+        int expected = 0;
+        for(int i = 0; i < latitudes.length; ++i) {
+            if(latitudes[i] >= minLatitude && latitudes[i] <= maxLatitude && longitudes[i] >= minLongitude && longitudes[i] <= maxLongitude)
+                ++expected;
+        }
+        int[] found = index.within(minLatitude, minLongitude, maxLatitude, maxLongitude, Integer.MAX_VALUE);
+        assertEquals(expected, found.length);
+        for(int vertex : found) {
+            assertTrue(latitudes[vertex] >= minLatitude - 1e-9 && latitudes[vertex] <= maxLatitude + 1e-9);
+            assertTrue(longitudes[vertex] >= minLongitude - 1e-9 && longitudes[vertex] <= maxLongitude + 1e-9);
+        }
+        assertEquals(Math.min(10, expected), index.within(minLatitude, minLongitude, maxLatitude, maxLongitude, 10).length);
+    }
+
+    /**
+     * The index of a long trace against the scan it replaced, to be run by hand (it reports the
+     * times; the results are checked against the brute force by the other tests)
+     */
+    @Ignore("benchmark")
+    @Test
+    public void longTrace_buildAndQuerySpeed() {
+        final int n = 200000;
+        long start = System.nanoTime();
+        VertexIndexTest trace = new VertexIndexTest(n);
+        final long buildMillis = (System.nanoTime() - start) / 1000000L;
+
+        Random random = new Random(4L);
+        double[][] points = new double[10000][];
+        for(int i = 0; i < points.length; ++i)
+            points[i] = trace.randomPoint(random);
+        start = System.nanoTime();
+        int markers = 0;
+        for(double[] point : points) {
+            trace.index.nearest(point[0], point[1]);
+            markers = Math.max(markers, trace.index.nearest(point[0], point[1], 30, 100.0).length);
+        }
+        final double queryMicros = (System.nanoTime() - start) / 1000.0 / points.length;
+
+        // the scan done before the index, for comparison
+        start = System.nanoTime();
+        for(int i = 0; i < 100; ++i) {
+            double best = Double.POSITIVE_INFINITY;
+            for(int vertex = 0; vertex < n; ++vertex)
+                best = Math.min(best, trace.index.distance(points[i][0], points[i][1], vertex));
+        }
+        final double scanMicros = (System.nanoTime() - start) / 1000.0 / 100;
+
+        System.out.println("VertexIndex: " + n + " vertices indexed in " + buildMillis + " ms; nearest + 30 nearest in "
+                + String.format("%.1f", queryMicros) + " us per tap (scan: " + String.format("%.0f", scanMicros) + " us), at most " + markers + " markers");
+        assertTrue(markers <= 30);
+    }
+
+}